@@ -65,6 +65,9 @@ public class MessagingConfig extends AbstractMessagingConfig {
     // JMS Settings: incoming signing server responses
     private static final String PROPERTY_NAME_JMS_SIGNING_SERVER_RESPONSES_QUEUE = "jms.signing.server.responses.queue";
 
+    // JMS Settings: signing server requests
+    private static final String PROPERTY_NAME_JMS_SIGNING_SERVER_REQUESTS_BYTES_MESSAGES = "jms.signing.server.requests.bytes.messages";
+
     @Resource
     private Environment environment;
 
@@ -202,7 +205,10 @@ public class MessagingConfig extends AbstractMessagingConfig {
 
     @Bean
     public SigningServerRequestMessageSender signingServerRequestMessageSender() {
-        return new SigningServerRequestMessageSender();
+        final SigningServerRequestMessageSender sender = new SigningServerRequestMessageSender();
+        sender.setBytesMessages(Boolean.parseBoolean(
+                this.environment.getRequiredProperty(PROPERTY_NAME_JMS_SIGNING_SERVER_REQUESTS_BYTES_MESSAGES)));
+        return sender;
     }
 
     // === JMS SETTINGS SIGNING SERVER RESPONSES ===
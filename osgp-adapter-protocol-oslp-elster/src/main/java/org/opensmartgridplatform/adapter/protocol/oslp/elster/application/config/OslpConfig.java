@@ -7,11 +7,17 @@
  */
 package org.opensmartgridplatform.adapter.protocol.oslp.elster.application.config;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.concurrent.Executors;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.lang3.StringUtils;
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
 import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelPipeline;
@@ -19,26 +25,52 @@ import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.execution.ExecutionHandler;
 import org.jboss.netty.handler.logging.LoggingHandler;
+import org.jboss.netty.handler.timeout.IdleStateHandler;
 import org.jboss.netty.logging.InternalLogLevel;
 import org.jboss.netty.logging.InternalLoggerFactory;
 import org.jboss.netty.logging.Slf4JLoggerFactory;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.context.annotation.PropertySources;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.EmbeddedOslpSigner;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpSigner;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.exceptions.ProtocolAdapterException;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging.JmsOslpSigner;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging.OslpSignerMetricsLogger;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging.SigningServerResponsesMessageListener;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.Netty4OslpSecurityHandler;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.Netty4OslpServer;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.Netty4OslpServerHandler;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpChannelHandlerClient;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpChannelHandlerServer;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpExecutionThreadPoolExecutor;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpIdleConnectionHandler;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpInFlightRequests;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpIoThreadPool;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpMetricsLogger;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpOutboundScheduler;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpPendingResponses;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpPublicKeyCache;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpResponseCache;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpSecurityHandler;
+import org.opensmartgridplatform.oslp.OslpBatchVerifier;
 import org.opensmartgridplatform.oslp.OslpDecoder;
 import org.opensmartgridplatform.oslp.OslpEncoder;
 import org.opensmartgridplatform.shared.application.config.AbstractConfig;
+import org.opensmartgridplatform.shared.exceptionhandling.EncrypterException;
+import org.opensmartgridplatform.shared.security.CertificateHelper;
 
 /**
  * An application context Java configuration class. The usage of Java
@@ -56,9 +88,55 @@ public class OslpConfig extends AbstractConfig {
 
     private static final String PROPERTY_NAME_OSLP_PORT_SERVER = "oslp.port.server";
 
+    private static final String PROPERTY_NAME_OSLP_CLIENT_BOSS_THREADS = "oslp.client.boss.threads";
+    private static final String PROPERTY_NAME_OSLP_CLIENT_WORKER_THREADS = "oslp.client.worker.threads";
+    private static final String PROPERTY_NAME_OSLP_SERVER_WORKER_THREADS = "oslp.server.worker.threads";
+
+    private static final String PROPERTY_NAME_OSLP_NETTY4_ENABLED = "oslp.netty4.enabled";
+    private static final String PROPERTY_NAME_OSLP_NETTY4_PORT_SERVER = "oslp.netty4.port.server";
+    private static final String PROPERTY_NAME_OSLP_NETTY4_EPOLL_ENABLED = "oslp.netty4.epoll.enabled";
+    private static final String PROPERTY_NAME_OSLP_NETTY4_WORKER_THREADS = "oslp.netty4.worker.threads";
+
+    private static final String PROPERTY_NAME_OSLP_DECODER_MAX_FRAME_LENGTH = "oslp.decoder.max.frame.length";
+    private static final String PROPERTY_NAME_OSLP_ENCODER_DIRECT_BUFFERS = "oslp.encoder.direct.buffers";
+
+    private static final String PROPERTY_NAME_OSLP_CONVERSATION_ENABLED = "oslp.conversation.enabled";
+    private static final String PROPERTY_NAME_OSLP_CONVERSATION_IDLE_TIMEOUT = "oslp.conversation.idle.timeout";
+
+    private static final String PROPERTY_NAME_OSLP_IDLE_TIMEOUT_READER = "oslp.idle.timeout.reader";
+    private static final String PROPERTY_NAME_OSLP_IDLE_TIMEOUT_WRITER = "oslp.idle.timeout.writer";
+    private static final String PROPERTY_NAME_OSLP_IDLE_TIMEOUT_ALL = "oslp.idle.timeout.all";
+
+    private static final String PROPERTY_NAME_OSLP_RESPONSE_TIMEOUT = "oslp.response.timeout";
+    private static final String PROPERTY_NAME_OSLP_RESPONSE_TIMEOUT_MESSAGE_TYPES = "oslp.response.timeout.message.types";
+
+    private static final String PROPERTY_NAME_OSLP_PENDING_RESPONSE_TIME_TO_LIVE = "oslp.pending.response.time.to.live";
+    private static final String PROPERTY_NAME_OSLP_RESPONSE_CACHE_TIME_TO_LIVE = "oslp.response.cache.time.to.live";
+    private static final String PROPERTY_NAME_OSLP_RESPONSE_CACHE_MAX_SIZE = "oslp.response.cache.max.size";
+
+    private static final String PROPERTY_NAME_OSLP_OUTBOUND_MAX_IN_FLIGHT = "oslp.outbound.max.in.flight";
+    private static final String PROPERTY_NAME_OSLP_OUTBOUND_SIGNING_TIMEOUT = "oslp.outbound.signing.timeout";
+
+    private static final String PROPERTY_NAME_OSLP_METRICS_LOG_INTERVAL = "oslp.metrics.log.interval";
+
+    private static final String PROPERTY_NAME_OSLP_EXECUTION_POOL_SIZE = "oslp.execution.pool.size";
+    private static final String PROPERTY_NAME_OSLP_EXECUTION_MAX_CHANNEL_MEMORY = "oslp.execution.max.channel.memory";
+    private static final String PROPERTY_NAME_OSLP_EXECUTION_MAX_TOTAL_MEMORY = "oslp.execution.max.total.memory";
+
     private static final String PROPERTY_NAME_OSLP_SECURITY_KEYTYPE = "oslp.security.keytype";
     private static final String PROPERTY_NAME_OSLP_SECURITY_SIGNATURE = "oslp.security.signature";
     private static final String PROPERTY_NAME_OSLP_SECURITY_PROVIDER = "oslp.security.provider";
+    private static final String PROPERTY_NAME_OSLP_SECURITY_PUBLIC_KEY_CACHE_SIZE = "oslp.security.public.key.cache.size";
+    private static final String PROPERTY_NAME_OSLP_SECURITY_PUBLIC_KEY_CACHE_TIME_TO_LIVE = "oslp.security.public.key.cache.time.to.live";
+    private static final String PROPERTY_NAME_OSLP_SECURITY_BATCH_VERIFICATION_ENABLED = "oslp.security.batch.verification.enabled";
+    private static final String PROPERTY_NAME_OSLP_SECURITY_BATCH_VERIFICATION_MAX_SIZE = "oslp.security.batch.verification.max.size";
+    private static final String PROPERTY_NAME_OSLP_SECURITY_BATCH_VERIFICATION_MAX_WAIT = "oslp.security.batch.verification.max.wait";
+    private static final String PROPERTY_NAME_OSLP_SECURITY_BATCH_VERIFICATION_PARALLELISM = "oslp.security.batch.verification.parallelism";
+    private static final String PROPERTY_NAME_OSLP_SIGNER = "oslp.signer";
+    private static final String PROPERTY_NAME_OSLP_SIGNER_JMS_BATCH_MAX_SIZE = "oslp.signer.jms.batch.max.size";
+    private static final String PROPERTY_NAME_OSLP_SIGNER_JMS_BATCH_MAX_WAIT = "oslp.signer.jms.batch.max.wait";
+    private static final String PROPERTY_NAME_OSLP_SIGNER_EMBEDDED_SIGNKEY_PATH = "oslp.signer.embedded.signkey.path";
+    private static final String PROPERTY_NAME_OSLP_SIGNER_METRICS_LOG_INTERVAL = "oslp.signer.metrics.log.interval";
     private static final String PROPERTY_NAME_OSLP_SEQUENCE_NUMBER_WINDOW = "oslp.sequence.number.window";
     private static final String PROPERTY_NAME_OSLP_SEQUENCE_NUMBER_MAXIMUM = "oslp.sequence.number.maximum";
 
@@ -72,8 +150,9 @@ public class OslpConfig extends AbstractConfig {
     @Bean(destroyMethod = "releaseExternalResources")
     public ClientBootstrap clientBootstrap() {
         InternalLoggerFactory.setDefaultFactory(new Slf4JLoggerFactory());
-        final ChannelFactory factory = new NioClientSocketChannelFactory(Executors.newCachedThreadPool(),
-                Executors.newCachedThreadPool());
+        final ChannelFactory factory = new NioClientSocketChannelFactory(this.oslpClientBossPool(),
+                this.oslpClientWorkerPool(), this.oslpClientBossPool().getCorePoolSize(),
+                this.oslpClientWorkerPool().getCorePoolSize());
 
         final ChannelPipelineFactory pipelineFactory = new ChannelPipelineFactory() {
             @Override
@@ -100,8 +179,8 @@ public class OslpConfig extends AbstractConfig {
 
     @Bean(destroyMethod = "releaseExternalResources")
     public ServerBootstrap serverBootstrap() {
-        final ChannelFactory factory = new NioServerSocketChannelFactory(Executors.newCachedThreadPool(),
-                Executors.newCachedThreadPool());
+        final ChannelFactory factory = new NioServerSocketChannelFactory(this.oslpServerBossPool(),
+                this.oslpServerWorkerPool(), this.oslpServerWorkerPool().getCorePoolSize());
 
         final ServerBootstrap bootstrap = new ServerBootstrap(factory);
 
@@ -125,13 +204,92 @@ public class OslpConfig extends AbstractConfig {
         return bootstrap;
     }
 
+    // === Netty 3 boss and worker threads ===
+
+    @Bean
+    public OslpIoThreadPool oslpClientBossPool() {
+        return new OslpIoThreadPool("oslp-client-boss",
+                this.ioThreads(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_CLIENT_BOSS_THREADS)));
+    }
+
+    @Bean
+    public OslpIoThreadPool oslpClientWorkerPool() {
+        return new OslpIoThreadPool("oslp-client-worker",
+                this.ioThreads(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_CLIENT_WORKER_THREADS)));
+    }
+
+    /**
+     * The server bootstrap binds one port, which needs a single boss thread.
+     */
+    @Bean
+    public OslpIoThreadPool oslpServerBossPool() {
+        return new OslpIoThreadPool("oslp-server-boss", 1);
+    }
+
+    @Bean
+    public OslpIoThreadPool oslpServerWorkerPool() {
+        return new OslpIoThreadPool("oslp-server-worker",
+                this.ioThreads(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_SERVER_WORKER_THREADS)));
+    }
+
+    /**
+     * @return the configured number of threads, or the number of cores when 0
+     *         is configured.
+     */
+    private int ioThreads(final String threads) {
+        final int configuredThreads = Integer.parseInt(threads);
+        return configuredThreads > 0 ? configuredThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Netty 4 server for devices, started next to the Netty 3 server when
+     * enabled.
+     */
+    @Bean(destroyMethod = "stop")
+    public Netty4OslpServer netty4OslpServer() throws InterruptedException {
+        final Netty4OslpServer server = new Netty4OslpServer(
+                new Netty4OslpSecurityHandler(this.oslpSecurityHandler()),
+                new Netty4OslpServerHandler(this.oslpChannelHandlerServer(), this.oslpPendingResponses()));
+        server.setPort(Integer.parseInt(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_NETTY4_PORT_SERVER)));
+        server.setEpollEnabled(
+                Boolean.parseBoolean(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_NETTY4_EPOLL_ENABLED)));
+        server.setWorkerThreads(
+                Integer.parseInt(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_NETTY4_WORKER_THREADS)));
+        server.setExecutionThreads(
+                Integer.parseInt(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_EXECUTION_POOL_SIZE)));
+        server.setMaxFrameLength(this.oslpMaxFrameLength());
+        server.setSignature(this.oslpSignature());
+        server.setProvider(this.oslpSignatureProvider());
+        server.setIdleTimes(this.oslpIdleTimeout(PROPERTY_NAME_OSLP_IDLE_TIMEOUT_READER),
+                this.oslpIdleTimeout(PROPERTY_NAME_OSLP_IDLE_TIMEOUT_WRITER),
+                this.oslpIdleTimeout(PROPERTY_NAME_OSLP_IDLE_TIMEOUT_ALL));
+
+        if (Boolean.parseBoolean(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_NETTY4_ENABLED))) {
+            server.start();
+        }
+        return server;
+    }
+
     private ChannelPipeline createChannelPipeline(final ChannelHandler handler) throws ProtocolAdapterException {
         final ChannelPipeline pipeline = Channels.pipeline();
 
         pipeline.addLast("loggingHandler", new LoggingHandler(InternalLogLevel.INFO, false));
 
-        pipeline.addLast("oslpEncoder", new OslpEncoder());
-        pipeline.addLast("oslpDecoder", new OslpDecoder(this.oslpSignature(), this.oslpSignatureProvider()));
+        final long readerIdleTime = this.oslpIdleTimeout(PROPERTY_NAME_OSLP_IDLE_TIMEOUT_READER);
+        final long writerIdleTime = this.oslpIdleTimeout(PROPERTY_NAME_OSLP_IDLE_TIMEOUT_WRITER);
+        final long allIdleTime = this.oslpIdleTimeout(PROPERTY_NAME_OSLP_IDLE_TIMEOUT_ALL);
+        if (readerIdleTime > 0 || writerIdleTime > 0 || allIdleTime > 0) {
+            pipeline.addLast("idleStateHandler", new IdleStateHandler(this.oslpTimer(), readerIdleTime,
+                    writerIdleTime, allIdleTime, TimeUnit.MILLISECONDS));
+            pipeline.addLast("oslpIdleConnectionHandler", this.oslpIdleConnectionHandler());
+        }
+
+        pipeline.addLast("oslpEncoder", this.createOslpEncoder());
+        pipeline.addLast("oslpDecoder", new OslpDecoder(this.oslpSignature(), this.oslpSignatureProvider(),
+                this.oslpMaxFrameLength()));
+        // Verification and handling of messages run on the execution pool,
+        // instead of on the I/O threads.
+        pipeline.addLast("oslpExecution", this.oslpExecutionHandler());
         pipeline.addLast("oslpSecurity", this.oslpSecurityHandler());
 
         pipeline.addLast("oslpChannelHandler", handler);
@@ -139,14 +297,95 @@ public class OslpConfig extends AbstractConfig {
         return pipeline;
     }
 
+    private long oslpIdleTimeout(final String propertyName) {
+        return Long.parseLong(this.environment.getRequiredProperty(propertyName));
+    }
+
+    @Bean
+    public OslpIdleConnectionHandler oslpIdleConnectionHandler() {
+        return new OslpIdleConnectionHandler();
+    }
+
+    @Bean(destroyMethod = "releaseExternalResources")
+    public ExecutionHandler oslpExecutionHandler() {
+        return new ExecutionHandler(this.oslpExecutionThreadPoolExecutor());
+    }
+
+    @Bean
+    public OslpExecutionThreadPoolExecutor oslpExecutionThreadPoolExecutor() {
+        final int poolSize = Integer
+                .parseInt(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_EXECUTION_POOL_SIZE));
+        final long maxChannelMemorySize = Long
+                .parseLong(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_EXECUTION_MAX_CHANNEL_MEMORY));
+        final long maxTotalMemorySize = Long
+                .parseLong(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_EXECUTION_MAX_TOTAL_MEMORY));
+
+        return new OslpExecutionThreadPoolExecutor(poolSize, maxChannelMemorySize, maxTotalMemorySize,
+                new CustomizableThreadFactory("oslp-execution-"));
+    }
+
+    private OslpEncoder createOslpEncoder() {
+        if (this.oslpEncoderDirectBuffers()) {
+            return new OslpEncoder(DirectChannelBufferFactory.getInstance());
+        }
+        return new OslpEncoder();
+    }
+
     @Bean
     public OslpSecurityHandler oslpSecurityHandler() {
-        return new OslpSecurityHandler();
+        final OslpSecurityHandler oslpSecurityHandler = new OslpSecurityHandler();
+        if (Boolean.parseBoolean(
+                this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_SECURITY_BATCH_VERIFICATION_ENABLED))) {
+            oslpSecurityHandler.setBatchVerifier(this.oslpBatchVerifier());
+        }
+        return oslpSecurityHandler;
+    }
+
+    /**
+     * Lazy, so the verifier and its threads are only created when batch
+     * verification is enabled.
+     */
+    @Bean(destroyMethod = "shutdown")
+    @Lazy
+    public OslpBatchVerifier oslpBatchVerifier() {
+        final int maxBatchSize = Integer.parseInt(
+                this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_SECURITY_BATCH_VERIFICATION_MAX_SIZE));
+        final long maxWaitMillis = Long.parseLong(
+                this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_SECURITY_BATCH_VERIFICATION_MAX_WAIT));
+        int parallelism = Integer.parseInt(
+                this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_SECURITY_BATCH_VERIFICATION_PARALLELISM));
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+
+        LOGGER.info("Verifying OSLP messages in batches of at most {} messages, waiting at most {} ms, using {} threads",
+                maxBatchSize, maxWaitMillis, parallelism);
+
+        return new OslpBatchVerifier(maxBatchSize, maxWaitMillis, parallelism);
+    }
+
+    @Bean
+    public OslpPublicKeyCache oslpPublicKeyCache() {
+        return new OslpPublicKeyCache(
+                Integer.parseInt(
+                        this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_SECURITY_PUBLIC_KEY_CACHE_SIZE)),
+                Long.parseLong(this.environment
+                        .getRequiredProperty(PROPERTY_NAME_OSLP_SECURITY_PUBLIC_KEY_CACHE_TIME_TO_LIVE)));
     }
 
     @Bean
     public OslpDecoder oslpDecoder() throws ProtocolAdapterException {
-        return new OslpDecoder(this.oslpSignature(), this.oslpSignatureProvider());
+        return new OslpDecoder(this.oslpSignature(), this.oslpSignatureProvider(), this.oslpMaxFrameLength());
+    }
+
+    @Bean
+    public int oslpMaxFrameLength() {
+        return Integer.parseInt(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_DECODER_MAX_FRAME_LENGTH));
+    }
+
+    @Bean
+    public boolean oslpEncoderDirectBuffers() {
+        return Boolean.parseBoolean(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_ENCODER_DIRECT_BUFFERS));
     }
 
     @Bean
@@ -164,6 +403,49 @@ public class OslpConfig extends AbstractConfig {
         return this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_SECURITY_SIGNATURE);
     }
 
+    /**
+     * Signer of the envelopes sent to devices: the signing server (jms), or an
+     * in process signer using a locally loaded private key (embedded). The
+     * batching JMS signer is shut down by its inferred destroy method.
+     */
+    @Bean
+    public OslpSigner oslpSigner() throws ProtocolAdapterException {
+        final String signer = this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_SIGNER);
+        if ("jms".equals(signer)) {
+            final int maxBatchSize = Integer
+                    .parseInt(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_SIGNER_JMS_BATCH_MAX_SIZE));
+            final long maxWaitMillis = Long
+                    .parseLong(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_SIGNER_JMS_BATCH_MAX_WAIT));
+            if (maxBatchSize > 1) {
+                LOGGER.info("Sending OSLP envelopes to the signing server in batches of at most {} envelopes, "
+                        + "waiting at most {} ms", maxBatchSize, maxWaitMillis);
+            }
+            return new JmsOslpSigner(maxBatchSize, maxWaitMillis);
+        }
+        if (!"embedded".equals(signer)) {
+            throw new ProtocolAdapterException("Unknown OSLP signer '" + signer + "' in " + PROPERTY_NAME_OSLP_SIGNER);
+        }
+
+        final String signKeyPath = this.environment
+                .getRequiredProperty(PROPERTY_NAME_OSLP_SIGNER_EMBEDDED_SIGNKEY_PATH);
+        LOGGER.info("Signing OSLP envelopes in process, using private key {}", signKeyPath);
+        try {
+            return new EmbeddedOslpSigner(
+                    CertificateHelper.createPrivateKey(signKeyPath, this.oslpKeyType(), this.oslpSignatureProvider()),
+                    this.oslpSignature(), this.oslpSignatureProvider());
+        } catch (EncrypterException | IOException e) {
+            throw new ProtocolAdapterException("Error creating private key of embedded OSLP signer", e);
+        }
+    }
+
+    @Bean(destroyMethod = "stop")
+    public OslpSignerMetricsLogger oslpSignerMetricsLogger(
+            final SigningServerResponsesMessageListener signingServerResponsesMessageListener)
+            throws ProtocolAdapterException {
+        return new OslpSignerMetricsLogger(this.oslpSigner(), signingServerResponsesMessageListener, Long
+                .parseLong(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_SIGNER_METRICS_LOG_INTERVAL)));
+    }
+
     @Bean
     public int connectionTimeout() {
         return Integer.parseInt(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_TIMEOUT_CONNECT));
@@ -191,7 +473,81 @@ public class OslpConfig extends AbstractConfig {
 
     @Bean
     public OslpChannelHandlerClient oslpChannelHandlerClient() {
-        return new OslpChannelHandlerClient();
+        final OslpChannelHandlerClient oslpChannelHandlerClient = new OslpChannelHandlerClient();
+        oslpChannelHandlerClient.setConversationEnabled(
+                Boolean.parseBoolean(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_CONVERSATION_ENABLED)));
+        oslpChannelHandlerClient.setConversationIdleTimeout(
+                Long.parseLong(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_CONVERSATION_IDLE_TIMEOUT)));
+        return oslpChannelHandlerClient;
+    }
+
+    @Bean
+    public OslpInFlightRequests oslpInFlightRequests() {
+        return new OslpInFlightRequests(this.oslpTimer(), this.oslpExecutionThreadPoolExecutor(),
+                Long.parseLong(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_RESPONSE_TIMEOUT)),
+                this.responseTimeoutsByMessageType());
+    }
+
+    /**
+     * Parses the response timeouts of message types, configured as a comma
+     * separated list of MESSAGE_TYPE:timeout entries.
+     */
+    private Map<String, Long> responseTimeoutsByMessageType() {
+        final Map<String, Long> responseTimeouts = new HashMap<>();
+        final String property = this.environment.getProperty(PROPERTY_NAME_OSLP_RESPONSE_TIMEOUT_MESSAGE_TYPES, "");
+        for (final String entry : StringUtils.split(property, ',')) {
+            final String[] messageTypeAndTimeout = StringUtils.split(entry, ':');
+            if (messageTypeAndTimeout.length != 2) {
+                throw new IllegalArgumentException("Invalid response timeout '" + entry + "' in "
+                        + PROPERTY_NAME_OSLP_RESPONSE_TIMEOUT_MESSAGE_TYPES);
+            }
+            responseTimeouts.put(messageTypeAndTimeout[0].trim(), Long.parseLong(messageTypeAndTimeout[1].trim()));
+        }
+        return responseTimeouts;
+    }
+
+    @Bean
+    public OslpPendingResponses oslpPendingResponses() {
+        return new OslpPendingResponses(this.oslpTimer(), Long.parseLong(
+                this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_PENDING_RESPONSE_TIME_TO_LIVE)));
+    }
+
+    @Bean
+    public OslpResponseCache oslpResponseCache() {
+        return new OslpResponseCache(
+                Long.parseLong(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_RESPONSE_CACHE_TIME_TO_LIVE)),
+                Long.parseLong(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_PENDING_RESPONSE_TIME_TO_LIVE)),
+                Integer.parseInt(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_RESPONSE_CACHE_MAX_SIZE)));
+    }
+
+    @Bean
+    public OslpOutboundScheduler oslpOutboundScheduler() {
+        return new OslpOutboundScheduler(
+                Integer.parseInt(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_OUTBOUND_MAX_IN_FLIGHT)),
+                this.oslpTimer());
+    }
+
+    @Bean
+    public long oslpOutboundSigningTimeout() {
+        return Long.parseLong(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_OUTBOUND_SIGNING_TIMEOUT));
+    }
+
+    @Bean(destroyMethod = "stop")
+    public OslpMetricsLogger oslpMetricsLogger() {
+        return new OslpMetricsLogger(this.oslpChannelHandlerClient(), this.oslpOutboundScheduler(),
+                this.oslpInFlightRequests(), this.oslpIdleConnectionHandler(), this.oslpExecutionThreadPoolExecutor(),
+                this.oslpPublicKeyCache(), this.oslpResponseCache(), this.oslpPendingResponses(),
+                Arrays.asList(this.oslpClientBossPool(), this.oslpClientWorkerPool(), this.oslpServerBossPool(),
+                        this.oslpServerWorkerPool()),
+                Long.parseLong(this.environment.getRequiredProperty(PROPERTY_NAME_OSLP_METRICS_LOG_INTERVAL)));
+    }
+
+    /**
+     * Timer shared by the OSLP channel handlers for their timeouts.
+     */
+    @Bean(destroyMethod = "stop")
+    public Timer oslpTimer() {
+        return new HashedWheelTimer(new CustomizableThreadFactory("oslp-timer-"), 100, TimeUnit.MILLISECONDS);
     }
 
     // === Sequence number config ===
@@ -19,10 +19,13 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpDeviceStateCache;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpSequenceNumberWriter;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.domain.repositories.OslpDeviceRepository;
 import org.opensmartgridplatform.shared.application.config.AbstractPersistenceConfig;
 import org.opensmartgridplatform.shared.infra.db.DefaultConnectionPoolFactory;
@@ -58,6 +61,21 @@ public class OslpPersistenceConfig extends AbstractPersistenceConfig {
     @Value("${entitymanager.packages.to.scan.oslp}")
     private String entitymanagerPackagesToScan;
 
+    @Value("${oslp.device.state.flush.interval}")
+    private long deviceStateFlushInterval;
+
+    @Value("${oslp.device.state.flush.max.pending.devices}")
+    private int deviceStateFlushMaxPendingDevices;
+
+    @Value("${oslp.device.state.max.unflushed.updates}")
+    private int deviceStateMaxUnflushedUpdates;
+
+    @Value("${oslp.device.state.time.to.live}")
+    private long deviceStateTimeToLive;
+
+    @Value("${oslp.device.state.lock.stripes}")
+    private int deviceStateLockStripes;
+
     private HikariDataSource dataSourceOslp;
 
     public OslpPersistenceConfig() {
@@ -99,6 +117,19 @@ public class OslpPersistenceConfig extends AbstractPersistenceConfig {
                 this.entitymanagerPackagesToScan);
     }
 
+    @Bean
+    public OslpDeviceStateCache oslpDeviceStateCache(final OslpDeviceRepository oslpDeviceRepository) {
+        return new OslpDeviceStateCache(oslpDeviceRepository, this.transactionManager(),
+                this.oslpSequenceNumberWriter(), this.deviceStateTimeToLive, this.deviceStateLockStripes);
+    }
+
+    @Bean(destroyMethod = "stop")
+    public OslpSequenceNumberWriter oslpSequenceNumberWriter() {
+        return new OslpSequenceNumberWriter(new JdbcTemplate(this.getDataSourceOslp()), this.transactionManager(),
+                this.deviceStateFlushInterval, this.deviceStateFlushMaxPendingDevices,
+                this.deviceStateMaxUnflushedUpdates);
+    }
+
     @Override
     @PreDestroy
     public void destroyDataSource() {
@@ -20,6 +20,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpDeviceSettingsService;
@@ -27,6 +29,7 @@ import org.opensmartgridplatform.adapter.protocol.oslp.elster.domain.entities.Os
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.exceptions.ProtocolAdapterException;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging.DeviceResponseMessageSender;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging.OsgpRequestMessageSender;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpPublicKeyCache;
 import org.opensmartgridplatform.dto.valueobjects.DeviceFunctionDto;
 import org.opensmartgridplatform.dto.valueobjects.EventNotificationDto;
 import org.opensmartgridplatform.dto.valueobjects.EventTypeDto;
@@ -52,6 +55,9 @@ public class DeviceManagementService {
     @Autowired
     private OsgpRequestMessageSender osgpRequestMessageSender;
 
+    @Autowired
+    private OslpPublicKeyCache oslpPublicKeyCache;
+
     /**
      * Constructor
      */
@@ -111,9 +117,19 @@ public class DeviceManagementService {
      *            The event notifications.
      */
     public void addEventNotifications(final String deviceUid, final List<Oslp.EventNotification> eventNotifications) {
+        this.addEventNotifications(deviceUid, null, eventNotifications);
+    }
+
+    /**
+     * Adds the event notifications of the device, the device is only looked
+     * up when its identification is not known yet.
+     */
+    public void addEventNotifications(final String deviceUid, final String knownDeviceIdentification,
+            final List<Oslp.EventNotification> eventNotifications) {
         LOGGER.info("addEventNotifications called for device {}", deviceUid);
-        final OslpDevice oslpDevice = this.oslpDeviceSettingsService.getDeviceByUid(deviceUid);
-        final String deviceIdentification = oslpDevice.getDeviceIdentification();
+        final String deviceIdentification = StringUtils.isEmpty(knownDeviceIdentification)
+                ? this.oslpDeviceSettingsService.getDeviceByUid(deviceUid).getDeviceIdentification()
+                : knownDeviceIdentification;
 
         final List<EventNotificationDto> eventNotificationDtos = new ArrayList<>();
         for (final Oslp.EventNotification eventNotification : eventNotifications) {
@@ -162,6 +178,7 @@ public class DeviceManagementService {
 
             oslpDevice.updatePublicKey(publicKey);
             this.oslpDeviceSettingsService.updateDevice(oslpDevice);
+            this.invalidateCachedPublicKey(deviceIdentification);
 
             this.sendResponseMessage(messageMetadata, ResponseMessageResultType.OK, null, responseMessageSender);
 
@@ -193,6 +210,7 @@ public class DeviceManagementService {
 
             oslpDevice.revokePublicKey();
             this.oslpDeviceSettingsService.updateDevice(oslpDevice);
+            this.invalidateCachedPublicKey(deviceIdentification);
 
             this.sendResponseMessage(messageMetadata, ResponseMessageResultType.OK, null, responseMessageSender);
 
@@ -204,6 +222,24 @@ public class DeviceManagementService {
         }
     }
 
+    /**
+     * Removes the cached public key of the device. The key is removed again
+     * after the transaction has been committed, in case the previous key was
+     * cached again by a concurrent lookup before the update was committed.
+     */
+    private void invalidateCachedPublicKey(final String deviceIdentification) {
+        this.oslpPublicKeyCache.invalidate(deviceIdentification);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    DeviceManagementService.this.oslpPublicKeyCache.invalidate(deviceIdentification);
+                }
+            });
+        }
+    }
+
     private void sendResponseMessage(final MessageMetadata messageMetadata, final ResponseMessageResultType result,
             final OsgpException osgpException, final DeviceResponseMessageSender responseMessageSender) {
 
@@ -17,6 +17,8 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpDeviceSettingsService;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpDeviceState;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpDeviceStateCache;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.domain.entities.OslpDevice;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.exceptions.ProtocolAdapterException;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging.OsgpRequestMessageSender;
@@ -38,6 +40,9 @@ public class DeviceRegistrationService {
     @Autowired
     private OslpDeviceSettingsService oslpDeviceSettingsService;
 
+    @Autowired
+    private OslpDeviceStateCache oslpDeviceStateCache;
+
     @Autowired
     private OsgpRequestMessageSender osgpRequestMessageSender;
 
@@ -69,6 +74,19 @@ public class DeviceRegistrationService {
         return oslpDevice;
     }
 
+    private OslpDeviceState findDeviceState(final byte[] deviceId) throws ProtocolAdapterException {
+
+        // Convert byte array to String.
+        final String deviceUid = Base64.encodeBase64String(deviceId);
+
+        final OslpDeviceState deviceState = this.oslpDeviceStateCache.getByDeviceUid(deviceUid);
+        if (deviceState == null) {
+            throw new ProtocolAdapterException("Unable to find device using deviceUid: " + deviceUid);
+        }
+
+        return deviceState;
+    }
+
     public void sendDeviceRegisterRequest(final InetAddress inetAddress, final String deviceType,
             final boolean hasSchedule, final String deviceIdentification) {
 
@@ -81,7 +99,7 @@ public class DeviceRegistrationService {
         this.osgpRequestMessageSender.send(requestMessage, "REGISTER_DEVICE");
     }
 
-    public void confirmRegisterDevice(final byte[] deviceId, final Integer newSequenceNumber,
+    public void confirmRegisterDevice(final byte[] deviceId, final int newSequenceNumber,
             final Integer randomDevice, final Integer randomPlatform) throws ProtocolAdapterException {
 
         this.checkDeviceRandomAndPlatformRandom(deviceId, randomDevice, randomPlatform);
@@ -94,19 +112,19 @@ public class DeviceRegistrationService {
     private void checkDeviceRandomAndPlatformRandom(final byte[] deviceId, final Integer randomDevice,
             final Integer randomPlatform) throws ProtocolAdapterException {
         // Lookup device.
-        final OslpDevice oslpDevice = this.findDevice(deviceId);
+        final OslpDeviceState deviceState = this.findDeviceState(deviceId);
         // Check the random number generated by the device.
-        if (randomDevice == null || oslpDevice.getRandomDevice() == null) {
+        if (randomDevice == null || deviceState.getRandomDevice() == null) {
             throw new ProtocolAdapterException("RandomDevice not set");
         }
-        if (oslpDevice.getRandomDevice() - randomDevice != 0) {
+        if (deviceState.getRandomDevice() - randomDevice != 0) {
             throw new ProtocolAdapterException("RandomDevice incorrect");
         }
         // Check the random number generated by the platform.
-        if (randomPlatform == null || oslpDevice.getRandomPlatform() == null) {
+        if (randomPlatform == null || deviceState.getRandomPlatform() == null) {
             throw new ProtocolAdapterException("RandomPlatform not set");
         }
-        if (oslpDevice.getRandomPlatform() - randomPlatform != 0) {
+        if (deviceState.getRandomPlatform() - randomPlatform != 0) {
             throw new ProtocolAdapterException("RandomPlatform incorrect");
         }
     }
@@ -114,27 +132,32 @@ public class DeviceRegistrationService {
     public void updateDeviceSequenceNumber(final byte[] deviceId, final int newSequenceNumber)
             throws ProtocolAdapterException {
 
-        // Lookup device.
-        final OslpDevice oslpDevice = this.findDevice(deviceId);
-
-        this.checkSequenceNumber(oslpDevice.getSequenceNumber(), newSequenceNumber);
-
-        // Persist the new sequence number.
-        oslpDevice.setSequenceNumber(newSequenceNumber);
-        this.oslpDeviceSettingsService.updateDevice(oslpDevice);
+        // Check and persist the new sequence number.
+        this.oslpDeviceStateCache.checkAndUpdateSequenceNumber(Base64.encodeBase64String(deviceId),
+                newSequenceNumber, (current, next) -> this.checkSequenceNumber(current, next));
     }
 
     public void checkSequenceNumber(final byte[] deviceId, final Integer newSequenceNumber)
             throws ProtocolAdapterException {
+        this.checkSequenceNumber(deviceId, newSequenceNumber.intValue());
+    }
+
+    public void checkSequenceNumber(final byte[] deviceId, final int newSequenceNumber)
+            throws ProtocolAdapterException {
 
         // Lookup device.
-        final OslpDevice oslpDevice = this.findDevice(deviceId);
+        final OslpDeviceState deviceState = this.findDeviceState(deviceId);
 
-        this.checkSequenceNumber(oslpDevice.getSequenceNumber(), newSequenceNumber);
+        this.checkSequenceNumber(deviceState.getSequenceNumber().intValue(), newSequenceNumber);
     }
 
     public void checkSequenceNumber(final Integer currentSequenceNumber, final Integer newSequenceNumber)
             throws ProtocolAdapterException {
+        this.checkSequenceNumber(currentSequenceNumber.intValue(), newSequenceNumber.intValue());
+    }
+
+    public void checkSequenceNumber(final int currentSequenceNumber, final int newSequenceNumber)
+            throws ProtocolAdapterException {
 
         int expectedSequenceNumber = currentSequenceNumber + 1;
         if (expectedSequenceNumber > this.sequenceNumberMaximum) {
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp;
+
+import java.security.PrivateKey;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+import org.opensmartgridplatform.oslp.SignedOslpEnvelopeDto;
+import org.opensmartgridplatform.oslp.UnsignedOslpEnvelopeDto;
+import org.opensmartgridplatform.shared.infra.jms.RequestMessage;
+
+/**
+ * Signs envelopes in process, using a locally loaded private key, for
+ * deployments without a signing server. The signed envelope is handled on the
+ * thread requesting the signature, without the round-trip over the message
+ * broker.
+ */
+public class EmbeddedOslpSigner implements OslpSigner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedOslpSigner.class);
+
+    private final PrivateKey privateKey;
+
+    private final String signature;
+
+    private final String signatureProvider;
+
+    @Autowired
+    private OslpSigningService oslpSigningService;
+
+    private final AtomicLong signedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    public EmbeddedOslpSigner(final PrivateKey privateKey, final String signature, final String signatureProvider) {
+        this.privateKey = privateKey;
+        this.signature = signature;
+        this.signatureProvider = signatureProvider;
+    }
+
+    @Override
+    public void sign(final RequestMessage requestMessage, final int messagePriority) {
+        final UnsignedOslpEnvelopeDto unsignedOslpEnvelopeDto = (UnsignedOslpEnvelopeDto) requestMessage
+                .getRequest();
+
+        final OslpEnvelope oslpEnvelope;
+        try {
+            oslpEnvelope = new OslpEnvelope.Builder().withDeviceId(unsignedOslpEnvelopeDto.getDeviceId())
+                    .withSequenceNumber(unsignedOslpEnvelopeDto.getSequenceNumber())
+                    .withPrimaryKey(this.privateKey).withSignature(this.signature)
+                    .withProvider(this.signatureProvider)
+                    .withPayloadMessage(unsignedOslpEnvelopeDto.getPayloadMessage()).build();
+        } catch (final RuntimeException e) {
+            this.failedCount.incrementAndGet();
+            LOGGER.error("Message for device: {} with correlationId: {} NOT SIGNED",
+                    requestMessage.getDeviceIdentification(), requestMessage.getCorrelationUid(), e);
+            this.oslpSigningService.handleSigningFailure(requestMessage, messagePriority, e);
+            return;
+        }
+
+        this.signedCount.incrementAndGet();
+        this.oslpSigningService.handleSignedOslpEnvelope(
+                new SignedOslpEnvelopeDto(oslpEnvelope, unsignedOslpEnvelopeDto),
+                requestMessage.getDeviceIdentification());
+    }
+
+    public void setOslpSigningService(final OslpSigningService oslpSigningService) {
+        this.oslpSigningService = oslpSigningService;
+    }
+
+    public long getSignedCount() {
+        return this.signedCount.get();
+    }
+
+    public long getFailedCount() {
+        return this.failedCount.get();
+    }
+}
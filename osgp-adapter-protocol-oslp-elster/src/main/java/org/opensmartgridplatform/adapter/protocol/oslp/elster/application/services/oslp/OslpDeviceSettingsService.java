@@ -52,12 +52,6 @@ public class OslpDeviceSettingsService {
         return this.oslpDeviceRepository.save(device);
     }
 
-    public OslpDevice updateDeviceAndForceSave(final OslpDevice device) {
-        LOGGER.info("update device and force save: {}", device.getDeviceIdentification());
-
-        return this.oslpDeviceRepository.saveAndFlush(device);
-    }
-
     public OslpDevice getDeviceByUid(final String deviceUid) {
         LOGGER.info("get device by UID: {}", deviceUid);
 
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp;
+
+/**
+ * Snapshot of the security related state of an OSLP device, as held by the
+ * {@link OslpDeviceStateCache}.
+ */
+public class OslpDeviceState {
+
+    private final Long id;
+    private final String deviceUid;
+    private final String deviceIdentification;
+    private final Integer sequenceNumber;
+    private final Integer randomDevice;
+    private final Integer randomPlatform;
+
+    public OslpDeviceState(final Long id, final String deviceUid, final String deviceIdentification,
+            final Integer sequenceNumber, final Integer randomDevice, final Integer randomPlatform) {
+        this.id = id;
+        this.deviceUid = deviceUid;
+        this.deviceIdentification = deviceIdentification;
+        this.sequenceNumber = sequenceNumber;
+        this.randomDevice = randomDevice;
+        this.randomPlatform = randomPlatform;
+    }
+
+    public Long getId() {
+        return this.id;
+    }
+
+    public String getDeviceUid() {
+        return this.deviceUid;
+    }
+
+    public String getDeviceIdentification() {
+        return this.deviceIdentification;
+    }
+
+    public Integer getSequenceNumber() {
+        return this.sequenceNumber;
+    }
+
+    public Integer getRandomDevice() {
+        return this.randomDevice;
+    }
+
+    public Integer getRandomPlatform() {
+        return this.randomPlatform;
+    }
+}
@@ -0,0 +1,404 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.domain.entities.OslpDevice;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.domain.repositories.OslpDeviceRepository;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.exceptions.ProtocolAdapterException;
+
+/**
+ * In memory state of OSLP devices: the sequence number and the randoms
+ * exchanged during registration, so they don't have to be read from the
+ * database for every message. Updates of a device are serialized by a lock
+ * striped on the device identification.
+ *
+ * The state of a registration is written through. Sequence number updates are
+ * written behind by the {@link OslpSequenceNumberWriter}. A device with the
+ * maximum number of unflushed updates is flushed right away, which bounds the
+ * number of sequence numbers lost by a crash. As long as this maximum does not
+ * exceed the sequence number window, devices are still accepted after a
+ * restart.
+ *
+ * The sequence number and randoms are not updatable through the entity, so
+ * saving an {@link OslpDevice} loaded earlier can't overwrite a newer value of
+ * the cache.
+ *
+ * Other instances of the adapter update the same rows. A sequence number is
+ * only written when the row still holds the sequence number the update was
+ * based on; when it does not, or the row is gone, the device is evicted and
+ * loaded again on its next message. Entries are also loaded again after the
+ * time to live, so a registration or sequence number accepted by another
+ * instance is seen within that time.
+ *
+ * A time to live of 0 disables the cache: the state is loaded for every
+ * lookup, and sequence number updates are flushed right away.
+ */
+public class OslpDeviceStateCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OslpDeviceStateCache.class);
+
+    private final OslpDeviceRepository oslpDeviceRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final OslpSequenceNumberWriter oslpSequenceNumberWriter;
+
+    private final long timeToLive;
+
+    private final Object[] locks;
+
+    private final ConcurrentMap<String, Entry> byDeviceIdentification = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Entry> byDeviceUid = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong forcedFlushCount = new AtomicLong();
+    private final AtomicLong expirationCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * @param timeToLive
+     *            time in milliseconds after which the state of a device is
+     *            loaded from the database again, 0 disables the cache.
+     * @param lockStripes
+     *            number of locks the devices are spread over.
+     */
+    public OslpDeviceStateCache(final OslpDeviceRepository oslpDeviceRepository,
+            final PlatformTransactionManager transactionManager,
+            final OslpSequenceNumberWriter oslpSequenceNumberWriter, final long timeToLive, final int lockStripes) {
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("timeToLive must not be negative: " + timeToLive);
+        }
+        if (lockStripes < 1) {
+            throw new IllegalArgumentException("lockStripes must be at least 1: " + lockStripes);
+        }
+
+        this.oslpDeviceRepository = oslpDeviceRepository;
+        // Writes may be started within the transaction of a caller, which
+        // must not decide whether they are committed.
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.oslpSequenceNumberWriter = oslpSequenceNumberWriter;
+        this.oslpSequenceNumberWriter.setConflictHandler(this::invalidate);
+        this.timeToLive = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+        this.locks = new Object[lockStripes];
+        for (int i = 0; i < lockStripes; i++) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @return the state of the device, or null when the device is unknown.
+     */
+    public OslpDeviceState getByDeviceIdentification(final String deviceIdentification) {
+        final Entry entry = this.getEntry(deviceIdentification, false);
+        return entry == null ? null : entry.toState(this.lock(entry));
+    }
+
+    /**
+     * @return the state of the device, or null when the device is unknown.
+     */
+    public OslpDeviceState getByDeviceUid(final String deviceUid) {
+        final Entry entry = this.getEntry(deviceUid, true);
+        return entry == null ? null : entry.toState(this.lock(entry));
+    }
+
+    /**
+     * Sets the sequence number of the device, the update is written behind.
+     */
+    public void updateSequenceNumber(final String deviceIdentification, final int sequenceNumber) {
+        for (;;) {
+            final Entry entry = this.getEntry(deviceIdentification, false);
+            if (entry == null) {
+                LOGGER.warn("Unable to update sequence number of unknown device: {}", deviceIdentification);
+                return;
+            }
+
+            final boolean flush;
+            synchronized (this.lock(entry)) {
+                if (entry.evicted) {
+                    // Evicted after it was looked up, update the reloaded
+                    // state instead.
+                    continue;
+                }
+                flush = this.setSequenceNumber(entry, sequenceNumber);
+            }
+            if (flush) {
+                this.forceFlush();
+            }
+            return;
+        }
+    }
+
+    /**
+     * Checks the new sequence number against the current sequence number of
+     * the device and sets it, the update is written behind. The check and the
+     * update are done atomically for the device.
+     */
+    public void checkAndUpdateSequenceNumber(final String deviceUid, final int sequenceNumber,
+            final SequenceNumberCheck check) throws ProtocolAdapterException {
+        for (;;) {
+            final Entry entry = this.getEntry(deviceUid, true);
+            if (entry == null) {
+                throw new ProtocolAdapterException("Unable to find device using deviceUid: " + deviceUid);
+            }
+
+            final boolean flush;
+            synchronized (this.lock(entry)) {
+                if (entry.evicted) {
+                    // Evicted after it was looked up, check against the
+                    // reloaded state instead.
+                    continue;
+                }
+                if (entry.sequenceNumber == null) {
+                    throw new ProtocolAdapterException("SequenceNumber not set for deviceUid: " + deviceUid);
+                }
+                check.check(entry.sequenceNumber, sequenceNumber);
+                flush = this.setSequenceNumber(entry, sequenceNumber);
+            }
+            if (flush) {
+                this.forceFlush();
+            }
+            return;
+        }
+    }
+
+    /**
+     * Writes the sequence number and randoms of the registered device through
+     * and replaces the state of the device with them. The device UID may have
+     * changed with the registration.
+     */
+    public void register(final OslpDevice device) {
+        final Entry entry = new Entry(device, this.nanoTime());
+
+        // Updates of the previous state are not written anymore, so they can't
+        // overwrite the registration. The write itself is done outside the
+        // lock, so it doesn't hold up the other devices of the lock.
+        synchronized (this.lock(entry)) {
+            final Entry previous = this.byDeviceIdentification.get(entry.deviceIdentification);
+            if (previous != null) {
+                previous.current = false;
+            }
+        }
+
+        this.oslpSequenceNumberWriter.discard(device.getId());
+        this.transactionTemplate.execute(status -> this.oslpDeviceRepository.updateState(device.getId(),
+                device.getSequenceNumber(), device.getRandomDevice(), device.getRandomPlatform()));
+
+        if (this.timeToLive == 0) {
+            return;
+        }
+        synchronized (this.lock(entry)) {
+            final Entry previous = this.byDeviceIdentification.put(entry.deviceIdentification, entry);
+            if (previous != null) {
+                previous.current = false;
+                if (previous.deviceUid != null) {
+                    this.byDeviceUid.remove(previous.deviceUid, previous);
+                }
+            }
+            if (entry.deviceUid != null) {
+                this.byDeviceUid.put(entry.deviceUid, entry);
+            }
+        }
+    }
+
+    private void forceFlush() {
+        this.forcedFlushCount.incrementAndGet();
+        this.oslpSequenceNumberWriter.flush();
+    }
+
+    /**
+     * @return true when the device reached the maximum number of unflushed
+     *         updates.
+     */
+    private boolean setSequenceNumber(final Entry entry, final int sequenceNumber) {
+        final Integer previousSequenceNumber = entry.sequenceNumber;
+        entry.sequenceNumber = sequenceNumber;
+        if (!entry.current) {
+            // Replaced by a registration, which reset the sequence number.
+            return false;
+        }
+        final boolean flush = this.oslpSequenceNumberWriter.write(entry.id, previousSequenceNumber, sequenceNumber);
+        return flush || this.timeToLive == 0;
+    }
+
+    private Entry getEntry(final String key, final boolean byUid) {
+        final ConcurrentMap<String, Entry> entries = byUid ? this.byDeviceUid : this.byDeviceIdentification;
+        final Entry cached = entries.get(key);
+        if (cached != null) {
+            if (this.nanoTime() - cached.loadTime < this.timeToLive) {
+                this.hitCount.incrementAndGet();
+                return cached;
+            }
+            synchronized (this.lock(cached)) {
+                if (this.evict(cached)) {
+                    this.expirationCount.incrementAndGet();
+                }
+            }
+        }
+
+        this.missCount.incrementAndGet();
+        final OslpDevice device = byUid ? this.oslpDeviceRepository.findByDeviceUid(key)
+                : this.oslpDeviceRepository.findByDeviceIdentification(key);
+        if (device == null) {
+            return null;
+        }
+
+        final Entry entry = new Entry(device, this.nanoTime());
+        synchronized (this.lock(entry)) {
+            // An update of the device may not have been written yet.
+            final Integer pendingSequenceNumber = this.oslpSequenceNumberWriter.getPendingSequenceNumber(entry.id);
+            if (pendingSequenceNumber != null) {
+                entry.sequenceNumber = pendingSequenceNumber;
+            }
+            if (this.timeToLive == 0) {
+                return entry;
+            }
+
+            // The device may have been loaded or registered in the meantime.
+            final Entry existing = this.byDeviceIdentification.putIfAbsent(entry.deviceIdentification, entry);
+            if (existing != null) {
+                return existing;
+            }
+            if (entry.deviceUid != null) {
+                this.byDeviceUid.putIfAbsent(entry.deviceUid, entry);
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Evicts the device of which an update was not written, because its row
+     * was changed by another instance or removed. Called while flushing, the
+     * updates based on the rejected sequence number are discarded as well.
+     */
+    private void invalidate(final long deviceId) {
+        for (final Entry entry : this.byDeviceIdentification.values()) {
+            if (entry.id == deviceId) {
+                synchronized (this.lock(entry)) {
+                    this.oslpSequenceNumberWriter.discard(deviceId);
+                    if (this.evict(entry)) {
+                        this.invalidationCount.incrementAndGet();
+                        LOGGER.info("Evicted state of device {}, it was changed by another instance",
+                                entry.deviceIdentification);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the entry, the next lookup of the device loads it again. Must be
+     * called with the lock of the entry held.
+     *
+     * @return true when the entry was still cached.
+     */
+    private boolean evict(final Entry entry) {
+        entry.evicted = true;
+        if (entry.deviceUid != null) {
+            this.byDeviceUid.remove(entry.deviceUid, entry);
+        }
+        return this.byDeviceIdentification.remove(entry.deviceIdentification, entry);
+    }
+
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    private Object lock(final Entry entry) {
+        return this.locks[(entry.deviceIdentification.hashCode() & Integer.MAX_VALUE) % this.locks.length];
+    }
+
+    public int getSize() {
+        return this.byDeviceIdentification.size();
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * @return the number of flushes started because a device reached the
+     *         maximum number of unflushed updates, or the cache is disabled.
+     */
+    public long getForcedFlushCount() {
+        return this.forcedFlushCount.get();
+    }
+
+    /**
+     * @return the number of devices loaded again because their time to live
+     *         passed.
+     */
+    public long getExpirationCount() {
+        return this.expirationCount.get();
+    }
+
+    /**
+     * @return the number of devices evicted because their row was changed by
+     *         another instance or removed.
+     */
+    public long getInvalidationCount() {
+        return this.invalidationCount.get();
+    }
+
+    /**
+     * Check of a new sequence number against the current sequence number of a
+     * device.
+     */
+    @FunctionalInterface
+    public interface SequenceNumberCheck {
+        void check(int currentSequenceNumber, int newSequenceNumber) throws ProtocolAdapterException;
+    }
+
+    private static class Entry {
+        private final Long id;
+        private final String deviceUid;
+        private final String deviceIdentification;
+        private final Integer randomDevice;
+        private final Integer randomPlatform;
+        private final long loadTime;
+
+        // Guarded by the lock of the entry.
+        private Integer sequenceNumber;
+        private boolean current = true;
+        private boolean evicted;
+
+        Entry(final OslpDevice device, final long loadTime) {
+            this.id = device.getId();
+            this.deviceUid = device.getDeviceUid();
+            this.deviceIdentification = device.getDeviceIdentification();
+            this.sequenceNumber = device.getSequenceNumber();
+            this.randomDevice = device.getRandomDevice();
+            this.randomPlatform = device.getRandomPlatform();
+            this.loadTime = loadTime;
+        }
+
+        OslpDeviceState toState(final Object lock) {
+            synchronized (lock) {
+                return new OslpDeviceState(this.id, this.deviceUid, this.deviceIdentification, this.sequenceNumber,
+                        this.randomDevice, this.randomPlatform);
+            }
+        }
+    }
+}
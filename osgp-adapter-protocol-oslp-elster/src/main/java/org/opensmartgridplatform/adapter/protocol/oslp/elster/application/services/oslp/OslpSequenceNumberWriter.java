@@ -0,0 +1,383 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import org.opensmartgridplatform.oslp.OslpHistogram;
+
+/**
+ * Writes the sequence numbers of devices behind, in JDBC batches. Updates of a
+ * device are coalesced until they are written, the last update wins. Pending
+ * updates are written every flush interval, or as soon as the maximum number
+ * of pending devices is reached.
+ *
+ * Flushes are serialized, so a sequence number is never overwritten by an
+ * older one. When a flush fails, its updates are pending again unless the
+ * device got a newer update in the meantime.
+ *
+ * An update only replaces the sequence number it was based on. When the row of
+ * the device holds another sequence number, for instance because another
+ * instance of the adapter updated it, or the row no longer exists, the update
+ * is not written and the conflict handler is told about the device.
+ */
+public class OslpSequenceNumberWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OslpSequenceNumberWriter.class);
+
+    private static final String UPDATE_SEQUENCE_NUMBER = "UPDATE oslp_device SET sequence_number = ? WHERE id = ? "
+            + "AND sequence_number IS NOT DISTINCT FROM ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final int maxPendingDevices;
+
+    private final int maxUnflushedUpdates;
+
+    private final ConcurrentMap<Long, PendingUpdate> pendingUpdates = new ConcurrentHashMap<>();
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final ScheduledExecutorService flushExecutor;
+
+    private volatile LongConsumer conflictHandler = deviceId -> {
+    };
+
+    private final AtomicLong updateCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong failedFlushCount = new AtomicLong();
+    private final AtomicLong conflictCount = new AtomicLong();
+
+    private final OslpHistogram flushBatchSizeHistogram = new OslpHistogram(1, 10, 100, 1000, 10000);
+    private final OslpHistogram flushLagHistogram = new OslpHistogram(10, 100, 1000, 10000, 60000);
+
+    /**
+     * @param flushInterval
+     *            time in milliseconds between the flushes, an update is
+     *            written within about this time.
+     * @param maxPendingDevices
+     *            number of devices with pending updates at which a flush is
+     *            started right away.
+     * @param maxUnflushedUpdates
+     *            number of unflushed updates of a single device at which the
+     *            writer of the update has to flush, see
+     *            {@link #write(long, Integer, int)}.
+     */
+    public OslpSequenceNumberWriter(final JdbcTemplate jdbcTemplate,
+            final PlatformTransactionManager transactionManager, final long flushInterval,
+            final int maxPendingDevices, final int maxUnflushedUpdates) {
+        if (flushInterval <= 0) {
+            throw new IllegalArgumentException("flushInterval must be positive: " + flushInterval);
+        }
+        if (maxPendingDevices < 1) {
+            throw new IllegalArgumentException("maxPendingDevices must be at least 1: " + maxPendingDevices);
+        }
+        if (maxUnflushedUpdates < 1) {
+            throw new IllegalArgumentException("maxUnflushedUpdates must be at least 1: " + maxUnflushedUpdates);
+        }
+
+        this.jdbcTemplate = jdbcTemplate;
+        // Updates may be written from within the transaction of a caller,
+        // which must not decide whether they are committed.
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.maxPendingDevices = maxPendingDevices;
+        this.maxUnflushedUpdates = maxUnflushedUpdates;
+
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("oslp-sequence-number-writer-");
+        threadFactory.setDaemon(true);
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.flushExecutor.scheduleWithFixedDelay(this::scheduledFlush, flushInterval, flushInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the handler called, on the flushing thread, with the id of a device
+     * of which an update was not written because its row did not hold the
+     * sequence number the update was based on.
+     */
+    public void setConflictHandler(final LongConsumer conflictHandler) {
+        this.conflictHandler = conflictHandler;
+    }
+
+    /**
+     * Sets the sequence number of the device, replacing a pending sequence
+     * number of the device. Updates of a device must be written one at a
+     * time, in order.
+     *
+     * @param previousSequenceNumber
+     *            the sequence number the update replaces. When the device has
+     *            no pending update, this is the sequence number the row of
+     *            the device must still hold for the update to be written.
+     * @return true when the device reached the maximum number of unflushed
+     *         updates, in which case the caller should {@link #flush()}
+     *         before the next update of the device.
+     */
+    public boolean write(final long deviceId, final Integer previousSequenceNumber, final int sequenceNumber) {
+        this.updateCount.incrementAndGet();
+
+        final PendingUpdate pendingUpdate = this.pendingUpdates.compute(deviceId, (id, pending) -> {
+            if (pending == null) {
+                return new PendingUpdate(previousSequenceNumber, sequenceNumber, 1, System.currentTimeMillis());
+            }
+            this.coalescedCount.incrementAndGet();
+            return new PendingUpdate(pending.expectedSequenceNumber, sequenceNumber, pending.updates + 1,
+                    pending.firstUpdateTime);
+        });
+
+        if (this.pendingUpdates.size() >= this.maxPendingDevices && this.flushRequested.compareAndSet(false, true)) {
+            try {
+                this.flushExecutor.execute(this::scheduledFlush);
+            } catch (final RejectedExecutionException e) {
+                this.flushRequested.set(false);
+                LOGGER.debug("Writer stopped, pending sequence numbers are written when stopping", e);
+            }
+        }
+
+        return pendingUpdate.updates >= this.maxUnflushedUpdates;
+    }
+
+    /**
+     * @return the sequence number of the device which has not been written
+     *         yet, or null when there is none.
+     */
+    public Integer getPendingSequenceNumber(final long deviceId) {
+        final PendingUpdate pendingUpdate = this.pendingUpdates.get(deviceId);
+        return pendingUpdate == null ? null : pendingUpdate.sequenceNumber;
+    }
+
+    /**
+     * Discards the pending update of the device. After this method returns,
+     * no earlier update of the device will be written anymore.
+     */
+    public void discard(final long deviceId) {
+        this.flushLock.lock();
+        try {
+            this.pendingUpdates.remove(deviceId);
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes all pending updates in a single JDBC batch.
+     */
+    public void flush() {
+        this.flushLock.lock();
+        try {
+            this.flushRequested.set(false);
+
+            final List<Long> deviceIds = new ArrayList<>(this.pendingUpdates.keySet());
+            final List<PendingUpdate> updates = new ArrayList<>(deviceIds.size());
+            final long now = System.currentTimeMillis();
+            for (final Long deviceId : deviceIds) {
+                final PendingUpdate update = this.pendingUpdates.remove(deviceId);
+                updates.add(update);
+                this.flushLagHistogram.record(now - update.firstUpdateTime);
+            }
+            if (deviceIds.isEmpty()) {
+                return;
+            }
+
+            final int[] updateCounts;
+            try {
+                updateCounts = this.writeBatch(deviceIds, updates);
+            } catch (final RuntimeException e) {
+                this.failedFlushCount.incrementAndGet();
+                for (int i = 0; i < deviceIds.size(); i++) {
+                    // A newer update of the device is still based on the
+                    // sequence number the failed update replaced.
+                    this.pendingUpdates.merge(deviceIds.get(i), updates.get(i),
+                            (newer, failed) -> new PendingUpdate(failed.expectedSequenceNumber, newer.sequenceNumber,
+                                    newer.updates, failed.firstUpdateTime));
+                }
+                throw e;
+            }
+
+            this.flushCount.incrementAndGet();
+            this.flushBatchSizeHistogram.record(deviceIds.size());
+            for (int i = 0; i < deviceIds.size(); i++) {
+                if (updateCounts[i] == 0) {
+                    this.conflict(deviceIds.get(i), updates.get(i));
+                } else {
+                    this.writtenCount.incrementAndGet();
+                }
+            }
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    /**
+     * Stops flushing periodically and writes the pending updates a last time.
+     */
+    public void stop() {
+        this.flushExecutor.shutdown();
+        try {
+            this.flushExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.flush();
+    }
+
+    private void conflict(final long deviceId, final PendingUpdate update) {
+        this.conflictCount.incrementAndGet();
+        LOGGER.warn("Sequence number {} of device {} not written, its row no longer holds sequence number {}",
+                update.sequenceNumber, deviceId, update.expectedSequenceNumber);
+        try {
+            this.conflictHandler.accept(deviceId);
+        } catch (final RuntimeException e) {
+            LOGGER.error("Unable to handle the conflicting update of device {}", deviceId, e);
+        }
+    }
+
+    /**
+     * Writes the sequence numbers of the devices in a JDBC batch, in a
+     * transaction of its own.
+     *
+     * @return the number of rows updated for each device, 0 when the row of
+     *         the device did not hold the expected sequence number.
+     */
+    protected int[] writeBatch(final List<Long> deviceIds, final List<PendingUpdate> updates) {
+        return this.transactionTemplate.execute(status -> this.jdbcTemplate.batchUpdate(UPDATE_SEQUENCE_NUMBER,
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(final PreparedStatement ps, final int i) throws SQLException {
+                        ps.setInt(1, updates.get(i).sequenceNumber);
+                        ps.setLong(2, deviceIds.get(i));
+                        ps.setObject(3, updates.get(i).expectedSequenceNumber, Types.INTEGER);
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return deviceIds.size();
+                    }
+                }));
+    }
+
+    private void scheduledFlush() {
+        try {
+            this.flush();
+        } catch (final RuntimeException e) {
+            LOGGER.error("Unable to write the sequence numbers of {} devices", this.pendingUpdates.size(), e);
+        }
+    }
+
+    /**
+     * @return the number of devices with a pending update.
+     */
+    public int getPendingCount() {
+        return this.pendingUpdates.size();
+    }
+
+    public long getUpdateCount() {
+        return this.updateCount.get();
+    }
+
+    /**
+     * @return the number of updates which replaced a pending update.
+     */
+    public long getCoalescedCount() {
+        return this.coalescedCount.get();
+    }
+
+    /**
+     * @return the number of updates written to the database.
+     */
+    public long getWrittenCount() {
+        return this.writtenCount.get();
+    }
+
+    public long getFlushCount() {
+        return this.flushCount.get();
+    }
+
+    public long getFailedFlushCount() {
+        return this.failedFlushCount.get();
+    }
+
+    /**
+     * @return the number of updates not written because the row of the
+     *         device did not hold the expected sequence number.
+     */
+    public long getConflictCount() {
+        return this.conflictCount.get();
+    }
+
+    /**
+     * @return histogram of the number of updates written per batch.
+     */
+    public OslpHistogram getFlushBatchSizeHistogram() {
+        return this.flushBatchSizeHistogram;
+    }
+
+    /**
+     * @return histogram of the time in milliseconds between the first
+     *         unwritten update of a device and the flush writing it.
+     */
+    public OslpHistogram getFlushLagHistogram() {
+        return this.flushLagHistogram;
+    }
+
+    /**
+     * Sequence number of a device waiting to be written.
+     */
+    protected static class PendingUpdate {
+        private final Integer expectedSequenceNumber;
+        private final int sequenceNumber;
+        private final int updates;
+        private final long firstUpdateTime;
+
+        PendingUpdate(final Integer expectedSequenceNumber, final int sequenceNumber, final int updates,
+                final long firstUpdateTime) {
+            this.expectedSequenceNumber = expectedSequenceNumber;
+            this.sequenceNumber = sequenceNumber;
+            this.updates = updates;
+            this.firstUpdateTime = firstUpdateTime;
+        }
+
+        public Integer getExpectedSequenceNumber() {
+            return this.expectedSequenceNumber;
+        }
+
+        public int getSequenceNumber() {
+            return this.sequenceNumber;
+        }
+    }
+}
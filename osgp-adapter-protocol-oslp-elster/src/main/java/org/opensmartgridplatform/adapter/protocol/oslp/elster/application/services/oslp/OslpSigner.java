@@ -0,0 +1,27 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp;
+
+import org.opensmartgridplatform.shared.infra.jms.RequestMessage;
+
+/**
+ * Signs the unsigned OSLP envelopes built by the {@link OslpSigningService}.
+ *
+ * A signer hands the signed envelope to
+ * {@link OslpSigningService#handleSignedOslpEnvelope}, or reports a failure to
+ * {@link OslpSigningService#handleError}. It may do so before
+ * {@link #sign(RequestMessage, int)} returns, or later on another thread.
+ */
+public interface OslpSigner {
+
+    /**
+     * Signs the {@link org.opensmartgridplatform.oslp.UnsignedOslpEnvelopeDto}
+     * of the request message.
+     */
+    void sign(RequestMessage requestMessage, int messagePriority);
+}
@@ -9,6 +9,7 @@ package org.opensmartgridplatform.adapter.protocol.oslp.elster.application.servi
 
 import java.io.Serializable;
 
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -19,32 +20,39 @@ import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging.De
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging.DeviceRequestMessageType;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging.DeviceResponseMessageSender;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging.OslpEnvelopeProcessor;
-import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging.SigningServerRequestMessageSender;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpChannelHandlerServer;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpOutboundScheduler;
 import org.opensmartgridplatform.oslp.Oslp;
 import org.opensmartgridplatform.oslp.OslpEnvelope;
 import org.opensmartgridplatform.oslp.SignedOslpEnvelopeDto;
 import org.opensmartgridplatform.oslp.UnsignedOslpEnvelopeDto;
+import org.opensmartgridplatform.shared.exceptionhandling.ComponentType;
+import org.opensmartgridplatform.shared.exceptionhandling.OsgpException;
 import org.opensmartgridplatform.shared.infra.jms.DeviceMessageMetadata;
 import org.opensmartgridplatform.shared.infra.jms.ProtocolResponseMessage;
 import org.opensmartgridplatform.shared.infra.jms.RequestMessage;
 import org.opensmartgridplatform.shared.infra.jms.ResponseMessage;
+import org.opensmartgridplatform.shared.infra.jms.ResponseMessageResultType;
+import org.opensmartgridplatform.shared.wsheaderattribute.priority.MessagePriorityEnum;
 
 @Service
 public class OslpSigningService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(OslpSigningService.class);
 
-    private static final String SIGNING_REQUEST_MESSAGE_TYPE = "SIGNING_REQUEST";
+    private static final String UNKNOWN_DEVICE_IDENTIFICATION = "deviceIdentification";
 
     private static final String LINES = "-----------------------------------------------------------------------------";
 
     @Autowired
-    private SigningServerRequestMessageSender signingServerRequestMessageSender;
+    private OslpSigner oslpSigner;
 
     @Autowired
     private DeviceResponseMessageSender deviceResponseMessageSender;
 
+    @Autowired
+    private OslpOutboundScheduler oslpOutboundScheduler;
+
     private OslpChannelHandlerServer oslpChannelHandlerServer;
 
     @Autowired
@@ -53,7 +61,7 @@ public class OslpSigningService {
 
     /**
      * Build OslpEnvelope for an OSLP request using the arguments supplied and
-     * have the envelope signed by the signing server.
+     * have the envelope signed by the configured {@link OslpSigner}.
      */
     public void buildAndSignEnvelope(final String organisationIdentification, final String deviceIdentification,
             final String correlationUid, final byte[] deviceId, final byte[] sequenceNumber, final String ipAddress,
@@ -68,33 +76,34 @@ public class OslpSigningService {
         final RequestMessage requestMessage = new RequestMessage(correlationUid, organisationIdentification,
                 deviceIdentification, oslpEnvelopeDto);
 
-        // Send request message to signing server.
-        this.signingServerRequestMessageSender.send(requestMessage, SIGNING_REQUEST_MESSAGE_TYPE, messagePriority);
+        this.oslpSigner.sign(requestMessage, messagePriority);
     }
 
     /**
      * Build OslpEnvelope for an OSLP response using the arguments supplied and
-     * have the envelope signed by the signing server.
+     * have the envelope signed by the configured {@link OslpSigner}.
      */
     public void buildAndSignEnvelope(final byte[] deviceId, final byte[] sequenceNumber,
-            final Oslp.Message payloadMessage, final Integer channelId,
+            final Oslp.Message payloadMessage, final String channelId, final String deviceIdentification,
             final OslpChannelHandlerServer oslpChannelHandlerServer) {
 
         this.oslpChannelHandlerServer = oslpChannelHandlerServer;
-        final String correlationUid = channelId.toString();
+        final String correlationUid = channelId;
 
         // Create DTO to transfer data using request message.
         final UnsignedOslpEnvelopeDto unsignedOslpEnvelopeDto = new UnsignedOslpEnvelopeDto(sequenceNumber, deviceId,
                 payloadMessage, correlationUid);
+        // The signing server returns the device identification with the
+        // signed response, it must not be blank.
         final RequestMessage requestMessage = new RequestMessage(correlationUid, "organisationIdentification",
-                "deviceIdentification", unsignedOslpEnvelopeDto);
+                StringUtils.isBlank(deviceIdentification) ? UNKNOWN_DEVICE_IDENTIFICATION : deviceIdentification,
+                unsignedOslpEnvelopeDto);
 
-        // Send request message to signing server.
-        this.signingServerRequestMessageSender.send(requestMessage, SIGNING_REQUEST_MESSAGE_TYPE);
+        this.oslpSigner.sign(requestMessage, MessagePriorityEnum.DEFAULT.getPriority());
     }
 
     /**
-     * Handle incoming signed OslpEnvelope from signing server.
+     * Handle incoming signed OslpEnvelope from the {@link OslpSigner}.
      */
     public void handleSignedOslpEnvelope(final SignedOslpEnvelopeDto signedOslpEnvelopeDto,
             final String deviceIdentification) {
@@ -104,7 +113,8 @@ public class OslpSigningService {
         // Check if it's a request or response message.
         if (unsignedOslpEnvelopeDto.getType().equals(UnsignedOslpEnvelopeDto.OSLP_RESPONSE_TYPE)) {
             // Handle OSLP response message.
-            this.handleSignedOslpResponse(signedOslpEnvelopeDto);
+            this.handleSignedOslpResponse(signedOslpEnvelopeDto,
+                    UNKNOWN_DEVICE_IDENTIFICATION.equals(deviceIdentification) ? null : deviceIdentification);
         } else {
             // Handle OSLP request message.
             this.handleSignedOslpRequest(signedOslpEnvelopeDto, deviceIdentification);
@@ -152,7 +162,8 @@ public class OslpSigningService {
         messageProcessor.processSignedOslpEnvelope(deviceIdentification, signedOslpEnvelopeDto);
     }
 
-    private void handleSignedOslpResponse(final SignedOslpEnvelopeDto signedOslpEnvelopeDto) {
+    private void handleSignedOslpResponse(final SignedOslpEnvelopeDto signedOslpEnvelopeDto,
+            final String deviceIdentification) {
 
         final OslpEnvelope oslpEnvelope = signedOslpEnvelopeDto.getOslpEnvelope();
         final UnsignedOslpEnvelopeDto unsignedOslpEnvelopeDto = signedOslpEnvelopeDto.getUnsignedOslpEnvelopeDto();
@@ -169,16 +180,27 @@ public class OslpSigningService {
                 unsignedOslpEnvelopeDto.getPayloadMessage().toString());
 
         // Send the signed OSLP envelope to the channel handler server.
-        this.oslpChannelHandlerServer.processSignedOslpEnvelope(signedOslpEnvelopeDto);
+        this.oslpChannelHandlerServer.processSignedOslpEnvelope(signedOslpEnvelopeDto, deviceIdentification);
     }
 
     /**
-     * Handle an error from the signing server.
+     * Handle an error from the {@link OslpSigner}. When the response to a
+     * request of a device could not be signed, the request is abandoned, so
+     * the device sends it again. When a request to a device could not be
+     * signed, the device is released for its next request.
      */
     public void handleError(final String deviceIdentification, final ResponseMessage responseMessage) {
 
         final UnsignedOslpEnvelopeDto unsignedOslpEnvelopeDto = (UnsignedOslpEnvelopeDto) responseMessage
                 .getDataObject();
+        if (UnsignedOslpEnvelopeDto.OSLP_RESPONSE_TYPE.equals(unsignedOslpEnvelopeDto.getType())) {
+            LOGGER.warn("{} Unable to sign OSLP Response, abandoning the request", responseMessage.getCorrelationUid());
+            this.oslpChannelHandlerServer.abandonResponse(unsignedOslpEnvelopeDto.getCorrelationUid());
+            return;
+        }
+
+        this.oslpOutboundScheduler.release(deviceIdentification, unsignedOslpEnvelopeDto.getCorrelationUid());
+
         final DeviceMessageMetadata deviceMessageMetadata = new DeviceMessageMetadata(deviceIdentification,
                 unsignedOslpEnvelopeDto.getOrganisationIdentification(), unsignedOslpEnvelopeDto.getCorrelationUid(),
                 unsignedOslpEnvelopeDto.getMessageType(), responseMessage.getMessagePriority());
@@ -189,4 +211,22 @@ public class OslpSigningService {
                 .build();
         this.deviceResponseMessageSender.send(protocolResponseMessage);
     }
+
+    /**
+     * Handle a request which the {@link OslpSigner} was unable to have signed,
+     * as an error from the signing server.
+     */
+    public void handleSigningFailure(final RequestMessage requestMessage, final int messagePriority,
+            final Exception cause) {
+
+        final ResponseMessage responseMessage = ResponseMessage.newResponseMessageBuilder()
+                .withCorrelationUid(requestMessage.getCorrelationUid())
+                .withOrganisationIdentification(requestMessage.getOrganisationIdentification())
+                .withDeviceIdentification(requestMessage.getDeviceIdentification())
+                .withResult(ResponseMessageResultType.NOT_OK)
+                .withOsgpException(
+                        new OsgpException(ComponentType.PROTOCOL_OSLP, "Failed to have OslpEnvelope signed", cause))
+                .withDataObject(requestMessage.getRequest()).withMessagePriority(messagePriority).build();
+        this.handleError(requestMessage.getDeviceIdentification(), responseMessage);
+    }
 }
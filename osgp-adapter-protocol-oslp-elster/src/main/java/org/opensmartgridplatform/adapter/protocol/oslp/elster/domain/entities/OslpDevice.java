@@ -47,13 +47,17 @@ public class OslpDevice extends AbstractEntity {
 
     private String deviceType;
 
-    @Column(nullable = true)
+    // The sequence number and randoms are updated through the
+    // OslpDeviceStateCache only, so saving the entity does not overwrite a
+    // newer value held by the cache. The cache only overwrites the sequence
+    // number it read, and reloads it when another instance changed it.
+    @Column(nullable = true, updatable = false)
     private Integer sequenceNumber;
 
-    @Column(nullable = true)
+    @Column(nullable = true, updatable = false)
     private Integer randomDevice;
 
-    @Column(nullable = true)
+    @Column(nullable = true, updatable = false)
     private Integer randomPlatform;
 
     @Transient
@@ -8,6 +8,9 @@
 package org.opensmartgridplatform.adapter.protocol.oslp.elster.domain.repositories;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.domain.entities.OslpDevice;
@@ -17,4 +20,10 @@ public interface OslpDeviceRepository extends JpaRepository<OslpDevice, Long> {
     OslpDevice findByDeviceUid(String deviceUid);
 
     OslpDevice findByDeviceIdentification(String deviceIdentification);
+
+    @Modifying
+    @Query(value = "UPDATE oslp_device SET sequence_number = :sequenceNumber, random_device = :randomDevice, "
+            + "random_platform = :randomPlatform WHERE id = :id", nativeQuery = true)
+    int updateState(@Param("id") Long id, @Param("sequenceNumber") Integer sequenceNumber,
+            @Param("randomDevice") Integer randomDevice, @Param("randomPlatform") Integer randomPlatform);
 }
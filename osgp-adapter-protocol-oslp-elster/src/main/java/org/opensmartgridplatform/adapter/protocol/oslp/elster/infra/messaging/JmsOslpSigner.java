@@ -0,0 +1,302 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpSigner;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpSigningService;
+import org.opensmartgridplatform.oslp.OslpHistogram;
+import org.opensmartgridplatform.oslp.SigningBatchRequest;
+import org.opensmartgridplatform.shared.infra.jms.RequestMessage;
+
+/**
+ * Has envelopes signed by the signing server. The signed envelopes are
+ * received by the {@link SigningServerResponsesMessageListener}.
+ *
+ * With a maximum batch size above 1, signing requests offered by any number of
+ * threads are gathered until either the maximum batch size is reached, or the
+ * oldest request has waited for the maximum wait time. The batch is then sent
+ * to the signing server in a single message, with the highest priority of its
+ * requests.
+ */
+public class JmsOslpSigner implements OslpSigner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JmsOslpSigner.class);
+
+    private static final String SIGNING_REQUEST_MESSAGE_TYPE = "SIGNING_REQUEST";
+
+    @Autowired
+    private SigningServerRequestMessageSender signingServerRequestMessageSender;
+
+    @Autowired
+    private OslpSigningService oslpSigningService;
+
+    private final int maxBatchSize;
+
+    private final long maxWaitNanos;
+
+    private final BlockingQueue<PendingRequest> pendingRequests = new LinkedBlockingQueue<>();
+
+    private final Thread dispatcher;
+
+    private volatile boolean running = true;
+
+    private final AtomicLong envelopeCount = new AtomicLong();
+    private final AtomicLong requestMessageCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private final OslpHistogram batchSizeHistogram = new OslpHistogram(1, 2, 4, 8, 16, 32, 64, 128, 256, 512);
+
+    /**
+     * Signer sending a message to the signing server for each envelope.
+     */
+    public JmsOslpSigner() {
+        this(1, 0);
+    }
+
+    /**
+     * @param maxBatchSize
+     *            maximum number of envelopes sent to the signing server in
+     *            one message, 1 sends each envelope right away
+     * @param maxWaitMillis
+     *            maximum time an envelope waits for the batch to fill up
+     */
+    public JmsOslpSigner(final int maxBatchSize, final long maxWaitMillis) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Maximum batch size must be at least 1");
+        }
+        if (maxWaitMillis < 0) {
+            throw new IllegalArgumentException("Maximum wait time must not be negative");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+
+        if (maxBatchSize > 1) {
+            this.dispatcher = new Thread(this::dispatch, "oslp-signing-batcher");
+            this.dispatcher.setDaemon(true);
+            this.dispatcher.start();
+        } else {
+            this.dispatcher = null;
+        }
+    }
+
+    @Override
+    public void sign(final RequestMessage requestMessage, final int messagePriority) {
+        this.envelopeCount.incrementAndGet();
+
+        if (this.dispatcher == null) {
+            this.send(requestMessage, messagePriority);
+            return;
+        }
+
+        final PendingRequest pendingRequest = new PendingRequest(requestMessage, messagePriority);
+        this.pendingRequests.add(pendingRequest);
+
+        if (!this.running && this.pendingRequests.remove(pendingRequest)) {
+            this.send(requestMessage, messagePriority);
+        }
+    }
+
+    /**
+     * Stops gathering batches. Requests which have already been offered are
+     * still sent.
+     */
+    public void shutdown() {
+        this.running = false;
+        if (this.dispatcher == null) {
+            return;
+        }
+
+        this.dispatcher.interrupt();
+        try {
+            this.dispatcher.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final List<PendingRequest> remaining = new ArrayList<>();
+        this.pendingRequests.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            this.sendBatch(remaining);
+        }
+    }
+
+    private void dispatch() {
+        while (this.running) {
+            final List<PendingRequest> batch = new ArrayList<>(this.maxBatchSize);
+            try {
+                this.collectBatch(batch);
+            } catch (final InterruptedException e) {
+                // Shutting down, send what has been collected so far.
+                Thread.currentThread().interrupt();
+            }
+
+            if (!batch.isEmpty()) {
+                this.sendBatch(batch);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+        }
+    }
+
+    private void collectBatch(final List<PendingRequest> batch) throws InterruptedException {
+        final PendingRequest first = this.pendingRequests.take();
+        batch.add(first);
+
+        final long deadline = first.offeredNanos + this.maxWaitNanos;
+        while (batch.size() < this.maxBatchSize) {
+            if (this.pendingRequests.drainTo(batch, this.maxBatchSize - batch.size()) > 0) {
+                continue;
+            }
+            final long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0) {
+                return;
+            }
+            final PendingRequest next = this.pendingRequests.poll(remainingNanos, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void sendBatch(final List<PendingRequest> batch) {
+        this.batchSizeHistogram.record(batch.size());
+
+        if (batch.size() == 1) {
+            this.sendOrFail(batch);
+            return;
+        }
+
+        final List<RequestMessage> requestMessages = new ArrayList<>(batch.size());
+        int messagePriority = 0;
+        for (final PendingRequest pendingRequest : batch) {
+            requestMessages.add(pendingRequest.requestMessage);
+            messagePriority = Math.max(messagePriority, pendingRequest.messagePriority);
+        }
+
+        try {
+            this.sendBatchRequest(new SigningBatchRequest(requestMessages), messagePriority);
+            this.requestMessageCount.incrementAndGet();
+        } catch (final RuntimeException e) {
+            this.fail(batch, e);
+        }
+    }
+
+    private void sendOrFail(final List<PendingRequest> batch) {
+        final PendingRequest pendingRequest = batch.get(0);
+        try {
+            this.send(pendingRequest.requestMessage, pendingRequest.messagePriority);
+        } catch (final RuntimeException e) {
+            this.fail(batch, e);
+        }
+    }
+
+    private void send(final RequestMessage requestMessage, final int messagePriority) {
+        this.sendRequest(requestMessage, messagePriority);
+        this.requestMessageCount.incrementAndGet();
+    }
+
+    /**
+     * Sends a single signing request to the signing server.
+     */
+    protected void sendRequest(final RequestMessage requestMessage, final int messagePriority) {
+        this.signingServerRequestMessageSender.send(requestMessage, SIGNING_REQUEST_MESSAGE_TYPE, messagePriority);
+    }
+
+    /**
+     * Sends a batch of signing requests to the signing server in a single
+     * message.
+     */
+    protected void sendBatchRequest(final SigningBatchRequest signingBatchRequest, final int messagePriority) {
+        this.signingServerRequestMessageSender.sendBatch(signingBatchRequest, messagePriority);
+    }
+
+    /**
+     * Reports a request which could not be sent to the signing server.
+     */
+    protected void handleSigningFailure(final RequestMessage requestMessage, final int messagePriority,
+            final RuntimeException cause) {
+        this.oslpSigningService.handleSigningFailure(requestMessage, messagePriority, cause);
+    }
+
+    /**
+     * The requests of a batch are sent on the dispatcher thread, so failures
+     * can't be thrown to the threads offering them.
+     */
+    private void fail(final List<PendingRequest> batch, final RuntimeException e) {
+        LOGGER.error("Unable to send {} signing requests to signing server", batch.size(), e);
+        this.failedCount.addAndGet(batch.size());
+        for (final PendingRequest pendingRequest : batch) {
+            this.handleSigningFailure(pendingRequest.requestMessage, pendingRequest.messagePriority, e);
+        }
+    }
+
+    public int getMaxBatchSize() {
+        return this.maxBatchSize;
+    }
+
+    /**
+     * @return the number of envelopes offered for signing.
+     */
+    public long getEnvelopeCount() {
+        return this.envelopeCount.get();
+    }
+
+    /**
+     * @return the number of messages sent to the signing server, a batch
+     *         counting as one message.
+     */
+    public long getRequestMessageCount() {
+        return this.requestMessageCount.get();
+    }
+
+    /**
+     * @return the number of envelopes which could not be sent to the signing
+     *         server.
+     */
+    public long getFailedCount() {
+        return this.failedCount.get();
+    }
+
+    /**
+     * @return the number of envelopes waiting to be added to a batch.
+     */
+    public int getPendingCount() {
+        return this.pendingRequests.size();
+    }
+
+    /**
+     * @return histogram of the number of envelopes per message sent.
+     */
+    public OslpHistogram getBatchSizeHistogram() {
+        return this.batchSizeHistogram;
+    }
+
+    private static class PendingRequest {
+        private final RequestMessage requestMessage;
+        private final int messagePriority;
+        private final long offeredNanos = System.nanoTime();
+
+        PendingRequest(final RequestMessage requestMessage, final int messagePriority) {
+            this.requestMessage = requestMessage;
+            this.messagePriority = messagePriority;
+        }
+    }
+}
@@ -7,14 +7,18 @@
  */
 package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging;
 
+import java.nio.ByteBuffer;
+
 import org.apache.commons.lang3.StringUtils;
 
-import com.google.protobuf.Message;
+import org.opensmartgridplatform.oslp.OslpEnvelope;
 
 public class OslpLogItemRequestMessage {
 
     private static final int MAX_MESSAGE_LENGTH = 8000;
 
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
     private boolean incoming;
 
     private String deviceUid;
@@ -32,18 +36,19 @@ public class OslpLogItemRequestMessage {
     private int payloadMessageSerializedSize;
 
     public OslpLogItemRequestMessage(final String organisationIdentification, final String deviceUid,
-            final String deviceIdentification, final boolean incoming, final boolean valid, final Message message,
-            final int payloadMessageSerializedSize) {
+            final String deviceIdentification, final boolean incoming, final boolean valid,
+            final OslpEnvelope envelope) {
         this.organisationIdentification = organisationIdentification;
         this.deviceUid = deviceUid;
         this.deviceIdentification = deviceIdentification;
         this.incoming = incoming;
         this.valid = valid;
-        this.payloadMessageSerializedSize = payloadMessageSerializedSize;
+        this.payloadMessageSerializedSize = envelope.getSize();
 
-        // Truncate the log-items to max length.
-        this.encodedMessage = StringUtils.substring(bytesToCArray(message.toByteArray()), 0, MAX_MESSAGE_LENGTH);
-        this.decodedMessage = StringUtils.substring(message.toString(), 0, MAX_MESSAGE_LENGTH);
+        // Truncate the log-items to max length. The serialized payload cached
+        // by the envelope is used, instead of serializing the payload again.
+        this.encodedMessage = bytesToCArray(envelope.getSerializedPayload(), MAX_MESSAGE_LENGTH);
+        this.decodedMessage = StringUtils.substring(envelope.getPayloadMessage().toString(), 0, MAX_MESSAGE_LENGTH);
     }
 
     public Boolean isIncoming() {
@@ -70,17 +75,20 @@ public class OslpLogItemRequestMessage {
         return this.organisationIdentification;
     }
 
-    private static String bytesToCArray(final byte[] bytes) {
-        String s = "";
-        if (bytes.length > 0) {
-            s = javax.xml.bind.DatatypeConverter.printHexBinary(bytes);
-            // Split every two chars with
-            // ', ' to create a C array.
-            s = s.replaceAll("(.{2})", ", 0x$1");
-            // Remove the leading comma.
-            s = s.substring(2);
+    /**
+     * Formats the bytes as a C array of hex values, for instance
+     * "0x0A, 0xFF", truncated to the given maximum length.
+     */
+    private static String bytesToCArray(final ByteBuffer bytes, final int maxLength) {
+        final StringBuilder s = new StringBuilder(Math.min(maxLength, bytes.remaining() * 6));
+        while (bytes.hasRemaining() && s.length() < maxLength) {
+            if (s.length() > 0) {
+                s.append(", ");
+            }
+            final int b = bytes.get() & 0xFF;
+            s.append("0x").append(HEX_DIGITS[b >>> 4]).append(HEX_DIGITS[b & 0x0F]);
         }
-        return s;
+        return StringUtils.substring(s.toString(), 0, maxLength);
     }
 
     public Boolean isValid() {
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.EmbeddedOslpSigner;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpSigner;
+
+/**
+ * Logs the counters of the {@link JmsOslpSigner} and the
+ * {@link SigningServerResponsesMessageListener}, or of the
+ * {@link EmbeddedOslpSigner}, at a fixed interval.
+ */
+public class OslpSignerMetricsLogger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OslpSignerMetricsLogger.class);
+
+    private final OslpSigner oslpSigner;
+
+    private final SigningServerResponsesMessageListener signingServerResponsesMessageListener;
+
+    private final ScheduledExecutorService logExecutor;
+
+    /**
+     * @param interval
+     *            time in milliseconds between the log lines, 0 disables
+     *            logging.
+     */
+    public OslpSignerMetricsLogger(final OslpSigner oslpSigner,
+            final SigningServerResponsesMessageListener signingServerResponsesMessageListener, final long interval) {
+        this.oslpSigner = oslpSigner;
+        this.signingServerResponsesMessageListener = signingServerResponsesMessageListener;
+
+        if (interval <= 0) {
+            this.logExecutor = null;
+            return;
+        }
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("oslp-signer-metrics-");
+        threadFactory.setDaemon(true);
+        this.logExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.logExecutor.scheduleWithFixedDelay(this::log, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void log() {
+        if (this.oslpSigner instanceof EmbeddedOslpSigner) {
+            final EmbeddedOslpSigner embeddedOslpSigner = (EmbeddedOslpSigner) this.oslpSigner;
+            LOGGER.info("Signing in process: signed: {}, failed: {}", embeddedOslpSigner.getSignedCount(),
+                    embeddedOslpSigner.getFailedCount());
+            return;
+        }
+        if (!(this.oslpSigner instanceof JmsOslpSigner)) {
+            return;
+        }
+        final JmsOslpSigner jmsOslpSigner = (JmsOslpSigner) this.oslpSigner;
+        LOGGER.info("Signing requests: envelopes: {}, messages: {}, failed: {}, pending: {}, envelopes per message: {}",
+                jmsOslpSigner.getEnvelopeCount(), jmsOslpSigner.getRequestMessageCount(),
+                jmsOslpSigner.getFailedCount(), jmsOslpSigner.getPendingCount(),
+                jmsOslpSigner.getBatchSizeHistogram());
+        LOGGER.info("Signing responses: messages: {}, envelopes: {}",
+                this.signingServerResponsesMessageListener.getResponseMessageCount(),
+                this.signingServerResponsesMessageListener.getEnvelopeCount());
+    }
+
+    public void stop() {
+        if (this.logExecutor != null) {
+            this.logExecutor.shutdownNow();
+        }
+    }
+}
@@ -7,9 +7,11 @@
  */
 package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging;
 
+import java.io.Serializable;
+
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.Message;
-import javax.jms.ObjectMessage;
 import javax.jms.Session;
 
 import org.apache.activemq.command.ActiveMQDestination;
@@ -20,6 +22,8 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jms.core.JmsTemplate;
 import org.springframework.jms.core.MessageCreator;
 
+import org.opensmartgridplatform.oslp.OslpSigningMessageCodec;
+import org.opensmartgridplatform.oslp.SigningBatchRequest;
 import org.opensmartgridplatform.shared.infra.jms.Constants;
 import org.opensmartgridplatform.shared.infra.jms.RequestMessage;
 import org.opensmartgridplatform.shared.wsheaderattribute.priority.MessagePriorityEnum;
@@ -35,6 +39,17 @@ public class SigningServerRequestMessageSender {
     @Autowired
     private ActiveMQDestination replyToQueue;
 
+    private boolean bytesMessages;
+
+    /**
+     * Sets whether messages are sent as BytesMessage in the format of the
+     * {@link OslpSigningMessageCodec}, instead of as Java serialized
+     * ObjectMessage. The signing server replies in the format of the request.
+     */
+    public void setBytesMessages(final boolean bytesMessages) {
+        this.bytesMessages = bytesMessages;
+    }
+
     public void send(final RequestMessage requestMessage, final String messageType) {
         this.send(requestMessage, messageType, MessagePriorityEnum.DEFAULT.getPriority());
     }
@@ -47,20 +62,54 @@ public class SigningServerRequestMessageSender {
 
             @Override
             public Message createMessage(final Session session) throws JMSException {
-                final ObjectMessage objectMessage = session.createObjectMessage(requestMessage);
-                objectMessage.setJMSType(messageType);
-                objectMessage.setJMSPriority(messagePriority);
-                objectMessage.setJMSReplyTo(SigningServerRequestMessageSender.this.replyToQueue);
-                objectMessage.setJMSCorrelationID(requestMessage.getCorrelationUid());
-                objectMessage.setStringProperty(Constants.ORGANISATION_IDENTIFICATION,
+                final Message jmsMessage = SigningServerRequestMessageSender.this.createMessage(session,
+                        requestMessage);
+                jmsMessage.setJMSType(messageType);
+                jmsMessage.setJMSPriority(messagePriority);
+                jmsMessage.setJMSReplyTo(SigningServerRequestMessageSender.this.replyToQueue);
+                jmsMessage.setJMSCorrelationID(requestMessage.getCorrelationUid());
+                jmsMessage.setStringProperty(Constants.ORGANISATION_IDENTIFICATION,
                         requestMessage.getOrganisationIdentification());
-                objectMessage.setStringProperty(Constants.DEVICE_IDENTIFICATION,
+                jmsMessage.setStringProperty(Constants.DEVICE_IDENTIFICATION,
                         requestMessage.getDeviceIdentification());
 
-                return objectMessage;
+                return jmsMessage;
+            }
+
+        });
+    }
+
+    /**
+     * Sends the signing requests of the batch in a single message. The signing
+     * server replies with a single message holding the response of each
+     * request.
+     */
+    public void sendBatch(final SigningBatchRequest signingBatchRequest, final int messagePriority) {
+        LOGGER.info("Sending batch of {} request messages to signing server, with reply-to-queue: {}.",
+                signingBatchRequest.size(), this.replyToQueue.toString());
+
+        this.signingServerRequestsJmsTemplate.send(new MessageCreator() {
+
+            @Override
+            public Message createMessage(final Session session) throws JMSException {
+                final Message jmsMessage = SigningServerRequestMessageSender.this.createMessage(session,
+                        signingBatchRequest);
+                jmsMessage.setJMSType(SigningBatchRequest.MESSAGE_TYPE);
+                jmsMessage.setJMSPriority(messagePriority);
+                jmsMessage.setJMSReplyTo(SigningServerRequestMessageSender.this.replyToQueue);
+
+                return jmsMessage;
             }
 
         });
     }
 
+    private Message createMessage(final Session session, final Serializable message) throws JMSException {
+        if (!this.bytesMessages) {
+            return session.createObjectMessage(message);
+        }
+        final BytesMessage bytesMessage = session.createBytesMessage();
+        bytesMessage.writeBytes(OslpSigningMessageCodec.encode(message));
+        return bytesMessage;
+    }
 }
@@ -7,6 +7,10 @@
  */
 package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging;
 
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
@@ -18,7 +22,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpSigningService;
+import org.opensmartgridplatform.oslp.OslpSigningMessageCodec;
 import org.opensmartgridplatform.oslp.SignedOslpEnvelopeDto;
+import org.opensmartgridplatform.oslp.SigningBatchResponse;
 import org.opensmartgridplatform.shared.infra.jms.Constants;
 import org.opensmartgridplatform.shared.infra.jms.ResponseMessage;
 import org.opensmartgridplatform.shared.infra.jms.ResponseMessageResultType;
@@ -31,37 +37,118 @@ public class SigningServerResponsesMessageListener implements MessageListener {
     @Autowired
     private OslpSigningService oslpSigningService;
 
+    private final AtomicLong responseMessageCount = new AtomicLong();
+    private final AtomicLong envelopeCount = new AtomicLong();
+
     @Override
     public void onMessage(final Message message) {
         try {
             LOGGER.info("Received message of type: {}", message.getJMSType());
+            this.responseMessageCount.incrementAndGet();
+
+            final String messageType = message.getJMSType();
+            final int messagePriority = message.getJMSPriority();
+            final Serializable object = getObject(message);
 
-            final ObjectMessage objectMessage = (ObjectMessage) message;
-            final String messageType = objectMessage.getJMSType();
-            final int messagePriority = objectMessage.getJMSPriority();
-            final String correlationId = objectMessage.getJMSCorrelationID();
-            final String deviceIdentification = objectMessage.getStringProperty(Constants.DEVICE_IDENTIFICATION);
-            final ResponseMessage responseMessage = (ResponseMessage) objectMessage.getObject();
-            final ResponseMessageResultType result = responseMessage == null ? null : responseMessage.getResult();
-
-            // Check the result.
-            if (result.equals(ResponseMessageResultType.NOT_OK)) {
-                LOGGER.error("OslpEnvelope was not signed by signing-server. Unable to send request to device: {}",
-                        deviceIdentification);
-                this.oslpSigningService.handleError(deviceIdentification, responseMessage);
+            if (SigningBatchResponse.MESSAGE_TYPE.equals(messageType)) {
+                final SigningBatchResponse signingBatchResponse = (SigningBatchResponse) object;
+                LOGGER.info("Read batch of {} signed messages, messagePriority: {}", signingBatchResponse.size(),
+                        messagePriority);
+
+                // Each response carries the correlation UID and device of its
+                // own request. A failing response must not keep the others
+                // from being handled, nor have them redelivered.
+                for (final ResponseMessage responseMessage : signingBatchResponse.getResponseMessages()) {
+                    try {
+                        this.handleResponseMessage(responseMessage, messageType, responseMessage.getMessagePriority(),
+                                responseMessage.getDeviceIdentification(), responseMessage.getCorrelationUid());
+                    } catch (final RuntimeException e) {
+                        LOGGER.error("Unable to handle signed message with correlationId: {}",
+                                responseMessage.getCorrelationUid(), e);
+                    }
+                }
                 return;
             }
 
-            LOGGER.info(
-                    "Read signed message, messageType: {}, messagePriority: {}, deviceIdentification: {}, result: {}, correlationId: {}",
-                    messageType, messagePriority, deviceIdentification, result, correlationId);
-
-            // Get the DTO object containing signed OslpEnvelope.
-            final SignedOslpEnvelopeDto signedOslpEnvelopeDto = (SignedOslpEnvelopeDto) responseMessage.getDataObject();
+            final String correlationId = message.getJMSCorrelationID();
+            final String deviceIdentification = message.getStringProperty(Constants.DEVICE_IDENTIFICATION);
+            final ResponseMessage responseMessage = (ResponseMessage) object;
 
-            this.oslpSigningService.handleSignedOslpEnvelope(signedOslpEnvelopeDto, deviceIdentification);
+            this.handleResponseMessage(responseMessage, messageType, messagePriority, deviceIdentification,
+                    correlationId);
         } catch (final JMSException ex) {
             LOGGER.error("Exception: {} ", ex.getMessage(), ex);
+        } catch (final IllegalArgumentException ex) {
+            LOGGER.error("Unable to decode message: {} ", ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * @return the object of an ObjectMessage, or the message decoded from the
+     *         body of a BytesMessage.
+     */
+    private static Serializable getObject(final Message message) throws JMSException {
+        if (message instanceof BytesMessage) {
+            final BytesMessage bytesMessage = (BytesMessage) message;
+            final byte[] bytes = new byte[(int) bytesMessage.getBodyLength()];
+            bytesMessage.readBytes(bytes);
+            return OslpSigningMessageCodec.decode(bytes);
+        }
+        return ((ObjectMessage) message).getObject();
+    }
+
+    private void handleResponseMessage(final ResponseMessage responseMessage, final String messageType,
+            final int messagePriority, final String deviceIdentification, final String correlationId) {
+        this.envelopeCount.incrementAndGet();
+        final ResponseMessageResultType result = responseMessage == null ? null : responseMessage.getResult();
+
+        // Check the result.
+        if (result.equals(ResponseMessageResultType.NOT_OK)) {
+            LOGGER.error("OslpEnvelope was not signed by signing-server. Unable to send request to device: {}",
+                    deviceIdentification);
+            this.handleError(deviceIdentification, responseMessage);
+            return;
         }
+
+        LOGGER.info(
+                "Read signed message, messageType: {}, messagePriority: {}, deviceIdentification: {}, result: {}, correlationId: {}",
+                messageType, messagePriority, deviceIdentification, result, correlationId);
+
+        // Get the DTO object containing signed OslpEnvelope.
+        final SignedOslpEnvelopeDto signedOslpEnvelopeDto = (SignedOslpEnvelopeDto) responseMessage.getDataObject();
+
+        this.handleSignedOslpEnvelope(signedOslpEnvelopeDto, deviceIdentification);
+    }
+
+    /**
+     * Hands the signed envelope to the {@link OslpSigningService}.
+     */
+    protected void handleSignedOslpEnvelope(final SignedOslpEnvelopeDto signedOslpEnvelopeDto,
+            final String deviceIdentification) {
+        this.oslpSigningService.handleSignedOslpEnvelope(signedOslpEnvelopeDto, deviceIdentification);
+    }
+
+    /**
+     * Hands an envelope the signing server did not sign to the
+     * {@link OslpSigningService}.
+     */
+    protected void handleError(final String deviceIdentification, final ResponseMessage responseMessage) {
+        this.oslpSigningService.handleError(deviceIdentification, responseMessage);
+    }
+
+    /**
+     * @return the number of messages received from the signing server, a
+     *         batch counting as one message.
+     */
+    public long getResponseMessageCount() {
+        return this.responseMessageCount.get();
+    }
+
+    /**
+     * @return the number of signed envelopes and errors received from the
+     *         signing server.
+     */
+    public long getEnvelopeCount() {
+        return this.envelopeCount.get();
     }
 }
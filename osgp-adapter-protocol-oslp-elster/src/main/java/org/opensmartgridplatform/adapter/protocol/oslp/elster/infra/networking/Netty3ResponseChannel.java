@@ -0,0 +1,40 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
+
+import org.jboss.netty.channel.Channel;
+
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+
+class Netty3ResponseChannel implements OslpResponseChannel {
+
+    private final Channel channel;
+
+    Netty3ResponseChannel(final Channel channel) {
+        this.channel = channel;
+    }
+
+    static String getId(final Channel channel) {
+        return channel.getId().toString();
+    }
+
+    @Override
+    public String getId() {
+        return getId(this.channel);
+    }
+
+    @Override
+    public void write(final OslpEnvelope response) {
+        this.channel.write(response);
+    }
+
+    @Override
+    public void close() {
+        this.channel.close();
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
+
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.AttributeKey;
+
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+
+/**
+ * Netty 4 version of the {@link OslpSecurityHandler}, validating received
+ * messages with the public key of the device they claim to be from. The device
+ * identity is resolved by the {@link OslpSecurityHandler}, so both transports
+ * share its key cache.
+ */
+@Sharable
+public class Netty4OslpSecurityHandler extends SimpleChannelInboundHandler<OslpEnvelope> {
+
+    /**
+     * Identity of the device which sent the message being handled on the
+     * channel, or null when the device is unknown.
+     */
+    public static final AttributeKey<OslpDeviceIdentity> DEVICE_IDENTITY = AttributeKey
+            .valueOf(Netty4OslpSecurityHandler.class, "deviceIdentity");
+
+    private final OslpSecurityHandler oslpSecurityHandler;
+
+    public Netty4OslpSecurityHandler(final OslpSecurityHandler oslpSecurityHandler) {
+        super(false);
+        this.oslpSecurityHandler = oslpSecurityHandler;
+    }
+
+    @Override
+    protected void channelRead0(final ChannelHandlerContext ctx, final OslpEnvelope message) throws Exception {
+        final OslpDeviceIdentity identity = this.oslpSecurityHandler.getDeviceIdentity(message);
+
+        // When device is unknown or publickey is not available, the message is
+        // not valid.
+        if (identity != null) {
+            message.validate(identity.getPublicKey());
+        }
+
+        ctx.channel().attr(DEVICE_IDENTITY).set(identity);
+        ctx.fireChannelRead(message);
+    }
+}
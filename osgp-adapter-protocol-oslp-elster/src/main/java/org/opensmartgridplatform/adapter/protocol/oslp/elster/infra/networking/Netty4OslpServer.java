@@ -0,0 +1,178 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import org.opensmartgridplatform.oslp.Netty4OslpDecoder;
+import org.opensmartgridplatform.oslp.Netty4OslpEncoder;
+
+/**
+ * Netty 4 transport for the connections devices open to the platform. It runs
+ * next to the Netty 3 server on its own port, sharing the security and request
+ * handling, so devices can be moved over during the migration.
+ *
+ * Only the inbound connections are served by Netty 4. Requests the platform
+ * sends to devices ({@link OslpChannelHandlerClient}) and the device simulator
+ * stay on Netty 3, so oslp.netty4.enabled does not affect them.
+ *
+ * Buffers are taken from the pooled allocator. On Linux the native epoll
+ * transport is used when enabled and available. The event loops and the
+ * executors on which messages are verified and handled are bounded.
+ */
+public class Netty4OslpServer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Netty4OslpServer.class);
+
+    private int port;
+    private boolean epollEnabled;
+    private int workerThreads;
+    private int executionThreads;
+    private int maxFrameLength;
+    private String signature;
+    private String provider;
+    private long readerIdleTime;
+    private long writerIdleTime;
+    private long allIdleTime;
+
+    private final Netty4OslpSecurityHandler securityHandler;
+    private final Netty4OslpServerHandler serverHandler;
+    private final Netty4OslpEncoder encoder = new Netty4OslpEncoder();
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private EventExecutorGroup executionGroup;
+    private Channel serverChannel;
+
+    public Netty4OslpServer(final Netty4OslpSecurityHandler securityHandler,
+            final Netty4OslpServerHandler serverHandler) {
+        this.securityHandler = securityHandler;
+        this.serverHandler = serverHandler;
+    }
+
+    public void setPort(final int port) {
+        this.port = port;
+    }
+
+    public void setEpollEnabled(final boolean epollEnabled) {
+        this.epollEnabled = epollEnabled;
+    }
+
+    /**
+     * @param workerThreads
+     *            number of I/O threads, 0 to use the number of cores.
+     */
+    public void setWorkerThreads(final int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public void setExecutionThreads(final int executionThreads) {
+        this.executionThreads = executionThreads;
+    }
+
+    public void setMaxFrameLength(final int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    public void setSignature(final String signature) {
+        this.signature = signature;
+    }
+
+    public void setProvider(final String provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Sets the idle times in milliseconds after which a connection is closed,
+     * an idle time of 0 disables the check.
+     */
+    public void setIdleTimes(final long readerIdleTime, final long writerIdleTime, final long allIdleTime) {
+        this.readerIdleTime = readerIdleTime;
+        this.writerIdleTime = writerIdleTime;
+        this.allIdleTime = allIdleTime;
+    }
+
+    public void start() throws InterruptedException {
+        final int ioThreads = this.workerThreads > 0 ? this.workerThreads
+                : Runtime.getRuntime().availableProcessors();
+        final boolean epoll = this.epollEnabled && Epoll.isAvailable();
+        final Class<? extends ServerChannel> channelClass;
+        if (epoll) {
+            this.bossGroup = new EpollEventLoopGroup(1, new CustomizableThreadFactory("oslp-netty4-boss-"));
+            this.workerGroup = new EpollEventLoopGroup(ioThreads,
+                    new CustomizableThreadFactory("oslp-netty4-worker-"));
+            channelClass = EpollServerSocketChannel.class;
+        } else {
+            this.bossGroup = new NioEventLoopGroup(1, new CustomizableThreadFactory("oslp-netty4-boss-"));
+            this.workerGroup = new NioEventLoopGroup(ioThreads, new CustomizableThreadFactory("oslp-netty4-worker-"));
+            channelClass = NioServerSocketChannel.class;
+        }
+        this.executionGroup = new DefaultEventExecutorGroup(this.executionThreads,
+                new CustomizableThreadFactory("oslp-netty4-execution-"));
+
+        final ServerBootstrap bootstrap = new ServerBootstrap().group(this.bossGroup, this.workerGroup)
+                .channel(channelClass).childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.SO_KEEPALIVE, false)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(final SocketChannel channel) {
+                        Netty4OslpServer.this.initPipeline(channel);
+                    }
+                });
+
+        this.serverChannel = bootstrap.bind(this.port).sync().channel();
+        LOGGER.info("Netty 4 OSLP server listening on port {} using {} with {} I/O threads", this.port,
+                epoll ? "epoll" : "NIO", ioThreads);
+    }
+
+    private void initPipeline(final SocketChannel channel) {
+        if (this.readerIdleTime > 0 || this.writerIdleTime > 0 || this.allIdleTime > 0) {
+            channel.pipeline().addLast("idleStateHandler", new IdleStateHandler(this.readerIdleTime,
+                    this.writerIdleTime, this.allIdleTime, TimeUnit.MILLISECONDS));
+        }
+        channel.pipeline().addLast("oslpEncoder", this.encoder);
+        channel.pipeline().addLast("oslpDecoder",
+                new Netty4OslpDecoder(this.signature, this.provider, this.maxFrameLength));
+        // Verification and handling of messages run on the execution group,
+        // in order per channel, instead of on the I/O threads.
+        channel.pipeline().addLast(this.executionGroup, "oslpSecurity", this.securityHandler);
+        channel.pipeline().addLast(this.executionGroup, "oslpChannelHandler", this.serverHandler);
+    }
+
+    public void stop() {
+        if (this.serverChannel != null) {
+            this.serverChannel.close().syncUninterruptibly();
+        }
+        if (this.bossGroup != null) {
+            this.bossGroup.shutdownGracefully();
+            this.workerGroup.shutdownGracefully();
+            this.executionGroup.shutdownGracefully();
+        }
+    }
+}
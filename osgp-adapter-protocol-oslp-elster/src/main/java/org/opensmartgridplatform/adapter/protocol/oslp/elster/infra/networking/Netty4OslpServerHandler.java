@@ -0,0 +1,76 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
+
+import java.io.IOException;
+
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.timeout.IdleStateEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+
+/**
+ * Passes requests received from devices on the Netty 4 transport to the
+ * {@link OslpChannelHandlerServer}, which handles them for both transports.
+ */
+@Sharable
+public class Netty4OslpServerHandler extends SimpleChannelInboundHandler<OslpEnvelope> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Netty4OslpServerHandler.class);
+
+    private final OslpChannelHandlerServer oslpChannelHandlerServer;
+
+    private final OslpPendingResponses oslpPendingResponses;
+
+    public Netty4OslpServerHandler(final OslpChannelHandlerServer oslpChannelHandlerServer,
+            final OslpPendingResponses oslpPendingResponses) {
+        this.oslpChannelHandlerServer = oslpChannelHandlerServer;
+        this.oslpPendingResponses = oslpPendingResponses;
+    }
+
+    @Override
+    protected void channelRead0(final ChannelHandlerContext ctx, final OslpEnvelope message) throws Exception {
+        final OslpDeviceIdentity identity = ctx.channel().attr(Netty4OslpSecurityHandler.DEVICE_IDENTITY).get();
+        this.oslpChannelHandlerServer.handleRequest(message, identity, new Netty4ResponseChannel(ctx.channel()));
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+        final String channelId = Netty4ResponseChannel.getId(ctx.channel());
+        LOGGER.info("{} Channel closed", channelId);
+        this.oslpPendingResponses.closed(channelId);
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void userEventTriggered(final ChannelHandlerContext ctx, final Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent) {
+            LOGGER.info("{} Closing connection to {}, {}", Netty4ResponseChannel.getId(ctx.channel()),
+                    ctx.channel().remoteAddress(), ((IdleStateEvent) evt).state());
+            ctx.close();
+        } else {
+            super.userEventTriggered(ctx, evt);
+        }
+    }
+
+    @Override
+    public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+        final String channelId = Netty4ResponseChannel.getId(ctx.channel());
+        if (cause instanceof IOException && cause.getMessage() != null
+                && cause.getMessage().contains("Connection reset by peer")) {
+            LOGGER.info("{} Connection was (as expected) reset by the device.", channelId);
+        } else {
+            LOGGER.warn("{} Unexpected exception from downstream.", channelId, cause);
+        }
+        ctx.close();
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
+
+import io.netty.channel.Channel;
+
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+
+class Netty4ResponseChannel implements OslpResponseChannel {
+
+    private final Channel channel;
+
+    Netty4ResponseChannel(final Channel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Netty 4 channel ids are prefixed, so they never clash with the numeric
+     * Netty 3 channel ids.
+     */
+    static String getId(final Channel channel) {
+        return "n4-" + channel.id().asLongText();
+    }
+
+    @Override
+    public String getId() {
+        return getId(this.channel);
+    }
+
+    @Override
+    public void write(final OslpEnvelope response) {
+        this.channel.writeAndFlush(response);
+    }
+
+    @Override
+    public void close() {
+        this.channel.close();
+    }
+}
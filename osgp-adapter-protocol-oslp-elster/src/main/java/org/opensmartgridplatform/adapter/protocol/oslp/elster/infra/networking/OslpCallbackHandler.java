@@ -7,16 +7,40 @@
  */
 package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
 
-
 public class OslpCallbackHandler {
 
     private final OslpResponseHandler responseHandler;
 
+    private final String deviceIdentification;
+
+    private final boolean keepOpen;
+
     public OslpCallbackHandler(final OslpResponseHandler responseHandler) {
+        this(responseHandler, null, false);
+    }
+
+    /**
+     * @param keepOpen
+     *            indicates whether the connection should be kept open after
+     *            the response, for a following step of the same conversation
+     *            with the device.
+     */
+    public OslpCallbackHandler(final OslpResponseHandler responseHandler, final String deviceIdentification,
+            final boolean keepOpen) {
         this.responseHandler = responseHandler;
+        this.deviceIdentification = deviceIdentification;
+        this.keepOpen = keepOpen;
     }
 
     protected OslpResponseHandler getDeviceResponseHandler() {
         return this.responseHandler;
     }
+
+    protected String getDeviceIdentification() {
+        return this.deviceIdentification;
+    }
+
+    protected boolean isKeepOpen() {
+        return this.keepOpen;
+    }
 }
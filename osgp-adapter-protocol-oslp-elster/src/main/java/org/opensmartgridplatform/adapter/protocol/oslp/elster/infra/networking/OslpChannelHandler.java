@@ -8,8 +8,6 @@
 package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
 
 import java.io.IOException;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Resource;
 
@@ -52,7 +50,8 @@ public abstract class OslpChannelHandler extends SimpleChannelHandler {
     @Autowired
     private DeviceDataService deviceDataService;
 
-    protected final ConcurrentMap<Integer, OslpCallbackHandler> callbackHandlers = new ConcurrentHashMap<>();
+    @Autowired
+    protected OslpInFlightRequests oslpInFlightRequests;
 
     protected OslpChannelHandler(final Logger logger) {
         this.logger = logger;
@@ -66,6 +65,10 @@ public abstract class OslpChannelHandler extends SimpleChannelHandler {
         this.oslpSignature = signature;
     }
 
+    public void setOslpInFlightRequests(final OslpInFlightRequests oslpInFlightRequests) {
+        this.oslpInFlightRequests = oslpInFlightRequests;
+    }
+
     @Override
     public void channelOpen(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception {
         this.logger.info("{} Channel opened", e.getChannel().getId());
@@ -97,15 +100,27 @@ public abstract class OslpChannelHandler extends SimpleChannelHandler {
             this.logger.info("{} Connection was (as expected) reset by the device.", channelId);
         } else {
             this.logger.warn("{} Unexpected exception from downstream. {}", channelId, e.getCause());
-            this.callbackHandlers.get(channelId).getDeviceResponseHandler().handleException(e.getCause());
+            final OslpCallbackHandler callbackHandler = this.oslpInFlightRequests.remove(channelId);
+            if (callbackHandler != null) {
+                callbackHandler.getDeviceResponseHandler().handleException(e.getCause());
+            }
         }
         e.getChannel().close();
     }
 
-    protected void logMessage(final OslpEnvelope message, final boolean incoming) {
+    /**
+     * @param knownDeviceIdentification
+     *            identification of the device when already known, so the
+     *            device does not have to be looked up, or null.
+     */
+    protected void logMessage(final OslpEnvelope message, final boolean incoming,
+            final String knownDeviceIdentification) {
 
         final String deviceUid = Base64.encodeBase64String(message.getDeviceId());
         String deviceIdentification = this.getDeviceIdentificationFromMessage(message.getPayloadMessage());
+        if (StringUtils.isEmpty(deviceIdentification)) {
+            deviceIdentification = knownDeviceIdentification;
+        }
 
         // Assume outgoing messages always valid.
         final boolean isValid = !incoming || message.isValid();
@@ -119,7 +134,7 @@ public abstract class OslpChannelHandler extends SimpleChannelHandler {
         }
 
         final OslpLogItemRequestMessage oslpLogItemRequestMessage = new OslpLogItemRequestMessage(null, deviceUid,
-                deviceIdentification, incoming, isValid, message.getPayloadMessage(), message.getSize());
+                deviceIdentification, incoming, isValid, message);
 
         this.oslpLogItemRequestMessageSender.send(oslpLogItemRequestMessage);
     }
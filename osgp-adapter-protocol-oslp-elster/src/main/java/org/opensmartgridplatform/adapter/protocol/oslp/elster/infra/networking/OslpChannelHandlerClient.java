@@ -9,6 +9,12 @@ package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.channel.Channel;
@@ -18,6 +24,7 @@ import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -37,10 +44,50 @@ public class OslpChannelHandlerClient extends OslpChannelHandler {
     @Autowired
     private DeviceRegistrationService deviceRegistrationService;
 
+    @Autowired
+    private Timer oslpTimer;
+
+    /**
+     * Indicates whether connections are kept open between the steps or pages
+     * of one conversation with a device.
+     */
+    private boolean conversationEnabled;
+
+    /**
+     * Time in milliseconds an open connection waits for the next step of a
+     * conversation before it is closed.
+     */
+    private long conversationIdleTimeout;
+
+    /**
+     * Connections kept open for the next step of a conversation, by device
+     * identification.
+     */
+    private final ConcurrentMap<String, ConversationChannel> conversationChannels = new ConcurrentHashMap<>();
+
+    /**
+     * Number of connects saved by reusing an open connection, by message type.
+     */
+    private final ConcurrentMap<String, AtomicLong> savedConnects = new ConcurrentHashMap<>();
+
+    private final AtomicLong connectCount = new AtomicLong();
+
     public OslpChannelHandlerClient() {
         super(LOGGER);
     }
 
+    public void setConversationEnabled(final boolean conversationEnabled) {
+        this.conversationEnabled = conversationEnabled;
+    }
+
+    public void setConversationIdleTimeout(final long conversationIdleTimeout) {
+        this.conversationIdleTimeout = conversationIdleTimeout;
+    }
+
+    public long getConversationIdleTimeout() {
+        return this.conversationIdleTimeout;
+    }
+
     public void setDeviceRegistrationService(final DeviceRegistrationService deviceRegistrationService) {
         this.deviceRegistrationService = deviceRegistrationService;
     }
@@ -53,17 +100,25 @@ public class OslpChannelHandlerClient extends OslpChannelHandler {
         this.bootstrap = bootstrap;
     }
 
+    public void setOslpTimer(final Timer oslpTimer) {
+        this.oslpTimer = oslpTimer;
+    }
+
     @Override
     public void channelDisconnected(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception {
-        final int channelId = e.getChannel().getId();
-        if (this.callbackHandlers.containsKey(channelId)) {
-            this.callbackHandlers.get(channelId).getDeviceResponseHandler()
-                    .handleException(new NoDeviceResponseException());
-            this.callbackHandlers.remove(channelId);
+        final OslpCallbackHandler callbackHandler = this.oslpInFlightRequests.remove(e.getChannel().getId());
+        if (callbackHandler != null) {
+            callbackHandler.getDeviceResponseHandler().handleException(new NoDeviceResponseException());
         }
         super.channelDisconnected(ctx, e);
     }
 
+    @Override
+    public void channelClosed(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception {
+        this.conversationChannels.values().removeIf(conversation -> conversation.channel == e.getChannel());
+        super.channelClosed(ctx, e);
+    }
+
     @Override
     public void exceptionCaught(final ChannelHandlerContext ctx, final ExceptionEvent e) throws Exception {
         super.exceptionCaught(ctx, e);
@@ -80,13 +135,20 @@ public class OslpChannelHandlerClient extends OslpChannelHandler {
                 LOGGER.info("{} Received OSLP Response (before callback): {}", channelId, message.getPayloadMessage());
 
                 // Check the sequence number
-                final Integer sequenceNumber = SequenceNumberUtils
-                        .convertByteArrayToInteger(message.getSequenceNumber());
+                final int sequenceNumber = message.getSequenceNumberValue();
                 this.deviceRegistrationService.checkSequenceNumber(message.getDeviceId(), sequenceNumber);
 
-                final OslpCallbackHandler callbackHandler = this.callbackHandlers.get(channelId);
-                this.callbackHandlers.remove(channelId);
-                e.getChannel().close();
+                final OslpCallbackHandler callbackHandler = this.oslpInFlightRequests.remove(channelId);
+                if (callbackHandler == null) {
+                    LOGGER.warn("{} Received OSLP Response, which is no longer expected.", channelId);
+                    e.getChannel().close();
+                    return;
+                }
+                if (this.conversationEnabled && callbackHandler.isKeepOpen()) {
+                    this.keepOpen(callbackHandler.getDeviceIdentification(), e.getChannel());
+                } else {
+                    e.getChannel().close();
+                }
                 callbackHandler.getDeviceResponseHandler().handleResponse(message);
 
             } else {
@@ -100,12 +162,44 @@ public class OslpChannelHandlerClient extends OslpChannelHandler {
 
     public void send(final InetSocketAddress address, final OslpEnvelope request,
             final OslpResponseHandler responseHandler, final String deviceIdentification) throws IOException {
+        this.send(address, request, responseHandler, deviceIdentification, null, false);
+    }
+
+    /**
+     * Sends the request to the device. In conversation mode a connection kept
+     * open by the previous step of a conversation with the device is reused
+     * instead of connecting again.
+     *
+     * @param messageType
+     *            type of the request, used to count saved connects
+     * @param keepOpen
+     *            indicates whether another step of the conversation follows
+     *            after the response, so the connection should be kept open
+     */
+    public void send(final InetSocketAddress address, final OslpEnvelope request,
+            final OslpResponseHandler responseHandler, final String deviceIdentification, final String messageType,
+            final boolean keepOpen) throws IOException {
         LOGGER.info("Sending OSLP request: {}", request.getPayloadMessage());
 
+        final OslpCallbackHandler callbackHandler = new OslpCallbackHandler(responseHandler, deviceIdentification,
+                keepOpen);
+
+        final Channel openChannel = this.takeOpenChannel(deviceIdentification, address);
+        if (openChannel != null) {
+            LOGGER.info("{} Reusing connection to device {} for {}", openChannel.getId(), deviceIdentification,
+                    messageType);
+            this.savedConnects.computeIfAbsent(String.valueOf(messageType), key -> new AtomicLong())
+                    .incrementAndGet();
+            this.oslpInFlightRequests.add(openChannel, messageType, callbackHandler);
+            this.write(openChannel, address, request);
+            return;
+        }
+
         // Open connection and send message.
         final ChannelFuture channelFuture = this.bootstrap.connect(address);
+        this.connectCount.incrementAndGet();
 
-        this.callbackHandlers.put(channelFuture.getChannel().getId(), new OslpCallbackHandler(responseHandler));
+        this.oslpInFlightRequests.add(channelFuture.getChannel(), messageType, callbackHandler);
 
         channelFuture.addListener(new ChannelFutureListener() {
 
@@ -116,26 +210,31 @@ public class OslpChannelHandlerClient extends OslpChannelHandler {
             public void operationComplete(final ChannelFuture future) throws Exception {
 
                 if (future.isSuccess()) {
-                    OslpChannelHandlerClient.this.write(future, address, request);
+                    OslpChannelHandlerClient.this.write(future.getChannel(), address, request);
                     // What is this call below good for?
                     future.getChannel().getId();
                 } else {
                     LOGGER.info("The connection to the device {} is not successful", deviceIdentification);
-                    throw new IOException("ChannelFuture - Unable to connect");
+                    // A channel which never connected is not disconnected
+                    // either, so fail the request here to release it.
+                    final OslpCallbackHandler failedRequest = OslpChannelHandlerClient.this.oslpInFlightRequests
+                            .remove(future.getChannel().getId());
+                    if (failedRequest != null) {
+                        failedRequest.getDeviceResponseHandler().handleException(
+                                new IOException("ChannelFuture - Unable to connect", future.getCause()));
+                    }
                 }
             }
         });
     }
 
-    private void write(final ChannelFuture channelFuture, final InetSocketAddress address, final OslpEnvelope request)
+    private void write(final Channel channel, final InetSocketAddress address, final OslpEnvelope request)
             throws IOException {
-        final Channel channel = channelFuture.getChannel();
-
         if (channel != null && channel.isConnected()) {
-            LOGGER.info("{} Connection established to: {}", channelFuture.getChannel().getId(), address);
+            LOGGER.info("{} Connection established to: {}", channel.getId(), address);
         } else {
             LOGGER.info("The connection for device {} is not successful", request.getDeviceId());
-            LOGGER.warn("{} Unable to connect to: {}", channelFuture.getChannel().getId(), address);
+            LOGGER.warn("{} Unable to connect to: {}", channel.getId(), address);
             throw new IOException("Channel - Unable to connect");
         }
 
@@ -143,10 +242,91 @@ public class OslpChannelHandlerClient extends OslpChannelHandler {
             channel.write(request);
 
         } catch (final Exception e) {
-            LOGGER.error("{} Exception while writing request: {}", channelFuture.getChannel().getId(), e.getCause(), e);
-            this.callbackHandlers.remove(channel.getId());
+            LOGGER.error("{} Exception while writing request: {}", channel.getId(), e.getCause(), e);
+            this.oslpInFlightRequests.remove(channel.getId());
 
             throw e;
         }
     }
+
+    /**
+     * Keeps the channel open for the next step of the conversation with the
+     * device, closing it when it is not used within the idle timeout.
+     */
+    private void keepOpen(final String deviceIdentification, final Channel channel) {
+        final ConversationChannel conversation = new ConversationChannel(channel);
+        final ConversationChannel previous = this.conversationChannels.put(deviceIdentification, conversation);
+        if (previous != null && previous.channel != channel) {
+            previous.channel.close();
+        }
+
+        LOGGER.info("{} Keeping connection to device {} open for {} ms", channel.getId(), deviceIdentification,
+                this.conversationIdleTimeout);
+
+        this.oslpTimer.newTimeout(timeout -> {
+            if (this.conversationChannels.remove(deviceIdentification, conversation)) {
+                LOGGER.info("{} Closing idle connection to device {}", channel.getId(), deviceIdentification);
+                channel.close();
+            }
+        }, this.conversationIdleTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the connection kept open for the device, when it is still
+     *         connected to the given address, or null.
+     */
+    private Channel takeOpenChannel(final String deviceIdentification, final InetSocketAddress address) {
+        if (!this.conversationEnabled || deviceIdentification == null) {
+            return null;
+        }
+
+        final ConversationChannel conversation = this.conversationChannels.remove(deviceIdentification);
+        if (conversation == null) {
+            return null;
+        }
+        if (conversation.channel.isConnected() && address.equals(conversation.channel.getRemoteAddress())) {
+            return conversation.channel;
+        }
+
+        conversation.channel.close();
+        return null;
+    }
+
+    /**
+     * @return the number of connections opened to devices.
+     */
+    public long getConnectCount() {
+        return this.connectCount.get();
+    }
+
+    /**
+     * @return the number of connects saved by reusing an open connection, by
+     *         message type.
+     */
+    public Map<String, Long> getSavedConnects() {
+        final Map<String, Long> counts = new HashMap<>();
+        this.savedConnects.forEach((messageType, count) -> counts.put(messageType, count.get()));
+        return counts;
+    }
+
+    /**
+     * @return the number of connections kept open for the next step of a
+     *         conversation.
+     */
+    public int getOpenConversationCount() {
+        return this.conversationChannels.size();
+    }
+
+    /**
+     * Channel kept open for the next step of a conversation. Each time a
+     * channel is kept open a new instance is used, so an idle timeout only
+     * closes the channel when it has not been used since.
+     */
+    private static class ConversationChannel {
+        private final Channel channel;
+
+        ConversationChannel(final Channel channel) {
+            this.channel = channel;
+        }
+    }
 }
@@ -10,12 +10,10 @@ package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.codec.binary.Base64;
-import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.joda.time.Instant;
 import org.joda.time.format.DateTimeFormat;
@@ -28,6 +26,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.DeviceManagementService;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.DeviceRegistrationService;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpDeviceSettingsService;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpDeviceStateCache;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpSigningService;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.domain.entities.OslpDevice;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.exceptions.ProtocolAdapterException;
@@ -67,12 +66,24 @@ public class OslpChannelHandlerServer extends OslpChannelHandler {
     @Autowired
     private OslpDeviceSettingsService oslpDeviceSettingsService;
 
+    @Autowired
+    private OslpDeviceStateCache oslpDeviceStateCache;
+
     @Autowired
     private DeviceDataService deviceDataService;
 
     @Autowired
     private OslpSigningService oslpSigningService;
 
+    @Autowired
+    private OslpPublicKeyCache oslpPublicKeyCache;
+
+    @Autowired
+    private OslpPendingResponses oslpPendingResponses;
+
+    @Autowired
+    private OslpResponseCache oslpResponseCache;
+
     /**
      * Convert list in property files to {@code Map}.
      *
@@ -82,20 +93,10 @@ public class OslpChannelHandlerServer extends OslpChannelHandler {
     @Value("#{${test.device.ips}}")
     private Map<String, String> testDeviceIps;
 
-    private final ConcurrentMap<Integer, Channel> channelMap = new ConcurrentHashMap<>();
-
     public OslpChannelHandlerServer() {
         super(LOGGER);
     }
 
-    private Channel findChannel(final Integer channelId) {
-        return this.channelMap.get(channelId);
-    }
-
-    private void cacheChannel(final Integer channelId, final Channel channel) {
-        this.channelMap.put(channelId, channel);
-    }
-
     public void setDeviceManagementService(final DeviceManagementService deviceManagementService) {
         this.deviceManagementService = deviceManagementService;
     }
@@ -112,80 +113,166 @@ public class OslpChannelHandlerServer extends OslpChannelHandler {
         this.timeZoneOffsetMinutes = timeZoneOffsetMinutes;
     }
 
+    @Override
+    public void channelClosed(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception {
+        this.oslpPendingResponses.closed(Netty3ResponseChannel.getId(e.getChannel()));
+        super.channelClosed(ctx, e);
+    }
+
     @Override
     public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent e) throws Exception {
+        this.handleRequest((OslpEnvelope) e.getMessage(),
+                OslpSecurityHandler.getAttachedDeviceIdentity(e.getChannel()),
+                new Netty3ResponseChannel(e.getChannel()));
+    }
 
-        final OslpEnvelope message = (OslpEnvelope) e.getMessage();
-        this.logMessage(message, true);
+    /**
+     * Handles a request received from a device, the response is written to
+     * the channel once it has been signed.
+     *
+     * @param identity
+     *            identity of the device as resolved by the security handler,
+     *            or null when the device is unknown.
+     */
+    public void handleRequest(final OslpEnvelope message, final OslpDeviceIdentity identity,
+            final OslpResponseChannel channel) throws Exception {
+        final String deviceIdentification = identity == null ? null : identity.getDeviceIdentification();
+        this.logMessage(message, true, deviceIdentification);
 
-        final Integer channelId = e.getChannel().getId();
+        final String channelId = channel.getId();
         if (message.isValid()) {
             if (this.isOslpResponse(message)) {
                 LOGGER.warn("{} Received OSLP Response, which is not expected: {}", channelId,
                         message.getPayloadMessage());
+            } else if (!this.isSupportedRequest(message.getPayloadMessage())) {
+                LOGGER.warn("{} Received unknown payload. Received: {}.", channelId,
+                        message.getPayloadMessage().toString());
+                // Optional extra: return error code to device.
             } else {
                 LOGGER.info("{} Received OSLP Request: {}", channelId, message.getPayloadMessage());
 
-                // Response pay-load to send to device.
-                Message payload;
-
-                // Check which request the device has sent and handle it.
-                if (message.getPayloadMessage().hasRegisterDeviceRequest()) {
-                    payload = this.handleRegisterDeviceRequest(message.getDeviceId(), message.getSequenceNumber(),
-                            message.getPayloadMessage().getRegisterDeviceRequest());
-                } else if (message.getPayloadMessage().hasConfirmRegisterDeviceRequest()) {
-                    payload = this.handleConfirmRegisterDeviceRequest(message.getDeviceId(),
-                            message.getSequenceNumber(), message.getPayloadMessage().getConfirmRegisterDeviceRequest());
-                } else if (message.getPayloadMessage().hasEventNotificationRequest()) {
-                    payload = this.handleEventNotificationRequest(message.getDeviceId(), message.getSequenceNumber(),
-                            message.getPayloadMessage().getEventNotificationRequest());
-                } else {
-                    LOGGER.warn("{} Received unknown payload. Received: {}.", channelId,
-                            message.getPayloadMessage().toString());
-                    // Optional extra: return error code to device.
+                // Keep the channel so we can write the response to it later.
+                this.oslpPendingResponses.add(channel);
+
+                // A request the device sends again gets the response to the
+                // original request, without handling it again.
+                final OslpResponseCache.Lookup lookup = this.oslpResponseCache.begin(message, channelId);
+                if (lookup.getResponse() != null) {
+                    LOGGER.info("{} Received OSLP Request again, sending cached response", channelId);
+                    this.writeResponse(channelId, lookup.getResponse(), deviceIdentification);
+                    return;
+                }
+                if (lookup.isInProgress()) {
+                    LOGGER.info("{} Received OSLP Request again, waiting for the response to the original request",
+                            channelId);
                     return;
                 }
 
-                // Cache the channel so we can write the response to it later.
-                this.cacheChannel(channelId, e.getChannel());
-
-                // Send message to signing server to get our response signed.
-                this.oslpSigningService.buildAndSignEnvelope(message.getDeviceId(), message.getSequenceNumber(),
-                        payload, channelId, this);
+                try {
+                    // Response pay-load to send to device.
+                    final Message payload = this.handlePayload(message, deviceIdentification);
+
+                    // Send message to signing server to get our response
+                    // signed.
+                    this.oslpSigningService.buildAndSignEnvelope(message.getDeviceId(),
+                            message.getSequenceNumber(), payload, channelId, deviceIdentification, this);
+                } catch (final Exception e) {
+                    this.abandonResponse(channelId);
+                    throw e;
+                }
             }
         } else {
             LOGGER.warn("{} Received message wasn't properly secured.", channelId);
         }
     }
 
+    private boolean isSupportedRequest(final Message payloadMessage) {
+        return payloadMessage.hasRegisterDeviceRequest() || payloadMessage.hasConfirmRegisterDeviceRequest()
+                || payloadMessage.hasEventNotificationRequest();
+    }
+
+    /**
+     * Checks which request the device has sent and handles it.
+     *
+     * @return the response payload to send to the device.
+     */
+    private Message handlePayload(final OslpEnvelope message, final String deviceIdentification)
+            throws UnknownHostException, ProtocolAdapterException {
+        if (message.getPayloadMessage().hasRegisterDeviceRequest()) {
+            return this.handleRegisterDeviceRequest(message.getDeviceId(), message.getSequenceNumberValue(),
+                    message.getPayloadMessage().getRegisterDeviceRequest());
+        } else if (message.getPayloadMessage().hasConfirmRegisterDeviceRequest()) {
+            return this.handleConfirmRegisterDeviceRequest(message.getDeviceId(), message.getSequenceNumberValue(),
+                    message.getPayloadMessage().getConfirmRegisterDeviceRequest());
+        } else {
+            return this.handleEventNotificationRequest(message.getDeviceId(), deviceIdentification,
+                    message.getSequenceNumberValue(), message.getPayloadMessage().getEventNotificationRequest());
+        }
+    }
+
+    /**
+     * Called when the request received on the channel could not be handled,
+     * or its response could not be signed. Closes the channel, and the
+     * channels of devices which sent the request again while it was handled,
+     * so they send it again after the original failed.
+     */
+    public void abandonResponse(final String channelId) {
+        for (final String waitingChannelId : this.oslpResponseCache.abandon(channelId)) {
+            this.closeChannel(waitingChannelId);
+        }
+        this.closeChannel(channelId);
+    }
+
+    private void closeChannel(final String channelId) {
+        final OslpResponseChannel channel = this.oslpPendingResponses.take(channelId);
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
     /**
      * Called when a signed OSLP envelope arrives from signing server. The
      * envelope will be sent to the device which is waiting for a response. The
-     * channel for the waiting device should be present in the channelMap.
+     * channel for the waiting device should be present in the pending
+     * responses.
      *
      * @param signedOslpEnvelopeDto
      *            DTO containing signed OslpEnvelope.
+     * @param deviceIdentification
+     *            identification of the device, or null when unknown.
      */
-    public void processSignedOslpEnvelope(final SignedOslpEnvelopeDto signedOslpEnvelopeDto) {
+    public void processSignedOslpEnvelope(final SignedOslpEnvelopeDto signedOslpEnvelopeDto,
+            final String deviceIdentification) {
+
+        final String channelId = signedOslpEnvelopeDto.getUnsignedOslpEnvelopeDto().getCorrelationUid();
+        final OslpEnvelope response = signedOslpEnvelopeDto.getOslpEnvelope();
+
+        // Devices which sent the request again while it was handled wait for
+        // the same response.
+        for (final String waitingChannelId : this.oslpResponseCache.complete(channelId, response)) {
+            this.writeResponse(waitingChannelId, response, deviceIdentification);
+        }
+        this.writeResponse(channelId, response, deviceIdentification);
+    }
+
+    private void writeResponse(final String channelId, final OslpEnvelope response,
+            final String deviceIdentification) {
 
         // Try to find the channel.
-        final Integer channelId = Integer
-                .parseInt(signedOslpEnvelopeDto.getUnsignedOslpEnvelopeDto().getCorrelationUid());
-        final Channel channel = this.findChannel(channelId);
+        final OslpResponseChannel channel = this.oslpPendingResponses.take(channelId);
         if (channel == null) {
             LOGGER.error("Unable to find channel for channelId: {}. Can't send response message to device.", channelId);
             return;
         }
 
-        // Get signed envelope, log it and send it to device.
-        final OslpEnvelope response = signedOslpEnvelopeDto.getOslpEnvelope();
-        this.logMessage(response, false);
+        // Log the signed envelope and send it to device.
+        this.logMessage(response, false, deviceIdentification);
         channel.write(response);
 
         LOGGER.info("{} Send OSLP Response: {}", channelId, response.getPayloadMessage());
     }
 
-    private Oslp.Message handleRegisterDeviceRequest(final byte[] deviceUid, final byte[] sequenceNumber,
+    private Oslp.Message handleRegisterDeviceRequest(final byte[] deviceUid, final int sequenceNumber,
             final Oslp.RegisterDeviceRequest registerRequest) throws UnknownHostException {
 
         final String deviceIdentification = registerRequest.getDeviceIdentification();
@@ -214,8 +301,13 @@ public class OslpChannelHandlerServer extends OslpChannelHandler {
         // Save the security related values in the OSLP database.
         oslpDevice.updateRegistrationData(deviceUid, registerRequest.getDeviceType().toString(),
                 registerRequest.getRandomDevice());
-        oslpDevice.setSequenceNumber(SequenceNumberUtils.convertByteArrayToInteger(sequenceNumber));
+        oslpDevice.setSequenceNumber(sequenceNumber);
         oslpDevice = this.oslpDeviceSettingsService.updateDevice(oslpDevice);
+        this.oslpDeviceStateCache.register(oslpDevice);
+
+        // The device UID may have changed, so the cached key entry should be
+        // reloaded.
+        this.oslpPublicKeyCache.invalidate(deviceIdentification);
 
         // Return current date and time in UTC so the device can sync the clock.
         final Oslp.RegisterDeviceResponse.Builder responseBuilder = Oslp.RegisterDeviceResponse.newBuilder()
@@ -249,12 +341,11 @@ public class OslpChannelHandlerServer extends OslpChannelHandler {
         return (int) (input * 1000000);
     }
 
-    private Oslp.Message handleConfirmRegisterDeviceRequest(final byte[] deviceId, final byte[] sequenceNumber,
+    private Oslp.Message handleConfirmRegisterDeviceRequest(final byte[] deviceId, final int sequenceNumber,
             final Oslp.ConfirmRegisterDeviceRequest confirmRegisterDeviceRequest) throws ProtocolAdapterException {
 
         try {
-            this.deviceRegistrationService.confirmRegisterDevice(deviceId,
-                    SequenceNumberUtils.convertByteArrayToInteger(sequenceNumber),
+            this.deviceRegistrationService.confirmRegisterDevice(deviceId, sequenceNumber,
                     confirmRegisterDeviceRequest.getRandomDevice(), confirmRegisterDeviceRequest.getRandomPlatform());
         } catch (final Exception e) {
             LOGGER.error("handle confirm register device request exception", e);
@@ -269,13 +360,12 @@ public class OslpChannelHandlerServer extends OslpChannelHandler {
                 .build();
     }
 
-    private Oslp.Message handleEventNotificationRequest(final byte[] deviceId, final byte[] sequenceNumber,
-            final EventNotificationRequest request) throws ProtocolAdapterException {
+    private Oslp.Message handleEventNotificationRequest(final byte[] deviceId, final String deviceIdentification,
+            final int sequenceNumber, final EventNotificationRequest request) throws ProtocolAdapterException {
 
         // Check & update sequence number first
         try {
-            this.deviceRegistrationService.updateDeviceSequenceNumber(deviceId,
-                    SequenceNumberUtils.convertByteArrayToInteger(sequenceNumber));
+            this.deviceRegistrationService.updateDeviceSequenceNumber(deviceId, sequenceNumber);
         } catch (final ProtocolAdapterException ex) {
             LOGGER.error("handle event notification request exception", ex);
             return Oslp.Message.newBuilder().setEventNotificationResponse(
@@ -285,7 +375,8 @@ public class OslpChannelHandlerServer extends OslpChannelHandler {
         final Oslp.Status oslpStatus = Oslp.Status.OK;
         final String deviceUid = Base64.encodeBase64String(deviceId);
 
-        this.deviceManagementService.addEventNotifications(deviceUid, request.getNotificationsList());
+        this.deviceManagementService.addEventNotifications(deviceUid, deviceIdentification,
+                request.getNotificationsList());
 
         return Oslp.Message.newBuilder()
                 .setEventNotificationResponse(Oslp.EventNotificationResponse.newBuilder().setStatus(oslpStatus))
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
+
+import java.security.PublicKey;
+
+/**
+ * Identity of an OSLP device: its UID, its identification and its parsed
+ * public key.
+ */
+public class OslpDeviceIdentity {
+
+    private final String deviceUid;
+
+    private final String deviceIdentification;
+
+    private final PublicKey publicKey;
+
+    public OslpDeviceIdentity(final String deviceUid, final String deviceIdentification,
+            final PublicKey publicKey) {
+        this.deviceUid = deviceUid;
+        this.deviceIdentification = deviceIdentification;
+        this.publicKey = publicKey;
+    }
+
+    public String getDeviceUid() {
+        return this.deviceUid;
+    }
+
+    public String getDeviceIdentification() {
+        return this.deviceIdentification;
+    }
+
+    public PublicKey getPublicKey() {
+        return this.publicKey;
+    }
+}
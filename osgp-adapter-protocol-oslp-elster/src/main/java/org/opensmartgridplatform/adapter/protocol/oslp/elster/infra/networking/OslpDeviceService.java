@@ -15,6 +15,8 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Resource;
 
@@ -23,7 +25,8 @@ import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTimeZone;
 import org.joda.time.LocalTime;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.mapping.OslpMapper;
-import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpDeviceSettingsService;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpDeviceState;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpDeviceStateCache;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpSigningService;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.device.DeviceMessageStatus;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.device.DeviceRequest;
@@ -48,7 +51,6 @@ import org.opensmartgridplatform.adapter.protocol.oslp.elster.device.responses.G
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.device.responses.GetFirmwareVersionDeviceResponse;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.device.responses.GetPowerUsageHistoryDeviceResponse;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.device.responses.GetStatusDeviceResponse;
-import org.opensmartgridplatform.adapter.protocol.oslp.elster.domain.entities.OslpDevice;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.domain.valueobjects.Pager;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging.OslpLogItemRequestMessage;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging.OslpLogItemRequestMessageSender;
@@ -91,6 +93,9 @@ public class OslpDeviceService implements DeviceService {
     @Autowired
     private OslpChannelHandlerClient oslpChannelHandler;
 
+    @Autowired
+    private OslpOutboundScheduler oslpOutboundScheduler;
+
     @Autowired
     private OslpMapper mapper;
 
@@ -103,8 +108,11 @@ public class OslpDeviceService implements DeviceService {
     @Resource
     private boolean executeResumeScheduleAfterSetLight;
 
+    @Resource
+    private long oslpOutboundSigningTimeout;
+
     @Autowired
-    private OslpDeviceSettingsService oslpDeviceSettingsService;
+    private OslpDeviceStateCache oslpDeviceStateCache;
 
     @Autowired
     private OslpLogItemRequestMessageSender oslpLogItemRequestMessageSender;
@@ -533,7 +541,8 @@ public class OslpDeviceService implements DeviceService {
             }
         };
 
-        this.sendMessage(ipAddress, oslpRequest, oslpResponseHandler, deviceRequest);
+        // Setting the astronomical offsets and the schedule follow.
+        this.sendMessage(ipAddress, oslpRequest, oslpResponseHandler, deviceRequest, true);
     }
 
     private void doProcessOslpRequestSetScheduleAstronomicalOffsets(final OslpEnvelope oslpRequest,
@@ -559,7 +568,8 @@ public class OslpDeviceService implements DeviceService {
             }
         };
 
-        this.sendMessage(ipAddress, oslpRequest, oslpResponseHandler, deviceRequest);
+        // Setting the schedule follows.
+        this.sendMessage(ipAddress, oslpRequest, oslpResponseHandler, deviceRequest, true);
     }
 
     private void doProcessOslpRequestSetScheduleSingle(final OslpEnvelope oslpRequest,
@@ -736,7 +746,7 @@ public class OslpDeviceService implements DeviceService {
             }
         };
 
-        this.sendMessage(ipAddress, oslpRequest, oslpResponseHandler, deviceRequest);
+        this.sendMessage(ipAddress, oslpRequest, oslpResponseHandler, deviceRequest, !pager.isLastPage());
     }
 
     private void handleOslpResponseSetSchedulePaged(final SetScheduleDeviceRequest deviceRequest,
@@ -760,8 +770,6 @@ public class OslpDeviceService implements DeviceService {
 
         if (pager.isLastPage() || status != DeviceMessageStatus.OK) {
             // Stop processing pages and handle device response.
-            this.updateSequenceNumber(deviceRequest.getDeviceIdentification(), oslpResponse);
-
             final DeviceResponse deviceResponse = new EmptyDeviceResponse(deviceRequest.getOrganisationIdentification(),
                     deviceRequest.getDeviceIdentification(), deviceRequest.getCorrelationUid(),
                     deviceRequest.getMessagePriority(), status);
@@ -1011,7 +1019,10 @@ public class OslpDeviceService implements DeviceService {
             }
         };
 
-        this.sendMessage(ipAddress, oslpRequest, oslpResponseHandler, deviceRequest);
+        // The number of pages is only known after the response to the first
+        // page.
+        this.sendMessage(ipAddress, oslpRequest, oslpResponseHandler, deviceRequest,
+                pager.getCurrentPage() == 1 || !pager.isLastPage());
     }
 
     private void processOslpRequestGetPowerUsageHistory(final GetPowerUsageHistoryDeviceRequest deviceRequest,
@@ -1894,9 +1905,34 @@ public class OslpDeviceService implements DeviceService {
         deviceResponseHandler.handleResponse(deviceResponse);
     }
 
+    /**
+     * Builds and signs the envelope once the request holds the device in the
+     * outbound scheduler, so the sequence number is not used by another
+     * request to the device at the same time. The next step of a request
+     * which already holds the device is signed right away.
+     */
     private void buildAndSignEnvelope(final DeviceRequest deviceRequest, final Oslp.Message payloadMessage,
             final Serializable extraData) {
 
+        final String deviceIdentification = deviceRequest.getDeviceIdentification();
+        if (this.oslpOutboundScheduler.resume(deviceIdentification, deviceRequest.getCorrelationUid())) {
+            this.signEnvelope(deviceRequest, payloadMessage, extraData);
+            return;
+        }
+
+        this.oslpOutboundScheduler.schedule(deviceIdentification, deviceRequest.getMessagePriority(), () -> {
+            try {
+                this.signEnvelope(deviceRequest, payloadMessage, extraData);
+            } catch (final RuntimeException e) {
+                LOGGER.error("Unable to sign request {} to device {}", deviceRequest.getCorrelationUid(),
+                        deviceIdentification, e);
+            }
+        });
+    }
+
+    private void signEnvelope(final DeviceRequest deviceRequest, final Oslp.Message payloadMessage,
+            final Serializable extraData) {
+
         final String deviceIdentification = deviceRequest.getDeviceIdentification();
         final String organisationIdentification = deviceRequest.getOrganisationIdentification();
         final String correlationUid = deviceRequest.getCorrelationUid();
@@ -1908,20 +1944,28 @@ public class OslpDeviceService implements DeviceService {
         final int retryCount = deviceRequest.getRetryCount();
         final boolean isScheduled = deviceRequest.isScheduled();
 
-        // Get some values from the database.
-        final OslpDevice oslpDevice = this.oslpDeviceSettingsService
-                .getDeviceByDeviceIdentification(deviceIdentification);
-        if (oslpDevice == null) {
+        // Get some values from the device state.
+        final OslpDeviceState deviceState = this.oslpDeviceStateCache.getByDeviceIdentification(deviceIdentification);
+        if (deviceState == null) {
             LOGGER.error("Unable to find OSLP device: {}", deviceIdentification);
+            this.oslpOutboundScheduler.release(deviceIdentification);
             return;
         }
 
-        final byte[] deviceId = Base64.decodeBase64(oslpDevice.getDeviceUid());
-        final byte[] sequenceNumber = SequenceNumberUtils.convertIntegerToByteArray(oslpDevice.getSequenceNumber());
+        final byte[] deviceId = Base64.decodeBase64(deviceState.getDeviceUid());
+        final byte[] sequenceNumber = SequenceNumberUtils.convertIntToByteArray(deviceState.getSequenceNumber());
 
-        this.oslpSigningService.buildAndSignEnvelope(organisationIdentification, deviceIdentification, correlationUid,
-                deviceId, sequenceNumber, ipAddress, domain, domainVersion, messageType, messagePriority, retryCount,
-                isScheduled, payloadMessage, extraData);
+        // Hold the device until the signed envelope is sent, which may happen
+        // before the signing service returns.
+        this.oslpOutboundScheduler.hold(deviceIdentification, correlationUid, this.oslpOutboundSigningTimeout);
+        try {
+            this.oslpSigningService.buildAndSignEnvelope(organisationIdentification, deviceIdentification,
+                    correlationUid, deviceId, sequenceNumber, ipAddress, domain, domainVersion, messageType,
+                    messagePriority, retryCount, isScheduled, payloadMessage, extraData);
+        } catch (final RuntimeException e) {
+            this.oslpOutboundScheduler.release(deviceIdentification, correlationUid);
+            throw e;
+        }
     }
 
     private Oslp.LightValue buildLightValue(final LightValueDto lightValue) {
@@ -1958,46 +2002,141 @@ public class OslpDeviceService implements DeviceService {
     }
 
     private void saveOslpResponseLogEntry(final DeviceRequest deviceRequest, final OslpEnvelope oslpResponse) {
-        final OslpDevice oslpDevice = this.oslpDeviceSettingsService
-                .getDeviceByDeviceIdentification(deviceRequest.getDeviceIdentification());
+        final OslpDeviceState deviceState = this.oslpDeviceStateCache
+                .getByDeviceIdentification(deviceRequest.getDeviceIdentification());
 
         final OslpLogItemRequestMessage oslpLogItemRequestMessage = new OslpLogItemRequestMessage(
-                deviceRequest.getOrganisationIdentification(), oslpDevice.getDeviceUid(),
-                deviceRequest.getDeviceIdentification(), true, oslpResponse.isValid(), oslpResponse.getPayloadMessage(),
-                oslpResponse.getSize());
+                deviceRequest.getOrganisationIdentification(), deviceState.getDeviceUid(),
+                deviceRequest.getDeviceIdentification(), true, oslpResponse.isValid(), oslpResponse);
 
         this.oslpLogItemRequestMessageSender.send(oslpLogItemRequestMessage);
     }
 
     private void saveOslpRequestLogEntry(final DeviceRequest deviceRequest, final OslpEnvelope oslpRequest) {
-        final OslpDevice oslpDevice = this.oslpDeviceSettingsService
-                .getDeviceByDeviceIdentification(deviceRequest.getDeviceIdentification());
+        final OslpDeviceState deviceState = this.oslpDeviceStateCache
+                .getByDeviceIdentification(deviceRequest.getDeviceIdentification());
 
         final OslpLogItemRequestMessage oslpLogItemRequestMessage = new OslpLogItemRequestMessage(
-                deviceRequest.getOrganisationIdentification(), oslpDevice.getDeviceUid(),
-                deviceRequest.getDeviceIdentification(), false, true, oslpRequest.getPayloadMessage(),
-                oslpRequest.getSize());
+                deviceRequest.getOrganisationIdentification(), deviceState.getDeviceUid(),
+                deviceRequest.getDeviceIdentification(), false, true, oslpRequest);
 
         this.oslpLogItemRequestMessageSender.send(oslpLogItemRequestMessage);
     }
 
     private void updateSequenceNumber(final String deviceIdentification, final OslpEnvelope oslpResponse) {
-        final Integer sequenceNumber = SequenceNumberUtils.convertByteArrayToInteger(oslpResponse.getSequenceNumber());
-
-        final OslpDevice oslpDevice = this.oslpDeviceSettingsService
-                .getDeviceByDeviceIdentification(deviceIdentification);
-        oslpDevice.setSequenceNumber(sequenceNumber);
-        this.oslpDeviceSettingsService.updateDeviceAndForceSave(oslpDevice);
+        this.oslpDeviceStateCache.updateSequenceNumber(deviceIdentification, oslpResponse.getSequenceNumberValue());
     }
 
     private void sendMessage(final String ipAddress, final OslpEnvelope oslpRequest,
             final OslpResponseHandler oslpResponseHandler, final DeviceRequest deviceRequest) throws IOException {
-        try {
-            this.oslpChannelHandler.send(this.createAddress(ipAddress), oslpRequest, oslpResponseHandler,
-                    deviceRequest.getDeviceIdentification());
-        } catch (final Exception e) {
-            LOGGER.error("Exception during sendMessage()", e);
-            throw new IOException(e.getMessage());
+        this.sendMessage(ipAddress, oslpRequest, oslpResponseHandler, deviceRequest, false);
+    }
+
+    /**
+     * @param keepOpen
+     *            indicates whether another step or page of the same request
+     *            follows, so the connection can be kept open for it.
+     */
+    private void sendMessage(final String ipAddress, final OslpEnvelope oslpRequest,
+            final OslpResponseHandler oslpResponseHandler, final DeviceRequest deviceRequest, final boolean keepOpen)
+            throws IOException {
+        final InetSocketAddress address = this.createAddress(ipAddress);
+        final String deviceIdentification = deviceRequest.getDeviceIdentification();
+        final ReleasingResponseHandler releasingResponseHandler = new ReleasingResponseHandler(deviceIdentification,
+                deviceRequest.getCorrelationUid(), oslpResponseHandler, keepOpen);
+
+        if (this.oslpOutboundScheduler.resume(deviceIdentification, deviceRequest.getCorrelationUid())) {
+            // The request holds the device since its envelope was signed, or
+            // since the response to its previous step, so it is sent without
+            // being scheduled again.
+            try {
+                this.oslpChannelHandler.send(address, oslpRequest, releasingResponseHandler, deviceIdentification,
+                        deviceRequest.getMessageType(), keepOpen);
+            } catch (final Exception e) {
+                LOGGER.error("Exception during sendMessage()", e);
+                releasingResponseHandler.release();
+                throw new IOException(e.getMessage());
+            }
+            return;
+        }
+
+        // Holds the send failure of a request started before scheduling
+        // returned, which is thrown to the caller as before. Failures of
+        // requests started later are passed to the response handler.
+        final AtomicReference<Object> outcome = new AtomicReference<>();
+        this.oslpOutboundScheduler.schedule(deviceIdentification, deviceRequest.getMessagePriority(), () -> {
+            try {
+                this.oslpChannelHandler.send(address, oslpRequest, releasingResponseHandler, deviceIdentification,
+                        deviceRequest.getMessageType(), keepOpen);
+            } catch (final Exception e) {
+                LOGGER.error("Exception during sendMessage()", e);
+                final IOException ioException = new IOException(e.getMessage());
+                if (outcome.compareAndSet(null, ioException)) {
+                    releasingResponseHandler.release();
+                } else {
+                    releasingResponseHandler.handleException(ioException);
+                }
+            }
+        });
+
+        if (!outcome.compareAndSet(null, Boolean.TRUE)) {
+            throw (IOException) outcome.get();
+        }
+    }
+
+    /**
+     * Releases the device in the outbound scheduler once the response, or the
+     * failure to get it, has been handled. When another step of the
+     * conversation follows, the device is held for that step instead, so no
+     * other request to the device starts in between.
+     */
+    private class ReleasingResponseHandler implements OslpResponseHandler {
+
+        private final String deviceIdentification;
+        private final String correlationUid;
+        private final OslpResponseHandler responseHandler;
+        private final boolean keepOpen;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        ReleasingResponseHandler(final String deviceIdentification, final String correlationUid,
+                final OslpResponseHandler responseHandler, final boolean keepOpen) {
+            this.deviceIdentification = deviceIdentification;
+            this.correlationUid = correlationUid;
+            this.responseHandler = responseHandler;
+            this.keepOpen = keepOpen;
+        }
+
+        @Override
+        public void handleResponse(final OslpEnvelope oslpResponse) {
+            if (this.keepOpen && this.released.compareAndSet(false, true)) {
+                // Hold the device before handling the response, which may
+                // sign and send the next step right away.
+                OslpDeviceService.this.oslpOutboundScheduler.hold(this.deviceIdentification, this.correlationUid,
+                        OslpDeviceService.this.oslpChannelHandler.getConversationIdleTimeout());
+                this.responseHandler.handleResponse(oslpResponse);
+                return;
+            }
+
+            try {
+                this.responseHandler.handleResponse(oslpResponse);
+            } finally {
+                this.release();
+            }
+        }
+
+        @Override
+        public void handleException(final Throwable t) {
+            try {
+                this.responseHandler.handleException(t);
+            } finally {
+                this.release();
+            }
+        }
+
+        private void release() {
+            if (this.released.compareAndSet(false, true)) {
+                OslpDeviceService.this.oslpOutboundScheduler.release(this.deviceIdentification);
+            }
         }
     }
 
@@ -2019,4 +2158,25 @@ public class OslpDeviceService implements DeviceService {
         this.oslpChannelHandler = channelHandler;
     }
 
+    public void setOslpOutboundScheduler(final OslpOutboundScheduler oslpOutboundScheduler) {
+        this.oslpOutboundScheduler = oslpOutboundScheduler;
+    }
+
+    public void setOslpOutboundSigningTimeout(final long oslpOutboundSigningTimeout) {
+        this.oslpOutboundSigningTimeout = oslpOutboundSigningTimeout;
+    }
+
+    public void setOslpDeviceStateCache(final OslpDeviceStateCache oslpDeviceStateCache) {
+        this.oslpDeviceStateCache = oslpDeviceStateCache;
+    }
+
+    public void setOslpLogItemRequestMessageSender(
+            final OslpLogItemRequestMessageSender oslpLogItemRequestMessageSender) {
+        this.oslpLogItemRequestMessageSender = oslpLogItemRequestMessageSender;
+    }
+
+    public void setOslpSigningService(final OslpSigningService oslpSigningService) {
+        this.oslpSigningService = oslpSigningService;
+    }
+
 }
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.handler.execution.ChannelEventRunnable;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+
+/**
+ * Bounded thread pool executing the upstream events of OSLP channels, so
+ * signature verification and message handling do not run on the Netty I/O
+ * threads. Events of the same channel are executed in order. When the queued
+ * events of a channel, or of all channels together, exceed the memory limits,
+ * the I/O threads are blocked until the pool catches up.
+ *
+ * Keeps track of the number of queued events, for monitoring.
+ */
+public class OslpExecutionThreadPoolExecutor extends OrderedMemoryAwareThreadPoolExecutor {
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final AtomicInteger queuedEventCount = new AtomicInteger();
+
+    private final AtomicInteger peakQueuedEventCount = new AtomicInteger();
+
+    private final AtomicLong executedEventCount = new AtomicLong();
+
+    public OslpExecutionThreadPoolExecutor(final int poolSize, final long maxChannelMemorySize,
+            final long maxTotalMemorySize, final ThreadFactory threadFactory) {
+        super(poolSize, maxChannelMemorySize, maxTotalMemorySize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                threadFactory);
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        if (command instanceof ChannelEventRunnable) {
+            final int queued = this.queuedEventCount.incrementAndGet();
+            this.updatePeakQueuedEventCount(queued);
+        }
+        super.execute(command);
+    }
+
+    @Override
+    protected void beforeExecute(final Thread t, final Runnable r) {
+        super.beforeExecute(t, r);
+        if (r instanceof ChannelEventRunnable) {
+            this.queuedEventCount.decrementAndGet();
+            this.executedEventCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of events waiting to be executed.
+     */
+    public int getQueuedEventCount() {
+        return this.queuedEventCount.get();
+    }
+
+    /**
+     * @return the highest number of events waiting to be executed at the same
+     *         time.
+     */
+    public int getPeakQueuedEventCount() {
+        return this.peakQueuedEventCount.get();
+    }
+
+    /**
+     * @return the number of events which have been executed.
+     */
+    public long getExecutedEventCount() {
+        return this.executedEventCount.get();
+    }
+
+    private void updatePeakQueuedEventCount(final int queued) {
+        int peak = this.peakQueuedEventCount.get();
+        while (queued > peak && !this.peakQueuedEventCount.compareAndSet(peak, queued)) {
+            peak = this.peakQueuedEventCount.get();
+        }
+    }
+}
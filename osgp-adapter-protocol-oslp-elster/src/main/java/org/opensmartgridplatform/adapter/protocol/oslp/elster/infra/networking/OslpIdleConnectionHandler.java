@@ -0,0 +1,79 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.timeout.IdleState;
+import org.jboss.netty.handler.timeout.IdleStateAwareChannelHandler;
+import org.jboss.netty.handler.timeout.IdleStateEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Closes connections reported idle by the idle state handler in front of it
+ * in the pipeline, like half-open connections of devices which went away.
+ * The channel handlers purge their state for the connection when it is
+ * closed.
+ */
+public class OslpIdleConnectionHandler extends IdleStateAwareChannelHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OslpIdleConnectionHandler.class);
+
+    private final AtomicLong readerIdleCount = new AtomicLong();
+    private final AtomicLong writerIdleCount = new AtomicLong();
+    private final AtomicLong allIdleCount = new AtomicLong();
+
+    @Override
+    public void channelIdle(final ChannelHandlerContext ctx, final IdleStateEvent e) throws Exception {
+        final IdleState state = e.getState();
+        if (state == IdleState.READER_IDLE) {
+            this.readerIdleCount.incrementAndGet();
+        } else if (state == IdleState.WRITER_IDLE) {
+            this.writerIdleCount.incrementAndGet();
+        } else {
+            this.allIdleCount.incrementAndGet();
+        }
+
+        LOGGER.info("{} Closing connection to {}, {} since {}", e.getChannel().getId(),
+                e.getChannel().getRemoteAddress(), state, e.getLastActivityTimeMillis());
+        e.getChannel().close();
+    }
+
+    /**
+     * @return the number of connections closed because nothing was read
+     *         within the reader idle time.
+     */
+    public long getReaderIdleCount() {
+        return this.readerIdleCount.get();
+    }
+
+    /**
+     * @return the number of connections closed because nothing was written
+     *         within the writer idle time.
+     */
+    public long getWriterIdleCount() {
+        return this.writerIdleCount.get();
+    }
+
+    /**
+     * @return the number of connections closed because nothing was read or
+     *         written within the all idle time.
+     */
+    public long getAllIdleCount() {
+        return this.allIdleCount.get();
+    }
+
+    /**
+     * @return the total number of idle connections closed.
+     */
+    public long getReapedCount() {
+        return this.readerIdleCount.get() + this.writerIdleCount.get() + this.allIdleCount.get();
+    }
+}
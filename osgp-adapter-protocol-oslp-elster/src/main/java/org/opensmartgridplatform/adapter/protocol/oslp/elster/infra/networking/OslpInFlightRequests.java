@@ -0,0 +1,180 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.opensmartgridplatform.shared.exceptionhandling.NoDeviceResponseException;
+
+/**
+ * Requests sent to devices which are waiting for a response, by channel. Each
+ * request gets a response timeout depending on its message type. When the
+ * device does not respond in time the request fails with a
+ * {@link NoDeviceResponseException} and its channel is closed.
+ *
+ * The timer thread only closes the channel. The failure is handled on the
+ * given executor, as handling it involves messaging and database work which
+ * would otherwise delay all other timeouts of the timer.
+ */
+public class OslpInFlightRequests {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OslpInFlightRequests.class);
+
+    private final Timer timer;
+
+    private final Executor executor;
+
+    private final long defaultResponseTimeout;
+
+    private final Map<String, Long> responseTimeouts;
+
+    private final ConcurrentMap<Integer, InFlightRequest> requests = new ConcurrentHashMap<>();
+
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    /**
+     * @param executor
+     *            executor on which requests without a response in time are
+     *            failed
+     * @param defaultResponseTimeout
+     *            time in milliseconds a device gets to respond
+     * @param responseTimeouts
+     *            response timeouts in milliseconds for message types which
+     *            differ from the default
+     */
+    public OslpInFlightRequests(final Timer timer, final Executor executor, final long defaultResponseTimeout,
+            final Map<String, Long> responseTimeouts) {
+        this.timer = timer;
+        this.executor = executor;
+        this.defaultResponseTimeout = defaultResponseTimeout;
+        this.responseTimeouts = new HashMap<>(responseTimeouts);
+    }
+
+    /**
+     * Adds the request sent on the channel, replacing a request previously
+     * sent on it.
+     */
+    public void add(final Channel channel, final String messageType, final OslpCallbackHandler callbackHandler) {
+        final long responseTimeout = this.getResponseTimeout(messageType);
+        final InFlightRequest request = new InFlightRequest(channel, messageType, callbackHandler);
+
+        final InFlightRequest previous = this.requests.put(channel.getId(), request);
+        if (previous != null) {
+            previous.timeout.cancel();
+        }
+
+        request.timeout = this.timer.newTimeout(timeout -> this.expire(request), responseTimeout,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Removes the request sent on the channel.
+     *
+     * @return the callback handler of the request, or null when no request is
+     *         in flight on the channel.
+     */
+    public OslpCallbackHandler remove(final int channelId) {
+        final InFlightRequest request = this.requests.remove(channelId);
+        if (request == null) {
+            return null;
+        }
+
+        if (request.timeout != null) {
+            request.timeout.cancel();
+        }
+        return request.callbackHandler;
+    }
+
+    public boolean contains(final int channelId) {
+        return this.requests.containsKey(channelId);
+    }
+
+    public long getResponseTimeout(final String messageType) {
+        final Long responseTimeout = messageType == null ? null : this.responseTimeouts.get(messageType);
+        return responseTimeout == null ? this.defaultResponseTimeout : responseTimeout;
+    }
+
+    private void expire(final InFlightRequest request) {
+        final int channelId = request.channel.getId();
+        if (!this.requests.remove(channelId, request)) {
+            return;
+        }
+
+        this.timeoutCount.incrementAndGet();
+        LOGGER.warn("{} No response for {} within {} ms, closing the connection", channelId, request.messageType,
+                this.getResponseTimeout(request.messageType));
+
+        request.channel.close();
+
+        final Runnable failure = () -> request.callbackHandler.getDeviceResponseHandler()
+                .handleException(new NoDeviceResponseException());
+        try {
+            this.executor.execute(failure);
+        } catch (final RejectedExecutionException e) {
+            LOGGER.warn("{} Executor rejected the failure of {}, failing it on the timer thread", channelId,
+                    request.messageType);
+            failure.run();
+        }
+    }
+
+    /**
+     * @return the number of requests waiting for a response.
+     */
+    public int getInFlightCount() {
+        return this.requests.size();
+    }
+
+    /**
+     * @return the age in milliseconds of the request waiting longest for a
+     *         response, or 0 when no request is waiting.
+     */
+    public long getOldestAgeMillis() {
+        final long now = System.nanoTime();
+        long oldestAge = 0;
+        for (final InFlightRequest request : this.requests.values()) {
+            oldestAge = Math.max(oldestAge, now - request.sentNanos);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(oldestAge);
+    }
+
+    /**
+     * @return the number of requests failed because the device did not
+     *         respond in time.
+     */
+    public long getTimeoutCount() {
+        return this.timeoutCount.get();
+    }
+
+    private static class InFlightRequest {
+        private final Channel channel;
+        private final String messageType;
+        private final OslpCallbackHandler callbackHandler;
+        private final long sentNanos = System.nanoTime();
+        private volatile Timeout timeout;
+
+        InFlightRequest(final Channel channel, final String messageType,
+                final OslpCallbackHandler callbackHandler) {
+            this.channel = channel;
+            this.messageType = messageType;
+            this.callbackHandler = callbackHandler;
+        }
+    }
+}
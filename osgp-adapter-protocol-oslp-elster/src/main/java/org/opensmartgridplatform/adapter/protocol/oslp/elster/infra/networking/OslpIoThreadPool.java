@@ -0,0 +1,66 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Fixed size pool of named threads running the boss or worker loops of a
+ * Netty bootstrap. Netty starts one long running task per boss or worker, so
+ * the pool must have as many threads as the bootstrap has bosses or workers.
+ */
+public class OslpIoThreadPool extends ThreadPoolExecutor {
+
+    private final String name;
+
+    private final AtomicLong createdThreadCount;
+
+    public OslpIoThreadPool(final String name, final int threads) {
+        this(name, threads, new AtomicLong());
+    }
+
+    private OslpIoThreadPool(final String name, final int threads, final AtomicLong createdThreadCount) {
+        super(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                countingThreadFactory(new CustomizableThreadFactory(name + "-"), createdThreadCount));
+        this.name = name;
+        this.createdThreadCount = createdThreadCount;
+    }
+
+    private static ThreadFactory countingThreadFactory(final ThreadFactory threadFactory,
+            final AtomicLong createdThreadCount) {
+        return runnable -> {
+            createdThreadCount.incrementAndGet();
+            return threadFactory.newThread(runnable);
+        };
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return the number of tasks waiting for a thread, which stays 0 as long
+     *         as the pool is sized for the bootstrap.
+     */
+    public int getQueuedCount() {
+        return this.getQueue().size();
+    }
+
+    /**
+     * @return the number of threads created by the pool.
+     */
+    public long getCreatedThreadCount() {
+        return this.createdThreadCount.get();
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Logs the counters of the OSLP networking components at a fixed interval:
+ * the connections and requests to devices, the handling of received messages
+ * and the threads doing so.
+ */
+public class OslpMetricsLogger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OslpMetricsLogger.class);
+
+    private final OslpChannelHandlerClient oslpChannelHandlerClient;
+
+    private final OslpOutboundScheduler oslpOutboundScheduler;
+
+    private final OslpInFlightRequests oslpInFlightRequests;
+
+    private final OslpIdleConnectionHandler oslpIdleConnectionHandler;
+
+    private final OslpExecutionThreadPoolExecutor oslpExecutionThreadPoolExecutor;
+
+    private final OslpPublicKeyCache oslpPublicKeyCache;
+
+    private final OslpResponseCache oslpResponseCache;
+
+    private final OslpPendingResponses oslpPendingResponses;
+
+    private final List<OslpIoThreadPool> oslpIoThreadPools;
+
+    private final ScheduledExecutorService logExecutor;
+
+    /**
+     * @param interval
+     *            time in milliseconds between the log lines, 0 disables
+     *            logging.
+     */
+    public OslpMetricsLogger(final OslpChannelHandlerClient oslpChannelHandlerClient,
+            final OslpOutboundScheduler oslpOutboundScheduler, final OslpInFlightRequests oslpInFlightRequests,
+            final OslpIdleConnectionHandler oslpIdleConnectionHandler,
+            final OslpExecutionThreadPoolExecutor oslpExecutionThreadPoolExecutor,
+            final OslpPublicKeyCache oslpPublicKeyCache, final OslpResponseCache oslpResponseCache,
+            final OslpPendingResponses oslpPendingResponses, final List<OslpIoThreadPool> oslpIoThreadPools,
+            final long interval) {
+        this.oslpChannelHandlerClient = oslpChannelHandlerClient;
+        this.oslpOutboundScheduler = oslpOutboundScheduler;
+        this.oslpInFlightRequests = oslpInFlightRequests;
+        this.oslpIdleConnectionHandler = oslpIdleConnectionHandler;
+        this.oslpExecutionThreadPoolExecutor = oslpExecutionThreadPoolExecutor;
+        this.oslpPublicKeyCache = oslpPublicKeyCache;
+        this.oslpResponseCache = oslpResponseCache;
+        this.oslpPendingResponses = oslpPendingResponses;
+        this.oslpIoThreadPools = oslpIoThreadPools;
+
+        if (interval <= 0) {
+            this.logExecutor = null;
+            return;
+        }
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("oslp-metrics-");
+        threadFactory.setDaemon(true);
+        this.logExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.logExecutor.scheduleWithFixedDelay(this::log, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void log() {
+        LOGGER.info("Outbound connections: connects: {}, saved connects: {}, open conversations: {}",
+                this.oslpChannelHandlerClient.getConnectCount(), this.oslpChannelHandlerClient.getSavedConnects(),
+                this.oslpChannelHandlerClient.getOpenConversationCount());
+        LOGGER.info("Outbound requests: in flight: {}, queued: {}, started: {}, resumed: {}, expired: {}, wait ms: {}",
+                this.oslpOutboundScheduler.getInFlightCount(), this.oslpOutboundScheduler.getQueuedCount(),
+                this.oslpOutboundScheduler.getStartedCount(), this.oslpOutboundScheduler.getResumedCount(),
+                this.oslpOutboundScheduler.getExpiredHoldCount(), this.oslpOutboundScheduler.getWaitTimeHistogram());
+        LOGGER.info("Awaiting responses: in flight: {}, oldest ms: {}, timeouts: {}",
+                this.oslpInFlightRequests.getInFlightCount(), this.oslpInFlightRequests.getOldestAgeMillis(),
+                this.oslpInFlightRequests.getTimeoutCount());
+        LOGGER.info("Idle connections closed: reader: {}, writer: {}, all: {}",
+                this.oslpIdleConnectionHandler.getReaderIdleCount(),
+                this.oslpIdleConnectionHandler.getWriterIdleCount(),
+                this.oslpIdleConnectionHandler.getAllIdleCount());
+        LOGGER.info("Received messages: queued: {}, peak queued: {}, executed: {}",
+                this.oslpExecutionThreadPoolExecutor.getQueuedEventCount(),
+                this.oslpExecutionThreadPoolExecutor.getPeakQueuedEventCount(),
+                this.oslpExecutionThreadPoolExecutor.getExecutedEventCount());
+        LOGGER.info("Public key cache: size: {}, hits: {}, misses: {}, evictions: {}, expirations: {}",
+                this.oslpPublicKeyCache.getSize(), this.oslpPublicKeyCache.getHitCount(),
+                this.oslpPublicKeyCache.getMissCount(), this.oslpPublicKeyCache.getEvictionCount(),
+                this.oslpPublicKeyCache.getExpirationCount());
+        LOGGER.info("Response cache: size: {}, hits: {}, waiting: {}, misses: {}, evictions: {}, expired: {}",
+                this.oslpResponseCache.getSize(), this.oslpResponseCache.getHitCount(),
+                this.oslpResponseCache.getWaitingCount(), this.oslpResponseCache.getMissCount(),
+                this.oslpResponseCache.getEvictionCount(), this.oslpResponseCache.getInProgressExpirationCount());
+        LOGGER.info("Pending responses: size: {}, completed: {}, closed: {}, expired: {}",
+                this.oslpPendingResponses.getSize(), this.oslpPendingResponses.getCompletedCount(),
+                this.oslpPendingResponses.getClosedCount(), this.oslpPendingResponses.getExpiredCount());
+        for (final OslpIoThreadPool oslpIoThreadPool : this.oslpIoThreadPools) {
+            LOGGER.info("I/O threads {}: threads: {}, created: {}, queued: {}", oslpIoThreadPool.getName(),
+                    oslpIoThreadPool.getPoolSize(), oslpIoThreadPool.getCreatedThreadCount(),
+                    oslpIoThreadPool.getQueuedCount());
+        }
+    }
+
+    public void stop() {
+        if (this.logExecutor != null) {
+            this.logExecutor.shutdownNow();
+        }
+    }
+}
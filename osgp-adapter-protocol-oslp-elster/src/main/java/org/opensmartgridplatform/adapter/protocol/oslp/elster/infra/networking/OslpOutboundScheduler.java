@@ -0,0 +1,353 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.opensmartgridplatform.oslp.OslpHistogram;
+
+/**
+ * Limits the outbound requests to devices. At most a maximum number of
+ * requests is in flight in total, and at most one request per device. Other
+ * requests wait in a queue, ordered by message priority (highest first) and
+ * for equal priorities in order of arrival.
+ *
+ * A scheduled request is started by running its task, after which the device
+ * is in flight until {@link #release(String)} is called for it.
+ *
+ * A request made of several steps, like signing the request and sending it,
+ * or the pages of a paged request, holds the device between its steps. The
+ * next step of the same request resumes the device without being scheduled
+ * again, any other request to the device waits. The device is released when
+ * the next step does not follow within the timeout of the hold.
+ */
+public class OslpOutboundScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OslpOutboundScheduler.class);
+
+    private static final long[] WAIT_TIME_BUCKETS_MILLIS = { 1, 5, 10, 50, 100, 500, 1000, 5000, 10000, 30000,
+            60000 };
+
+    private static final Comparator<ScheduledRequest> PRIORITY_ORDER = Comparator
+            .comparingInt((final ScheduledRequest request) -> -request.priority)
+            .thenComparingLong(request -> request.sequence);
+
+    private final int maxInFlight;
+
+    private final Timer timer;
+
+    private final Object lock = new Object();
+
+    /**
+     * Waiting requests per device.
+     */
+    private final Map<String, PriorityQueue<ScheduledRequest>> waitingRequests = new HashMap<>();
+
+    /**
+     * The first waiting request of each device which has no request in
+     * flight. These requests can be started as soon as the total number of
+     * requests in flight allows it.
+     */
+    private final TreeSet<ScheduledRequest> startableRequests = new TreeSet<>(PRIORITY_ORDER);
+
+    private final Set<String> devicesInFlight = new HashSet<>();
+
+    /**
+     * Devices in flight which are held for the next step of their request.
+     */
+    private final Map<String, Hold> holds = new HashMap<>();
+
+    private long sequence;
+
+    private int queuedCount;
+
+    private final AtomicLong startedCount = new AtomicLong();
+
+    private final AtomicLong resumedCount = new AtomicLong();
+
+    private final AtomicLong expiredHoldCount = new AtomicLong();
+
+    private final OslpHistogram waitTimeHistogram = new OslpHistogram(WAIT_TIME_BUCKETS_MILLIS);
+
+    /**
+     * @param timer
+     *            timer releasing held devices of which the next step of the
+     *            request does not follow in time
+     */
+    public OslpOutboundScheduler(final int maxInFlight, final Timer timer) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Maximum number of requests in flight must be at least 1");
+        }
+        this.maxInFlight = maxInFlight;
+        this.timer = timer;
+    }
+
+    /**
+     * Schedules a request to the device. The task is run on the calling
+     * thread when the request can be started right away, otherwise on the
+     * thread releasing the request it waited for.
+     *
+     * @param deviceIdentification
+     *            the device the request is sent to
+     * @param priority
+     *            message priority, higher priorities are started first
+     * @param task
+     *            starts the request
+     */
+    public void schedule(final String deviceIdentification, final int priority, final Runnable task) {
+        synchronized (this.lock) {
+            final ScheduledRequest request = new ScheduledRequest(deviceIdentification, priority, this.sequence++,
+                    task);
+            final PriorityQueue<ScheduledRequest> deviceRequests = this.waitingRequests
+                    .computeIfAbsent(deviceIdentification, key -> new PriorityQueue<>(PRIORITY_ORDER));
+
+            final ScheduledRequest previousFirst = deviceRequests.peek();
+            deviceRequests.add(request);
+            this.queuedCount++;
+
+            if (!this.devicesInFlight.contains(deviceIdentification) && previousFirst != deviceRequests.peek()) {
+                if (previousFirst != null) {
+                    this.startableRequests.remove(previousFirst);
+                }
+                this.startableRequests.add(request);
+            }
+        }
+
+        this.startRequests();
+    }
+
+    /**
+     * Releases the request in flight to the device, allowing the next request
+     * to be started.
+     */
+    public void release(final String deviceIdentification) {
+        final Hold hold;
+        synchronized (this.lock) {
+            hold = this.holds.remove(deviceIdentification);
+            if (!this.devicesInFlight.remove(deviceIdentification)) {
+                LOGGER.warn("No request in flight to device {}", deviceIdentification);
+                return;
+            }
+
+            final PriorityQueue<ScheduledRequest> deviceRequests = this.waitingRequests.get(deviceIdentification);
+            if (deviceRequests != null) {
+                this.startableRequests.add(deviceRequests.peek());
+            }
+        }
+
+        if (hold != null) {
+            hold.cancel();
+        }
+        this.startRequests();
+    }
+
+    /**
+     * Holds the device, which has a request in flight, for the next step of
+     * the request. The device is released when the step does not
+     * {@link #resume(String, String)} it within the timeout.
+     *
+     * @param requestId
+     *            identifies the request, like its correlation UID
+     */
+    public void hold(final String deviceIdentification, final String requestId, final long timeoutMillis) {
+        final Hold hold = new Hold(requestId);
+        final Hold previous;
+        synchronized (this.lock) {
+            if (!this.devicesInFlight.contains(deviceIdentification)) {
+                LOGGER.warn("No request in flight to device {}, unable to hold it for request {}",
+                        deviceIdentification, requestId);
+                return;
+            }
+            previous = this.holds.put(deviceIdentification, hold);
+        }
+
+        if (previous != null) {
+            previous.cancel();
+        }
+        hold.timeout = this.timer.newTimeout(timeout -> this.expire(deviceIdentification, hold), timeoutMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Continues the request holding the device with its next step, the device
+     * stays in flight.
+     *
+     * @return true when the device was held for the request, false when the
+     *         step has to be scheduled.
+     */
+    public boolean resume(final String deviceIdentification, final String requestId) {
+        final Hold hold;
+        synchronized (this.lock) {
+            hold = this.holds.get(deviceIdentification);
+            if (hold == null || !hold.requestId.equals(requestId)) {
+                return false;
+            }
+            this.holds.remove(deviceIdentification);
+        }
+
+        hold.cancel();
+        this.resumedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Releases the device when it is held for the request, because the next
+     * step of the request won't follow.
+     */
+    public void release(final String deviceIdentification, final String requestId) {
+        if (this.resume(deviceIdentification, requestId)) {
+            this.release(deviceIdentification);
+        }
+    }
+
+    private void expire(final String deviceIdentification, final Hold hold) {
+        synchronized (this.lock) {
+            if (!this.holds.remove(deviceIdentification, hold)) {
+                return;
+            }
+        }
+
+        LOGGER.info("Next step of request {} to device {} did not follow in time, releasing the device",
+                hold.requestId, deviceIdentification);
+        this.expiredHoldCount.incrementAndGet();
+        this.release(deviceIdentification);
+    }
+
+    private void startRequests() {
+        final List<ScheduledRequest> started = new ArrayList<>();
+        synchronized (this.lock) {
+            while (this.devicesInFlight.size() < this.maxInFlight && !this.startableRequests.isEmpty()) {
+                final ScheduledRequest request = this.startableRequests.pollFirst();
+
+                final PriorityQueue<ScheduledRequest> deviceRequests = this.waitingRequests
+                        .get(request.deviceIdentification);
+                deviceRequests.poll();
+                if (deviceRequests.isEmpty()) {
+                    this.waitingRequests.remove(request.deviceIdentification);
+                }
+
+                this.queuedCount--;
+                this.devicesInFlight.add(request.deviceIdentification);
+                started.add(request);
+            }
+        }
+
+        // Run the tasks outside the lock, releasing a request from within a
+        // task would otherwise start requests recursively while holding it.
+        for (final ScheduledRequest request : started) {
+            this.startedCount.incrementAndGet();
+            this.waitTimeHistogram.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - request.scheduledNanos));
+            try {
+                request.task.run();
+            } catch (final RuntimeException e) {
+                LOGGER.error("Starting request to device {} failed", request.deviceIdentification, e);
+                this.release(request.deviceIdentification);
+            }
+        }
+    }
+
+    public int getMaxInFlight() {
+        return this.maxInFlight;
+    }
+
+    /**
+     * @return the number of devices with a request in flight.
+     */
+    public int getInFlightCount() {
+        synchronized (this.lock) {
+            return this.devicesInFlight.size();
+        }
+    }
+
+    /**
+     * @return the number of requests waiting to be started.
+     */
+    public int getQueuedCount() {
+        synchronized (this.lock) {
+            return this.queuedCount;
+        }
+    }
+
+    /**
+     * @return the number of requests which have been started.
+     */
+    public long getStartedCount() {
+        return this.startedCount.get();
+    }
+
+    /**
+     * @return the number of steps which continued a request holding the
+     *         device.
+     */
+    public long getResumedCount() {
+        return this.resumedCount.get();
+    }
+
+    /**
+     * @return the number of held devices released because the next step of
+     *         the request did not follow in time.
+     */
+    public long getExpiredHoldCount() {
+        return this.expiredHoldCount.get();
+    }
+
+    /**
+     * @return histogram of the milliseconds requests waited before being
+     *         started.
+     */
+    public OslpHistogram getWaitTimeHistogram() {
+        return this.waitTimeHistogram;
+    }
+
+    private static class Hold {
+        private final String requestId;
+        private volatile Timeout timeout;
+
+        Hold(final String requestId) {
+            this.requestId = requestId;
+        }
+
+        void cancel() {
+            final Timeout current = this.timeout;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+
+    private static class ScheduledRequest {
+        private final String deviceIdentification;
+        private final int priority;
+        private final long sequence;
+        private final Runnable task;
+        private final long scheduledNanos = System.nanoTime();
+
+        ScheduledRequest(final String deviceIdentification, final int priority, final long sequence,
+                final Runnable task) {
+            this.deviceIdentification = deviceIdentification;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.task = task;
+        }
+    }
+}
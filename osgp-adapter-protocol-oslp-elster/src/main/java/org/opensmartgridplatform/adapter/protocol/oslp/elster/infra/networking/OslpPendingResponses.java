@@ -0,0 +1,147 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Channels of devices waiting for the response to their request, while the
+ * response is signed by the signing server. An entry is removed when the
+ * response is written, when the channel is closed, or when the response is
+ * not signed within the time to live, in which case the channel is closed.
+ */
+public class OslpPendingResponses {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OslpPendingResponses.class);
+
+    private final Timer timer;
+
+    private final long timeToLive;
+
+    private final ConcurrentMap<String, PendingResponse> pendingResponses = new ConcurrentHashMap<>();
+
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong closedCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    /**
+     * @param timeToLive
+     *            time in milliseconds the channel waits for the signed
+     *            response
+     */
+    public OslpPendingResponses(final Timer timer, final long timeToLive) {
+        this.timer = timer;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Adds the channel, which waits for the response to the request received
+     * on it.
+     */
+    public void add(final OslpResponseChannel channel) {
+        final PendingResponse pendingResponse = new PendingResponse(channel);
+
+        final PendingResponse previous = this.pendingResponses.put(channel.getId(), pendingResponse);
+        if (previous != null && previous.timeout != null) {
+            previous.timeout.cancel();
+        }
+
+        pendingResponse.timeout = this.timer.newTimeout(timeout -> this.expire(pendingResponse), this.timeToLive,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Removes the channel to write the response to.
+     *
+     * @return the channel, or null when the channel is closed or did not wait
+     *         for the response anymore.
+     */
+    public OslpResponseChannel take(final String channelId) {
+        final PendingResponse pendingResponse = this.remove(channelId);
+        if (pendingResponse == null) {
+            return null;
+        }
+
+        this.completedCount.incrementAndGet();
+        return pendingResponse.channel;
+    }
+
+    /**
+     * Removes the channel when it is closed before the response was written.
+     */
+    public void closed(final String channelId) {
+        if (this.remove(channelId) != null) {
+            this.closedCount.incrementAndGet();
+            LOGGER.info("{} Channel closed before the response was sent", channelId);
+        }
+    }
+
+    private PendingResponse remove(final String channelId) {
+        final PendingResponse pendingResponse = this.pendingResponses.remove(channelId);
+        if (pendingResponse != null && pendingResponse.timeout != null) {
+            pendingResponse.timeout.cancel();
+        }
+        return pendingResponse;
+    }
+
+    private void expire(final PendingResponse pendingResponse) {
+        final String channelId = pendingResponse.channel.getId();
+        if (this.pendingResponses.remove(channelId, pendingResponse)) {
+            this.expiredCount.incrementAndGet();
+            LOGGER.warn("{} Response not signed within {} ms, closing the connection", channelId, this.timeToLive);
+            pendingResponse.channel.close();
+        }
+    }
+
+    /**
+     * @return the number of channels waiting for their response.
+     */
+    public int getSize() {
+        return this.pendingResponses.size();
+    }
+
+    /**
+     * @return the number of responses taken to be written.
+     */
+    public long getCompletedCount() {
+        return this.completedCount.get();
+    }
+
+    /**
+     * @return the number of channels removed because they were closed before
+     *         the response was written.
+     */
+    public long getClosedCount() {
+        return this.closedCount.get();
+    }
+
+    /**
+     * @return the number of channels evicted because the response was not
+     *         signed within the time to live.
+     */
+    public long getExpiredCount() {
+        return this.expiredCount.get();
+    }
+
+    private static class PendingResponse {
+        private final OslpResponseChannel channel;
+        private volatile Timeout timeout;
+
+        PendingResponse(final OslpResponseChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
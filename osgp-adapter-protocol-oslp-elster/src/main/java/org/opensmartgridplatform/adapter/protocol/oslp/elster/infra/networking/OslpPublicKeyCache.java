@@ -0,0 +1,185 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the parsed public keys of OSLP devices, which can be looked
+ * up by device UID and by device identification. When the cache is full, the
+ * least recently used entry is evicted.
+ *
+ * Entries must be invalidated whenever the public key of a device is updated
+ * or revoked, or its UID changes. Invalidation only affects the cache of this
+ * instance, so entries also expire a fixed time after they have been put in
+ * the cache. A key that is updated or revoked through another instance of the
+ * adapter is picked up from the database after at most that time.
+ */
+public class OslpPublicKeyCache {
+
+    private final int maximumSize;
+
+    private final long timeToLiveNanos;
+
+    private final Map<String, Entry> byDeviceIdentification;
+
+    private final Map<String, Entry> byDeviceUid = new HashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private final AtomicLong expirationCount = new AtomicLong();
+
+    /**
+     * @param maximumSize
+     *            the maximum number of cached public keys.
+     * @param timeToLive
+     *            the time in milliseconds after which a cached public key
+     *            expires.
+     */
+    public OslpPublicKeyCache(final int maximumSize, final long timeToLive) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize must not be negative: " + maximumSize);
+        }
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("timeToLive must be positive: " + timeToLive);
+        }
+        this.maximumSize = maximumSize;
+        this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+        this.byDeviceIdentification = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                if (this.size() <= OslpPublicKeyCache.this.maximumSize) {
+                    return false;
+                }
+                OslpPublicKeyCache.this.removeDeviceUid(eldest.getValue());
+                OslpPublicKeyCache.this.evictionCount.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    public synchronized OslpDeviceIdentity getByDeviceUid(final String deviceUid) {
+        final Entry entry = this.byDeviceUid.get(deviceUid);
+        if (entry == null || this.expire(entry)) {
+            this.missCount.incrementAndGet();
+            return null;
+        }
+        // Mark the entry as recently used.
+        this.byDeviceIdentification.get(entry.identity.getDeviceIdentification());
+        this.hitCount.incrementAndGet();
+        return entry.identity;
+    }
+
+    public synchronized OslpDeviceIdentity getByDeviceIdentification(final String deviceIdentification) {
+        final Entry entry = this.byDeviceIdentification.get(deviceIdentification);
+        if (entry == null || this.expire(entry)) {
+            this.missCount.incrementAndGet();
+            return null;
+        }
+        this.hitCount.incrementAndGet();
+        return entry.identity;
+    }
+
+    public synchronized void put(final OslpDeviceIdentity identity) {
+        final Entry entry = new Entry(identity, System.nanoTime() + this.timeToLiveNanos);
+        final Entry previous = this.byDeviceIdentification.put(identity.getDeviceIdentification(), entry);
+        if (previous != null) {
+            this.removeDeviceUid(previous);
+        }
+        if (identity.getDeviceUid() != null) {
+            this.byDeviceUid.put(identity.getDeviceUid(), entry);
+        }
+    }
+
+    /**
+     * Removes the entry of the device with the given identification.
+     */
+    public synchronized void invalidate(final String deviceIdentification) {
+        final Entry entry = this.byDeviceIdentification.remove(deviceIdentification);
+        if (entry != null) {
+            this.removeDeviceUid(entry);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        this.byDeviceIdentification.clear();
+        this.byDeviceUid.clear();
+    }
+
+    public synchronized int getSize() {
+        return this.byDeviceIdentification.size();
+    }
+
+    public int getMaximumSize() {
+        return this.maximumSize;
+    }
+
+    public long getTimeToLive() {
+        return TimeUnit.NANOSECONDS.toMillis(this.timeToLiveNanos);
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    public long getExpirationCount() {
+        return this.expirationCount.get();
+    }
+
+    /**
+     * Removes the given entry if it has expired.
+     *
+     * @return true if the entry has expired.
+     */
+    private boolean expire(final Entry entry) {
+        if (System.nanoTime() - entry.expiresAt < 0) {
+            return false;
+        }
+        if (this.byDeviceIdentification.get(entry.identity.getDeviceIdentification()) == entry) {
+            this.byDeviceIdentification.remove(entry.identity.getDeviceIdentification());
+        }
+        this.removeDeviceUid(entry);
+        this.expirationCount.incrementAndGet();
+        return true;
+    }
+
+    private void removeDeviceUid(final Entry entry) {
+        final String deviceUid = entry.identity.getDeviceUid();
+        if (deviceUid != null && this.byDeviceUid.get(deviceUid) == entry) {
+            this.byDeviceUid.remove(deviceUid);
+        }
+    }
+
+    private static final class Entry {
+        private final OslpDeviceIdentity identity;
+        private final long expiresAt;
+
+        private Entry(final OslpDeviceIdentity identity, final long expiresAt) {
+            this.identity = identity;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+
+/**
+ * Short lived cache of the signed responses to requests of devices, so a
+ * request the device sends again, because the response was slow or got lost,
+ * is answered with the same response. The request is not handled again, so
+ * its side effects are not repeated and the response is not signed again.
+ *
+ * Requests are identified by their sign bytes: the device UID, the sequence
+ * number and the payload. Their security key is left out, as it may differ
+ * for the same request. A request sent again while the original is still
+ * being handled waits for the response to the original.
+ *
+ * Responses expire after the time to live, counted from the moment the
+ * response was added. Requests in progress expire after their own time to
+ * live, which should be the time the channels wait for their response in
+ * {@link OslpPendingResponses}: a request isn't forgotten while signing its
+ * response is slow, and the channels waiting for it are closed by the pending
+ * responses when it takes too long. When the cache is full, the oldest
+ * response is evicted; a request is not cached when there is no response to
+ * evict.
+ */
+public class OslpResponseCache {
+
+    private final long timeToLive;
+
+    private final long inProgressTimeToLive;
+
+    private final int maximumSize;
+
+    /**
+     * Entries with a response, in order of expiry.
+     */
+    private final LinkedHashMap<ByteBuffer, Entry> responses = new LinkedHashMap<>();
+
+    /**
+     * Entries waiting for their response, in order of expiry.
+     */
+    private final LinkedHashMap<ByteBuffer, Entry> inProgress = new LinkedHashMap<>();
+
+    /**
+     * Entries waiting for their response, by the channel of the original
+     * request.
+     */
+    private final Map<String, Entry> inProgressByChannelId = new HashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong waitingCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong inProgressExpirationCount = new AtomicLong();
+
+    /**
+     * @param timeToLive
+     *            time in milliseconds a response is kept, 0 disables the
+     *            cache
+     * @param inProgressTimeToLive
+     *            time in milliseconds a request waits for its response
+     * @param maximumSize
+     *            maximum number of requests kept, 0 disables the cache
+     */
+    public OslpResponseCache(final long timeToLive, final long inProgressTimeToLive, final int maximumSize) {
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("timeToLive must not be negative: " + timeToLive);
+        }
+        if (inProgressTimeToLive < 0) {
+            throw new IllegalArgumentException("inProgressTimeToLive must not be negative: " + inProgressTimeToLive);
+        }
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize must not be negative: " + maximumSize);
+        }
+        this.timeToLive = timeToLive;
+        this.inProgressTimeToLive = inProgressTimeToLive;
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Looks up the response to the request received on the channel. When the
+     * request is not known, it is added as in progress, and the caller must
+     * either {@link #complete(String, OslpEnvelope)} or
+     * {@link #abandon(String)} it.
+     */
+    public synchronized Lookup begin(final OslpEnvelope request, final String channelId) {
+        if (this.timeToLive == 0 || this.maximumSize == 0) {
+            this.missCount.incrementAndGet();
+            return Lookup.MISS;
+        }
+
+        final long now = this.currentTimeMillis();
+        this.expire(this.responses, now);
+        this.expire(this.inProgress, now);
+
+        final ByteBuffer key = request.getSignBytes();
+        final Entry response = this.responses.get(key);
+        if (response != null) {
+            this.hitCount.incrementAndGet();
+            return new Lookup(response.response, false);
+        }
+        final Entry entry = this.inProgress.get(key);
+        if (entry != null) {
+            entry.waitingChannelIds.add(channelId);
+            this.waitingCount.incrementAndGet();
+            return Lookup.IN_PROGRESS;
+        }
+
+        this.missCount.incrementAndGet();
+        while (this.getSize() >= this.maximumSize && !this.responses.isEmpty()) {
+            this.responses.remove(this.responses.keySet().iterator().next());
+            this.evictionCount.incrementAndGet();
+        }
+        if (this.getSize() >= this.maximumSize) {
+            // Every entry is in progress, the request is handled without
+            // being cached.
+            return Lookup.MISS;
+        }
+        final Entry added = new Entry(key, channelId, now + this.inProgressTimeToLive);
+        this.inProgress.put(key, added);
+        this.inProgressByChannelId.put(channelId, added);
+        return Lookup.MISS;
+    }
+
+    /**
+     * Adds the response to the request received on the channel.
+     *
+     * @return the channels of the same request received while it was
+     *         handled, which wait for the response.
+     */
+    public synchronized List<String> complete(final String channelId, final OslpEnvelope response) {
+        final Entry entry = this.inProgressByChannelId.remove(channelId);
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+
+        this.inProgress.remove(entry.key);
+        entry.response = response;
+        entry.expiresAt = this.currentTimeMillis() + this.timeToLive;
+        this.responses.put(entry.key, entry);
+        return entry.waitingChannelIds;
+    }
+
+    /**
+     * Removes the request received on the channel, when it could not be
+     * handled or its response could not be signed.
+     *
+     * @return the channels of the same request received while it was
+     *         handled, which won't get a response.
+     */
+    public synchronized List<String> abandon(final String channelId) {
+        final Entry entry = this.inProgressByChannelId.remove(channelId);
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+
+        this.inProgress.remove(entry.key);
+        return entry.waitingChannelIds;
+    }
+
+    private void expire(final LinkedHashMap<ByteBuffer, Entry> entries, final long now) {
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (entry.expiresAt > now) {
+                return;
+            }
+            iterator.remove();
+            if (entry.response == null) {
+                this.inProgressByChannelId.remove(entry.channelId, entry);
+                this.inProgressExpirationCount.incrementAndGet();
+            }
+        }
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    public synchronized int getSize() {
+        return this.responses.size() + this.inProgress.size();
+    }
+
+    /**
+     * @return the number of requests answered with a cached response.
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * @return the number of requests which waited for the response to the
+     *         same request received earlier.
+     */
+    public long getWaitingCount() {
+        return this.waitingCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    /**
+     * @return the number of requests forgotten because their response was
+     *         not added within the time to live of a request in progress.
+     */
+    public long getInProgressExpirationCount() {
+        return this.inProgressExpirationCount.get();
+    }
+
+    /**
+     * Result of looking up the response to a request.
+     */
+    public static class Lookup {
+        private static final Lookup MISS = new Lookup(null, false);
+        private static final Lookup IN_PROGRESS = new Lookup(null, true);
+
+        private final OslpEnvelope response;
+        private final boolean inProgress;
+
+        Lookup(final OslpEnvelope response, final boolean inProgress) {
+            this.response = response;
+            this.inProgress = inProgress;
+        }
+
+        /**
+         * @return the response to send, or null when the request must be
+         *         handled, or waits for the response to the same request.
+         */
+        public OslpEnvelope getResponse() {
+            return this.response;
+        }
+
+        /**
+         * @return true when the same request is being handled, the channel
+         *         gets the response to it.
+         */
+        public boolean isInProgress() {
+            return this.inProgress;
+        }
+    }
+
+    private static class Entry {
+        private final ByteBuffer key;
+        private final String channelId;
+        private final List<String> waitingChannelIds = new ArrayList<>();
+        private long expiresAt;
+        private OslpEnvelope response;
+
+        Entry(final ByteBuffer key, final String channelId, final long expiresAt) {
+            this.key = key;
+            this.channelId = channelId;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
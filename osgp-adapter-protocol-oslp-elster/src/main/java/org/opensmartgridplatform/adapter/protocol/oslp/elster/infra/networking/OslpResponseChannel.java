@@ -0,0 +1,26 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
+
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+
+/**
+ * Connection of a device waiting for the response to its request, independent
+ * of the Netty version of the transport it was received on.
+ */
+public interface OslpResponseChannel {
+
+    /**
+     * @return identifier of the connection, unique across the transports.
+     */
+    String getId();
+
+    void write(OslpEnvelope response);
+
+    void close();
+}
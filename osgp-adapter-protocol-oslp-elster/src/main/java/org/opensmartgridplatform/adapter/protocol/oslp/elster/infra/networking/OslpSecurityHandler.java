@@ -7,9 +7,13 @@
  */
 package org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking;
 
+import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.security.PublicKey;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.codec.binary.Base64;
+import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelHandler;
@@ -19,6 +23,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpDeviceSettingsService;
 import org.opensmartgridplatform.adapter.protocol.oslp.elster.domain.entities.OslpDevice;
+import org.opensmartgridplatform.oslp.OslpBatchVerifier;
 import org.opensmartgridplatform.oslp.OslpEnvelope;
 import org.opensmartgridplatform.shared.security.CertificateHelper;
 
@@ -35,39 +40,129 @@ public class OslpSecurityHandler extends SimpleChannelHandler {
     @Autowired
     private OslpDeviceSettingsService oslpDeviceSettingsService;
 
+    @Autowired
+    private OslpPublicKeyCache oslpPublicKeyCache;
+
+    @Autowired
+    private OslpExecutionThreadPoolExecutor oslpExecutionThreadPoolExecutor;
+
+    private OslpBatchVerifier batchVerifier;
+
+    /**
+     * Sets the verifier used to verify received messages in batches, or null
+     * to verify each message on the thread it is received on.
+     */
+    public void setBatchVerifier(final OslpBatchVerifier batchVerifier) {
+        this.batchVerifier = batchVerifier;
+    }
+
+    /**
+     * @return the identity of the device which sent the message being
+     *         handled on the channel, as resolved by the security handler, or
+     *         null when the device is unknown.
+     */
+    public static OslpDeviceIdentity getAttachedDeviceIdentity(final Channel channel) {
+        final Object attachment = channel.getAttachment();
+        return attachment instanceof OslpDeviceIdentity ? (OslpDeviceIdentity) attachment : null;
+    }
+
     @Override
     public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent evt) throws Exception {
         final OslpEnvelope message = (OslpEnvelope) evt.getMessage();
 
-        // Upon first registration, a deviceUid is unknown within the platform.
-        // Search based on deviceIdentification in this case.
-        OslpDevice oslpDevice;
+        final OslpDeviceIdentity identity = this.getDeviceIdentity(message);
 
-        if (message.getPayloadMessage().hasRegisterDeviceRequest()) {
-            final String deviceIdentification = message.getPayloadMessage().getRegisterDeviceRequest()
-                    .getDeviceIdentification();
+        if (this.batchVerifier != null) {
+            this.verifyInBatch(ctx, evt, message, identity);
+            return;
+        }
 
-            oslpDevice = this.oslpDeviceSettingsService.getDeviceByDeviceIdentification(deviceIdentification);
-        } else {
-            oslpDevice = this.oslpDeviceSettingsService
-                    .getDeviceByUid(Base64.encodeBase64String(message.getDeviceId()));
+        // When device is unknown or publickey is not available, the message is
+        // not valid.
+        if (identity != null) {
+            message.validate(identity.getPublicKey());
         }
 
+        // Attach the identity, so the next handlers don't have to look up the
+        // device again.
+        evt.getChannel().setAttachment(identity);
+        ctx.sendUpstream(evt);
+    }
+
+    /**
+     * Offers the message to the batch verifier and passes it on when its
+     * verification has finished. Messages of a channel are passed on in the
+     * order in which they were received, on the execution pool instead of on
+     * the verifier threads. Verification finishes asynchronously, so a message
+     * whose channel has been closed in the meantime is dropped instead of
+     * being passed on after the channel's close or exception events.
+     */
+    private void verifyInBatch(final ChannelHandlerContext ctx, final MessageEvent evt, final OslpEnvelope message,
+            final OslpDeviceIdentity identity) {
+        final CompletableFuture<Boolean> verification = identity == null ? CompletableFuture.completedFuture(false)
+                : this.batchVerifier.verify(message, identity.getPublicKey());
+
+        // Events of a channel are received one at a time, so the context
+        // attachment holding the last release of the channel is not shared.
+        final CompletableFuture<?> previousRelease = (CompletableFuture<?>) ctx.getAttachment();
+        final CompletableFuture<?> ready = previousRelease == null ? verification
+                : CompletableFuture.allOf(previousRelease, verification);
+
+        final CompletableFuture<Void> release = ready.handleAsync((result, failure) -> {
+            if (failure != null) {
+                LOGGER.error("Verification of message from device {} failed.",
+                        Base64.encodeBase64String(message.getDeviceId()), failure);
+            }
+            if (!evt.getChannel().isOpen()) {
+                LOGGER.warn("Dropping verified message from device {}, channel {} has been closed.",
+                        Base64.encodeBase64String(message.getDeviceId()), evt.getChannel().getId());
+                return null;
+            }
+            evt.getChannel().setAttachment(identity);
+            ctx.sendUpstream(evt);
+            return null;
+        }, this.oslpExecutionThreadPoolExecutor);
+        ctx.setAttachment(release);
+    }
+
+    /**
+     * @return the identity of the device which sent the message, or null when
+     *         the device is unknown or has no public key.
+     */
+    protected OslpDeviceIdentity getDeviceIdentity(final OslpEnvelope message) throws GeneralSecurityException,
+            IOException {
+        // Upon first registration, a deviceUid is unknown within the platform.
+        // Search based on deviceIdentification in this case.
+        final boolean registerDeviceRequest = message.getPayloadMessage().hasRegisterDeviceRequest();
+        final String deviceIdentification = registerDeviceRequest
+                ? message.getPayloadMessage().getRegisterDeviceRequest().getDeviceIdentification() : null;
+        final String deviceUid = registerDeviceRequest ? null : Base64.encodeBase64String(message.getDeviceId());
+
+        final OslpDeviceIdentity cachedIdentity = registerDeviceRequest
+                ? this.oslpPublicKeyCache.getByDeviceIdentification(deviceIdentification)
+                : this.oslpPublicKeyCache.getByDeviceUid(deviceUid);
+        if (cachedIdentity != null) {
+            return cachedIdentity;
+        }
+
+        final OslpDevice oslpDevice = registerDeviceRequest
+                ? this.oslpDeviceSettingsService.getDeviceByDeviceIdentification(deviceIdentification)
+                : this.oslpDeviceSettingsService.getDeviceByUid(deviceUid);
+
         if (oslpDevice == null) {
             LOGGER.warn("Received message from unknown device.");
+            return null;
         } else if (oslpDevice.getPublicKey() == null) {
             LOGGER.warn("Received message from device without public key: {}", oslpDevice.getDeviceIdentification());
+            return null;
         }
 
-        // When device is unknown or publickey is not available, the message is
-        // not valid.
-        if (oslpDevice != null && oslpDevice.getPublicKey() != null) {
-            final PublicKey publicKey = CertificateHelper.createPublicKeyFromBase64(oslpDevice.getPublicKey(),
-                    this.oslpKeyType, this.oslpSignatureProvider);
+        final PublicKey publicKey = CertificateHelper.createPublicKeyFromBase64(oslpDevice.getPublicKey(),
+                this.oslpKeyType, this.oslpSignatureProvider);
+        final OslpDeviceIdentity identity = new OslpDeviceIdentity(oslpDevice.getDeviceUid(),
+                oslpDevice.getDeviceIdentification(), publicKey);
+        this.oslpPublicKeyCache.put(identity);
 
-            message.validate(publicKey);
-        }
-
-        ctx.sendUpstream(evt);
+        return identity;
     }
 }
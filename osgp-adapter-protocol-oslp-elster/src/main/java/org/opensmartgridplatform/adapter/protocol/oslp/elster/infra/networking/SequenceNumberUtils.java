@@ -12,7 +12,8 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Utility class for converting sequence number value from Integer to byte array
- * and vice versa.
+ * and vice versa. Sequence numbers are handled as primitive ints, bytes are
+ * only needed at the wire boundary.
  */
 public class SequenceNumberUtils {
 
@@ -36,9 +37,22 @@ public class SequenceNumberUtils {
      * @return Byte array of size 2.
      */
     public static byte[] convertIntegerToByteArray(final Integer value) {
+        return convertIntToByteArray(value);
+    }
+
+    /**
+     * Convert an int value into a byte array of size 2. The range of the value
+     * can be from 0 to 65535, equal to a 16 bit unsigned value.
+     *
+     * @param value
+     *            The int value to convert into the byte array.
+     *
+     * @return Byte array of size 2.
+     */
+    public static byte[] convertIntToByteArray(final int value) {
         final byte[] bytes = new byte[2];
         bytes[0] = (byte) (value >>> 8);
-        bytes[1] = value.byteValue();
+        bytes[1] = (byte) value;
         if (IS_LOGGING_ENABLED) {
             LOGGER.info(
                     "platform.SequenceNumberUtils.convertIntegerToByteArray() byte[0]: {} byte[1]: {} Integer value: {}",
@@ -57,7 +71,20 @@ public class SequenceNumberUtils {
      * @return The Integer object.
      */
     public static Integer convertByteArrayToInteger(final byte[] array) {
-        final Integer value = (array[0] & 0xFF) << 8 | (array[1] & 0xFF);
+        return convertByteArrayToInt(array);
+    }
+
+    /**
+     * Convert a byte array of size 2 into an int. The range of the value can
+     * be from 0 to 65535, equal to a 16 bit unsigned value.
+     *
+     * @param array
+     *            The byte array of size 2 to convert into an int.
+     *
+     * @return The int value.
+     */
+    public static int convertByteArrayToInt(final byte[] array) {
+        final int value = (array[0] & 0xFF) << 8 | (array[1] & 0xFF);
         if (IS_LOGGING_ENABLED) {
             LOGGER.info(
                     "platform.SequenceNumberUtils.convertByteArrayToInteger() byte[0]: {} byte[1]: {} Integer value: {}",
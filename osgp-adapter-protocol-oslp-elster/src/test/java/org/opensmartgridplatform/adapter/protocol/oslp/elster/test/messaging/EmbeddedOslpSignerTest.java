@@ -0,0 +1,119 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.test.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.EmbeddedOslpSigner;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpSigningService;
+import org.opensmartgridplatform.oslp.Oslp;
+import org.opensmartgridplatform.oslp.SignedOslpEnvelopeDto;
+import org.opensmartgridplatform.oslp.UnsignedOslpEnvelopeDto;
+import org.opensmartgridplatform.shared.infra.jms.RequestMessage;
+import org.opensmartgridplatform.shared.infra.jms.ResponseMessage;
+import org.opensmartgridplatform.shared.infra.jms.ResponseMessageResultType;
+
+public class EmbeddedOslpSignerTest {
+
+    private static final byte[] DEVICE_ID = new byte[] { 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 };
+
+    private static final byte[] SEQUENCE_NUMBER = new byte[] { 0, 42 };
+
+    private static KeyPair keyPair;
+
+    /**
+     * Signing service recording what the signer hands to it.
+     */
+    private static class RecordingSigningService extends OslpSigningService {
+        private SignedOslpEnvelopeDto signedOslpEnvelopeDto;
+        private String signedDeviceIdentification;
+        private ResponseMessage errorResponseMessage;
+        private String errorDeviceIdentification;
+
+        @Override
+        public void handleSignedOslpEnvelope(final SignedOslpEnvelopeDto signedOslpEnvelopeDto,
+                final String deviceIdentification) {
+            this.signedOslpEnvelopeDto = signedOslpEnvelopeDto;
+            this.signedDeviceIdentification = deviceIdentification;
+        }
+
+        @Override
+        public void handleError(final String deviceIdentification, final ResponseMessage responseMessage) {
+            this.errorDeviceIdentification = deviceIdentification;
+            this.errorResponseMessage = responseMessage;
+        }
+    }
+
+    private final RecordingSigningService signingService = new RecordingSigningService();
+
+    @BeforeClass
+    public static void generateKeyPair() throws Exception {
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC", "SunEC");
+        keyPairGenerator.initialize(256);
+        keyPair = keyPairGenerator.generateKeyPair();
+    }
+
+    private EmbeddedOslpSigner signer(final String signature, final String provider) {
+        final EmbeddedOslpSigner signer = new EmbeddedOslpSigner(keyPair.getPrivate(), signature, provider);
+        signer.setOslpSigningService(this.signingService);
+        return signer;
+    }
+
+    private static RequestMessage requestMessage(final String correlationUid) {
+        final Oslp.Message message = Oslp.Message.newBuilder()
+                .setGetStatusRequest(Oslp.GetStatusRequest.newBuilder().build()).build();
+        final UnsignedOslpEnvelopeDto unsignedOslpEnvelopeDto = new UnsignedOslpEnvelopeDto(SEQUENCE_NUMBER,
+                DEVICE_ID, message, "127.0.0.1", "PUBLIC_LIGHTING", "1.0", "GET_STATUS", 4, 0, false, "organisation",
+                correlationUid, null);
+        return new RequestMessage(correlationUid, "organisation", "device-1", unsignedOslpEnvelopeDto);
+    }
+
+    @Test
+    public void signsInlineAndHandsSignedEnvelopeToSigningService() {
+        final EmbeddedOslpSigner signer = this.signer("SHA256withECDSA", "SunEC");
+
+        signer.sign(requestMessage("correlation-1"), 4);
+
+        final SignedOslpEnvelopeDto signed = this.signingService.signedOslpEnvelopeDto;
+        assertNotNull(signed);
+        assertEquals("device-1", this.signingService.signedDeviceIdentification);
+        assertEquals("correlation-1", signed.getUnsignedOslpEnvelopeDto().getCorrelationUid());
+        assertEquals(42, signed.getOslpEnvelope().getSequenceNumberValue());
+        assertTrue(signed.getOslpEnvelope().validate(keyPair.getPublic()));
+        assertNull(this.signingService.errorResponseMessage);
+        assertEquals(1, signer.getSignedCount());
+        assertEquals(0, signer.getFailedCount());
+    }
+
+    @Test
+    public void failureToBuildEnvelopeIsHandledAsError() {
+        // An RSA signature can't be made with the EC private key.
+        final EmbeddedOslpSigner signer = this.signer("SHA256withRSA", "SunRsaSign");
+
+        signer.sign(requestMessage("correlation-2"), 6);
+
+        final ResponseMessage error = this.signingService.errorResponseMessage;
+        assertNotNull(error);
+        assertEquals("device-1", this.signingService.errorDeviceIdentification);
+        assertEquals("correlation-2", error.getCorrelationUid());
+        assertEquals(ResponseMessageResultType.NOT_OK, error.getResult());
+        assertEquals(6, error.getMessagePriority());
+        assertNull(this.signingService.signedOslpEnvelopeDto);
+        assertEquals(0, signer.getSignedCount());
+        assertEquals(1, signer.getFailedCount());
+    }
+}
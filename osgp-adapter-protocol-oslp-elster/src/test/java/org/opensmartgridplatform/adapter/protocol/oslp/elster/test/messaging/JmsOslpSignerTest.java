@@ -0,0 +1,187 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.test.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging.JmsOslpSigner;
+import org.opensmartgridplatform.oslp.SigningBatchRequest;
+import org.opensmartgridplatform.shared.infra.jms.RequestMessage;
+
+public class JmsOslpSignerTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    /**
+     * Signer recording the messages it would send to the signing server.
+     */
+    private static class RecordingSigner extends JmsOslpSigner {
+        private final BlockingQueue<Sent> sent = new LinkedBlockingQueue<>();
+        private final List<String> failed = Collections.synchronizedList(new ArrayList<>());
+        private volatile RuntimeException sendFailure;
+
+        RecordingSigner(final int maxBatchSize, final long maxWaitMillis) {
+            super(maxBatchSize, maxWaitMillis);
+        }
+
+        @Override
+        protected void sendRequest(final RequestMessage requestMessage, final int messagePriority) {
+            this.throwSendFailure();
+            this.sent.add(new Sent(Collections.singletonList(requestMessage.getCorrelationUid()), messagePriority));
+        }
+
+        @Override
+        protected void sendBatchRequest(final SigningBatchRequest signingBatchRequest, final int messagePriority) {
+            this.throwSendFailure();
+            final List<String> correlationUids = new ArrayList<>();
+            for (final RequestMessage requestMessage : signingBatchRequest.getRequestMessages()) {
+                correlationUids.add(requestMessage.getCorrelationUid());
+            }
+            this.sent.add(new Sent(correlationUids, messagePriority));
+        }
+
+        @Override
+        protected void handleSigningFailure(final RequestMessage requestMessage, final int messagePriority,
+                final RuntimeException cause) {
+            this.failed.add(requestMessage.getCorrelationUid());
+        }
+
+        private void throwSendFailure() {
+            if (this.sendFailure != null) {
+                throw this.sendFailure;
+            }
+        }
+
+        Sent next() throws InterruptedException {
+            return this.sent.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private static class Sent {
+        private final List<String> correlationUids;
+        private final int messagePriority;
+
+        Sent(final List<String> correlationUids, final int messagePriority) {
+            this.correlationUids = correlationUids;
+            this.messagePriority = messagePriority;
+        }
+    }
+
+    private RecordingSigner signer;
+
+    @After
+    public void shutdownSigner() {
+        if (this.signer != null) {
+            this.signer.shutdown();
+        }
+    }
+
+    private void sign(final String correlationUid, final int messagePriority) {
+        this.signer.sign(new RequestMessage(correlationUid, "organisation", "device", null), messagePriority);
+    }
+
+    @Test
+    public void sendsBatchAtMaximumSize() throws Exception {
+        this.signer = new RecordingSigner(3, 60000);
+
+        this.sign("a", 4);
+        this.sign("b", 4);
+        this.sign("c", 4);
+        this.sign("d", 4);
+
+        final Sent batch = this.signer.next();
+        assertNotNull(batch);
+        assertEquals(Arrays.asList("a", "b", "c"), batch.correlationUids);
+        // The fourth request waits for the next batch to fill up.
+        assertNull(this.signer.sent.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void sendsBatchAfterMaximumWait() throws Exception {
+        this.signer = new RecordingSigner(10, 50);
+        final long start = System.nanoTime();
+
+        this.sign("a", 4);
+        this.sign("b", 4);
+
+        final Sent batch = this.signer.next();
+        final long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertNotNull(batch);
+        assertEquals(Arrays.asList("a", "b"), batch.correlationUids);
+        assertTrue("waited " + waitedMillis + " ms", waitedMillis >= 50);
+        assertEquals(1, this.signer.getRequestMessageCount());
+    }
+
+    @Test
+    public void sendsBatchWithHighestPriorityOfItsRequests() throws Exception {
+        this.signer = new RecordingSigner(3, 60000);
+
+        this.sign("a", 2);
+        this.sign("b", 7);
+        this.sign("c", 4);
+
+        final Sent batch = this.signer.next();
+        assertNotNull(batch);
+        assertEquals(3, batch.correlationUids.size());
+        assertEquals(7, batch.messagePriority);
+    }
+
+    @Test
+    public void sendsQueuedRequestsAtShutdown() {
+        this.signer = new RecordingSigner(10, 60000);
+
+        this.sign("a", 4);
+        this.sign("b", 4);
+        this.signer.shutdown();
+
+        assertEquals(Arrays.asList("a", "b"), this.sentCorrelationUids());
+        assertEquals(0, this.signer.getPendingCount());
+
+        // Requests offered after shutdown are sent right away.
+        this.sign("c", 4);
+        assertEquals(Arrays.asList("a", "b", "c"), this.sentCorrelationUids());
+    }
+
+    private List<String> sentCorrelationUids() {
+        final List<String> correlationUids = new ArrayList<>();
+        for (final Sent sent : this.signer.sent) {
+            correlationUids.addAll(sent.correlationUids);
+        }
+        return correlationUids;
+    }
+
+    @Test
+    public void reportsEachRequestOfBatchWhichCouldNotBeSent() throws Exception {
+        this.signer = new RecordingSigner(2, 60000);
+        this.signer.sendFailure = new IllegalStateException("Broker unavailable");
+
+        this.sign("a", 4);
+        this.sign("b", 4);
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (this.signer.failed.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList("a", "b"), this.signer.failed);
+        assertEquals(2, this.signer.getFailedCount());
+    }
+}
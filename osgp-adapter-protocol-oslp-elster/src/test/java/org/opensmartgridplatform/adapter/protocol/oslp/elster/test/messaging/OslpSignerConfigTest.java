@@ -0,0 +1,100 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.test.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.security.KeyPairGenerator;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.config.OslpConfig;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.EmbeddedOslpSigner;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpSigner;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.exceptions.ProtocolAdapterException;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging.JmsOslpSigner;
+
+public class OslpSignerConfigTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Map<String, Object> properties = new HashMap<>();
+
+    private OslpConfig config() throws Exception {
+        final StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("test", this.properties));
+
+        final OslpConfig config = new OslpConfig();
+        Class<?> type = OslpConfig.class;
+        while (type != null) {
+            try {
+                final Field field = type.getDeclaredField("environment");
+                field.setAccessible(true);
+                field.set(config, environment);
+                return config;
+            } catch (final NoSuchFieldException e) {
+                type = type.getSuperclass();
+            }
+        }
+        throw new IllegalStateException("OslpConfig has no environment field");
+    }
+
+    @Test
+    public void selectsJmsSigner() throws Exception {
+        this.properties.put("oslp.signer", "jms");
+        this.properties.put("oslp.signer.jms.batch.max.size", "1");
+        this.properties.put("oslp.signer.jms.batch.max.wait", "5");
+
+        final OslpSigner signer = this.config().oslpSigner();
+
+        assertTrue(signer instanceof JmsOslpSigner);
+        final JmsOslpSigner jmsOslpSigner = (JmsOslpSigner) signer;
+        assertEquals(1, jmsOslpSigner.getMaxBatchSize());
+        jmsOslpSigner.shutdown();
+    }
+
+    @Test
+    public void selectsEmbeddedSignerWithPrivateKeyFromFile() throws Exception {
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC", "SunEC");
+        keyPairGenerator.initialize(256);
+        final File signKey = this.temporaryFolder.newFile("oslp_private.der");
+        Files.write(signKey.toPath(), keyPairGenerator.generateKeyPair().getPrivate().getEncoded());
+
+        this.properties.put("oslp.signer", "embedded");
+        this.properties.put("oslp.signer.embedded.signkey.path", signKey.getAbsolutePath());
+        this.properties.put("oslp.security.keytype", "EC");
+        this.properties.put("oslp.security.signature", "SHA256withECDSA");
+        this.properties.put("oslp.security.provider", "SunEC");
+
+        assertTrue(this.config().oslpSigner() instanceof EmbeddedOslpSigner);
+    }
+
+    @Test
+    public void rejectsUnknownSigner() throws Exception {
+        this.properties.put("oslp.signer", "remote");
+
+        try {
+            this.config().oslpSigner();
+            fail("Expected an unknown signer to be rejected");
+        } catch (final ProtocolAdapterException e) {
+            assertTrue(e.getMessage().contains("remote"));
+        }
+    }
+}
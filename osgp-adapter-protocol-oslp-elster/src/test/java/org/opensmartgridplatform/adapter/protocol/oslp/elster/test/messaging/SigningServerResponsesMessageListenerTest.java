@@ -0,0 +1,92 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.test.messaging;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.activemq.command.ActiveMQObjectMessage;
+import org.junit.Test;
+
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging.SigningServerResponsesMessageListener;
+import org.opensmartgridplatform.oslp.Oslp;
+import org.opensmartgridplatform.oslp.SignedOslpEnvelopeDto;
+import org.opensmartgridplatform.oslp.SigningBatchResponse;
+import org.opensmartgridplatform.oslp.UnsignedOslpEnvelopeDto;
+import org.opensmartgridplatform.shared.infra.jms.ResponseMessage;
+import org.opensmartgridplatform.shared.infra.jms.ResponseMessageResultType;
+
+public class SigningServerResponsesMessageListenerTest {
+
+    /**
+     * Listener recording the correlation UID and device of the responses it
+     * hands on. Handling the signed envelope of the device "failing" throws.
+     */
+    private static class RecordingListener extends SigningServerResponsesMessageListener {
+        private final List<String> signed = new ArrayList<>();
+        private final List<String> errors = new ArrayList<>();
+
+        @Override
+        protected void handleSignedOslpEnvelope(final SignedOslpEnvelopeDto signedOslpEnvelopeDto,
+                final String deviceIdentification) {
+            this.signed.add(signedOslpEnvelopeDto.getUnsignedOslpEnvelopeDto().getCorrelationUid() + "/"
+                    + deviceIdentification);
+            if ("failing".equals(deviceIdentification)) {
+                throw new IllegalStateException("Unable to send the signed envelope");
+            }
+        }
+
+        @Override
+        protected void handleError(final String deviceIdentification, final ResponseMessage responseMessage) {
+            this.errors.add(responseMessage.getCorrelationUid() + "/" + deviceIdentification);
+        }
+    }
+
+    @Test
+    public void handsOnEachResponseOfBatchWithItsOwnCorrelationUid() throws Exception {
+        final RecordingListener listener = new RecordingListener();
+        final SigningBatchResponse signingBatchResponse = new SigningBatchResponse(Arrays.asList(
+                this.response("uid-1", "device-1", ResponseMessageResultType.OK),
+                this.response("uid-2", "device-2", ResponseMessageResultType.NOT_OK),
+                this.response("uid-3", "failing", ResponseMessageResultType.OK),
+                this.response("uid-4", "device-4", ResponseMessageResultType.OK)));
+
+        final ActiveMQObjectMessage message = new ActiveMQObjectMessage();
+        message.setJMSType(SigningBatchResponse.MESSAGE_TYPE);
+        message.setJMSPriority(4);
+        message.setObject(signingBatchResponse);
+
+        listener.onMessage(message);
+
+        // The failing response does not keep the responses after it from
+        // being handed on.
+        assertEquals(Arrays.asList("uid-1/device-1", "uid-3/failing", "uid-4/device-4"), listener.signed);
+        assertEquals(Arrays.asList("uid-2/device-2"), listener.errors);
+        assertEquals(1, listener.getResponseMessageCount());
+        assertEquals(4, listener.getEnvelopeCount());
+    }
+
+    private ResponseMessage response(final String correlationUid, final String deviceIdentification,
+            final ResponseMessageResultType result) {
+        final byte[] deviceId = new byte[] { 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 };
+        final Oslp.Message payloadMessage = Oslp.Message.newBuilder()
+                .setGetStatusRequest(Oslp.GetStatusRequest.newBuilder().build()).build();
+        final UnsignedOslpEnvelopeDto unsignedOslpEnvelopeDto = new UnsignedOslpEnvelopeDto(new byte[2], deviceId,
+                payloadMessage, correlationUid);
+
+        return ResponseMessage.newResponseMessageBuilder().withCorrelationUid(correlationUid)
+                .withOrganisationIdentification("organisation").withDeviceIdentification(deviceIdentification)
+                .withResult(result)
+                .withDataObject(result == ResponseMessageResultType.OK
+                        ? new SignedOslpEnvelopeDto(null, unsignedOslpEnvelopeDto) : unsignedOslpEnvelopeDto)
+                .withMessagePriority(4).build();
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.test.networking;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.Netty4OslpSecurityHandler;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpDeviceIdentity;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpSecurityHandler;
+import org.opensmartgridplatform.oslp.Oslp;
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+import org.opensmartgridplatform.shared.security.CertificateHelper;
+
+public class Netty4OslpSecurityHandlerTest {
+
+    private static final String PRIVATE_KEY_BASE_64 = "MIGHAgEAMBMGByqGSM49AgEGCCqGSM49AwEHBG0wawIBAQQg8ydsIOMoTlBPn6rJezELYFLUUuQe"
+            + "3GvrhI3TDJj1yNyhRANCAAQ0UmJgxWImQ5wgepQ65nlsK0lvYb/GW6nx4ngLgncDZmWH3Pck8eC1"
+            + "xsKg1goWpvl7P1um4cIjKyBwfqf8FxZa";
+
+    private static final String PUBLIC_KEY_BASE_64 = "MFkwEwYHKoZIzj0CAQYIKoZIzj0DAQcDQgAENFJiYMViJkOcIHqUOuZ5bCtJb2G/xlup8eJ4C4J3"
+            + "A2Zlh9z3JPHgtcbCoNYKFqb5ez9bpuHCIysgcH6n/BcWWg==";
+
+    private static final String DEVIATING_PUBLIC_KEY_BASE_64 = "MFkwEwYHKoZIzj0CAQYIKoZIzj0DAQcDQgAEnIZyewkhRF8YsYG7ec02t9NEzuMmwPQaCnzpkexE"
+            + "o2fp1t1PbVA64+zMEOUtyft79ooWaWvdWsuTHU752bqLTA==";
+
+    private static final String KEY_TYPE = "EC";
+    private static final String SIGNATURE = "SHA256withECDSA";
+    private static final String PROVIDER = "SunEC";
+
+    private static final byte[] DEVICE_ID = new byte[] { 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 };
+
+    /**
+     * Security handler resolving every message to the same identity, instead
+     * of looking up the device.
+     */
+    private static class FixedIdentitySecurityHandler extends OslpSecurityHandler {
+        private final OslpDeviceIdentity identity;
+
+        FixedIdentitySecurityHandler(final OslpDeviceIdentity identity) {
+            this.identity = identity;
+        }
+
+        @Override
+        protected OslpDeviceIdentity getDeviceIdentity(final OslpEnvelope message) {
+            return this.identity;
+        }
+    }
+
+    @Test
+    public void validatesMessageAndAttachesIdentity() throws Exception {
+        final OslpDeviceIdentity identity = this.identity(PUBLIC_KEY_BASE_64);
+        final EmbeddedChannel channel = new EmbeddedChannel(
+                new Netty4OslpSecurityHandler(new FixedIdentitySecurityHandler(identity)));
+        final OslpEnvelope message = this.receivedMessage();
+
+        channel.writeInbound(message);
+
+        assertSame(message, channel.readInbound());
+        assertTrue(message.isValid());
+        assertSame(identity, channel.attr(Netty4OslpSecurityHandler.DEVICE_IDENTITY).get());
+    }
+
+    @Test
+    public void passesOnMessageSignedWithOtherKeyAsInvalid() throws Exception {
+        final OslpDeviceIdentity identity = this.identity(DEVIATING_PUBLIC_KEY_BASE_64);
+        final EmbeddedChannel channel = new EmbeddedChannel(
+                new Netty4OslpSecurityHandler(new FixedIdentitySecurityHandler(identity)));
+        final OslpEnvelope message = this.receivedMessage();
+
+        channel.writeInbound(message);
+
+        assertSame(message, channel.readInbound());
+        assertFalse(message.isValid());
+    }
+
+    @Test
+    public void passesOnMessageOfUnknownDeviceAsInvalid() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(
+                new Netty4OslpSecurityHandler(new FixedIdentitySecurityHandler(null)));
+        final OslpEnvelope message = this.receivedMessage();
+
+        channel.writeInbound(message);
+
+        assertSame(message, channel.readInbound());
+        assertFalse(message.isValid());
+        assertNull(channel.attr(Netty4OslpSecurityHandler.DEVICE_IDENTITY).get());
+    }
+
+    private OslpDeviceIdentity identity(final String publicKeyBase64) throws GeneralSecurityException, IOException {
+        return new OslpDeviceIdentity("device-uid", "device-1",
+                CertificateHelper.createPublicKeyFromBase64(publicKeyBase64, KEY_TYPE, PROVIDER));
+    }
+
+    /**
+     * @return a message as received from a device: signed, but not validated
+     *         yet.
+     */
+    private OslpEnvelope receivedMessage() throws GeneralSecurityException, IOException {
+        final OslpEnvelope signed = new OslpEnvelope.Builder().withSignature(SIGNATURE).withProvider(PROVIDER)
+                .withPrimaryKey(CertificateHelper.createPrivateKeyFromBase64(PRIVATE_KEY_BASE_64, KEY_TYPE, PROVIDER))
+                .withDeviceId(DEVICE_ID).withSequenceNumber(1)
+                .withPayloadMessage(Oslp.Message.newBuilder()
+                        .setGetStatusRequest(Oslp.GetStatusRequest.newBuilder().build()).build())
+                .build();
+
+        return new OslpEnvelope.Builder().withSignature(SIGNATURE).withProvider(PROVIDER)
+                .withSecurityKey(signed.getSecurityKey()).withDeviceId(signed.getDeviceId())
+                .withSequenceNumber(signed.getSequenceNumber()).withPayloadMessage(signed.getPayloadMessage())
+                .build();
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.test.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.timeout.IdleStateEvent;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.Netty4OslpSecurityHandler;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.Netty4OslpServerHandler;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpChannelHandlerServer;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpDeviceIdentity;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpPendingResponses;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpResponseChannel;
+import org.opensmartgridplatform.oslp.Oslp;
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+
+public class Netty4OslpServerHandlerTest {
+
+    private static final byte[] DEVICE_ID = new byte[] { 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 };
+
+    private static final long TIME_TO_LIVE = 60000;
+
+    /**
+     * Server handler which records the requests and keeps their channels
+     * waiting for a response, instead of handling them.
+     */
+    private class RecordingChannelHandlerServer extends OslpChannelHandlerServer {
+        private final List<OslpEnvelope> messages = new ArrayList<>();
+        private final List<OslpDeviceIdentity> identities = new ArrayList<>();
+        private final List<OslpResponseChannel> channels = new ArrayList<>();
+
+        @Override
+        public void handleRequest(final OslpEnvelope message, final OslpDeviceIdentity identity,
+                final OslpResponseChannel channel) {
+            this.messages.add(message);
+            this.identities.add(identity);
+            this.channels.add(channel);
+            Netty4OslpServerHandlerTest.this.pendingResponses.add(channel);
+        }
+    }
+
+    private HashedWheelTimer timer;
+
+    private OslpPendingResponses pendingResponses;
+
+    private RecordingChannelHandlerServer channelHandlerServer;
+
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        this.timer = new HashedWheelTimer();
+        this.pendingResponses = new OslpPendingResponses(this.timer, TIME_TO_LIVE);
+        this.channelHandlerServer = new RecordingChannelHandlerServer();
+        this.channel = new EmbeddedChannel(
+                new Netty4OslpServerHandler(this.channelHandlerServer, this.pendingResponses));
+    }
+
+    @After
+    public void tearDown() {
+        this.timer.stop();
+    }
+
+    @Test
+    public void handlesRequestWithIdentityAttachedBySecurityHandler() {
+        final OslpDeviceIdentity identity = new OslpDeviceIdentity("device-uid", "device-1", null);
+        this.channel.attr(Netty4OslpSecurityHandler.DEVICE_IDENTITY).set(identity);
+        final OslpEnvelope request = this.message();
+
+        this.channel.writeInbound(request);
+
+        assertEquals(1, this.channelHandlerServer.messages.size());
+        assertSame(request, this.channelHandlerServer.messages.get(0));
+        assertSame(identity, this.channelHandlerServer.identities.get(0));
+        assertTrue(this.channelHandlerServer.channels.get(0).getId().startsWith("n4-"));
+    }
+
+    @Test
+    public void writesResponseToChannelOfRequest() {
+        this.channel.writeInbound(this.message());
+        final OslpEnvelope response = this.message();
+
+        final OslpResponseChannel responseChannel = this.pendingResponses
+                .take(this.channelHandlerServer.channels.get(0).getId());
+        assertNotNull(responseChannel);
+        responseChannel.write(response);
+
+        assertSame(response, this.channel.readOutbound());
+    }
+
+    @Test
+    public void removesPendingResponseWhenChannelIsClosed() {
+        this.channel.writeInbound(this.message());
+        assertEquals(1, this.pendingResponses.getSize());
+
+        this.channel.close();
+
+        assertEquals(0, this.pendingResponses.getSize());
+        assertEquals(1, this.pendingResponses.getClosedCount());
+    }
+
+    @Test
+    public void closesIdleChannel() {
+        this.channel.pipeline().fireUserEventTriggered(IdleStateEvent.READER_IDLE_STATE_EVENT);
+
+        assertFalse(this.channel.isOpen());
+    }
+
+    @Test
+    public void closesChannelOnException() {
+        this.channel.pipeline().fireExceptionCaught(new IOException("Connection reset by peer"));
+
+        assertFalse(this.channel.isOpen());
+    }
+
+    private OslpEnvelope message() {
+        return new OslpEnvelope.Builder().withSecurityKey(new byte[OslpEnvelope.SECURITY_KEY_LENGTH])
+                .withDeviceId(DEVICE_ID).withSequenceNumber(1)
+                .withPayloadMessage(Oslp.Message.newBuilder()
+                        .setGetStatusRequest(Oslp.GetStatusRequest.newBuilder().build()).build())
+                .build();
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.test.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.UpstreamMessageEvent;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.DeviceRegistrationService;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpChannelHandlerClient;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpInFlightRequests;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpResponseHandler;
+import org.opensmartgridplatform.oslp.Oslp;
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+
+public class OslpChannelHandlerClientConversationTest {
+
+    private static final String DEVICE_IDENTIFICATION = "device-1";
+
+    private static final byte[] DEVICE_ID = new byte[] { 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 };
+
+    private static final InetSocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 12122);
+
+    private static final long CONVERSATION_IDLE_TIMEOUT = 50;
+
+    private static KeyPair keyPair;
+
+    /**
+     * Bootstrap connecting stub channels.
+     */
+    private static class StubBootstrap extends ClientBootstrap {
+        private final List<StubChannel> channels = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public ChannelFuture connect(final SocketAddress remoteAddress) {
+            final StubChannel channel = new StubChannel((InetSocketAddress) remoteAddress);
+            this.channels.add(channel);
+            return Channels.succeededFuture(channel);
+        }
+    }
+
+    /**
+     * Registration service accepting every sequence number.
+     */
+    private static class AcceptingRegistrationService extends DeviceRegistrationService {
+        @Override
+        public void checkSequenceNumber(final byte[] deviceId, final int newSequenceNumber) {
+            // All sequence numbers are accepted.
+        }
+    }
+
+    /**
+     * Response handler recording the responses received.
+     */
+    private static class RecordingResponseHandler implements OslpResponseHandler {
+        private final List<OslpEnvelope> responses = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void handleResponse(final OslpEnvelope oslpResponse) {
+            this.responses.add(oslpResponse);
+        }
+
+        @Override
+        public void handleException(final Throwable t) {
+            throw new AssertionError("Unexpected exception", t);
+        }
+    }
+
+    private final Timer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+
+    private final StubBootstrap bootstrap = new StubBootstrap();
+
+    private final RecordingResponseHandler responseHandler = new RecordingResponseHandler();
+
+    private final OslpChannelHandlerClient channelHandler = new OslpChannelHandlerClient();
+
+    @BeforeClass
+    public static void generateKeyPair() throws Exception {
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC", "SunEC");
+        keyPairGenerator.initialize(256);
+        keyPair = keyPairGenerator.generateKeyPair();
+    }
+
+    @Before
+    public void setUp() {
+        this.channelHandler.setBootstrap(this.bootstrap);
+        this.channelHandler.setOslpTimer(this.timer);
+        this.channelHandler.setOslpInFlightRequests(
+                new OslpInFlightRequests(this.timer, Runnable::run, 60000, Collections.emptyMap()));
+        this.channelHandler.setDeviceRegistrationService(new AcceptingRegistrationService());
+        this.channelHandler.setConversationEnabled(true);
+        this.channelHandler.setConversationIdleTimeout(CONVERSATION_IDLE_TIMEOUT);
+    }
+
+    @After
+    public void tearDown() {
+        this.timer.stop();
+    }
+
+    @Test
+    public void nextStepOfConversationReusesConnectionKeptOpen() throws Exception {
+        this.send("GET_STATUS", true);
+        final StubChannel channel = this.bootstrap.channels.get(0);
+        this.receiveResponse(channel, 11);
+
+        assertTrue(channel.isOpen());
+        assertEquals(1, this.channelHandler.getOpenConversationCount());
+
+        this.send("SET_LIGHT", false);
+        this.receiveResponse(channel, 12);
+
+        assertEquals(1, this.bootstrap.channels.size());
+        assertEquals(2, channel.getWritten().size());
+        assertEquals(2, this.responseHandler.responses.size());
+        assertEquals(1, this.channelHandler.getConnectCount());
+        assertEquals(Collections.singletonMap("SET_LIGHT", 1L), this.channelHandler.getSavedConnects());
+        assertFalse(channel.isOpen());
+        assertEquals(0, this.channelHandler.getOpenConversationCount());
+    }
+
+    @Test
+    public void connectionKeptOpenIsClosedWhenNextStepDoesNotFollowInTime() throws Exception {
+        this.send("GET_STATUS", true);
+        final StubChannel channel = this.bootstrap.channels.get(0);
+        this.receiveResponse(channel, 11);
+        assertTrue(channel.isOpen());
+
+        final long deadline = System.currentTimeMillis() + 10 * CONVERSATION_IDLE_TIMEOUT;
+        while (channel.isOpen() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(channel.isOpen());
+        assertEquals(0, this.channelHandler.getOpenConversationCount());
+
+        this.send("SET_LIGHT", false);
+
+        assertEquals(2, this.bootstrap.channels.size());
+        assertEquals(2, this.channelHandler.getConnectCount());
+        assertTrue(this.channelHandler.getSavedConnects().isEmpty());
+    }
+
+    @Test
+    public void connectionIsClosedAfterResponseWhenConversationsAreDisabled() throws Exception {
+        this.channelHandler.setConversationEnabled(false);
+
+        this.send("GET_STATUS", true);
+        final StubChannel channel = this.bootstrap.channels.get(0);
+        this.receiveResponse(channel, 11);
+
+        assertFalse(channel.isOpen());
+        assertEquals(0, this.channelHandler.getOpenConversationCount());
+    }
+
+    private void send(final String messageType, final boolean keepOpen) throws Exception {
+        this.channelHandler.send(ADDRESS, this.envelope(10, Oslp.Message.newBuilder()
+                .setGetStatusRequest(Oslp.GetStatusRequest.newBuilder().build()).build()), this.responseHandler,
+                DEVICE_IDENTIFICATION, messageType, keepOpen);
+    }
+
+    private void receiveResponse(final StubChannel channel, final int sequenceNumber) throws Exception {
+        final OslpEnvelope response = this.envelope(sequenceNumber, Oslp.Message.newBuilder()
+                .setSetRebootResponse(Oslp.SetRebootResponse.newBuilder().setStatus(Oslp.Status.OK).build())
+                .build());
+        response.validate(keyPair.getPublic());
+        this.channelHandler.messageReceived(null, new UpstreamMessageEvent(channel, response, ADDRESS));
+    }
+
+    private OslpEnvelope envelope(final int sequenceNumber, final Oslp.Message payloadMessage) {
+        return new OslpEnvelope.Builder().withSignature("SHA256withECDSA").withProvider("SunEC")
+                .withPrimaryKey(keyPair.getPrivate()).withDeviceId(DEVICE_ID).withSequenceNumber(sequenceNumber)
+                .withPayloadMessage(payloadMessage).build();
+    }
+}
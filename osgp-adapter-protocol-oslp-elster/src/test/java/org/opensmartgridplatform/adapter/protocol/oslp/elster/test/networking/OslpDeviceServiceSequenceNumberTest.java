@@ -0,0 +1,177 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.test.networking;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpDeviceState;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpDeviceStateCache;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpSequenceNumberWriter;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpSigningService;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.device.DeviceRequest;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.device.DeviceResponse;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.device.DeviceResponseHandler;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging.OslpLogItemRequestMessage;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.messaging.OslpLogItemRequestMessageSender;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpChannelHandlerClient;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpDeviceService;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpOutboundScheduler;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpResponseHandler;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.SequenceNumberUtils;
+import org.opensmartgridplatform.oslp.Oslp;
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+
+public class OslpDeviceServiceSequenceNumberTest {
+
+    private static final String DEVICE_IDENTIFICATION = "device-1";
+
+    private static final byte[] DEVICE_ID = new byte[] { 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 };
+
+    /**
+     * Device state cache holding the sequence number of one device.
+     */
+    private static class SequenceNumberCache extends OslpDeviceStateCache {
+        private volatile int sequenceNumber;
+
+        SequenceNumberCache(final OslpSequenceNumberWriter writer, final int sequenceNumber) {
+            super(null, null, writer, 0, 1);
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        @Override
+        public OslpDeviceState getByDeviceIdentification(final String deviceIdentification) {
+            return new OslpDeviceState(1L, "AAEAAAAAAAAAAAAB", deviceIdentification, this.sequenceNumber, 1, 2);
+        }
+
+        @Override
+        public void updateSequenceNumber(final String deviceIdentification, final int sequenceNumber) {
+            this.sequenceNumber = sequenceNumber;
+        }
+    }
+
+    /**
+     * Signing service recording the requests it was asked to sign.
+     */
+    private static class RecordingSigningService extends OslpSigningService {
+        private final List<String> correlationUids = Collections.synchronizedList(new ArrayList<>());
+        private final List<Integer> sequenceNumbers = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void buildAndSignEnvelope(final String organisationIdentification, final String deviceIdentification,
+                final String correlationUid, final byte[] deviceId, final byte[] sequenceNumber,
+                final String ipAddress, final String domain, final String domainVersion, final String messageType,
+                final int messagePriority, final int retryCount, final boolean isScheduled,
+                final Oslp.Message payloadMessage, final Serializable extraData) {
+            this.correlationUids.add(correlationUid);
+            this.sequenceNumbers.add(SequenceNumberUtils.convertByteArrayToInteger(sequenceNumber));
+        }
+    }
+
+    /**
+     * Channel handler recording the response handlers of the requests sent.
+     */
+    private static class RecordingChannelHandler extends OslpChannelHandlerClient {
+        private final List<OslpResponseHandler> responseHandlers = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void send(final InetSocketAddress address, final OslpEnvelope request,
+                final OslpResponseHandler responseHandler, final String deviceIdentification,
+                final String messageType, final boolean keepOpen) throws IOException {
+            this.responseHandlers.add(responseHandler);
+        }
+    }
+
+    private static class NoLogItemRequestMessageSender extends OslpLogItemRequestMessageSender {
+        @Override
+        public void send(final OslpLogItemRequestMessage oslpLogItemRequestMessage) {
+            // Log items are not saved.
+        }
+    }
+
+    private static class NoDeviceResponseHandler implements DeviceResponseHandler {
+        @Override
+        public void handleResponse(final DeviceResponse deviceResponse) {
+            // The response is not used.
+        }
+
+        @Override
+        public void handleException(final Throwable t, final DeviceResponse deviceResponse) {
+            // The exception is not used.
+        }
+    }
+
+    private final Timer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+
+    private final OslpSequenceNumberWriter writer = new OslpSequenceNumberWriter(null, null, 60000, 100, 3);
+
+    private final RecordingSigningService signingService = new RecordingSigningService();
+
+    private final RecordingChannelHandler channelHandler = new RecordingChannelHandler();
+
+    private final OslpDeviceService deviceService = new OslpDeviceService();
+
+    @Before
+    public void setUp() {
+        this.deviceService.setOslpOutboundScheduler(new OslpOutboundScheduler(10, this.timer));
+        this.deviceService.setOslpOutboundSigningTimeout(60000);
+        this.deviceService.setOslpDeviceStateCache(new SequenceNumberCache(this.writer, 10));
+        this.deviceService.setOslpSigningService(this.signingService);
+        this.deviceService.setOslpChannelHandler(this.channelHandler);
+        this.deviceService.setOslpLogItemRequestMessageSender(new NoLogItemRequestMessageSender());
+    }
+
+    @After
+    public void tearDown() {
+        this.writer.stop();
+        this.timer.stop();
+    }
+
+    @Test
+    public void concurrentRequestsToDeviceAreSignedWithConsecutiveSequenceNumbers() throws Exception {
+        final DeviceRequest first = new DeviceRequest("organisation-1", DEVICE_IDENTIFICATION, "correlation-1", 4);
+        final DeviceRequest second = new DeviceRequest("organisation-1", DEVICE_IDENTIFICATION, "correlation-2", 4);
+
+        this.deviceService.setReboot(first);
+        final Thread secondRequest = new Thread(() -> this.deviceService.setReboot(second));
+        secondRequest.start();
+        secondRequest.join();
+
+        // The second request waits until the first one has been answered.
+        assertEquals(Arrays.asList(10), this.signingService.sequenceNumbers);
+
+        this.deviceService.doSetReboot(this.envelope(10), first, new NoDeviceResponseHandler(), null);
+        assertEquals(1, this.channelHandler.responseHandlers.size());
+        this.channelHandler.responseHandlers.get(0).handleResponse(this.envelope(11));
+
+        assertEquals(Arrays.asList("correlation-1", "correlation-2"), this.signingService.correlationUids);
+        assertEquals(Arrays.asList(10, 11), this.signingService.sequenceNumbers);
+    }
+
+    private OslpEnvelope envelope(final int sequenceNumber) {
+        return new OslpEnvelope.Builder().withSecurityKey(new byte[OslpEnvelope.SECURITY_KEY_LENGTH])
+                .withDeviceId(DEVICE_ID).withSequenceNumber(sequenceNumber)
+                .withPayloadMessage(Oslp.Message.newBuilder()
+                        .setSetRebootRequest(Oslp.SetRebootRequest.newBuilder().build()).build())
+                .build();
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.test.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+import org.junit.After;
+import org.junit.Test;
+
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpCallbackHandler;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpInFlightRequests;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpResponseHandler;
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+import org.opensmartgridplatform.shared.exceptionhandling.NoDeviceResponseException;
+
+public class OslpInFlightRequestsTest {
+
+    private static final InetSocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 12122);
+
+    /**
+     * Response handler recording the exception the request failed with and
+     * the thread it was handled on.
+     */
+    private static class FailureRecordingHandler implements OslpResponseHandler {
+        private final CountDownLatch failed = new CountDownLatch(1);
+        private volatile Throwable exception;
+        private volatile Thread thread;
+
+        @Override
+        public void handleResponse(final OslpEnvelope oslpResponse) {
+            throw new AssertionError("Unexpected response");
+        }
+
+        @Override
+        public void handleException(final Throwable t) {
+            this.exception = t;
+            this.thread = Thread.currentThread();
+            this.failed.countDown();
+        }
+    }
+
+    private final Timer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+        this.timer.stop();
+    }
+
+    @Test
+    public void requestWithoutResponseInTimeFailsAndClosesChannel() throws Exception {
+        final OslpInFlightRequests inFlightRequests = new OslpInFlightRequests(this.timer, this.executor, 50,
+                Collections.emptyMap());
+        final StubChannel channel = new StubChannel(ADDRESS);
+        final FailureRecordingHandler handler = new FailureRecordingHandler();
+
+        inFlightRequests.add(channel, "GET_STATUS", new OslpCallbackHandler(handler));
+        assertEquals(1, inFlightRequests.getInFlightCount());
+
+        assertTrue(handler.failed.await(5, TimeUnit.SECONDS));
+        assertTrue(handler.exception instanceof NoDeviceResponseException);
+        assertFalse(channel.isOpen());
+        assertEquals(1, inFlightRequests.getTimeoutCount());
+        assertEquals(0, inFlightRequests.getInFlightCount());
+        assertFalse(inFlightRequests.contains(channel.getId()));
+    }
+
+    @Test
+    public void failureIsHandledOnExecutorInsteadOfTimerThread() throws Exception {
+        final Thread[] executorThread = new Thread[1];
+        this.executor.submit(() -> executorThread[0] = Thread.currentThread()).get();
+
+        final OslpInFlightRequests inFlightRequests = new OslpInFlightRequests(this.timer, this.executor, 10,
+                Collections.emptyMap());
+        final FailureRecordingHandler handler = new FailureRecordingHandler();
+        inFlightRequests.add(new StubChannel(ADDRESS), "GET_STATUS", new OslpCallbackHandler(handler));
+
+        assertTrue(handler.failed.await(5, TimeUnit.SECONDS));
+        assertSame(executorThread[0], handler.thread);
+    }
+
+    @Test
+    public void failureIsHandledOnTimerThreadWhenExecutorRejectsIt() throws Exception {
+        this.executor.shutdown();
+
+        final OslpInFlightRequests inFlightRequests = new OslpInFlightRequests(this.timer, this.executor, 10,
+                Collections.emptyMap());
+        final StubChannel channel = new StubChannel(ADDRESS);
+        final FailureRecordingHandler handler = new FailureRecordingHandler();
+        inFlightRequests.add(channel, "GET_STATUS", new OslpCallbackHandler(handler));
+
+        assertTrue(handler.failed.await(5, TimeUnit.SECONDS));
+        assertTrue(handler.exception instanceof NoDeviceResponseException);
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void removedRequestDoesNotTimeOut() throws Exception {
+        final OslpInFlightRequests inFlightRequests = new OslpInFlightRequests(this.timer, this.executor, 10,
+                Collections.emptyMap());
+        final StubChannel channel = new StubChannel(ADDRESS);
+        final FailureRecordingHandler handler = new FailureRecordingHandler();
+        final OslpCallbackHandler callbackHandler = new OslpCallbackHandler(handler);
+        inFlightRequests.add(channel, "GET_STATUS", callbackHandler);
+
+        assertSame(callbackHandler, inFlightRequests.remove(channel.getId()));
+        assertNull(inFlightRequests.remove(channel.getId()));
+
+        assertFalse(handler.failed.await(100, TimeUnit.MILLISECONDS));
+        assertTrue(channel.isOpen());
+        assertEquals(0, inFlightRequests.getTimeoutCount());
+    }
+
+    @Test
+    public void responseTimeoutDependsOnMessageType() {
+        final OslpInFlightRequests inFlightRequests = new OslpInFlightRequests(this.timer, this.executor, 50,
+                Collections.singletonMap("UPDATE_FIRMWARE", 300000L));
+
+        assertEquals(300000L, inFlightRequests.getResponseTimeout("UPDATE_FIRMWARE"));
+        assertEquals(50L, inFlightRequests.getResponseTimeout("GET_STATUS"));
+        assertEquals(50L, inFlightRequests.getResponseTimeout(null));
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.test.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.config.OslpConfig;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpIoThreadPool;
+
+public class OslpIoThreadPoolTest {
+
+    private final Map<String, Object> properties = new HashMap<>();
+
+    private final List<OslpIoThreadPool> pools = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (final OslpIoThreadPool pool : this.pools) {
+            pool.shutdownNow();
+        }
+    }
+
+    private OslpIoThreadPool pool(final OslpIoThreadPool pool) {
+        this.pools.add(pool);
+        return pool;
+    }
+
+    private OslpConfig config() throws Exception {
+        final StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("test", this.properties));
+
+        final OslpConfig config = new OslpConfig();
+        Class<?> type = OslpConfig.class;
+        while (type != null) {
+            try {
+                final Field field = type.getDeclaredField("environment");
+                field.setAccessible(true);
+                field.set(config, environment);
+                return config;
+            } catch (final NoSuchFieldException e) {
+                type = type.getSuperclass();
+            }
+        }
+        throw new IllegalStateException("OslpConfig has no environment field");
+    }
+
+    @Test
+    public void runsEachLongRunningTaskOnItsOwnNamedThread() throws Exception {
+        final OslpIoThreadPool pool = this.pool(new OslpIoThreadPool("oslp-test-worker", 2));
+        final CountDownLatch running = new CountDownLatch(2);
+        final CountDownLatch stop = new CountDownLatch(1);
+        final List<String> threadNames = Collections.synchronizedList(new ArrayList<>());
+
+        for (int i = 0; i < 2; i++) {
+            pool.execute(() -> {
+                threadNames.add(Thread.currentThread().getName());
+                running.countDown();
+                awaitQuietly(stop);
+            });
+        }
+
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        assertEquals(2, pool.getPoolSize());
+        assertEquals(2, pool.getCreatedThreadCount());
+        assertEquals(0, pool.getQueuedCount());
+        for (final String threadName : threadNames) {
+            assertTrue(threadName, threadName.startsWith("oslp-test-worker-"));
+        }
+        stop.countDown();
+    }
+
+    @Test
+    public void queuesTaskBeyondPoolSizeWithoutCreatingThread() throws Exception {
+        final OslpIoThreadPool pool = this.pool(new OslpIoThreadPool("oslp-test-boss", 1));
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch stop = new CountDownLatch(1);
+
+        pool.execute(() -> {
+            running.countDown();
+            awaitQuietly(stop);
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        pool.execute(() -> {
+            // Waits for the thread of the first task.
+        });
+
+        assertEquals(1, pool.getQueuedCount());
+        assertEquals(1, pool.getCreatedThreadCount());
+        assertEquals(1, pool.getMaximumPoolSize());
+        stop.countDown();
+    }
+
+    @Test
+    public void poolsAreSizedByConfiguredThreads() throws Exception {
+        this.properties.put("oslp.client.boss.threads", "1");
+        this.properties.put("oslp.client.worker.threads", "3");
+        this.properties.put("oslp.server.worker.threads", "2");
+        final OslpConfig config = this.config();
+
+        assertEquals(1, this.pool(config.oslpClientBossPool()).getCorePoolSize());
+        assertEquals(3, this.pool(config.oslpClientWorkerPool()).getCorePoolSize());
+        assertEquals(1, this.pool(config.oslpServerBossPool()).getCorePoolSize());
+        assertEquals(2, this.pool(config.oslpServerWorkerPool()).getMaximumPoolSize());
+    }
+
+    @Test
+    public void workerPoolsDefaultToNumberOfCores() throws Exception {
+        this.properties.put("oslp.client.worker.threads", "0");
+        this.properties.put("oslp.server.worker.threads", "0");
+        final OslpConfig config = this.config();
+
+        final int cores = Runtime.getRuntime().availableProcessors();
+        assertEquals(cores, this.pool(config.oslpClientWorkerPool()).getCorePoolSize());
+        assertEquals(cores, this.pool(config.oslpServerWorkerPool()).getCorePoolSize());
+    }
+
+    private static void awaitQuietly(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.test.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+import org.junit.After;
+import org.junit.Test;
+
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpOutboundScheduler;
+
+public class OslpOutboundSchedulerTest {
+
+    private final List<String> started = Collections.synchronizedList(new ArrayList<>());
+
+    private final Timer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+
+    @After
+    public void stopTimer() {
+        this.timer.stop();
+    }
+
+    private void schedule(final OslpOutboundScheduler scheduler, final String deviceIdentification,
+            final int priority, final String name) {
+        scheduler.schedule(deviceIdentification, priority, () -> this.started.add(name));
+    }
+
+    @Test
+    public void startsRequestsToDifferentDevicesWithinLimit() {
+        final OslpOutboundScheduler scheduler = new OslpOutboundScheduler(2, this.timer);
+
+        this.schedule(scheduler, "device-1", 4, "a");
+        this.schedule(scheduler, "device-2", 4, "b");
+        this.schedule(scheduler, "device-3", 4, "c");
+
+        assertEquals(Arrays.asList("a", "b"), this.started);
+        assertEquals(2, scheduler.getInFlightCount());
+        assertEquals(1, scheduler.getQueuedCount());
+
+        scheduler.release("device-1");
+
+        assertEquals(Arrays.asList("a", "b", "c"), this.started);
+        assertEquals(0, scheduler.getQueuedCount());
+    }
+
+    @Test
+    public void startsOneRequestPerDevice() {
+        final OslpOutboundScheduler scheduler = new OslpOutboundScheduler(10, this.timer);
+
+        this.schedule(scheduler, "device-1", 4, "a");
+        this.schedule(scheduler, "device-1", 4, "b");
+        this.schedule(scheduler, "device-2", 4, "c");
+
+        assertEquals(Arrays.asList("a", "c"), this.started);
+
+        scheduler.release("device-1");
+
+        assertEquals(Arrays.asList("a", "c", "b"), this.started);
+        assertEquals(2, scheduler.getInFlightCount());
+    }
+
+    @Test
+    public void startsWaitingRequestsByPriorityThenInOrderOfArrival() {
+        final OslpOutboundScheduler scheduler = new OslpOutboundScheduler(1, this.timer);
+
+        this.schedule(scheduler, "device-1", 4, "a");
+        this.schedule(scheduler, "device-2", 1, "b");
+        this.schedule(scheduler, "device-3", 6, "c");
+        this.schedule(scheduler, "device-4", 6, "d");
+        this.schedule(scheduler, "device-1", 9, "e");
+
+        assertEquals(Arrays.asList("a"), this.started);
+        assertEquals(4, scheduler.getQueuedCount());
+
+        scheduler.release("device-1");
+        scheduler.release("device-1");
+        scheduler.release("device-3");
+        scheduler.release("device-4");
+
+        assertEquals(Arrays.asList("a", "e", "c", "d", "b"), this.started);
+        assertEquals(5, scheduler.getStartedCount());
+        assertEquals(5, scheduler.getWaitTimeHistogram().getCount());
+    }
+
+    @Test
+    public void releasesDeviceWhenStartingRequestFails() {
+        final OslpOutboundScheduler scheduler = new OslpOutboundScheduler(1, this.timer);
+
+        scheduler.schedule("device-1", 4, () -> {
+            throw new IllegalStateException("Connect failed");
+        });
+        this.schedule(scheduler, "device-2", 4, "b");
+
+        assertEquals(Arrays.asList("b"), this.started);
+        assertEquals(1, scheduler.getInFlightCount());
+    }
+
+    @Test
+    public void heldDeviceIsOnlyResumedByTheSameRequest() {
+        final OslpOutboundScheduler scheduler = new OslpOutboundScheduler(10, this.timer);
+
+        this.schedule(scheduler, "device-1", 4, "a");
+        scheduler.hold("device-1", "correlation-a", 60000);
+
+        assertFalse(scheduler.resume("device-1", "correlation-b"));
+        this.schedule(scheduler, "device-1", 9, "b");
+        assertEquals(Arrays.asList("a"), this.started);
+
+        assertTrue(scheduler.resume("device-1", "correlation-a"));
+        assertFalse(scheduler.resume("device-1", "correlation-a"));
+        assertEquals(1, scheduler.getResumedCount());
+
+        scheduler.release("device-1");
+
+        assertEquals(Arrays.asList("a", "b"), this.started);
+    }
+
+    @Test
+    public void releasesHeldDeviceOnlyForTheRequestHoldingIt() {
+        final OslpOutboundScheduler scheduler = new OslpOutboundScheduler(10, this.timer);
+
+        this.schedule(scheduler, "device-1", 4, "a");
+        scheduler.hold("device-1", "correlation-a", 60000);
+        this.schedule(scheduler, "device-1", 4, "b");
+
+        scheduler.release("device-1", "correlation-b");
+        assertEquals(Arrays.asList("a"), this.started);
+
+        scheduler.release("device-1", "correlation-a");
+        assertEquals(Arrays.asList("a", "b"), this.started);
+    }
+
+    @Test
+    public void releasesHeldDeviceWhenNextStepDoesNotFollowInTime() throws InterruptedException {
+        final OslpOutboundScheduler scheduler = new OslpOutboundScheduler(10, this.timer);
+
+        this.schedule(scheduler, "device-1", 4, "a");
+        scheduler.hold("device-1", "correlation-a", 50);
+        this.schedule(scheduler, "device-1", 4, "b");
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (this.started.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, scheduler.getExpiredHoldCount());
+        assertEquals(Arrays.asList("a", "b"), this.started);
+        assertFalse(scheduler.resume("device-1", "correlation-a"));
+    }
+}
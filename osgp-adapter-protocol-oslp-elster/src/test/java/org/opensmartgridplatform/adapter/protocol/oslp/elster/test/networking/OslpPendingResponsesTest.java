@@ -0,0 +1,130 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.test.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+import org.junit.After;
+import org.junit.Test;
+
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpPendingResponses;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpResponseChannel;
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+
+public class OslpPendingResponsesTest {
+
+    private static final long TIME_TO_LIVE = 50;
+
+    /**
+     * Response channel recording whether it was closed.
+     */
+    private static class StubResponseChannel implements OslpResponseChannel {
+        private final String id;
+        private volatile boolean closed;
+
+        StubResponseChannel(final String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getId() {
+            return this.id;
+        }
+
+        @Override
+        public void write(final OslpEnvelope response) {
+            throw new AssertionError("Unexpected response");
+        }
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+    }
+
+    private final Timer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+
+    private final OslpPendingResponses pendingResponses = new OslpPendingResponses(this.timer, TIME_TO_LIVE);
+
+    @After
+    public void tearDown() {
+        this.timer.stop();
+    }
+
+    @Test
+    public void closedChannelIsRemovedAndDoesNotExpire() throws Exception {
+        final StubResponseChannel channel = new StubResponseChannel("1");
+        this.pendingResponses.add(channel);
+        assertEquals(1, this.pendingResponses.getSize());
+
+        this.pendingResponses.closed("1");
+
+        assertEquals(0, this.pendingResponses.getSize());
+        assertEquals(1, this.pendingResponses.getClosedCount());
+        assertNull(this.pendingResponses.take("1"));
+
+        Thread.sleep(4 * TIME_TO_LIVE);
+        assertEquals(0, this.pendingResponses.getExpiredCount());
+        assertEquals(0, this.pendingResponses.getCompletedCount());
+        assertFalse(channel.closed);
+    }
+
+    @Test
+    public void closingChannelWithoutPendingResponseIsNotCounted() {
+        final StubResponseChannel channel = new StubResponseChannel("1");
+        this.pendingResponses.add(channel);
+        assertSame(channel, this.pendingResponses.take("1"));
+
+        this.pendingResponses.closed("1");
+        this.pendingResponses.closed("2");
+
+        assertEquals(1, this.pendingResponses.getCompletedCount());
+        assertEquals(0, this.pendingResponses.getClosedCount());
+    }
+
+    @Test
+    public void channelIsClosedWhenResponseIsNotSignedInTime() throws Exception {
+        final StubResponseChannel channel = new StubResponseChannel("1");
+        this.pendingResponses.add(channel);
+
+        final long deadline = System.currentTimeMillis() + 20 * TIME_TO_LIVE;
+        while (this.pendingResponses.getSize() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(0, this.pendingResponses.getSize());
+        assertEquals(1, this.pendingResponses.getExpiredCount());
+        assertTrue(channel.closed);
+        assertNull(this.pendingResponses.take("1"));
+    }
+
+    @Test
+    public void channelWaitingAgainIsNotEvictedByTimeoutOfPreviousRequest() throws Exception {
+        final OslpPendingResponses slowPendingResponses = new OslpPendingResponses(this.timer, 4 * TIME_TO_LIVE);
+        final StubResponseChannel channel = new StubResponseChannel("1");
+        slowPendingResponses.add(channel);
+        Thread.sleep(3 * TIME_TO_LIVE);
+        slowPendingResponses.add(channel);
+
+        // Past the time to live of the first request only.
+        Thread.sleep(2 * TIME_TO_LIVE);
+
+        assertEquals(1, slowPendingResponses.getSize());
+        assertEquals(0, slowPendingResponses.getExpiredCount());
+        assertFalse(channel.closed);
+        assertSame(channel, slowPendingResponses.take("1"));
+    }
+}
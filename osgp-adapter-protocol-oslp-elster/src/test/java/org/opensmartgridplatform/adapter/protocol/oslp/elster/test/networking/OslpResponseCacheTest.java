@@ -0,0 +1,204 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.test.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.infra.networking.OslpResponseCache;
+import org.opensmartgridplatform.oslp.Oslp;
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+
+public class OslpResponseCacheTest {
+
+    private static final byte[] DEVICE_ID = new byte[] { 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 };
+
+    private static final long TIME_TO_LIVE = 1000;
+
+    private static final long IN_PROGRESS_TIME_TO_LIVE = 2000;
+
+    /**
+     * Cache with a clock which is moved by the test.
+     */
+    private static class TestableResponseCache extends OslpResponseCache {
+        private long now;
+
+        TestableResponseCache(final int maximumSize) {
+            super(TIME_TO_LIVE, IN_PROGRESS_TIME_TO_LIVE, maximumSize);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return this.now;
+        }
+    }
+
+    @Test
+    public void answersSameRequestWithCachedResponse() {
+        final OslpResponseCache cache = new TestableResponseCache(10);
+        final OslpEnvelope response = this.response();
+
+        assertNull(cache.begin(this.request(1, "event", 1), "channel-1").getResponse());
+        cache.complete("channel-1", response);
+
+        // Sent again, with a different security key.
+        assertSame(response, cache.begin(this.request(1, "event", 2), "channel-2").getResponse());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void handlesRequestWithOtherSequenceNumberOrPayload() {
+        final OslpResponseCache cache = new TestableResponseCache(10);
+        cache.begin(this.request(1, "event", 1), "channel-1");
+        cache.complete("channel-1", this.response());
+
+        assertNull(cache.begin(this.request(2, "event", 1), "channel-2").getResponse());
+        assertNull(cache.begin(this.request(1, "other", 1), "channel-3").getResponse());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void sameRequestWaitsForResponseToOriginal() {
+        final OslpResponseCache cache = new TestableResponseCache(10);
+        cache.begin(this.request(1, "event", 1), "channel-1");
+
+        final OslpResponseCache.Lookup lookup = cache.begin(this.request(1, "event", 2), "channel-2");
+
+        assertTrue(lookup.isInProgress());
+        assertNull(lookup.getResponse());
+        assertEquals(Collections.singletonList("channel-2"), cache.complete("channel-1", this.response()));
+    }
+
+    @Test
+    public void abandonedRequestIsHandledAgain() {
+        final OslpResponseCache cache = new TestableResponseCache(10);
+        cache.begin(this.request(1, "event", 1), "channel-1");
+        cache.begin(this.request(1, "event", 2), "channel-2");
+
+        assertEquals(Collections.singletonList("channel-2"), cache.abandon("channel-1"));
+
+        final OslpResponseCache.Lookup lookup = cache.begin(this.request(1, "event", 3), "channel-3");
+        assertFalse(lookup.isInProgress());
+        assertNull(lookup.getResponse());
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void responseExpiresAfterTimeToLive() {
+        final TestableResponseCache cache = new TestableResponseCache(10);
+        cache.begin(this.request(1, "event", 1), "channel-1");
+        cache.now = 500;
+        cache.complete("channel-1", this.response());
+
+        // The time to live starts when the response is added.
+        cache.now = 500 + TIME_TO_LIVE - 1;
+        assertNotNull(cache.begin(this.request(1, "event", 2), "channel-2").getResponse());
+
+        cache.now = 500 + TIME_TO_LIVE;
+        assertNull(cache.begin(this.request(1, "event", 3), "channel-3").getResponse());
+    }
+
+    @Test
+    public void requestInProgressOutlivesResponseTimeToLive() {
+        final TestableResponseCache cache = new TestableResponseCache(10);
+        cache.begin(this.request(1, "event", 1), "channel-1");
+
+        // Signing the response is slow, the request sent again still waits
+        // for it.
+        cache.now = IN_PROGRESS_TIME_TO_LIVE - 1;
+        assertTrue(cache.begin(this.request(1, "event", 2), "channel-2").isInProgress());
+        assertEquals(Collections.singletonList("channel-2"), cache.complete("channel-1", this.response()));
+        assertEquals(0, cache.getInProgressExpirationCount());
+    }
+
+    @Test
+    public void requestInProgressExpiresAfterItsTimeToLive() {
+        final TestableResponseCache cache = new TestableResponseCache(10);
+        cache.begin(this.request(1, "event", 1), "channel-1");
+
+        cache.now = IN_PROGRESS_TIME_TO_LIVE;
+        final OslpResponseCache.Lookup lookup = cache.begin(this.request(1, "event", 2), "channel-2");
+
+        assertFalse(lookup.isInProgress());
+        assertNull(lookup.getResponse());
+        assertEquals(1, cache.getInProgressExpirationCount());
+        assertEquals(Collections.emptyList(), cache.complete("channel-1", this.response()));
+    }
+
+    @Test
+    public void evictsOldestRequestWhenFull() {
+        final OslpResponseCache cache = new TestableResponseCache(2);
+        for (int sequenceNumber = 1; sequenceNumber <= 3; sequenceNumber++) {
+            final String channelId = "channel-" + sequenceNumber;
+            cache.begin(this.request(sequenceNumber, "event", 1), channelId);
+            cache.complete(channelId, this.response());
+        }
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.begin(this.request(1, "event", 1), "channel-4").getResponse());
+    }
+
+    @Test
+    public void doesNotCacheRequestWhenFullOfRequestsInProgress() {
+        final OslpResponseCache cache = new TestableResponseCache(2);
+        cache.begin(this.request(1, "event", 1), "channel-1");
+        cache.begin(this.request(2, "event", 1), "channel-2");
+
+        cache.begin(this.request(3, "event", 1), "channel-3");
+        final OslpResponseCache.Lookup lookup = cache.begin(this.request(3, "event", 2), "channel-4");
+
+        assertFalse(lookup.isInProgress());
+        assertEquals(2, cache.getSize());
+        assertEquals(0, cache.getEvictionCount());
+        assertTrue(cache.begin(this.request(1, "event", 2), "channel-5").isInProgress());
+    }
+
+    @Test
+    public void disabledCacheHandlesEveryRequest() {
+        final OslpResponseCache cache = new OslpResponseCache(0, IN_PROGRESS_TIME_TO_LIVE, 10);
+        cache.begin(this.request(1, "event", 1), "channel-1");
+        cache.complete("channel-1", this.response());
+
+        assertNull(cache.begin(this.request(1, "event", 1), "channel-2").getResponse());
+        assertEquals(0, cache.getSize());
+    }
+
+    private OslpEnvelope request(final int sequenceNumber, final String description, final int securityKeyByte) {
+        final Oslp.Message payload = Oslp.Message.newBuilder()
+                .setEventNotificationRequest(Oslp.EventNotificationRequest.newBuilder()
+                        .addNotifications(Oslp.EventNotification.newBuilder()
+                                .setEvent(Oslp.Event.LIGHT_EVENTS_LIGHT_ON).setDescription(description)))
+                .build();
+        return this.envelope(sequenceNumber, payload, securityKeyByte);
+    }
+
+    private OslpEnvelope response() {
+        final Oslp.Message payload = Oslp.Message.newBuilder()
+                .setEventNotificationResponse(Oslp.EventNotificationResponse.newBuilder().setStatus(Oslp.Status.OK))
+                .build();
+        return this.envelope(1, payload, 1);
+    }
+
+    private OslpEnvelope envelope(final int sequenceNumber, final Oslp.Message payload, final int securityKeyByte) {
+        final byte[] securityKey = new byte[OslpEnvelope.SECURITY_KEY_LENGTH];
+        Arrays.fill(securityKey, (byte) securityKeyByte);
+        return new OslpEnvelope.Builder().withSecurityKey(securityKey).withDeviceId(DEVICE_ID)
+                .withSequenceNumber(sequenceNumber).withPayloadMessage(payload).build();
+    }
+}
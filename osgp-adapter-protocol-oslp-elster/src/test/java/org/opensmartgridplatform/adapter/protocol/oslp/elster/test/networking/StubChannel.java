@@ -0,0 +1,89 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.test.networking;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.netty.channel.AbstractChannel;
+import org.jboss.netty.channel.AbstractChannelSink;
+import org.jboss.netty.channel.ChannelConfig;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelState;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DefaultChannelConfig;
+import org.jboss.netty.channel.MessageEvent;
+
+/**
+ * Netty 3 channel connected to a device, recording the messages written to
+ * it instead of sending them.
+ */
+public class StubChannel extends AbstractChannel {
+
+    private final ChannelConfig config = new DefaultChannelConfig();
+
+    private final InetSocketAddress remoteAddress;
+
+    private final List<Object> written = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Sink handling the writes and close of the stub channel.
+     */
+    private static class StubChannelSink extends AbstractChannelSink {
+        @Override
+        public void eventSunk(final ChannelPipeline pipeline, final ChannelEvent e) {
+            final StubChannel channel = (StubChannel) e.getChannel();
+            if (e instanceof MessageEvent) {
+                channel.written.add(((MessageEvent) e).getMessage());
+            } else if (e instanceof ChannelStateEvent && ((ChannelStateEvent) e).getState() == ChannelState.OPEN
+                    && Boolean.FALSE.equals(((ChannelStateEvent) e).getValue())) {
+                channel.setClosed();
+            }
+            e.getFuture().setSuccess();
+        }
+    }
+
+    public StubChannel(final InetSocketAddress remoteAddress) {
+        super(null, null, Channels.pipeline(), new StubChannelSink());
+        this.remoteAddress = remoteAddress;
+    }
+
+    @Override
+    public ChannelConfig getConfig() {
+        return this.config;
+    }
+
+    @Override
+    public boolean isBound() {
+        return this.isOpen();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return this.isOpen();
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return null;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return this.remoteAddress;
+    }
+
+    public List<Object> getWritten() {
+        return this.written;
+    }
+}
@@ -0,0 +1,304 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.test.sequence.number;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpDeviceStateCache;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpSequenceNumberWriter;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.domain.entities.OslpDevice;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.domain.repositories.OslpDeviceRepository;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.exceptions.ProtocolAdapterException;
+
+public class OslpDeviceStateCacheTest {
+
+    private static final long DEVICE_ID = 1L;
+
+    private static final String DEVICE_UID = "uid-1";
+
+    private static final String DEVICE_IDENTIFICATION = "device-1";
+
+    private static final long TIME_TO_LIVE = 1000;
+
+    /**
+     * Row of the oslp_device table.
+     */
+    private static class Row {
+        private final Integer sequenceNumber;
+        private final Integer randomDevice;
+        private final Integer randomPlatform;
+
+        Row(final Integer sequenceNumber, final Integer randomDevice, final Integer randomPlatform) {
+            this.sequenceNumber = sequenceNumber;
+            this.randomDevice = randomDevice;
+            this.randomPlatform = randomPlatform;
+        }
+    }
+
+    /**
+     * Device with the id of the row it was loaded from.
+     */
+    private static class LoadedDevice extends OslpDevice {
+        private final Long id;
+
+        LoadedDevice(final Long id, final Row row) {
+            super(DEVICE_UID, DEVICE_IDENTIFICATION, "SSLD");
+            this.id = id;
+            this.setSequenceNumber(row.sequenceNumber);
+            this.setRandomDevice(row.randomDevice);
+            this.setRandomPlatform(row.randomPlatform);
+        }
+
+        @Override
+        public Long getId() {
+            return this.id;
+        }
+    }
+
+    /**
+     * Writer writing the sequence numbers to the rows, only when a row still
+     * holds the sequence number the update was based on.
+     */
+    private static class RowSequenceNumberWriter extends OslpSequenceNumberWriter {
+        private final Map<Long, Row> rows;
+
+        RowSequenceNumberWriter(final Map<Long, Row> rows) {
+            super(null, null, 60000, 100, 3);
+            this.rows = rows;
+        }
+
+        @Override
+        protected int[] writeBatch(final List<Long> deviceIds, final List<PendingUpdate> updates) {
+            final int[] updateCounts = new int[deviceIds.size()];
+            for (int i = 0; i < deviceIds.size(); i++) {
+                final Row row = this.rows.get(deviceIds.get(i));
+                final PendingUpdate update = updates.get(i);
+                if (row != null && Objects.equals(row.sequenceNumber, update.getExpectedSequenceNumber())) {
+                    this.rows.put(deviceIds.get(i),
+                            new Row(update.getSequenceNumber(), row.randomDevice, row.randomPlatform));
+                    updateCounts[i] = 1;
+                }
+            }
+            return updateCounts;
+        }
+    }
+
+    /**
+     * Transaction manager without transactions.
+     */
+    private static class NoTransactionManager implements PlatformTransactionManager {
+        @Override
+        public TransactionStatus getTransaction(final TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(final TransactionStatus status) {
+            // No transaction to commit.
+        }
+
+        @Override
+        public void rollback(final TransactionStatus status) {
+            // No transaction to roll back.
+        }
+    }
+
+    /**
+     * Cache with a clock which is moved by the test.
+     */
+    private static class TestableDeviceStateCache extends OslpDeviceStateCache {
+        private long now;
+
+        TestableDeviceStateCache(final OslpDeviceRepository repository, final OslpSequenceNumberWriter writer,
+                final long timeToLive) {
+            super(repository, new NoTransactionManager(), writer, timeToLive, 4);
+        }
+
+        @Override
+        protected long nanoTime() {
+            return this.now;
+        }
+    }
+
+    private final Map<Long, Row> rows = new ConcurrentHashMap<>();
+
+    private final AtomicInteger loadCount = new AtomicInteger();
+
+    private final RowSequenceNumberWriter writer = new RowSequenceNumberWriter(this.rows);
+
+    @After
+    public void stopWriter() {
+        this.writer.stop();
+    }
+
+    /**
+     * @return a repository of the single device, backed by the rows.
+     */
+    private OslpDeviceRepository repository() {
+        return (OslpDeviceRepository) Proxy.newProxyInstance(OslpDeviceRepository.class.getClassLoader(),
+                new Class<?>[] { OslpDeviceRepository.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "findByDeviceUid":
+                    case "findByDeviceIdentification":
+                        final String key = (String) args[0];
+                        final Row row = this.rows.get(DEVICE_ID);
+                        if (row == null || !(DEVICE_UID.equals(key) || DEVICE_IDENTIFICATION.equals(key))) {
+                            return null;
+                        }
+                        this.loadCount.incrementAndGet();
+                        return new LoadedDevice(DEVICE_ID, row);
+                    case "updateState":
+                        this.rows.put((Long) args[0], new Row((Integer) args[1], (Integer) args[2],
+                                (Integer) args[3]));
+                        return 1;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private TestableDeviceStateCache cache(final long timeToLive) {
+        return new TestableDeviceStateCache(this.repository(), this.writer, timeToLive);
+    }
+
+    private static void checkNext(final int currentSequenceNumber, final int newSequenceNumber)
+            throws ProtocolAdapterException {
+        if (newSequenceNumber != currentSequenceNumber + 1) {
+            throw new ProtocolAdapterException("Sequence number incorrect: " + newSequenceNumber);
+        }
+    }
+
+    @Test
+    public void checksAndUpdatesSequenceNumberInMemory() throws ProtocolAdapterException {
+        this.rows.put(DEVICE_ID, new Row(10, 1, 2));
+        final OslpDeviceStateCache cache = this.cache(TIME_TO_LIVE);
+
+        cache.checkAndUpdateSequenceNumber(DEVICE_UID, 11, OslpDeviceStateCacheTest::checkNext);
+        cache.checkAndUpdateSequenceNumber(DEVICE_UID, 12, OslpDeviceStateCacheTest::checkNext);
+
+        assertEquals(Integer.valueOf(12), cache.getByDeviceIdentification(DEVICE_IDENTIFICATION).getSequenceNumber());
+        assertEquals(1, this.loadCount.get());
+        // Written behind.
+        assertEquals(Integer.valueOf(10), this.rows.get(DEVICE_ID).sequenceNumber);
+
+        this.writer.flush();
+        assertEquals(Integer.valueOf(12), this.rows.get(DEVICE_ID).sequenceNumber);
+    }
+
+    @Test
+    public void rejectedSequenceNumberIsNotUpdated() {
+        this.rows.put(DEVICE_ID, new Row(10, 1, 2));
+        final OslpDeviceStateCache cache = this.cache(TIME_TO_LIVE);
+
+        try {
+            cache.checkAndUpdateSequenceNumber(DEVICE_UID, 15, OslpDeviceStateCacheTest::checkNext);
+            fail("Expected the sequence number to be rejected");
+        } catch (final ProtocolAdapterException e) {
+            assertEquals(Integer.valueOf(10), cache.getByDeviceUid(DEVICE_UID).getSequenceNumber());
+            assertEquals(0, this.writer.getPendingCount());
+        }
+    }
+
+    @Test
+    public void unknownDeviceIsRejected() {
+        final OslpDeviceStateCache cache = this.cache(TIME_TO_LIVE);
+
+        assertNull(cache.getByDeviceUid(DEVICE_UID));
+        try {
+            cache.checkAndUpdateSequenceNumber(DEVICE_UID, 1, OslpDeviceStateCacheTest::checkNext);
+            fail("Expected the unknown device to be rejected");
+        } catch (final ProtocolAdapterException e) {
+            assertEquals(0, this.writer.getPendingCount());
+        }
+    }
+
+    @Test
+    public void registrationIsWrittenThroughAndDiscardsPendingUpdates() throws ProtocolAdapterException {
+        this.rows.put(DEVICE_ID, new Row(10, 1, 2));
+        final OslpDeviceStateCache cache = this.cache(TIME_TO_LIVE);
+        cache.checkAndUpdateSequenceNumber(DEVICE_UID, 11, OslpDeviceStateCacheTest::checkNext);
+
+        cache.register(new LoadedDevice(DEVICE_ID, new Row(100, 3, 4)));
+
+        final Row row = this.rows.get(DEVICE_ID);
+        assertEquals(Integer.valueOf(100), row.sequenceNumber);
+        assertEquals(Integer.valueOf(3), row.randomDevice);
+        assertEquals(Integer.valueOf(4), row.randomPlatform);
+        assertEquals(0, this.writer.getPendingCount());
+        assertEquals(Integer.valueOf(4), cache.getByDeviceUid(DEVICE_UID).getRandomPlatform());
+
+        // The update of the previous state does not overwrite the
+        // registration.
+        this.writer.flush();
+        assertEquals(Integer.valueOf(100), this.rows.get(DEVICE_ID).sequenceNumber);
+    }
+
+    @Test
+    public void reloadsStateChangedByOtherInstanceAfterTimeToLive() {
+        this.rows.put(DEVICE_ID, new Row(10, 1, 2));
+        final TestableDeviceStateCache cache = this.cache(TIME_TO_LIVE);
+        cache.getByDeviceUid(DEVICE_UID);
+
+        this.rows.put(DEVICE_ID, new Row(20, 5, 6));
+
+        cache.now = TimeUnit.MILLISECONDS.toNanos(TIME_TO_LIVE) - 1;
+        assertEquals(Integer.valueOf(10), cache.getByDeviceUid(DEVICE_UID).getSequenceNumber());
+
+        cache.now = TimeUnit.MILLISECONDS.toNanos(TIME_TO_LIVE);
+        assertEquals(Integer.valueOf(20), cache.getByDeviceUid(DEVICE_UID).getSequenceNumber());
+        assertEquals(Integer.valueOf(5), cache.getByDeviceIdentification(DEVICE_IDENTIFICATION).getRandomDevice());
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(2, this.loadCount.get());
+    }
+
+    @Test
+    public void evictsDeviceWhenUpdateConflictsWithOtherInstance() throws ProtocolAdapterException {
+        this.rows.put(DEVICE_ID, new Row(10, 1, 2));
+        final OslpDeviceStateCache cache = this.cache(TIME_TO_LIVE);
+        cache.checkAndUpdateSequenceNumber(DEVICE_UID, 11, OslpDeviceStateCacheTest::checkNext);
+
+        // Another instance accepted a message of the device.
+        this.rows.put(DEVICE_ID, new Row(11, 1, 2));
+        this.writer.flush();
+
+        assertEquals(1, cache.getInvalidationCount());
+        assertEquals(0, cache.getSize());
+        assertEquals(Integer.valueOf(11), cache.getByDeviceUid(DEVICE_UID).getSequenceNumber());
+        assertEquals(2, this.loadCount.get());
+    }
+
+    @Test
+    public void disabledCacheLoadsEveryLookupAndWritesRightAway() throws ProtocolAdapterException {
+        this.rows.put(DEVICE_ID, new Row(10, 1, 2));
+        final OslpDeviceStateCache cache = this.cache(0);
+
+        cache.checkAndUpdateSequenceNumber(DEVICE_UID, 11, OslpDeviceStateCacheTest::checkNext);
+
+        assertEquals(Integer.valueOf(11), this.rows.get(DEVICE_ID).sequenceNumber);
+        assertEquals(Integer.valueOf(11), cache.getByDeviceUid(DEVICE_UID).getSequenceNumber());
+        assertEquals(2, this.loadCount.get());
+        assertEquals(0, cache.getSize());
+    }
+}
@@ -0,0 +1,280 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.adapter.protocol.oslp.elster.test.sequence.number;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.DeviceRegistrationService;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.application.services.oslp.OslpSequenceNumberWriter;
+import org.opensmartgridplatform.adapter.protocol.oslp.elster.exceptions.ProtocolAdapterException;
+
+public class OslpSequenceNumberWriterTest {
+
+    private static final int SEQUENCE_NUMBER_MAXIMUM = 65535;
+
+    private static final int SEQUENCE_NUMBER_WINDOW = 6;
+
+    private static final int MAX_UNFLUSHED_UPDATES = 3;
+
+    /**
+     * Writer keeping the rows and the written sequence numbers in memory
+     * instead of in the database. A device without a row has no sequence
+     * number yet.
+     */
+    private static class RecordingSequenceNumberWriter extends OslpSequenceNumberWriter {
+        private final Map<Long, Integer> rows = new ConcurrentHashMap<>();
+        private final Map<Long, List<Integer>> written = new ConcurrentHashMap<>();
+        private final List<Integer> batchSizes = new ArrayList<>();
+        private Runnable beforeWrite;
+
+        RecordingSequenceNumberWriter(final int maxPendingDevices) {
+            super(null, null, 60000, maxPendingDevices, MAX_UNFLUSHED_UPDATES);
+        }
+
+        @Override
+        protected int[] writeBatch(final List<Long> deviceIds, final List<PendingUpdate> updates) {
+            if (this.beforeWrite != null) {
+                final Runnable runnable = this.beforeWrite;
+                this.beforeWrite = null;
+                runnable.run();
+            }
+            this.batchSizes.add(deviceIds.size());
+            final int[] updateCounts = new int[deviceIds.size()];
+            for (int i = 0; i < deviceIds.size(); i++) {
+                final PendingUpdate update = updates.get(i);
+                if (!Objects.equals(this.rows.get(deviceIds.get(i)), update.getExpectedSequenceNumber())) {
+                    continue;
+                }
+                this.rows.put(deviceIds.get(i), update.getSequenceNumber());
+                this.written.computeIfAbsent(deviceIds.get(i), id -> new ArrayList<>())
+                        .add(update.getSequenceNumber());
+                updateCounts[i] = 1;
+            }
+            return updateCounts;
+        }
+
+        List<Integer> written(final long deviceId) {
+            return this.written.getOrDefault(deviceId, new ArrayList<>());
+        }
+    }
+
+    private static class TestableDeviceRegistrationService extends DeviceRegistrationService {
+        TestableDeviceRegistrationService() {
+            this.setSequenceNumberMaximum(SEQUENCE_NUMBER_MAXIMUM);
+            this.setSequenceNumberWindow(SEQUENCE_NUMBER_WINDOW);
+        }
+    }
+
+    private RecordingSequenceNumberWriter writer;
+
+    @After
+    public void stopWriter() {
+        if (this.writer != null) {
+            this.writer.stop();
+        }
+    }
+
+    @Test
+    public void writesLastUpdateOfEachDeviceInOneBatch() {
+        this.writer = new RecordingSequenceNumberWriter(100);
+
+        this.writer.write(1L, null, 5);
+        this.writer.write(1L, 5, 6);
+        this.writer.write(2L, null, 9);
+        this.writer.flush();
+
+        assertEquals(1, this.writer.written(1L).size());
+        assertEquals(Integer.valueOf(6), this.writer.written(1L).get(0));
+        assertEquals(Integer.valueOf(9), this.writer.written(2L).get(0));
+        assertEquals(Integer.valueOf(2), this.writer.batchSizes.get(0));
+        assertEquals(1, this.writer.getCoalescedCount());
+        assertEquals(2, this.writer.getWrittenCount());
+    }
+
+    @Test
+    public void pendingSequenceNumberIsVisibleUntilWritten() {
+        this.writer = new RecordingSequenceNumberWriter(100);
+
+        this.writer.write(1L, null, 5);
+        this.writer.write(1L, 5, 6);
+
+        assertEquals(Integer.valueOf(6), this.writer.getPendingSequenceNumber(1L));
+        assertNull(this.writer.getPendingSequenceNumber(2L));
+
+        this.writer.flush();
+
+        assertNull(this.writer.getPendingSequenceNumber(1L));
+        assertEquals(0, this.writer.getPendingCount());
+    }
+
+    @Test
+    public void asksToFlushAtMaximumNumberOfUnflushedUpdates() {
+        this.writer = new RecordingSequenceNumberWriter(100);
+
+        assertFalse(this.writer.write(1L, null, 1));
+        assertFalse(this.writer.write(1L, 1, 2));
+        assertTrue(this.writer.write(1L, 2, 3));
+
+        this.writer.flush();
+
+        assertFalse(this.writer.write(1L, 3, 4));
+    }
+
+    @Test
+    public void failedFlushKeepsNewerUpdate() {
+        this.writer = new RecordingSequenceNumberWriter(100);
+        this.writer.write(1L, null, 5);
+        this.writer.beforeWrite = () -> {
+            this.writer.write(1L, 5, 6);
+            throw new IllegalStateException("Database unavailable");
+        };
+
+        try {
+            this.writer.flush();
+            fail("Expected the flush to fail");
+        } catch (final IllegalStateException e) {
+            assertEquals(1, this.writer.getFailedFlushCount());
+        }
+
+        assertEquals(Integer.valueOf(6), this.writer.getPendingSequenceNumber(1L));
+
+        this.writer.flush();
+
+        assertEquals(1, this.writer.written(1L).size());
+        assertEquals(Integer.valueOf(6), this.writer.written(1L).get(0));
+    }
+
+    @Test
+    public void discardedUpdateIsNotWritten() {
+        this.writer = new RecordingSequenceNumberWriter(100);
+
+        this.writer.write(1L, null, 5);
+        this.writer.discard(1L);
+        this.writer.flush();
+
+        assertTrue(this.writer.written(1L).isEmpty());
+    }
+
+    @Test
+    public void updateOfChangedRowIsNotWritten() {
+        this.writer = new RecordingSequenceNumberWriter(100);
+        final List<Long> conflicts = new ArrayList<>();
+        this.writer.setConflictHandler(conflicts::add);
+        this.writer.rows.put(1L, 5);
+        this.writer.rows.put(2L, 5);
+
+        // Another instance accepted sequence number 7 of device 1.
+        this.writer.write(1L, 5, 6);
+        this.writer.rows.put(1L, 7);
+        this.writer.write(2L, 5, 6);
+        this.writer.flush();
+
+        assertEquals(Integer.valueOf(7), this.writer.rows.get(1L));
+        assertEquals(Integer.valueOf(6), this.writer.rows.get(2L));
+        assertEquals(1, conflicts.size());
+        assertEquals(Long.valueOf(1L), conflicts.get(0));
+        assertEquals(1, this.writer.getConflictCount());
+        assertEquals(1, this.writer.getWrittenCount());
+    }
+
+    @Test
+    public void writtenSequenceNumbersStayWithinWindowUnderConcurrency() throws Exception {
+        this.writer = new RecordingSequenceNumberWriter(4);
+        final int devices = 8;
+        final int updatesPerDevice = 2000;
+        final int firstSequenceNumber = 65000;
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int d = 0; d < devices; d++) {
+            final long deviceId = d;
+            // Updates of a device are written one at a time, in order.
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    Integer previousSequenceNumber = null;
+                    for (int i = 0; i < updatesPerDevice; i++) {
+                        final int sequenceNumber = (firstSequenceNumber + i) % (SEQUENCE_NUMBER_MAXIMUM + 1);
+                        if (this.writer.write(deviceId, previousSequenceNumber, sequenceNumber)) {
+                            this.writer.flush();
+                        }
+                        previousSequenceNumber = sequenceNumber;
+                    }
+                } catch (final Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }));
+        }
+        final Thread flusher = new Thread(() -> {
+            while (!done.get()) {
+                this.writer.flush();
+            }
+        });
+
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        flusher.start();
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        done.set(true);
+        flusher.join();
+        this.writer.flush();
+
+        assertNull(failure.get());
+        assertEquals(0, this.writer.getConflictCount());
+
+        final DeviceRegistrationService deviceRegistrationService = new TestableDeviceRegistrationService();
+        final int lastSequenceNumber = (firstSequenceNumber + updatesPerDevice - 1) % (SEQUENCE_NUMBER_MAXIMUM + 1);
+        for (long deviceId = 0; deviceId < devices; deviceId++) {
+            final List<Integer> written = this.writer.written(deviceId);
+            assertEquals(Integer.valueOf(lastSequenceNumber), written.get(written.size() - 1));
+
+            int previous = firstSequenceNumber - 1;
+            for (final Integer sequenceNumber : written) {
+                // Never older than the previous write, and never more updates
+                // behind than a device would be rejected for after a restart.
+                final int advance = (sequenceNumber - previous + SEQUENCE_NUMBER_MAXIMUM + 1)
+                        % (SEQUENCE_NUMBER_MAXIMUM + 1);
+                assertTrue("advance " + advance, advance >= 1 && advance <= MAX_UNFLUSHED_UPDATES);
+                this.assertAccepted(deviceRegistrationService, previous, sequenceNumber);
+                previous = sequenceNumber;
+            }
+        }
+    }
+
+    private void assertAccepted(final DeviceRegistrationService deviceRegistrationService,
+            final int persistedSequenceNumber, final int sequenceNumber) {
+        try {
+            deviceRegistrationService.checkSequenceNumber(persistedSequenceNumber, sequenceNumber);
+        } catch (final ProtocolAdapterException e) {
+            fail("Sequence number " + sequenceNumber + " rejected after " + persistedSequenceNumber);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp.benchmarks;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+
+import org.opensmartgridplatform.oslp.Oslp;
+import org.opensmartgridplatform.oslp.Oslp.Message;
+import org.opensmartgridplatform.oslp.OslpEncoder;
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Keys, payloads and envelopes shared by the benchmarks. The payloads are
+ * representative messages of the sizes allowed by oslp.proto.
+ */
+public final class BenchmarkEnvelopes {
+
+    public static final String EC_KEY_TYPE = "EC";
+    public static final String EC_SIGNATURE = "SHA256withECDSA";
+    public static final String EC_PROVIDER = "SunEC";
+
+    public static final String RSA_KEY_TYPE = "RSA";
+    public static final String RSA_SIGNATURE = "SHA512encryptedwithRSA";
+    public static final String RSA_PROVIDER = "SunRsaSign";
+
+    private static final byte[] DEVICE_ID = new byte[] { 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 };
+    private static final byte[] SEQUENCE_NUMBER = new byte[] { 0, 1 };
+
+    private BenchmarkEnvelopes() {
+        // Empty constructor for static helper class.
+    }
+
+    public static KeyPair generateEcKeyPair() throws GeneralSecurityException {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance(EC_KEY_TYPE, EC_PROVIDER);
+        generator.initialize(256);
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * Generates a key pair of the size matching the 128 byte security key.
+     */
+    public static KeyPair generateRsaKeyPair() throws GeneralSecurityException {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance(RSA_KEY_TYPE, RSA_PROVIDER);
+        generator.initialize(1024);
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * Generates a key pair for the given signature, being either
+     * {@link #EC_SIGNATURE} or {@link #RSA_SIGNATURE}.
+     */
+    public static KeyPair generateKeyPair(final String signature) throws GeneralSecurityException {
+        return RSA_SIGNATURE.equals(signature) ? generateRsaKeyPair() : generateEcKeyPair();
+    }
+
+    public static String getProvider(final String signature) {
+        return RSA_SIGNATURE.equals(signature) ? RSA_PROVIDER : EC_PROVIDER;
+    }
+
+    /**
+     * @return a set schedule request holding the maximum of 50 entries.
+     */
+    public static Message setScheduleRequest() {
+        final Oslp.SetScheduleRequest.Builder request = Oslp.SetScheduleRequest.newBuilder()
+                .setScheduleType(Oslp.RelayType.LIGHT)
+                .setPageInfo(Oslp.PageInfo.newBuilder().setCurrentPage(1).setPageSize(50).setTotalPages(1));
+        for (int i = 0; i < 50; i++) {
+            request.addSchedules(Oslp.Schedule.newBuilder().setWeekday(Oslp.Weekday.ABSOLUTEDAY)
+                    .setStartDay("20180101").setEndDay("20181231").setActionTime(Oslp.ActionTime.ABSOLUTETIME)
+                    .setTime(String.format("%02d%02d00", i % 24, i))
+                    .setWindow(Oslp.Window.newBuilder().setMinutesBefore(15).setMinutesAfter(15))
+                    .addValue(Oslp.LightValue.newBuilder().setIndex(ByteString.copyFrom(new byte[] { 1 }))
+                            .setOn(i % 2 == 0).setDimValue(ByteString.copyFrom(new byte[] { 80 })))
+                    .setTriggerType(Oslp.TriggerType.LIGHT_TRIGGER).setMinimumLightsOn(600).setIndex(i)
+                    .setIsEnabled(true));
+        }
+        return Message.newBuilder().setSetScheduleRequest(request).build();
+    }
+
+    /**
+     * @return a power usage history response holding the maximum of 20 items.
+     */
+    public static Message powerUsageHistoryResponse() {
+        final Oslp.GetPowerUsageHistoryResponse.Builder response = Oslp.GetPowerUsageHistoryResponse.newBuilder()
+                .setStatus(Oslp.Status.OK)
+                .setPageInfo(Oslp.PageInfo.newBuilder().setCurrentPage(1).setPageSize(20).setTotalPages(3));
+        for (int i = 0; i < 20; i++) {
+            final Oslp.SsldData.Builder ssldData = Oslp.SsldData.newBuilder().setActualCurrent1(1200)
+                    .setActualCurrent2(1100).setActualCurrent3(1000).setActualPower1(260).setActualPower2(240)
+                    .setActualPower3(220).setAveragePowerFactor1(9).setAveragePowerFactor2(9)
+                    .setAveragePowerFactor3(8);
+            for (int relay = 1; relay <= 4; relay++) {
+                ssldData.addRelayData(Oslp.RelayData.newBuilder()
+                        .setIndex(ByteString.copyFrom(new byte[] { (byte) relay }))
+                        .setTotalLightingMinutes(120000 + i * 60));
+            }
+            response.addPowerUsageData(Oslp.PowerUsageData.newBuilder()
+                    .setRecordTime(String.format("201810%02d000000", i + 1)).setMeterType(Oslp.MeterType.P1)
+                    .setTotalConsumedEnergy(1500000L + i * 6000).setActualConsumedPower(720)
+                    .setPsldData(Oslp.PsldData.newBuilder().setTotalLightingHours(2000 + i * 12))
+                    .setSsldData(ssldData));
+        }
+        return Message.newBuilder().setGetPowerUsageHistoryResponse(response).build();
+    }
+
+    /**
+     * @return an event notification request, as sent by a device.
+     */
+    public static Message eventNotificationRequest() {
+        return Message.newBuilder()
+                .setEventNotificationRequest(Oslp.EventNotificationRequest.newBuilder().addNotifications(
+                        Oslp.EventNotification.newBuilder().setEvent(Oslp.Event.LIGHT_EVENTS_LIGHT_ON)
+                                .setIndex(ByteString.copyFrom(new byte[] { 1 }))
+                                .setDescription("Light switched on by schedule")
+                                .setTimestamp("20181016120000")))
+                .build();
+    }
+
+    public static OslpEnvelope sign(final Message payloadMessage, final PrivateKey privateKey,
+            final String signature, final String provider) {
+        return new OslpEnvelope.Builder().withSignature(signature).withProvider(provider)
+                .withPrimaryKey(privateKey).withDeviceId(DEVICE_ID).withSequenceNumber(SEQUENCE_NUMBER)
+                .withPayloadMessage(payloadMessage).build();
+    }
+
+    /**
+     * @return a copy of the envelope, without the cached sign bytes of the
+     *         original, so it is serialized again when encoded.
+     */
+    public static OslpEnvelope copyWithoutSignBytes(final OslpEnvelope envelope, final String signature,
+            final String provider) {
+        return new OslpEnvelope.Builder().withSignature(signature).withProvider(provider)
+                .withSecurityKey(envelope.getSecurityKey())
+                .withDeviceId(envelope.getDeviceId()).withSequenceNumber(envelope.getSequenceNumber())
+                .withPayloadMessage(envelope.getPayloadMessage()).build();
+    }
+
+    public static byte[] encode(final OslpEnvelope envelope) {
+        final EncoderEmbedder<ChannelBuffer> encoder = new EncoderEmbedder<>(new OslpEncoder());
+        encoder.offer(envelope);
+        final ChannelBuffer buffer = encoder.poll();
+
+        final byte[] frame = new byte[buffer.readableBytes()];
+        buffer.readBytes(frame);
+        return frame;
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp.benchmarks;
+
+import org.opensmartgridplatform.oslp.Oslp.Message;
+
+/**
+ * Payloads the codec and signing benchmarks are parameterized with.
+ */
+public enum BenchmarkPayload {
+    SET_SCHEDULE {
+        @Override
+        public Message create() {
+            return BenchmarkEnvelopes.setScheduleRequest();
+        }
+    },
+    POWER_USAGE_HISTORY {
+        @Override
+        public Message create() {
+            return BenchmarkEnvelopes.powerUsageHistoryResponse();
+        }
+    },
+    EVENT_NOTIFICATION {
+        @Override
+        public Message create() {
+            return BenchmarkEnvelopes.eventNotificationRequest();
+        }
+    };
+
+    public abstract Message create();
+}
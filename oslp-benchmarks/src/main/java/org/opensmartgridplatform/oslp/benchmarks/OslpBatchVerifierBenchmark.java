@@ -0,0 +1,104 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp.benchmarks;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.opensmartgridplatform.oslp.OslpBatchVerifier;
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+
+/**
+ * Compares verifying a burst of received envelopes one by one with verifying
+ * them through the {@link OslpBatchVerifier}. Results are per envelope.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OslpBatchVerifierBenchmark {
+
+    private static final int BURST_SIZE = 512;
+
+    @Param({ "1", "16", "64" })
+    public int maxBatchSize;
+
+    private OslpEnvelope[] envelopes;
+
+    private PublicKey publicKey;
+
+    private OslpBatchVerifier batchVerifier;
+
+    @Setup
+    public void setUp() throws Exception {
+        final KeyPair keyPair = BenchmarkEnvelopes.generateEcKeyPair();
+        this.publicKey = keyPair.getPublic();
+
+        this.envelopes = new OslpEnvelope[BURST_SIZE];
+        for (int i = 0; i < BURST_SIZE; i++) {
+            this.envelopes[i] = BenchmarkEnvelopes.sign(BenchmarkEnvelopes.eventNotificationRequest(),
+                    keyPair.getPrivate(), BenchmarkEnvelopes.EC_SIGNATURE, BenchmarkEnvelopes.EC_PROVIDER);
+        }
+
+        this.batchVerifier = new OslpBatchVerifier(this.maxBatchSize, 5,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.batchVerifier.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST_SIZE)
+    public int perMessage() {
+        int valid = 0;
+        for (final OslpEnvelope envelope : this.envelopes) {
+            if (envelope.validate(this.publicKey)) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST_SIZE)
+    public int batched() {
+        @SuppressWarnings("unchecked")
+        final CompletableFuture<Boolean>[] results = new CompletableFuture[BURST_SIZE];
+        for (int i = 0; i < BURST_SIZE; i++) {
+            results[i] = this.batchVerifier.verify(this.envelopes[i], this.publicKey);
+        }
+
+        int valid = 0;
+        for (final CompletableFuture<Boolean> result : results) {
+            if (result.join()) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.opensmartgridplatform.oslp.OslpDecoder;
+import org.opensmartgridplatform.oslp.OslpEncoder;
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+
+/**
+ * Measures {@link OslpDecoder} and {@link OslpEncoder} for the representative
+ * payloads. Frames are decoded from a single buffer. Envelopes are encoded
+ * both with the sign bytes cached at signing, and without, in which case the
+ * payload is serialized again.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OslpCodecBenchmark {
+
+    @Param({ "SET_SCHEDULE", "POWER_USAGE_HISTORY", "EVENT_NOTIFICATION" })
+    public BenchmarkPayload payload;
+
+    private byte[] frame;
+
+    private OslpEnvelope signedEnvelope;
+    private OslpEnvelope unsignedEnvelope;
+
+    private DecoderEmbedder<OslpEnvelope> decoder;
+    private EncoderEmbedder<ChannelBuffer> encoder;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.signedEnvelope = BenchmarkEnvelopes.sign(this.payload.create(),
+                BenchmarkEnvelopes.generateEcKeyPair().getPrivate(), BenchmarkEnvelopes.EC_SIGNATURE,
+                BenchmarkEnvelopes.EC_PROVIDER);
+        this.unsignedEnvelope = BenchmarkEnvelopes.copyWithoutSignBytes(this.signedEnvelope,
+                BenchmarkEnvelopes.EC_SIGNATURE, BenchmarkEnvelopes.EC_PROVIDER);
+        this.frame = BenchmarkEnvelopes.encode(this.signedEnvelope);
+
+        this.decoder = new DecoderEmbedder<>(
+                new OslpDecoder(BenchmarkEnvelopes.EC_SIGNATURE, BenchmarkEnvelopes.EC_PROVIDER));
+        this.encoder = new EncoderEmbedder<>(new OslpEncoder());
+    }
+
+    @Benchmark
+    public OslpEnvelope decode() {
+        this.decoder.offer(ChannelBuffers.wrappedBuffer(this.frame));
+        return this.decoder.poll();
+    }
+
+    @Benchmark
+    public ChannelBuffer encodeWithSignBytes() {
+        this.encoder.offer(this.signedEnvelope);
+        return this.encoder.poll();
+    }
+
+    @Benchmark
+    public ChannelBuffer encodeWithoutSignBytes() {
+        this.encoder.offer(this.unsignedEnvelope);
+        return this.encoder.poll();
+    }
+}
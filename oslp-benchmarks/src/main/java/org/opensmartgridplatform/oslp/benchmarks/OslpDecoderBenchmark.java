@@ -0,0 +1,87 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.opensmartgridplatform.oslp.OslpDecoder;
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+
+/**
+ * Compares the frame based {@link OslpDecoder} with the previous
+ * {@link ReplayingOslpDecoder} when frames arrive in fragments of the given
+ * size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OslpDecoderBenchmark {
+
+    @Param({ "8", "64", "1500" })
+    public int fragmentSize;
+
+    private byte[][] fragments;
+
+    private DecoderEmbedder<OslpEnvelope> frameDecoder;
+    private DecoderEmbedder<OslpEnvelope> replayingDecoder;
+
+    @Setup
+    public void setUp() throws Exception {
+        final OslpEnvelope envelope = BenchmarkEnvelopes.sign(BenchmarkEnvelopes.eventNotificationRequest(),
+                BenchmarkEnvelopes.generateEcKeyPair().getPrivate(), BenchmarkEnvelopes.EC_SIGNATURE,
+                BenchmarkEnvelopes.EC_PROVIDER);
+        final byte[] frame = BenchmarkEnvelopes.encode(envelope);
+
+        final int count = (frame.length + this.fragmentSize - 1) / this.fragmentSize;
+        this.fragments = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            this.fragments[i] = Arrays.copyOfRange(frame, i * this.fragmentSize,
+                    Math.min(frame.length, (i + 1) * this.fragmentSize));
+        }
+
+        this.frameDecoder = new DecoderEmbedder<>(
+                new OslpDecoder(BenchmarkEnvelopes.EC_SIGNATURE, BenchmarkEnvelopes.EC_PROVIDER));
+        this.replayingDecoder = new DecoderEmbedder<>(
+                new ReplayingOslpDecoder(BenchmarkEnvelopes.EC_SIGNATURE, BenchmarkEnvelopes.EC_PROVIDER));
+    }
+
+    @Benchmark
+    public OslpEnvelope frameDecoder() {
+        return this.decode(this.frameDecoder);
+    }
+
+    @Benchmark
+    public OslpEnvelope replayingDecoder() {
+        return this.decode(this.replayingDecoder);
+    }
+
+    private OslpEnvelope decode(final DecoderEmbedder<OslpEnvelope> decoder) {
+        for (final byte[] fragment : this.fragments) {
+            decoder.offer(ChannelBuffers.wrappedBuffer(fragment));
+        }
+        return decoder.poll();
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp.benchmarks;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+import org.opensmartgridplatform.oslp.OslpUtils;
+
+/**
+ * Measures {@link OslpUtils#createSignBytes(OslpEnvelope)},
+ * {@link OslpUtils#createSignature} and {@link OslpUtils#validateSignature}
+ * for the representative payloads, with ECDSA and with the RSA fallback
+ * signature.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OslpSigningBenchmark {
+
+    @Param({ BenchmarkEnvelopes.EC_SIGNATURE, BenchmarkEnvelopes.RSA_SIGNATURE })
+    public String signature;
+
+    @Param({ "SET_SCHEDULE", "POWER_USAGE_HISTORY", "EVENT_NOTIFICATION" })
+    public BenchmarkPayload payload;
+
+    private String provider;
+
+    private KeyPair keyPair;
+
+    private OslpEnvelope envelope;
+
+    private byte[] signBytes;
+
+    private byte[] securityKey;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        this.provider = BenchmarkEnvelopes.getProvider(this.signature);
+        this.keyPair = BenchmarkEnvelopes.generateKeyPair(this.signature);
+        this.envelope = BenchmarkEnvelopes.sign(this.payload.create(), this.keyPair.getPrivate(), this.signature,
+                this.provider);
+        this.signBytes = OslpUtils.createSignBytes(this.envelope);
+        this.securityKey = this.envelope.getSecurityKey();
+    }
+
+    @Benchmark
+    public byte[] createSignBytes() {
+        return OslpUtils.createSignBytes(this.envelope);
+    }
+
+    @Benchmark
+    public byte[] createSignature() throws GeneralSecurityException {
+        return OslpUtils.createSignature(this.signBytes, this.keyPair.getPrivate(), this.signature, this.provider);
+    }
+
+    @Benchmark
+    public boolean validateSignature() throws GeneralSecurityException {
+        return OslpUtils.validateSignature(this.signBytes, this.securityKey, this.keyPair.getPublic(),
+                this.signature, this.provider);
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+import org.opensmartgridplatform.oslp.OslpSigningMessageCodec;
+import org.opensmartgridplatform.oslp.SignedOslpEnvelopeDto;
+import org.opensmartgridplatform.oslp.UnsignedOslpEnvelopeDto;
+import org.opensmartgridplatform.shared.infra.jms.ResponseMessage;
+import org.opensmartgridplatform.shared.infra.jms.ResponseMessageResultType;
+
+/**
+ * Compares the {@link OslpSigningMessageCodec} with Java serialization, as
+ * used for ObjectMessage bodies, for a signed response of the signing server
+ * with the representative payloads. The size of both encodings is printed at
+ * setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OslpSigningMessageCodecBenchmark {
+
+    @Param({ "SET_SCHEDULE", "POWER_USAGE_HISTORY", "EVENT_NOTIFICATION" })
+    public BenchmarkPayload payload;
+
+    private ResponseMessage responseMessage;
+
+    private byte[] codecBytes;
+    private byte[] serializedBytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        final OslpEnvelope envelope = BenchmarkEnvelopes.sign(this.payload.create(),
+                BenchmarkEnvelopes.generateEcKeyPair().getPrivate(), BenchmarkEnvelopes.EC_SIGNATURE,
+                BenchmarkEnvelopes.EC_PROVIDER);
+        final UnsignedOslpEnvelopeDto unsignedOslpEnvelopeDto = new UnsignedOslpEnvelopeDto(
+                envelope.getSequenceNumber(), envelope.getDeviceId(), envelope.getPayloadMessage(), "127.0.0.1",
+                "PUBLIC_LIGHTING", "1.0", "SET_SCHEDULE", 4, 0, false, "organisation", "correlation", null);
+
+        this.responseMessage = ResponseMessage.newResponseMessageBuilder().withCorrelationUid("correlation")
+                .withOrganisationIdentification("organisation").withDeviceIdentification("device")
+                .withResult(ResponseMessageResultType.OK)
+                .withDataObject(new SignedOslpEnvelopeDto(envelope, unsignedOslpEnvelopeDto)).withMessagePriority(4)
+                .build();
+
+        this.codecBytes = this.encodeWithCodec();
+        this.serializedBytes = this.encodeWithSerialization();
+        System.out.printf("%n%s: codec %d bytes, Java serialization %d bytes%n", this.payload,
+                this.codecBytes.length, this.serializedBytes.length);
+    }
+
+    @Benchmark
+    public byte[] encodeWithCodec() {
+        return OslpSigningMessageCodec.encode(this.responseMessage);
+    }
+
+    @Benchmark
+    public Serializable decodeWithCodec() {
+        return OslpSigningMessageCodec.decode(this.codecBytes);
+    }
+
+    @Benchmark
+    public byte[] encodeWithSerialization() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(this.responseMessage);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object decodeWithSerialization() throws IOException, ClassNotFoundException {
+        try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(this.serializedBytes))) {
+            return in.readObject();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp.benchmarks;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.replay.ReplayingDecoder;
+
+import org.opensmartgridplatform.oslp.Oslp;
+import org.opensmartgridplatform.oslp.OslpEnvelope;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * The {@link ReplayingDecoder} based OSLP decoder, as used before the
+ * introduction of the frame based {@link org.opensmartgridplatform.oslp.OslpDecoder}.
+ * Only used as the baseline for the decoder benchmark.
+ */
+public class ReplayingOslpDecoder extends ReplayingDecoder<ReplayingOslpDecoder.DecodingState> {
+
+    public static enum DecodingState {
+        SECURITY_KEY,
+        SEQUENCE_NUMBER,
+        DEVICE_ID,
+        LENGTH_INDICATOR,
+        PAYLOAD_MESSAGE;
+    }
+
+    private final String signature;
+    private final String provider;
+
+    private OslpEnvelope.Builder builder;
+
+    private int length;
+
+    public ReplayingOslpDecoder(final String signature, final String provider) {
+        this.signature = signature;
+        this.provider = provider;
+
+        this.reset();
+    }
+
+    @Override
+    protected Object decode(final ChannelHandlerContext ctx, final Channel channel, final ChannelBuffer buffer,
+            final DecodingState state) throws InvalidProtocolBufferException {
+
+        if (state.compareTo(DecodingState.SECURITY_KEY) == 0) {
+            this.builder.withSecurityKey(
+                    buffer.readBytes(OslpEnvelope.SECURITY_KEY_LENGTH).toByteBuffer().array());
+            this.checkpoint(DecodingState.SEQUENCE_NUMBER);
+        }
+
+        if (state.compareTo(DecodingState.SEQUENCE_NUMBER) <= 0) {
+            this.builder.withSequenceNumber(
+                    buffer.readBytes(OslpEnvelope.SEQUENCE_NUMBER_LENGTH).toByteBuffer().array());
+            this.checkpoint(DecodingState.DEVICE_ID);
+        }
+
+        if (state.compareTo(DecodingState.DEVICE_ID) <= 0) {
+            this.builder.withDeviceId(
+                    buffer.readBytes(OslpEnvelope.DEVICE_ID_LENGTH + OslpEnvelope.MANUFACTURER_ID_LENGTH)
+                            .toByteBuffer().array());
+            this.checkpoint(DecodingState.LENGTH_INDICATOR);
+        }
+
+        if (state.compareTo(DecodingState.LENGTH_INDICATOR) <= 0) {
+            this.length = buffer.getUnsignedShort(buffer.readerIndex());
+            buffer.readerIndex(buffer.readerIndex() + OslpEnvelope.LENGTH_INDICATOR_LENGTH);
+            this.checkpoint(DecodingState.PAYLOAD_MESSAGE);
+        }
+
+        this.builder.withPayloadMessage(Oslp.Message.parseFrom(buffer.readBytes(this.length).array()));
+        this.checkpoint(DecodingState.SECURITY_KEY);
+        try {
+            return this.builder.withSignature(this.signature).withProvider(this.provider).build();
+        } finally {
+            this.reset();
+        }
+    }
+
+    private void reset() {
+        this.checkpoint(DecodingState.SECURITY_KEY);
+        this.builder = new OslpEnvelope.Builder();
+        this.length = 0;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.google.protobuf.CodedInputStream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+
+/**
+ * Netty 4 version of the {@link OslpDecoder}, decoding OSLP frames into
+ * {@link OslpEnvelope} instances in the same way.
+ */
+public class Netty4OslpDecoder extends ByteToMessageDecoder {
+
+    private static final int LENGTH_INDICATOR_OFFSET = OslpEnvelope.HEADER_LENGTH
+            - OslpEnvelope.LENGTH_INDICATOR_LENGTH;
+
+    private final String signature;
+    private final String provider;
+    private final int maxFrameLength;
+
+    /**
+     * Remaining number of bytes of a rejected frame which still have to be
+     * discarded.
+     */
+    private long bytesToDiscard;
+
+    public Netty4OslpDecoder(final String signature, final String provider, final int maxFrameLength) {
+        if (maxFrameLength < OslpEnvelope.HEADER_LENGTH) {
+            throw new IllegalArgumentException(
+                    "maxFrameLength must be at least " + OslpEnvelope.HEADER_LENGTH + ": " + maxFrameLength);
+        }
+
+        this.signature = signature;
+        this.provider = provider;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected void decode(final ChannelHandlerContext ctx, final ByteBuf buffer, final List<Object> out)
+            throws IOException {
+
+        if (this.bytesToDiscard > 0) {
+            this.discard(buffer);
+            return;
+        }
+
+        if (buffer.readableBytes() < OslpEnvelope.HEADER_LENGTH) {
+            return;
+        }
+
+        final int length = buffer.getUnsignedShort(buffer.readerIndex() + LENGTH_INDICATOR_OFFSET);
+        final int frameLength = OslpEnvelope.HEADER_LENGTH + length;
+
+        if (frameLength > this.maxFrameLength) {
+            this.bytesToDiscard = frameLength;
+            this.discard(buffer);
+            throw new TooLongFrameException(
+                    "OSLP frame length " + frameLength + " exceeds maximum frame length " + this.maxFrameLength);
+        }
+
+        if (buffer.readableBytes() < frameLength) {
+            return;
+        }
+
+        final byte[] securityKey = new byte[OslpEnvelope.SECURITY_KEY_LENGTH];
+        buffer.readBytes(securityKey);
+        final byte[] signBytes = new byte[frameLength - OslpEnvelope.SECURITY_KEY_LENGTH];
+        buffer.readBytes(signBytes);
+
+        final Oslp.Message payloadMessage = Oslp.Message.parseFrom(
+                CodedInputStream.newInstance(signBytes, OslpEnvelope.SIGN_BYTES_HEADER_LENGTH, length));
+
+        out.add(new OslpEnvelope(this.signature, this.provider, securityKey, signBytes, payloadMessage));
+    }
+
+    public int getMaxFrameLength() {
+        return this.maxFrameLength;
+    }
+
+    private void discard(final ByteBuf buffer) {
+        final int discarded = (int) Math.min(this.bytesToDiscard, buffer.readableBytes());
+        buffer.skipBytes(discarded);
+        this.bytesToDiscard -= discarded;
+    }
+}
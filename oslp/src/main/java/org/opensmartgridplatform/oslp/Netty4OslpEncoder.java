@@ -0,0 +1,79 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp;
+
+import java.io.IOException;
+
+import com.google.protobuf.CodedOutputStream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+import org.opensmartgridplatform.oslp.Oslp.Message;
+
+/**
+ * Netty 4 version of the {@link OslpEncoder}, encoding {@link OslpEnvelope}
+ * instances into OSLP frames in a single pass. The frame is written into a
+ * buffer of the exact frame size, taken from the allocator of the channel,
+ * which is pooled by default.
+ */
+@Sharable
+public class Netty4OslpEncoder extends MessageToByteEncoder<OslpEnvelope> {
+
+    /**
+     * Size of the intermediate buffer used when serializing the payload into a
+     * buffer which is not backed by an array.
+     */
+    private static final int MAX_STREAM_BUFFER_SIZE = 4096;
+
+    @Override
+    protected ByteBuf allocateBuffer(final ChannelHandlerContext ctx, final OslpEnvelope envelope,
+            final boolean preferDirect) {
+        final byte[] signBytes = envelope.signBytesIfAvailable();
+        final int frameLength = signBytes != null ? OslpEnvelope.SECURITY_KEY_LENGTH + signBytes.length
+                : OslpEnvelope.HEADER_LENGTH + envelope.getPayloadMessage().getSerializedSize();
+
+        return preferDirect ? ctx.alloc().ioBuffer(frameLength, frameLength)
+                : ctx.alloc().heapBuffer(frameLength, frameLength);
+    }
+
+    @Override
+    protected void encode(final ChannelHandlerContext ctx, final OslpEnvelope envelope, final ByteBuf buffer)
+            throws IOException {
+        final byte[] signBytes = envelope.signBytesIfAvailable();
+        if (signBytes != null) {
+            buffer.writeBytes(envelope.securityKeyBytes());
+            buffer.writeBytes(signBytes);
+            return;
+        }
+
+        final Message payloadMessage = envelope.getPayloadMessage();
+        final int payloadLength = payloadMessage.getSerializedSize();
+
+        buffer.writeBytes(envelope.securityKeyBytes());
+        buffer.writeShort(envelope.getSequenceNumberValue());
+        buffer.writeBytes(envelope.deviceIdBytes());
+        buffer.writeShort(payloadLength);
+
+        if (buffer.hasArray()) {
+            final CodedOutputStream output = CodedOutputStream.newInstance(buffer.array(),
+                    buffer.arrayOffset() + buffer.writerIndex(), payloadLength);
+            payloadMessage.writeTo(output);
+            output.checkNoSpaceLeft();
+            buffer.writerIndex(buffer.writerIndex() + payloadLength);
+        } else {
+            final CodedOutputStream output = CodedOutputStream.newInstance(new ByteBufOutputStream(buffer),
+                    Math.max(1, Math.min(payloadLength, MAX_STREAM_BUFFER_SIZE)));
+            payloadMessage.writeTo(output);
+            output.flush();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies the signatures of OSLP envelopes in micro-batches.
+ *
+ * Envelopes offered by any number of threads are gathered until either the
+ * maximum batch size is reached, or the oldest envelope has waited for the
+ * maximum wait time. The envelopes of a batch are then verified in parallel
+ * on a fork-join pool, and the future of each envelope is completed as soon
+ * as its own verification has finished.
+ *
+ * The sizes of the batches are recorded, as are the latencies in microseconds
+ * from offering an envelope until its verification has finished.
+ */
+public class OslpBatchVerifier {
+
+    private static final long[] BATCH_SIZE_BUCKETS = { 1, 2, 4, 8, 16, 32, 64, 128, 256, 512 };
+
+    private static final long[] LATENCY_BUCKETS_MICROS = { 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+            100000, 250000, 1000000 };
+
+    private final int maxBatchSize;
+
+    private final long maxWaitNanos;
+
+    private final BlockingQueue<PendingVerification> pendingVerifications = new LinkedBlockingQueue<>();
+
+    private final ForkJoinPool pool;
+
+    private final Thread dispatcher;
+
+    private final OslpHistogram batchSizeHistogram = new OslpHistogram(BATCH_SIZE_BUCKETS);
+
+    private final OslpHistogram latencyHistogram = new OslpHistogram(LATENCY_BUCKETS_MICROS);
+
+    private volatile boolean running = true;
+
+    /**
+     * @param maxBatchSize
+     *            maximum number of envelopes verified in one batch
+     * @param maxWaitMillis
+     *            maximum time an envelope waits for the batch to fill up
+     * @param parallelism
+     *            number of threads verifying envelopes
+     */
+    public OslpBatchVerifier(final int maxBatchSize, final long maxWaitMillis, final int parallelism) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Maximum batch size must be at least 1");
+        }
+        if (maxWaitMillis < 0) {
+            throw new IllegalArgumentException("Maximum wait time must not be negative");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.pool = new ForkJoinPool(parallelism);
+
+        this.dispatcher = new Thread(this::dispatch, "oslp-batch-verifier");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Offers an envelope for verification with the given public key.
+     *
+     * @return a future completed with the outcome of
+     *         {@link OslpEnvelope#validate(PublicKey)}, or completed
+     *         exceptionally when the verification failed or the verifier has
+     *         been shut down.
+     */
+    public CompletableFuture<Boolean> verify(final OslpEnvelope envelope, final PublicKey publicKey) {
+        final PendingVerification verification = new PendingVerification(envelope, publicKey);
+        this.pendingVerifications.add(verification);
+
+        if (!this.running && this.pendingVerifications.remove(verification)) {
+            verification.result.completeExceptionally(new RejectedExecutionException("Verifier has been shut down"));
+        }
+
+        return verification.result;
+    }
+
+    /**
+     * Stops gathering batches. Envelopes which have already been offered are
+     * still verified.
+     */
+    public void shutdown() {
+        this.running = false;
+        this.dispatcher.interrupt();
+        try {
+            this.dispatcher.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final List<PendingVerification> remaining = new ArrayList<>();
+        this.pendingVerifications.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            this.pool.execute(() -> this.verifyBatch(remaining));
+        }
+        this.pool.shutdown();
+    }
+
+    public int getMaxBatchSize() {
+        return this.maxBatchSize;
+    }
+
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.maxWaitNanos);
+    }
+
+    /**
+     * @return the number of envelopes waiting to be added to a batch.
+     */
+    public int getPendingCount() {
+        return this.pendingVerifications.size();
+    }
+
+    /**
+     * @return histogram of the number of envelopes per batch.
+     */
+    public OslpHistogram getBatchSizeHistogram() {
+        return this.batchSizeHistogram;
+    }
+
+    /**
+     * @return histogram of the microseconds from offering an envelope until
+     *         its verification has finished.
+     */
+    public OslpHistogram getLatencyHistogram() {
+        return this.latencyHistogram;
+    }
+
+    private void dispatch() {
+        while (this.running) {
+            final List<PendingVerification> batch = new ArrayList<>(this.maxBatchSize);
+            try {
+                this.collectBatch(batch);
+            } catch (final InterruptedException e) {
+                // Shutting down, verify what has been collected so far.
+                Thread.currentThread().interrupt();
+            }
+
+            if (!batch.isEmpty()) {
+                this.pool.execute(() -> this.verifyBatch(batch));
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+        }
+    }
+
+    private void collectBatch(final List<PendingVerification> batch) throws InterruptedException {
+        final PendingVerification first = this.pendingVerifications.take();
+        batch.add(first);
+
+        final long deadline = first.offeredNanos + this.maxWaitNanos;
+        while (batch.size() < this.maxBatchSize) {
+            if (this.pendingVerifications.drainTo(batch, this.maxBatchSize - batch.size()) > 0) {
+                continue;
+            }
+            final long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0) {
+                return;
+            }
+            final PendingVerification next = this.pendingVerifications.poll(remainingNanos, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void verifyBatch(final List<PendingVerification> batch) {
+        this.batchSizeHistogram.record(batch.size());
+        // Running in the fork-join pool, so the parallel stream uses the same
+        // pool.
+        batch.parallelStream().forEach(this::verify);
+    }
+
+    private void verify(final PendingVerification verification) {
+        boolean valid = false;
+        RuntimeException failure = null;
+        try {
+            valid = verification.envelope.validate(verification.publicKey);
+        } catch (final RuntimeException e) {
+            failure = e;
+        }
+
+        this.latencyHistogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - verification.offeredNanos));
+
+        if (failure == null) {
+            verification.result.complete(valid);
+        } else {
+            verification.result.completeExceptionally(failure);
+        }
+    }
+
+    private static class PendingVerification {
+        private final OslpEnvelope envelope;
+        private final PublicKey publicKey;
+        private final long offeredNanos = System.nanoTime();
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        PendingVerification(final OslpEnvelope envelope, final PublicKey publicKey) {
+            this.envelope = envelope;
+            this.publicKey = publicKey;
+        }
+    }
+}
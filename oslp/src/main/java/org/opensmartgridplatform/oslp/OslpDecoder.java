@@ -7,105 +7,114 @@
  */
 package org.opensmartgridplatform.oslp;
 
+import java.io.IOException;
+
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
-import org.jboss.netty.handler.codec.replay.ReplayingDecoder;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.CodedInputStream;
 
-public class OslpDecoder extends ReplayingDecoder<OslpDecoder.DecodingState> {
+/**
+ * Decodes OSLP frames into {@link OslpEnvelope} instances.
+ *
+ * A frame is only decoded once the complete header and payload, as indicated
+ * by the length indicator, have been received. Frames larger than the
+ * configured maximum frame length are rejected as soon as the header has been
+ * received.
+ *
+ * Apart from the security key, the received frame is copied once into the
+ * sign bytes of the envelope and the payload is parsed straight from these
+ * bytes. No intermediate byte arrays are created per header field or for the
+ * payload, and validating the envelope does not require serializing the
+ * payload again.
+ */
+public class OslpDecoder extends FrameDecoder {
     private static final Logger LOGGER = LoggerFactory.getLogger(OslpDecoder.class);
 
+    /**
+     * Largest frame length possible, given the two byte length indicator.
+     */
+    public static final int MAX_FRAME_LENGTH = OslpEnvelope.HEADER_LENGTH + 0xFFFF;
+
+    private static final int LENGTH_INDICATOR_OFFSET = OslpEnvelope.HEADER_LENGTH
+            - OslpEnvelope.LENGTH_INDICATOR_LENGTH;
+
     private final String signature;
     private final String provider;
+    private final int maxFrameLength;
 
-    public static enum DecodingState {
-        SECURITY_KEY,
-        SEQUENCE_NUMBER,
-        DEVICE_ID,
-        LENGTH_INDICATOR,
-        PAYLOAD_MESSAGE;
-    }
+    /**
+     * Remaining number of bytes of a rejected frame which still have to be
+     * discarded.
+     */
+    private long bytesToDiscard;
 
-    private OslpEnvelope.Builder builder;
+    public OslpDecoder(final String signature, final String provider) {
+        this(signature, provider, MAX_FRAME_LENGTH);
+    }
 
-    private int length;
+    public OslpDecoder(final String signature, final String provider, final int maxFrameLength) {
+        if (maxFrameLength < OslpEnvelope.HEADER_LENGTH) {
+            throw new IllegalArgumentException(
+                    "maxFrameLength must be at least " + OslpEnvelope.HEADER_LENGTH + ": " + maxFrameLength);
+        }
 
-    public OslpDecoder(final String signature, final String provider) {
         LOGGER.debug("Created new decoder");
         this.signature = signature;
         this.provider = provider;
-
-        this.reset();
+        this.maxFrameLength = maxFrameLength;
     }
 
     @Override
-    protected Object decode(final ChannelHandlerContext ctx, final org.jboss.netty.channel.Channel channel,
-            final ChannelBuffer buffer, final DecodingState state) throws UnknownOslpDecodingStateException,
-            InvalidProtocolBufferException {
-        LOGGER.debug("Decoding state: {}", state.toString());
-
-        if (state.compareTo(DecodingState.SECURITY_KEY) == 0) {
-            this.decodeSecurityKey(buffer);
-            this.checkpoint(DecodingState.SEQUENCE_NUMBER);
-        }
+    protected Object decode(final ChannelHandlerContext ctx, final Channel channel, final ChannelBuffer buffer)
+            throws IOException, TooLongFrameException {
 
-        if (state.compareTo(DecodingState.SEQUENCE_NUMBER) <= 0) {
-            this.decodeSequenceNumber(buffer);
-            this.checkpoint(DecodingState.DEVICE_ID);
+        if (this.bytesToDiscard > 0) {
+            this.discard(buffer);
+            return null;
         }
 
-        if (state.compareTo(DecodingState.DEVICE_ID) <= 0) {
-            this.decodeDeviceId(buffer);
-            this.checkpoint(DecodingState.LENGTH_INDICATOR);
+        if (buffer.readableBytes() < OslpEnvelope.HEADER_LENGTH) {
+            return null;
         }
 
-        if (state.compareTo(DecodingState.LENGTH_INDICATOR) <= 0) {
-            this.decodeLengthIndicator(buffer);
-            this.checkpoint(DecodingState.PAYLOAD_MESSAGE);
-        }
+        final int length = buffer.getUnsignedShort(buffer.readerIndex() + LENGTH_INDICATOR_OFFSET);
+        final int frameLength = OslpEnvelope.HEADER_LENGTH + length;
 
-        if (state.compareTo(DecodingState.PAYLOAD_MESSAGE) <= 0) {
-            this.builder.withPayloadMessage(Oslp.Message.parseFrom(buffer.readBytes(this.length).array()));
-            this.checkpoint(DecodingState.SECURITY_KEY);
-            try {
-                return this.builder.withSignature(this.signature).withProvider(this.provider).build();
-            } finally {
-                this.reset();
-            }
-        } else {
-            // Should not get here
-            throw new UnknownOslpDecodingStateException(state.name());
+        if (frameLength > this.maxFrameLength) {
+            this.bytesToDiscard = frameLength;
+            this.discard(buffer);
+            throw new TooLongFrameException(
+                    "OSLP frame length " + frameLength + " exceeds maximum frame length " + this.maxFrameLength);
         }
-    }
 
-    private void decodeSecurityKey(final ChannelBuffer buffer) {
-        this.builder.withSecurityKey(buffer.readBytes(OslpEnvelope.SECURITY_KEY_LENGTH).toByteBuffer().array());
-    }
+        if (buffer.readableBytes() < frameLength) {
+            return null;
+        }
 
-    private void decodeSequenceNumber(final ChannelBuffer buffer) {
-        this.builder.withSequenceNumber(buffer.readBytes(OslpEnvelope.SEQUENCE_NUMBER_LENGTH).toByteBuffer().array());
+        final byte[] securityKey = new byte[OslpEnvelope.SECURITY_KEY_LENGTH];
+        buffer.readBytes(securityKey);
+        final byte[] signBytes = new byte[frameLength - OslpEnvelope.SECURITY_KEY_LENGTH];
+        buffer.readBytes(signBytes);
 
-    }
+        final Oslp.Message payloadMessage = Oslp.Message.parseFrom(
+                CodedInputStream.newInstance(signBytes, OslpEnvelope.SIGN_BYTES_HEADER_LENGTH, length));
 
-    private void decodeDeviceId(final ChannelBuffer buffer) {
-        this.builder.withDeviceId(buffer.readBytes(OslpEnvelope.DEVICE_ID_LENGTH + OslpEnvelope.MANUFACTURER_ID_LENGTH)
-                .toByteBuffer().array());
+        return new OslpEnvelope(this.signature, this.provider, securityKey, signBytes, payloadMessage);
     }
 
-    private void decodeLengthIndicator(final ChannelBuffer buffer) {
-        this.length = buffer.getUnsignedShort(buffer.readerIndex());
-        // Unlike the read* methods, the get* methods do not increase the reader index. 
-        // If we wouldn't update the reader index the bytes read while trying to read the payload
-        // would also contain the length indicator (which would cause the payload parsing to fail).
-        buffer.readerIndex(buffer.readerIndex() + OslpEnvelope.LENGTH_INDICATOR_LENGTH);
+    public int getMaxFrameLength() {
+        return this.maxFrameLength;
     }
 
-    private void reset() {
-        this.checkpoint(DecodingState.SECURITY_KEY);
-        this.builder = new OslpEnvelope.Builder();
-        this.length = 0;
+    private void discard(final ChannelBuffer buffer) {
+        final int discarded = (int) Math.min(this.bytesToDiscard, buffer.readableBytes());
+        buffer.skipBytes(discarded);
+        this.bytesToDiscard -= discarded;
     }
 }
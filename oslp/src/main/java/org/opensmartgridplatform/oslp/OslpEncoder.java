@@ -7,31 +7,109 @@
  */
 package org.opensmartgridplatform.oslp;
 
+import java.io.IOException;
+
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.buffer.ChannelBufferFactory;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 
+import com.google.protobuf.CodedOutputStream;
+
+import org.opensmartgridplatform.oslp.Oslp.Message;
+
+/**
+ * Encodes {@link OslpEnvelope} instances into OSLP frames.
+ *
+ * The frame is written in a single pass into a buffer of the exact frame
+ * size. When the envelope already holds its sign bytes, for instance because
+ * it has just been signed, these are written as is. Otherwise the header
+ * fields are written from the envelope without copying them first and the
+ * payload is serialized straight into the buffer.
+ */
 public class OslpEncoder extends OneToOneEncoder {
-    private static ChannelBuffer encodeMessage(OslpEnvelope envelope) {
-        int size = envelope.getSize();
 
-        ChannelBuffer buffer = ChannelBuffers.buffer(size);
+    /**
+     * Size of the intermediate buffer used when serializing the payload into a
+     * buffer which is not backed by an array.
+     */
+    private static final int MAX_STREAM_BUFFER_SIZE = 4096;
+
+    private final ChannelBufferFactory bufferFactory;
 
-        buffer.writeBytes(envelope.getSecurityKey());
-        buffer.writeBytes(envelope.getSequenceNumber());
-        buffer.writeBytes(envelope.getDeviceId());
-        buffer.writeBytes(envelope.getLengthIndicator());
-        buffer.writeBytes(envelope.getPayloadMessage().toByteArray());
+    /**
+     * Creates an encoder which allocates buffers using the buffer factory
+     * configured for the channel.
+     */
+    public OslpEncoder() {
+        this(null);
+    }
+
+    /**
+     * Creates an encoder which allocates buffers using the given buffer
+     * factory, for instance a
+     * {@link org.jboss.netty.buffer.DirectChannelBufferFactory} to encode into
+     * direct buffers. Note that such a factory allocates a new direct buffer
+     * for every frame, it does not pool them.
+     *
+     * @param bufferFactory
+     *            the buffer factory, or null to use the buffer factory
+     *            configured for the channel.
+     */
+    public OslpEncoder(final ChannelBufferFactory bufferFactory) {
+        this.bufferFactory = bufferFactory;
+    }
+
+    static ChannelBuffer encodeMessage(final OslpEnvelope envelope, final ChannelBufferFactory bufferFactory)
+            throws IOException {
+        final byte[] signBytes = envelope.signBytesIfAvailable();
+        if (signBytes != null) {
+            final ChannelBuffer buffer = bufferFactory
+                    .getBuffer(OslpEnvelope.SECURITY_KEY_LENGTH + signBytes.length);
+            buffer.writeBytes(envelope.securityKeyBytes());
+            buffer.writeBytes(signBytes);
+            return buffer;
+        }
+
+        final Message payloadMessage = envelope.getPayloadMessage();
+        final int payloadLength = payloadMessage.getSerializedSize();
+
+        final ChannelBuffer buffer = bufferFactory.getBuffer(OslpEnvelope.HEADER_LENGTH + payloadLength);
+
+        buffer.writeBytes(envelope.securityKeyBytes());
+        buffer.writeShort(envelope.getSequenceNumberValue());
+        buffer.writeBytes(envelope.deviceIdBytes());
+        buffer.writeShort(payloadLength);
+        writePayloadMessage(payloadMessage, payloadLength, buffer);
 
         return buffer;
     }
 
+    private static void writePayloadMessage(final Message payloadMessage, final int payloadLength,
+            final ChannelBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            final CodedOutputStream output = CodedOutputStream.newInstance(buffer.array(),
+                    buffer.arrayOffset() + buffer.writerIndex(), payloadLength);
+            payloadMessage.writeTo(output);
+            output.checkNoSpaceLeft();
+            buffer.writerIndex(buffer.writerIndex() + payloadLength);
+        } else {
+            final CodedOutputStream output = CodedOutputStream.newInstance(new ChannelBufferOutputStream(buffer),
+                    Math.max(1, Math.min(payloadLength, MAX_STREAM_BUFFER_SIZE)));
+            payloadMessage.writeTo(output);
+            output.flush();
+        }
+    }
+
     @Override
-    protected Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) {
+    protected Object encode(final ChannelHandlerContext ctx, final Channel channel, final Object msg)
+            throws IOException {
         if (msg instanceof OslpEnvelope) {
-            return encodeMessage((OslpEnvelope) msg);
+            final ChannelBufferFactory factory = this.bufferFactory == null ? channel.getConfig().getBufferFactory()
+                    : this.bufferFactory;
+            return encodeMessage((OslpEnvelope) msg, factory);
         } else {
             return msg;
         }
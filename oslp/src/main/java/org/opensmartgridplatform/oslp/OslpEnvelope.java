@@ -8,6 +8,7 @@
 package org.opensmartgridplatform.oslp;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
@@ -24,7 +25,7 @@ public class OslpEnvelope implements Serializable {
     /**
      * Serial Version UID.
      */
-    private static final long serialVersionUID = -7877297705451116796L;
+    private static final long serialVersionUID = 3169504302432553826L;
 
     /**
      * Constant for security configuration errors.
@@ -42,6 +43,11 @@ public class OslpEnvelope implements Serializable {
      */
     public static final int SEQUENCE_NUMBER_LENGTH = 2;
 
+    /**
+     * Highest sequence number, an unsigned 16 bit value.
+     */
+    public static final int SEQUENCE_NUMBER_MAXIMUM = 0xFFFF;
+
     /**
      * Length of the manufacturer id.
      */
@@ -57,15 +63,28 @@ public class OslpEnvelope implements Serializable {
      */
     public static final int LENGTH_INDICATOR_LENGTH = 2;
 
+    /**
+     * Length of the header preceding the OSLP payload.
+     */
+    public static final int HEADER_LENGTH = SECURITY_KEY_LENGTH + SEQUENCE_NUMBER_LENGTH + DEVICE_ID_LENGTH
+            + MANUFACTURER_ID_LENGTH + LENGTH_INDICATOR_LENGTH;
+
+    /**
+     * Length of the signed header fields preceding the OSLP payload in the
+     * sign bytes.
+     */
+    static final int SIGN_BYTES_HEADER_LENGTH = HEADER_LENGTH - SECURITY_KEY_LENGTH;
+
     /**
      * Buffer for security key bytes.
      */
     private byte[] securityKey = new byte[SECURITY_KEY_LENGTH];
 
     /**
-     * Buffer for sequence number bytes.
+     * Sequence number, an unsigned 16 bit value. Only converted to bytes when
+     * encoded or signed.
      */
-    private byte[] sequenceNumber = new byte[SEQUENCE_NUMBER_LENGTH];
+    private int sequenceNumber;
 
     /**
      * Buffer for deviceid bytes.
@@ -98,6 +117,19 @@ public class OslpEnvelope implements Serializable {
      */
     private boolean valid;
 
+    /**
+     * Lazily created bytes which are signed: sequence number, device id,
+     * length indicator and serialized payload. Either as received when
+     * decoded, or serialized once when first needed. Reset when one of the
+     * signed fields changes.
+     */
+    private transient volatile byte[] signBytes;
+
+    /**
+     * Engine used for signing and validation, the default engine when not set.
+     */
+    private transient OslpSignatureEngine signatureEngine;
+
     /**
      * Default constructor.
      */
@@ -116,18 +148,22 @@ public class OslpEnvelope implements Serializable {
      * @param securityKey
      *            securitykey containing validation bytes
      * @param sequenceNumber
-     *            sequencenumber
+     *            sequencenumber, unsigned 16 bit value
      * @param deviceId
      *            deviceid of the device, 10 bytes
      * @param payloadMessage
      *            payload to deliver
+     * @param signatureEngine
+     *            engine used for signing and validation, or null for the
+     *            default engine
      */
     private OslpEnvelope(final String signature, final String provider, final PrivateKey privateKey,
-            final byte[] securityKey, final byte[] sequenceNumber, final byte[] deviceId,
-            final Message payloadMessage) {
+            final byte[] securityKey, final int sequenceNumber, final byte[] deviceId,
+            final Message payloadMessage, final OslpSignatureEngine signatureEngine) {
         this.signature = signature;
         this.provider = provider;
         this.privateKey = privateKey;
+        this.signatureEngine = signatureEngine;
         this.setSequenceNumber(sequenceNumber);
         this.setDeviceId(deviceId);
         this.setPayloadMessage(payloadMessage);
@@ -140,6 +176,37 @@ public class OslpEnvelope implements Serializable {
         }
     }
 
+    /**
+     * Package private constructor used when decoding. The envelope takes
+     * ownership of the given arrays, the sign bytes are kept as received so
+     * validation does not need to serialize the payload again.
+     *
+     * @param signature
+     *            signature algorithm
+     * @param provider
+     *            algorithm provider
+     * @param securityKey
+     *            securitykey containing validation bytes
+     * @param signBytes
+     *            received bytes following the security key: sequence number,
+     *            device id, length indicator and payload
+     * @param payloadMessage
+     *            the payload decoded from the sign bytes
+     */
+    OslpEnvelope(final String signature, final String provider, final byte[] securityKey, final byte[] signBytes,
+            final Message payloadMessage) {
+        this.signature = signature;
+        this.provider = provider;
+        this.securityKey = securityKey;
+
+        this.sequenceNumber = (signBytes[0] & 0xFF) << 8 | signBytes[1] & 0xFF;
+        this.deviceId = Arrays.copyOfRange(signBytes, SEQUENCE_NUMBER_LENGTH,
+                SEQUENCE_NUMBER_LENGTH + DEVICE_ID_LENGTH + MANUFACTURER_ID_LENGTH);
+
+        this.payloadMessage = payloadMessage;
+        this.signBytes = signBytes;
+    }
+
     /**
      * @return security key bytes.
      */
@@ -180,27 +247,47 @@ public class OslpEnvelope implements Serializable {
     }
 
     /**
-     * @return sequence number
+     * @return sequence number bytes, most significant byte first.
      */
     public byte[] getSequenceNumber() {
-        return Arrays.copyOf(this.sequenceNumber, this.sequenceNumber.length);
+        return new byte[] { (byte) (this.sequenceNumber >>> 8), (byte) this.sequenceNumber };
     }
 
     /**
-     * Set new sequence number.
+     * @return sequence number, an unsigned 16 bit value.
+     */
+    public int getSequenceNumberValue() {
+        return this.sequenceNumber;
+    }
+
+    /**
+     * Set new sequence number from its bytes, most significant byte first. A
+     * null value sets sequence number 0.
      */
     public void setSequenceNumber(final byte[] newSequenceNumber) {
         if (newSequenceNumber == null) {
-            this.sequenceNumber = new byte[0];
+            this.setSequenceNumber(0);
         } else {
             if (newSequenceNumber.length != SEQUENCE_NUMBER_LENGTH) {
                 throw new IllegalArgumentException(
                         "SequenceNumber is not of expected Length: " + SEQUENCE_NUMBER_LENGTH);
             }
-            this.sequenceNumber = Arrays.copyOf(newSequenceNumber, newSequenceNumber.length);
+            this.setSequenceNumber((newSequenceNumber[0] & 0xFF) << 8 | newSequenceNumber[1] & 0xFF);
         }
     }
 
+    /**
+     * Set new sequence number, an unsigned 16 bit value.
+     */
+    public void setSequenceNumber(final int newSequenceNumber) {
+        if (newSequenceNumber < 0 || newSequenceNumber > SEQUENCE_NUMBER_MAXIMUM) {
+            throw new IllegalArgumentException(
+                    "SequenceNumber is not in expected range: 0 - " + SEQUENCE_NUMBER_MAXIMUM);
+        }
+        this.sequenceNumber = newSequenceNumber;
+        this.signBytes = null;
+    }
+
     /**
      * @return deviceid
      */
@@ -227,6 +314,23 @@ public class OslpEnvelope implements Serializable {
             // field.
             this.deviceId = Arrays.copyOf(newDeviceId, newDeviceId.length);
         }
+        this.signBytes = null;
+    }
+
+    /**
+     * @return the security key bytes without a defensive copy, the returned
+     *         array must not be modified.
+     */
+    byte[] securityKeyBytes() {
+        return this.securityKey;
+    }
+
+    /**
+     * @return the device id bytes without a defensive copy, the returned array
+     *         must not be modified.
+     */
+    byte[] deviceIdBytes() {
+        return this.deviceId;
     }
 
     /**
@@ -241,6 +345,45 @@ public class OslpEnvelope implements Serializable {
      */
     public void setPayloadMessage(final Message payloadMessage) {
         this.payloadMessage = payloadMessage;
+        this.signBytes = null;
+    }
+
+    /**
+     * @return read-only view of the serialized OSLP payload.
+     */
+    public ByteBuffer getSerializedPayload() {
+        final byte[] bytes = this.signBytes();
+        return ByteBuffer.wrap(bytes, SIGN_BYTES_HEADER_LENGTH, bytes.length - SIGN_BYTES_HEADER_LENGTH).slice()
+                .asReadOnlyBuffer();
+    }
+
+    /**
+     * @return read-only view of the bytes which are signed: sequence number,
+     *         device id, length indicator and serialized OSLP payload.
+     */
+    public ByteBuffer getSignBytes() {
+        return ByteBuffer.wrap(this.signBytes()).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the bytes which are signed without a defensive copy, created
+     *         when first needed. The returned array must not be modified.
+     */
+    byte[] signBytes() {
+        byte[] bytes = this.signBytes;
+        if (bytes == null) {
+            bytes = OslpUtils.createSignBytes(this);
+            this.signBytes = bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the bytes which are signed when these are already available, or
+     *         null otherwise.
+     */
+    byte[] signBytesIfAvailable() {
+        return this.signBytes;
     }
 
     /**
@@ -252,7 +395,7 @@ public class OslpEnvelope implements Serializable {
      */
     public boolean validate(final PublicKey publicKey) {
         try {
-            this.valid = OslpUtils.validateSignature(OslpUtils.createSignBytes(this), this.getSecurityKey(), publicKey,
+            this.valid = this.getSignatureEngine().validateSignature(this.signBytes(), this.securityKey, publicKey,
                     this.signature, this.provider);
         } catch (final GeneralSecurityException e) {
             throw new IllegalArgumentException(SECURITY_CONFIG_EXCEPTION, e);
@@ -261,6 +404,36 @@ public class OslpEnvelope implements Serializable {
         return this.valid;
     }
 
+    /**
+     * @return the engine used for signing and validation.
+     */
+    public OslpSignatureEngine getSignatureEngine() {
+        return this.signatureEngine == null ? OslpSignatureEngine.getDefault() : this.signatureEngine;
+    }
+
+    /**
+     * Sets the engine used for signing and validation, null for the default
+     * engine.
+     */
+    public void setSignatureEngine(final OslpSignatureEngine signatureEngine) {
+        this.signatureEngine = signatureEngine;
+    }
+
+    /**
+     * @return the signature algorithm, used when encoding the envelope for the
+     *         signing server.
+     */
+    String getSignature() {
+        return this.signature;
+    }
+
+    /**
+     * @return the provider of the signature algorithm.
+     */
+    String getProvider() {
+        return this.provider;
+    }
+
     /**
      * Indicates whether message is valid. Only available after validate method
      * has been called.
@@ -276,7 +449,7 @@ public class OslpEnvelope implements Serializable {
     private void setSecurityKey() {
         try {
             // Calculate and encrypt hash
-            final byte[] sig = OslpUtils.createSignature(OslpUtils.createSignBytes(this), this.privateKey,
+            final byte[] sig = this.getSignatureEngine().createSignature(this.signBytes(), this.privateKey,
                     this.signature, this.provider);
             System.arraycopy(sig, 0, this.securityKey, 0, sig.length);
         } catch (final GeneralSecurityException e) {
@@ -312,7 +485,7 @@ public class OslpEnvelope implements Serializable {
         if (!Arrays.equals(this.securityKey, that.securityKey)) {
             return false;
         }
-        if (!Arrays.equals(this.sequenceNumber, that.sequenceNumber)) {
+        if (this.sequenceNumber != that.sequenceNumber) {
             return false;
         }
         return true;
@@ -321,7 +494,7 @@ public class OslpEnvelope implements Serializable {
     @Override
     public int hashCode() {
         int result = this.securityKey != null ? Arrays.hashCode(this.securityKey) : 0;
-        result = 31 * result + (this.sequenceNumber != null ? Arrays.hashCode(this.sequenceNumber) : 0);
+        result = 31 * result + this.sequenceNumber;
         result = 31 * result + (this.deviceId != null ? Arrays.hashCode(this.deviceId) : 0);
         result = 31 * result + (this.payloadMessage != null ? this.payloadMessage.hashCode() : 0);
         result = 31 * result + (this.signature != null ? this.signature.hashCode() : 0);
@@ -344,9 +517,10 @@ public class OslpEnvelope implements Serializable {
         private String provider;
         private PrivateKey privateKey;
         private byte[] securityKey;
-        private byte[] sequenceNumber = new byte[SEQUENCE_NUMBER_LENGTH];
+        private int sequenceNumber;
         private byte[] deviceId = new byte[DEVICE_ID_LENGTH + MANUFACTURER_ID_LENGTH];
         private Message payloadMessage = Message.getDefaultInstance();
+        private OslpSignatureEngine signatureEngine;
 
         public Builder withSignature(final String signature) {
             this.signature = signature;
@@ -375,14 +549,23 @@ public class OslpEnvelope implements Serializable {
 
         public Builder withSequenceNumber(final byte[] newSequenceNumber) {
             if (newSequenceNumber == null) {
-                this.sequenceNumber = new byte[0];
+                this.sequenceNumber = 0;
             } else {
-                this.sequenceNumber = Arrays.copyOf(newSequenceNumber, newSequenceNumber.length);
+                if (newSequenceNumber.length != SEQUENCE_NUMBER_LENGTH) {
+                    throw new IllegalArgumentException(
+                            "SequenceNumber is not of expected Length: " + SEQUENCE_NUMBER_LENGTH);
+                }
+                this.sequenceNumber = (newSequenceNumber[0] & 0xFF) << 8 | newSequenceNumber[1] & 0xFF;
             }
 
             return this;
         }
 
+        public Builder withSequenceNumber(final int newSequenceNumber) {
+            this.sequenceNumber = newSequenceNumber;
+            return this;
+        }
+
         public Builder withDeviceId(final byte[] newDeviceId) {
             if (newDeviceId == null) {
                 this.deviceId = new byte[0];
@@ -398,9 +581,14 @@ public class OslpEnvelope implements Serializable {
             return this;
         }
 
+        public Builder withSignatureEngine(final OslpSignatureEngine signatureEngine) {
+            this.signatureEngine = signatureEngine;
+            return this;
+        }
+
         public OslpEnvelope build() {
             return new OslpEnvelope(this.signature, this.provider, this.privateKey, this.securityKey,
-                    this.sequenceNumber, this.deviceId, this.payloadMessage);
+                    this.sequenceNumber, this.deviceId, this.payloadMessage, this.signatureEngine);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe histogram with fixed bucket bounds. A value is counted in the
+ * first bucket with an upper bound greater than or equal to the value, values
+ * above the highest bound are counted in an extra overflow bucket.
+ */
+public class OslpHistogram {
+
+    private final long[] bucketBounds;
+
+    private final AtomicLongArray bucketCounts;
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param bucketBounds
+     *            inclusive upper bounds of the buckets, in ascending order.
+     */
+    public OslpHistogram(final long... bucketBounds) {
+        for (int i = 1; i < bucketBounds.length; i++) {
+            if (bucketBounds[i] <= bucketBounds[i - 1]) {
+                throw new IllegalArgumentException("Bucket bounds must be in ascending order");
+            }
+        }
+        this.bucketBounds = bucketBounds.clone();
+        this.bucketCounts = new AtomicLongArray(bucketBounds.length + 1);
+    }
+
+    public void record(final long value) {
+        final int index = Arrays.binarySearch(this.bucketBounds, value);
+        this.bucketCounts.incrementAndGet(index >= 0 ? index : -index - 1);
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+
+        long currentMax = this.max.get();
+        while (value > currentMax && !this.max.compareAndSet(currentMax, value)) {
+            currentMax = this.max.get();
+        }
+    }
+
+    /**
+     * @return the upper bounds of the buckets, the overflow bucket excluded.
+     */
+    public long[] getBucketBounds() {
+        return this.bucketBounds.clone();
+    }
+
+    /**
+     * @return the counts per bucket, the last element being the count of the
+     *         overflow bucket.
+     */
+    public long[] getBucketCounts() {
+        final long[] counts = new long[this.bucketCounts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.bucketCounts.get(i);
+        }
+        return counts;
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getSum() {
+        return this.sum.get();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    public double getMean() {
+        final long currentCount = this.count.get();
+        return currentCount == 0 ? 0 : (double) this.sum.get() / currentCount;
+    }
+
+    /**
+     * @return the count, mean and maximum of the recorded values, for logging.
+     */
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.1f, max=%d", this.getCount(), this.getMean(), this.getMax());
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates and validates OSLP signatures.
+ *
+ * Looking up {@link Signature}, {@link Cipher} and {@link MessageDigest}
+ * instances through the JCA providers is relatively expensive, so the engine
+ * keeps one instance per algorithm and provider for each thread and
+ * reinitializes it for every operation. A single {@link SecureRandom} is
+ * shared by all threads.
+ */
+public class OslpSignatureEngine {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OslpSignatureEngine.class);
+
+    /**
+     * List of signature types which do not allow trailing data and need to be
+     * truncated.
+     */
+    private static final String[] TRUNCATE_SIGNATURES = { "NONEwithECDSA", "SHA1withECDSA", "SHA256withECDSA",
+            "SHA384withECDSA", "SHA512withECDSA" };
+
+    private static final OslpSignatureEngine DEFAULT_INSTANCE = new OslpSignatureEngine();
+
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    private final ThreadLocal<Map<String, Signature>> signatures = ThreadLocal.withInitial(HashMap::new);
+    private final ThreadLocal<Map<String, Cipher>> ciphers = ThreadLocal.withInitial(HashMap::new);
+    private final ThreadLocal<Map<String, MessageDigest>> digests = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * @return the engine shared by all OSLP envelopes which are not given a
+     *         specific engine.
+     */
+    public static OslpSignatureEngine getDefault() {
+        return DEFAULT_INSTANCE;
+    }
+
+    /**
+     * Create a signature of specified message.
+     *
+     * @param message
+     *            message bytes to sign
+     * @param privateKey
+     *            private key to use for signing
+     * @param signature
+     *            signature algorithm to use
+     * @param provider
+     *            provider which supplies the signature algorithm
+     * @return signature
+     * @throws GeneralSecurityException
+     *             when configuration is incorrect.
+     */
+    public byte[] createSignature(final byte[] message, final PrivateKey privateKey, final String signature,
+            final String provider) throws GeneralSecurityException {
+        // Use fallback to plain SHA512 hash, which is encrypted with RSA
+        // instead of real RSA signature
+        if (signature.equalsIgnoreCase(OslpUtils.FALLBACK_SIGNATURE)) {
+            return this.createEncryptedHash(message, privateKey);
+        }
+
+        // Use real signature
+        final Signature signatureBuilder = this.getSignature(signature, provider);
+        signatureBuilder.initSign(privateKey, this.secureRandom);
+        signatureBuilder.update(message);
+        return signatureBuilder.sign();
+    }
+
+    /**
+     * Validate the signature against the message.
+     *
+     * @param message
+     *            message to validate
+     * @param securityKey
+     *            signature to validate
+     * @param publicKey
+     *            public key to use for decryption of signature
+     * @param signature
+     *            signature algorithm to use
+     * @param provider
+     *            provider which supplies algorithm
+     * @return true when signature is correct, false when it's not
+     * @throws GeneralSecurityException
+     *             when configuration is incorrect.
+     */
+    public boolean validateSignature(final byte[] message, final byte[] securityKey, final PublicKey publicKey,
+            final String signature, final String provider) throws GeneralSecurityException {
+
+        // Use fallback to plain SHA512 hash, which is encrypted with RSA
+        // instead of real RSA signature
+        if (signature.equalsIgnoreCase(OslpUtils.FALLBACK_SIGNATURE)) {
+            return this.validateEncryptedHash(message, securityKey, publicKey);
+        }
+
+        // Using ECDSA as signature
+        final Signature signatureBuilder = this.getSignature(signature, provider);
+        signatureBuilder.initVerify(publicKey);
+        signatureBuilder.update(message);
+
+        int signatureLength = securityKey.length;
+
+        if (ArrayUtils.contains(TRUNCATE_SIGNATURES, signature)) {
+            // Fix for https://bugs.openjdk.java.net/browse/JDK-8161571
+            // Read 2nd byte as length indicator for the actual signature bytes, include 2 bytes for 1st 2 bytes
+            // Ensure the byte (which is signed) is converted correctly to a positive int
+            signatureLength = securityKey[1] + 2 & 0xFF;
+            if (signatureLength > securityKey.length) {
+                throw new GeneralSecurityException(
+                        "Size indicator in ASN.1 DSA signature to large [" + signatureLength + "]");
+            }
+        }
+        // Verify the actual ASN.1 DSA bytes only, excluding padding
+        return signatureBuilder.verify(securityKey, 0, signatureLength);
+    }
+
+    private byte[] createEncryptedHash(final byte[] message, final PrivateKey privateKey)
+            throws GeneralSecurityException {
+
+        final byte[] hash = this.createHash(message);
+
+        // Encrypt the hash
+        final Cipher cipher = this.getCipher(OslpUtils.FALLBACK_CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, privateKey);
+        return cipher.doFinal(hash);
+    }
+
+    private byte[] createHash(final byte[] message) throws GeneralSecurityException {
+        // Create digest Hash
+        final MessageDigest digest = this.getDigest(OslpUtils.FALLBACK_DIGEST);
+        digest.reset();
+        return digest.digest(message);
+    }
+
+    private boolean validateEncryptedHash(final byte[] message, final byte[] securityKey,
+            final PublicKey publicKey) throws GeneralSecurityException {
+
+        // Calculate hash of message
+        final byte[] verifyHash = this.createHash(message);
+
+        try {
+            // Decrypt security key hash
+            final Cipher cipher = this.getCipher(OslpUtils.FALLBACK_CIPHER);
+            cipher.init(Cipher.DECRYPT_MODE, publicKey);
+            final byte[] messageHash = cipher.doFinal(securityKey);
+
+            // Verify calculated and received hash
+            return Arrays.equals(messageHash, verifyHash);
+        } catch (final BadPaddingException e) {
+            LOGGER.error("unexpected exception", e);
+            return false;
+        }
+    }
+
+    private Signature getSignature(final String algorithm, final String provider) throws GeneralSecurityException {
+        final Map<String, Signature> cache = this.signatures.get();
+        final String key = algorithm + '/' + provider;
+
+        Signature signature = cache.get(key);
+        if (signature == null) {
+            signature = this.newSignature(algorithm, provider);
+            cache.put(key, signature);
+        }
+        return signature;
+    }
+
+    private Cipher getCipher(final String transformation) throws GeneralSecurityException {
+        final Map<String, Cipher> cache = this.ciphers.get();
+
+        Cipher cipher = cache.get(transformation);
+        if (cipher == null) {
+            cipher = this.newCipher(transformation);
+            cache.put(transformation, cipher);
+        }
+        return cipher;
+    }
+
+    private MessageDigest getDigest(final String algorithm) throws GeneralSecurityException {
+        final Map<String, MessageDigest> cache = this.digests.get();
+
+        MessageDigest digest = cache.get(algorithm);
+        if (digest == null) {
+            digest = this.newDigest(algorithm);
+            cache.put(algorithm, digest);
+        }
+        return digest;
+    }
+
+    /**
+     * Looks up a signature instance through the JCA providers, called once
+     * per algorithm, provider and thread.
+     */
+    protected Signature newSignature(final String algorithm, final String provider)
+            throws GeneralSecurityException {
+        return Signature.getInstance(algorithm, provider);
+    }
+
+    protected Cipher newCipher(final String transformation) throws GeneralSecurityException {
+        return Cipher.getInstance(transformation);
+    }
+
+    protected MessageDigest newDigest(final String algorithm) throws GeneralSecurityException {
+        return MessageDigest.getInstance(algorithm);
+    }
+}
@@ -0,0 +1,467 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.protobuf.CodedInputStream;
+
+import org.opensmartgridplatform.oslp.Oslp.Message;
+import org.opensmartgridplatform.shared.exceptionhandling.ComponentType;
+import org.opensmartgridplatform.shared.exceptionhandling.OsgpException;
+import org.opensmartgridplatform.shared.infra.jms.RequestMessage;
+import org.opensmartgridplatform.shared.infra.jms.ResponseMessage;
+import org.opensmartgridplatform.shared.infra.jms.ResponseMessageResultType;
+
+/**
+ * Compact binary format of the messages exchanged with the signing server,
+ * sent as the body of a JMS BytesMessage instead of Java serialization.
+ *
+ * A message starts with the format version and the kind of message, followed
+ * by length-prefixed fields in network byte order. OSLP payloads are embedded
+ * as their protobuf bytes; a signed envelope is embedded as its security key
+ * and sign bytes, and the payload of its unsigned DTO is taken from those sign
+ * bytes instead of being written twice. The exception of a response is
+ * embedded as its component type and message. The extra data of a request has
+ * no binary form and is embedded Java-serialized; decoding only resolves the
+ * platform's value objects and the JDK and Joda-Time classes they are made
+ * of, so a message can't instantiate arbitrary classes on the class path.
+ *
+ * The format version is the first byte of the message. Decoding accepts every
+ * version up to {@link #VERSION}, so a new version can be read before it is
+ * written.
+ */
+public final class OslpSigningMessageCodec {
+
+    /**
+     * Version written by {@link #encode(Serializable)}.
+     */
+    public static final int VERSION = 1;
+
+    private static final byte REQUEST_MESSAGE = 1;
+    private static final byte RESPONSE_MESSAGE = 2;
+    private static final byte BATCH_REQUEST = 3;
+    private static final byte BATCH_RESPONSE = 4;
+
+    private static final byte NO_OBJECT = 0;
+    private static final byte UNSIGNED_ENVELOPE = 1;
+    private static final byte SIGNED_ENVELOPE = 2;
+    private static final byte SERIALIZED_OBJECT = 3;
+
+    private static final int NULL_LENGTH = -1;
+
+    /**
+     * Package of the value objects sent as extra data, all of its classes may
+     * be resolved when reading a Java-serialized value.
+     */
+    private static final String ALLOWED_PACKAGE = "org.opensmartgridplatform.dto.valueobjects";
+
+    /**
+     * Classes the value objects are made of, which may be resolved when
+     * reading a Java-serialized value.
+     */
+    private static final Set<String> ALLOWED_CLASSES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "java.lang.Boolean", "java.lang.Byte", "java.lang.Character", "java.lang.Double", "java.lang.Enum",
+            "java.lang.Float", "java.lang.Integer", "java.lang.Long", "java.lang.Number", "java.lang.Object",
+            "java.lang.Short", "java.lang.String", "java.math.BigDecimal", "java.math.BigInteger",
+            "java.util.ArrayList", "java.util.Arrays$ArrayList", "java.util.Collections$EmptyList",
+            "java.util.Collections$UnmodifiableCollection", "java.util.Collections$UnmodifiableList",
+            "java.util.Collections$UnmodifiableRandomAccessList", "java.util.Date", "java.util.HashMap",
+            "java.util.LinkedList", "org.joda.time.DateTime", "org.joda.time.DateTimeZone$Stub",
+            "org.joda.time.base.BaseDateTime", "org.joda.time.chrono.ISOChronology$Stub")));
+
+    private OslpSigningMessageCodec() {
+        // Empty constructor for static helper class.
+    }
+
+    /**
+     * Encodes a {@link RequestMessage}, {@link ResponseMessage},
+     * {@link SigningBatchRequest} or {@link SigningBatchResponse}.
+     *
+     * @throws IllegalArgumentException
+     *             when the message can't be encoded.
+     */
+    public static byte[] encode(final Serializable message) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (final DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            if (message instanceof RequestMessage) {
+                out.writeByte(REQUEST_MESSAGE);
+                writeRequestMessage(out, (RequestMessage) message);
+            } else if (message instanceof ResponseMessage) {
+                out.writeByte(RESPONSE_MESSAGE);
+                writeResponseMessage(out, (ResponseMessage) message);
+            } else if (message instanceof SigningBatchRequest) {
+                out.writeByte(BATCH_REQUEST);
+                final List<RequestMessage> requestMessages = ((SigningBatchRequest) message).getRequestMessages();
+                out.writeInt(requestMessages.size());
+                for (final RequestMessage requestMessage : requestMessages) {
+                    writeRequestMessage(out, requestMessage);
+                }
+            } else if (message instanceof SigningBatchResponse) {
+                out.writeByte(BATCH_RESPONSE);
+                final List<ResponseMessage> responseMessages = ((SigningBatchResponse) message)
+                        .getResponseMessages();
+                out.writeInt(responseMessages.size());
+                for (final ResponseMessage responseMessage : responseMessages) {
+                    writeResponseMessage(out, responseMessage);
+                }
+            } else {
+                throw new IllegalArgumentException("Unable to encode message of " + className(message));
+            }
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Unable to encode message of " + className(message), e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a message encoded by {@link #encode(Serializable)}.
+     *
+     * @throws IllegalArgumentException
+     *             when the bytes are not a message of a supported version.
+     */
+    public static Serializable decode(final byte[] bytes) {
+        try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            final int version = in.readUnsignedByte();
+            if (version < 1 || version > VERSION) {
+                throw new IllegalArgumentException("Unsupported signing message version: " + version);
+            }
+
+            final byte kind = in.readByte();
+            switch (kind) {
+            case REQUEST_MESSAGE:
+                return readRequestMessage(in);
+            case RESPONSE_MESSAGE:
+                return readResponseMessage(in);
+            case BATCH_REQUEST:
+                final int requestCount = in.readInt();
+                final List<RequestMessage> requestMessages = new ArrayList<>(requestCount);
+                for (int i = 0; i < requestCount; i++) {
+                    requestMessages.add(readRequestMessage(in));
+                }
+                return new SigningBatchRequest(requestMessages);
+            case BATCH_RESPONSE:
+                final int responseCount = in.readInt();
+                final List<ResponseMessage> responseMessages = new ArrayList<>(responseCount);
+                for (int i = 0; i < responseCount; i++) {
+                    responseMessages.add(readResponseMessage(in));
+                }
+                return new SigningBatchResponse(responseMessages);
+            default:
+                throw new IllegalArgumentException("Unknown signing message kind: " + kind);
+            }
+        } catch (final IOException | ClassNotFoundException e) {
+            throw new IllegalArgumentException("Unable to decode signing message", e);
+        }
+    }
+
+    private static void writeRequestMessage(final DataOutputStream out, final RequestMessage requestMessage)
+            throws IOException {
+        writeString(out, requestMessage.getCorrelationUid());
+        writeString(out, requestMessage.getOrganisationIdentification());
+        writeString(out, requestMessage.getDeviceIdentification());
+        writeObject(out, requestMessage.getRequest());
+    }
+
+    private static RequestMessage readRequestMessage(final DataInputStream in)
+            throws IOException, ClassNotFoundException {
+        final String correlationUid = readString(in);
+        final String organisationIdentification = readString(in);
+        final String deviceIdentification = readString(in);
+        return new RequestMessage(correlationUid, organisationIdentification, deviceIdentification,
+                readObject(in));
+    }
+
+    private static void writeResponseMessage(final DataOutputStream out, final ResponseMessage responseMessage)
+            throws IOException {
+        writeString(out, responseMessage.getCorrelationUid());
+        writeString(out, responseMessage.getOrganisationIdentification());
+        writeString(out, responseMessage.getDeviceIdentification());
+        writeString(out, responseMessage.getResult() == null ? null : responseMessage.getResult().name());
+        out.writeInt(responseMessage.getMessagePriority());
+        writeOsgpException(out, responseMessage.getOsgpException());
+        writeObject(out, responseMessage.getDataObject());
+    }
+
+    private static ResponseMessage readResponseMessage(final DataInputStream in)
+            throws IOException, ClassNotFoundException {
+        final String correlationUid = readString(in);
+        final String organisationIdentification = readString(in);
+        final String deviceIdentification = readString(in);
+        final String result = readString(in);
+        final int messagePriority = in.readInt();
+        final OsgpException osgpException = readOsgpException(in);
+        final Serializable dataObject = readObject(in);
+
+        return ResponseMessage.newResponseMessageBuilder().withCorrelationUid(correlationUid)
+                .withOrganisationIdentification(organisationIdentification)
+                .withDeviceIdentification(deviceIdentification)
+                .withResult(result == null ? null : ResponseMessageResultType.valueOf(result))
+                .withOsgpException(osgpException).withDataObject(dataObject).withMessagePriority(messagePriority)
+                .build();
+    }
+
+    /**
+     * Writes the component type and message of the exception. Its cause is
+     * not written, the signing server describes a failure in the message.
+     */
+    private static void writeOsgpException(final DataOutputStream out, final OsgpException osgpException)
+            throws IOException {
+        out.writeBoolean(osgpException != null);
+        if (osgpException != null) {
+            writeString(out, osgpException.getComponentType() == null ? null
+                    : osgpException.getComponentType().name());
+            writeString(out, osgpException.getMessage());
+        }
+    }
+
+    private static OsgpException readOsgpException(final DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        final String componentType = readString(in);
+        final String message = readString(in);
+        try {
+            return new OsgpException(componentType == null ? null : ComponentType.valueOf(componentType), message,
+                    null);
+        } catch (final IllegalArgumentException e) {
+            throw new IOException("Unknown component type: " + componentType, e);
+        }
+    }
+
+    private static void writeObject(final DataOutputStream out, final Serializable object) throws IOException {
+        if (object == null) {
+            out.writeByte(NO_OBJECT);
+        } else if (object instanceof UnsignedOslpEnvelopeDto) {
+            out.writeByte(UNSIGNED_ENVELOPE);
+            writeUnsignedOslpEnvelopeDto(out, (UnsignedOslpEnvelopeDto) object, true);
+        } else if (object instanceof SignedOslpEnvelopeDto) {
+            out.writeByte(SIGNED_ENVELOPE);
+            final SignedOslpEnvelopeDto signedOslpEnvelopeDto = (SignedOslpEnvelopeDto) object;
+            writeOslpEnvelope(out, signedOslpEnvelopeDto.getOslpEnvelope());
+            writeUnsignedOslpEnvelopeDto(out, signedOslpEnvelopeDto.getUnsignedOslpEnvelopeDto(), false);
+        } else {
+            out.writeByte(SERIALIZED_OBJECT);
+            writeSerialized(out, object);
+        }
+    }
+
+    private static Serializable readObject(final DataInputStream in) throws IOException, ClassNotFoundException {
+        final byte kind = in.readByte();
+        switch (kind) {
+        case NO_OBJECT:
+            return null;
+        case UNSIGNED_ENVELOPE:
+            return readUnsignedOslpEnvelopeDto(in, null);
+        case SIGNED_ENVELOPE:
+            final OslpEnvelope oslpEnvelope = readOslpEnvelope(in);
+            return new SignedOslpEnvelopeDto(oslpEnvelope,
+                    readUnsignedOslpEnvelopeDto(in, oslpEnvelope.getPayloadMessage()));
+        case SERIALIZED_OBJECT:
+            return readSerialized(in);
+        default:
+            throw new IOException("Unknown object kind: " + kind);
+        }
+    }
+
+    /**
+     * @param withPayload
+     *            false when the payload is the payload of the signed envelope
+     *            written before the DTO.
+     */
+    private static void writeUnsignedOslpEnvelopeDto(final DataOutputStream out,
+            final UnsignedOslpEnvelopeDto dto, final boolean withPayload) throws IOException {
+        writeString(out, dto.getType());
+        writeBytes(out, dto.getSequenceNumber());
+        writeBytes(out, dto.getDeviceId());
+        if (withPayload) {
+            writeBytes(out, dto.getPayloadMessage().toByteArray());
+        }
+        writeString(out, dto.getCorrelationUid());
+        writeString(out, dto.getIpAddress());
+        writeString(out, dto.getDomain());
+        writeString(out, dto.getDomainVersion());
+        writeString(out, dto.getMessageType());
+        out.writeInt(dto.getMessagePriority());
+        out.writeInt(dto.getRetryCount());
+        out.writeBoolean(dto.isScheduled());
+        writeString(out, dto.getOrganisationIdentification());
+        writeSerialized(out, dto.getExtraData());
+    }
+
+    /**
+     * @param envelopePayload
+     *            payload of the signed envelope read before the DTO, or null
+     *            when the payload is part of the DTO.
+     */
+    private static UnsignedOslpEnvelopeDto readUnsignedOslpEnvelopeDto(final DataInputStream in,
+            final Message envelopePayload) throws IOException, ClassNotFoundException {
+        final String type = readString(in);
+        final byte[] sequenceNumber = readBytes(in);
+        final byte[] deviceId = readBytes(in);
+        final Message payloadMessage = envelopePayload == null ? Message.parseFrom(readBytes(in))
+                : envelopePayload;
+        final String correlationUid = readString(in);
+        final String ipAddress = readString(in);
+        final String domain = readString(in);
+        final String domainVersion = readString(in);
+        final String messageType = readString(in);
+        final int messagePriority = in.readInt();
+        final int retryCount = in.readInt();
+        final boolean isScheduled = in.readBoolean();
+        final String organisationIdentification = readString(in);
+        final Serializable extraData = readSerialized(in);
+
+        if (UnsignedOslpEnvelopeDto.OSLP_RESPONSE_TYPE.equals(type)) {
+            return new UnsignedOslpEnvelopeDto(sequenceNumber, deviceId, payloadMessage, correlationUid);
+        }
+        return new UnsignedOslpEnvelopeDto(sequenceNumber, deviceId, payloadMessage, ipAddress, domain,
+                domainVersion, messageType, messagePriority, retryCount, isScheduled, organisationIdentification,
+                correlationUid, extraData);
+    }
+
+    private static void writeOslpEnvelope(final DataOutputStream out, final OslpEnvelope oslpEnvelope)
+            throws IOException {
+        writeString(out, oslpEnvelope.getSignature());
+        writeString(out, oslpEnvelope.getProvider());
+        writeBytes(out, oslpEnvelope.getSecurityKey());
+        final ByteBuffer signBytes = oslpEnvelope.getSignBytes();
+        out.writeInt(signBytes.remaining());
+        while (signBytes.hasRemaining()) {
+            out.writeByte(signBytes.get());
+        }
+    }
+
+    private static OslpEnvelope readOslpEnvelope(final DataInputStream in) throws IOException {
+        final String signature = readString(in);
+        final String provider = readString(in);
+        final byte[] securityKey = readBytes(in);
+        final byte[] signBytes = readBytes(in);
+        final Message payloadMessage = Message.parseFrom(CodedInputStream.newInstance(signBytes,
+                OslpEnvelope.SIGN_BYTES_HEADER_LENGTH, signBytes.length - OslpEnvelope.SIGN_BYTES_HEADER_LENGTH));
+        return new OslpEnvelope(signature, provider, securityKey, signBytes, payloadMessage);
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(final DataOutputStream out, final byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid length: " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeSerialized(final DataOutputStream out, final Serializable value) throws IOException {
+        if (value == null) {
+            writeBytes(out, null);
+            return;
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {
+            objectOut.writeObject(value);
+        }
+        writeBytes(out, bytes.toByteArray());
+    }
+
+    private static Serializable readSerialized(final DataInputStream in) throws IOException, ClassNotFoundException {
+        final byte[] bytes = readBytes(in);
+        if (bytes == null) {
+            return null;
+        }
+        try (final ObjectInputStream objectIn = new AllowListObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Serializable) objectIn.readObject();
+        }
+    }
+
+    /**
+     * ObjectInputStream which only resolves the {@link #ALLOWED_CLASSES} and
+     * the classes of the {@link #ALLOWED_PACKAGE}, or arrays of those classes
+     * or of primitives, and no proxy classes.
+     */
+    private static class AllowListObjectInputStream extends ObjectInputStream {
+
+        AllowListObjectInputStream(final ByteArrayInputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!isAllowed(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "Class is not allowed in a signing message");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(final String[] interfaces) throws IOException {
+            throw new InvalidClassException("Proxy classes are not allowed in a signing message");
+        }
+
+        private static boolean isAllowed(final String className) {
+            String componentName = className;
+            while (componentName.startsWith("[")) {
+                componentName = componentName.substring(1);
+            }
+            if (componentName.length() == 1) {
+                // Array of primitives.
+                return !componentName.equals(className);
+            }
+            if (!componentName.equals(className)) {
+                // Array of objects.
+                componentName = componentName.substring(1, componentName.length() - 1);
+            }
+            final int packageEnd = componentName.lastIndexOf('.');
+            return ALLOWED_CLASSES.contains(componentName)
+                    || packageEnd > 0 && ALLOWED_PACKAGE.equals(componentName.substring(0, packageEnd));
+        }
+    }
+
+    private static String className(final Object object) {
+        return object == null ? "null" : object.getClass().getName();
+    }
+}
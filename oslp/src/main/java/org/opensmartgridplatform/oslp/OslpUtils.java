@@ -7,30 +7,21 @@
  */
 package org.opensmartgridplatform.oslp;
 
+import java.io.IOException;
 import java.security.GeneralSecurityException;
-import java.security.MessageDigest;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.SecureRandom;
-import java.security.Signature;
-import java.util.Arrays;
-
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-
-import org.apache.commons.lang3.ArrayUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+
+import org.opensmartgridplatform.oslp.Oslp.Message;
 
 /**
  * Utility methods to ease usage of OSLP.
  */
 public final class OslpUtils {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(OslpUtils.class);
-
     /**
      * Fallback signature value which triggers previous RSA/Hash implementation.
      */
@@ -46,12 +37,6 @@ public final class OslpUtils {
      */
     public static final String FALLBACK_DIGEST = "SHA-512";
 
-    /**
-     * List of signature types which do not allow trailing data and need to be truncated.
-     */
-    private static final String[] TRUNCATE_SIGNATURES = { "NONEwithECDSA", "SHA1withECDSA", "SHA256withECDSA",
-            "SHA384withECDSA", "SHA512withECDSA" };
-    
     private OslpUtils() {
         // Empty constructor for static helper class.
     }
@@ -98,15 +83,36 @@ public final class OslpUtils {
      * @return array of bytes which can be signed
      */
     public static byte[] createSignBytes(final OslpEnvelope envelope) {
-        byte[] message = ArrayUtils.addAll(envelope.getSequenceNumber(), envelope.getDeviceId());
-        message = ArrayUtils.addAll(message, envelope.getLengthIndicator());
-        message = ArrayUtils.addAll(message, envelope.getPayloadMessage().toByteArray());
+        final int sequenceNumber = envelope.getSequenceNumberValue();
+        final byte[] deviceId = envelope.deviceIdBytes();
+        final Message payloadMessage = envelope.getPayloadMessage();
+        final int payloadLength = payloadMessage.getSerializedSize();
+
+        final byte[] message = new byte[OslpEnvelope.SEQUENCE_NUMBER_LENGTH + deviceId.length
+                + OslpEnvelope.LENGTH_INDICATOR_LENGTH + payloadLength];
+
+        int offset = 0;
+        message[offset++] = (byte) ((sequenceNumber >>> 8) & 0xFF);
+        message[offset++] = (byte) (sequenceNumber & 0xFF);
+        System.arraycopy(deviceId, 0, message, offset, deviceId.length);
+        offset += deviceId.length;
+        message[offset++] = (byte) ((payloadLength >>> 8) & 0xFF);
+        message[offset++] = (byte) (payloadLength & 0xFF);
+
+        try {
+            final CodedOutputStream output = CodedOutputStream.newInstance(message, offset, payloadLength);
+            payloadMessage.writeTo(output);
+            output.checkNoSpaceLeft();
+        } catch (final IOException e) {
+            throw new IllegalStateException("Serializing the payload to a byte array failed.", e);
+        }
 
         return message;
     }
 
     /**
-     * Create a signature of specified message.
+     * Create a signature of specified message, using the default
+     * {@link OslpSignatureEngine}.
      *
      * @param message
      *            message bytes to sign
@@ -122,21 +128,12 @@ public final class OslpUtils {
      */
     public static byte[] createSignature(final byte[] message, final PrivateKey privateKey, final String signature,
             final String provider) throws GeneralSecurityException {
-        // Use fallback to plain SHA512 hash, which is encrypted with RSA
-        // instead of real RSA signature
-        if (signature.equalsIgnoreCase(FALLBACK_SIGNATURE)) {
-            return createEncryptedHash(message, privateKey);
-        }
-
-        // Use real signature
-        final Signature signatureBuilder = Signature.getInstance(signature, provider);
-        signatureBuilder.initSign(privateKey, new SecureRandom());
-        signatureBuilder.update(message);
-        return signatureBuilder.sign();
+        return OslpSignatureEngine.getDefault().createSignature(message, privateKey, signature, provider);
     }
 
     /**
-     * Validate the signature against the message.
+     * Validate the signature against the message, using the default
+     * {@link OslpSignatureEngine}.
      *
      * @param message
      *            message to validate
@@ -154,68 +151,7 @@ public final class OslpUtils {
      */
     public static boolean validateSignature(final byte[] message, final byte[] securityKey, final PublicKey publicKey,
             final String signature, final String provider) throws GeneralSecurityException {
-
-        // Use fallback to plain SHA512 hash, which is encrypted with RSA
-        // instead of real RSA signature
-        if (signature.equalsIgnoreCase(FALLBACK_SIGNATURE)) {
-            return validateEncryptedHash(message, securityKey, publicKey);
-        }
-
-        // Using ECDSA as signature
-        final Signature signatureBuilder = Signature.getInstance(signature, provider);
-        signatureBuilder.initVerify(publicKey);
-        signatureBuilder.update(message);
-        
-        int signatureLength = securityKey.length;
-        
-        if (ArrayUtils.contains(TRUNCATE_SIGNATURES, signature)) {
-            // Fix for https://bugs.openjdk.java.net/browse/JDK-8161571
-            // Read 2nd byte as length indicator for the actual signature bytes, include 2 bytes for 1st 2 bytes
-            // Ensure the byte (which is signed) is converted correctly to a positive int
-            signatureLength = securityKey[1]+2 & 0xFF;
-            if (signatureLength > securityKey.length) {
-                throw new GeneralSecurityException("Size indicator in ASN.1 DSA signature to large [" + signatureLength + "]");
-            }
-        }
-        // Truncate the string to actual ASN.1 DSA length, removing padding
-        byte[] truncated = Arrays.copyOf(securityKey, signatureLength);
-        return signatureBuilder.verify(truncated);
-    }
-
-    private static byte[] createEncryptedHash(final byte[] message, final PrivateKey privateKey)
-            throws GeneralSecurityException {
-
-        final byte[] hash = createHash(message);
-
-        // Encrypt the hash
-        final Cipher cipher = Cipher.getInstance(FALLBACK_CIPHER);
-        cipher.init(Cipher.ENCRYPT_MODE, privateKey);
-        return cipher.doFinal(hash);
-    }
-
-    private static byte[] createHash(final byte[] message) throws GeneralSecurityException {
-        // Create digest Hash
-        final MessageDigest digest = MessageDigest.getInstance(FALLBACK_DIGEST);
-        return digest.digest(message);
-    }
-
-    private static boolean validateEncryptedHash(final byte[] message, final byte[] securityKey,
-            final PublicKey publicKey) throws GeneralSecurityException {
-
-        // Calculate hash of message
-        final byte[] verifyHash = createHash(message);
-
-        try {
-            // Decrypt security key hash
-            final Cipher cipher = Cipher.getInstance(FALLBACK_CIPHER);
-            cipher.init(Cipher.DECRYPT_MODE, publicKey);
-            final byte[] messageHash = cipher.doFinal(securityKey);
-
-            // Verify calculated and received hash
-            return Arrays.equals(messageHash, verifyHash);
-        } catch (final BadPaddingException e) {
-            LOGGER.error("unexpected exception", e);
-            return false;
-        }
+        return OslpSignatureEngine.getDefault().validateSignature(message, securityKey, publicKey, signature,
+                provider);
     }
 }
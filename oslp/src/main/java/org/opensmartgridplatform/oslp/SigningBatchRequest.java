@@ -0,0 +1,48 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.opensmartgridplatform.shared.infra.jms.RequestMessage;
+
+/**
+ * Batch of signing requests sent to the signing server in a single message.
+ * Each request message holds an {@link UnsignedOslpEnvelopeDto} and the
+ * correlation UID by which its signed envelope is returned in the
+ * {@link SigningBatchResponse}.
+ */
+public class SigningBatchRequest implements Serializable {
+
+    /**
+     * JMS type of a message holding a signing batch request.
+     */
+    public static final String MESSAGE_TYPE = "SIGNING_BATCH_REQUEST";
+
+    /**
+     * Serial Version UID.
+     */
+    private static final long serialVersionUID = -4610981395066453772L;
+
+    private final List<RequestMessage> requestMessages;
+
+    public SigningBatchRequest(final List<RequestMessage> requestMessages) {
+        this.requestMessages = new ArrayList<>(requestMessages);
+    }
+
+    public List<RequestMessage> getRequestMessages() {
+        return Collections.unmodifiableList(this.requestMessages);
+    }
+
+    public int size() {
+        return this.requestMessages.size();
+    }
+}
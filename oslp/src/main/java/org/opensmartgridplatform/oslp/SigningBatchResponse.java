@@ -0,0 +1,48 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.opensmartgridplatform.shared.infra.jms.ResponseMessage;
+
+/**
+ * Responses of the signing server to a {@link SigningBatchRequest}, sent in a
+ * single message. Each response message has the correlation UID of its
+ * request, and holds either a {@link SignedOslpEnvelopeDto} or, when signing
+ * failed, the {@link UnsignedOslpEnvelopeDto}.
+ */
+public class SigningBatchResponse implements Serializable {
+
+    /**
+     * JMS type of a message holding a signing batch response.
+     */
+    public static final String MESSAGE_TYPE = "SIGNING_BATCH_RESPONSE";
+
+    /**
+     * Serial Version UID.
+     */
+    private static final long serialVersionUID = 7375040269851839147L;
+
+    private final List<ResponseMessage> responseMessages;
+
+    public SigningBatchResponse(final List<ResponseMessage> responseMessages) {
+        this.responseMessages = new ArrayList<>(responseMessages);
+    }
+
+    public List<ResponseMessage> getResponseMessages() {
+        return Collections.unmodifiableList(this.responseMessages);
+    }
+
+    public int size() {
+        return this.responseMessages.size();
+    }
+}
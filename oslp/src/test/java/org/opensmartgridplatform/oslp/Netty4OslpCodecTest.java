@@ -0,0 +1,123 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.TooLongFrameException;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.junit.Test;
+
+import org.opensmartgridplatform.oslp.Oslp.Message;
+import org.opensmartgridplatform.shared.security.CertificateHelper;
+
+/**
+ * Unittests for the Netty 4 OSLP encoder and decoder, which must produce and
+ * accept the same frames as the Netty 3 versions.
+ */
+public class Netty4OslpCodecTest {
+
+    private static final String PRIVATE_KEY_BASE_64 = "MIGHAgEAMBMGByqGSM49AgEGCCqGSM49AwEHBG0wawIBAQQg8ydsIOMoTlBPn6rJezELYFLUUuQe"
+            + "3GvrhI3TDJj1yNyhRANCAAQ0UmJgxWImQ5wgepQ65nlsK0lvYb/GW6nx4ngLgncDZmWH3Pck8eC1"
+            + "xsKg1goWpvl7P1um4cIjKyBwfqf8FxZa";
+
+    private static final String PUBLIC_KEY_BASE_64 = "MFkwEwYHKoZIzj0CAQYIKoZIzj0DAQcDQgAENFJiYMViJkOcIHqUOuZ5bCtJb2G/xlup8eJ4C4J3"
+            + "A2Zlh9z3JPHgtcbCoNYKFqb5ez9bpuHCIysgcH6n/BcWWg==";
+
+    private static final String KEY_TYPE = "EC";
+    private static final String SIGNATURE = "SHA256withECDSA";
+    private static final String PROVIDER = "SunEC";
+
+    @Test
+    public void encodesSameFrameAsNetty3Encoder() throws Exception {
+        final OslpEnvelope envelope = this.buildEnvelope(1);
+
+        final EmbeddedChannel channel = new EmbeddedChannel(new Netty4OslpEncoder());
+        channel.writeOutbound(envelope);
+        final ByteBuf buffer = channel.readOutbound();
+
+        final byte[] frame = new byte[buffer.readableBytes()];
+        buffer.readBytes(frame);
+        buffer.release();
+
+        assertArrayEquals(this.encodeWithNetty3(envelope), frame);
+    }
+
+    @Test
+    public void decodesFragmentedFrame() throws Exception {
+        final OslpEnvelope request = this.buildEnvelope(1);
+        final byte[] frame = this.encodeWithNetty3(request);
+
+        final EmbeddedChannel channel = new EmbeddedChannel(
+                new Netty4OslpDecoder(SIGNATURE, PROVIDER, OslpDecoder.MAX_FRAME_LENGTH));
+        for (int offset = 0; offset < frame.length; offset += 7) {
+            assertNull(channel.readInbound());
+            channel.writeInbound(Unpooled.wrappedBuffer(frame, offset, Math.min(7, frame.length - offset)));
+        }
+
+        this.assertDecoded(request, channel.readInbound());
+        assertNull(channel.readInbound());
+    }
+
+    @Test
+    public void rejectsTooLongFrame() throws Exception {
+        final byte[] frame = this.encodeWithNetty3(this.buildEnvelope(1));
+
+        final EmbeddedChannel channel = new EmbeddedChannel(
+                new Netty4OslpDecoder(SIGNATURE, PROVIDER, OslpEnvelope.HEADER_LENGTH));
+        try {
+            channel.writeInbound(Unpooled.wrappedBuffer(frame, 0, OslpEnvelope.HEADER_LENGTH));
+            fail("Expected frame to be rejected");
+        } catch (final DecoderException e) {
+            assertTrue(e instanceof TooLongFrameException);
+        }
+    }
+
+    private void assertDecoded(final OslpEnvelope expected, final OslpEnvelope actual)
+            throws GeneralSecurityException, IOException {
+        assertArrayEquals(expected.getSecurityKey(), actual.getSecurityKey());
+        assertArrayEquals(expected.getSequenceNumber(), actual.getSequenceNumber());
+        assertArrayEquals(expected.getDeviceId(), actual.getDeviceId());
+        assertEquals(expected.getPayloadMessage(), actual.getPayloadMessage());
+        assertTrue(actual.validate(CertificateHelper.createPublicKeyFromBase64(PUBLIC_KEY_BASE_64, KEY_TYPE,
+                PROVIDER)));
+    }
+
+    private byte[] encodeWithNetty3(final OslpEnvelope envelope) {
+        final EncoderEmbedder<ChannelBuffer> encoder = new EncoderEmbedder<>(new OslpEncoder());
+        encoder.offer(envelope);
+        final ChannelBuffer buffer = encoder.poll();
+
+        final byte[] frame = new byte[buffer.readableBytes()];
+        buffer.readBytes(frame);
+        return frame;
+    }
+
+    private OslpEnvelope buildEnvelope(final int sequenceNumber) throws GeneralSecurityException, IOException {
+        final byte[] deviceId = new byte[] { 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 };
+
+        final Message message = Message.newBuilder()
+                .setGetStatusRequest(Oslp.GetStatusRequest.newBuilder().build()).build();
+
+        return new OslpEnvelope.Builder().withSignature(SIGNATURE).withProvider(PROVIDER)
+                .withPrimaryKey(CertificateHelper.createPrivateKeyFromBase64(PRIVATE_KEY_BASE_64, KEY_TYPE, PROVIDER))
+                .withDeviceId(deviceId).withSequenceNumber(sequenceNumber).withPayloadMessage(message).build();
+    }
+}
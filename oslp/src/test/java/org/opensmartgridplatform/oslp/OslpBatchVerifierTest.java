@@ -0,0 +1,158 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.opensmartgridplatform.oslp.Oslp.Message;
+import org.opensmartgridplatform.shared.security.CertificateHelper;
+
+/**
+ * Unittests for the verification of OSLP envelopes in micro-batches.
+ */
+public class OslpBatchVerifierTest {
+
+    private static final String PRIVATE_KEY_BASE_64 = "MIGHAgEAMBMGByqGSM49AgEGCCqGSM49AwEHBG0wawIBAQQg8ydsIOMoTlBPn6rJezELYFLUUuQe"
+            + "3GvrhI3TDJj1yNyhRANCAAQ0UmJgxWImQ5wgepQ65nlsK0lvYb/GW6nx4ngLgncDZmWH3Pck8eC1"
+            + "xsKg1goWpvl7P1um4cIjKyBwfqf8FxZa";
+
+    private static final String PUBLIC_KEY_BASE_64 = "MFkwEwYHKoZIzj0CAQYIKoZIzj0DAQcDQgAENFJiYMViJkOcIHqUOuZ5bCtJb2G/xlup8eJ4C4J3"
+            + "A2Zlh9z3JPHgtcbCoNYKFqb5ez9bpuHCIysgcH6n/BcWWg==";
+
+    private static final String DEVIATING_PUBLIC_KEY_BASE_64 = "MFkwEwYHKoZIzj0CAQYIKoZIzj0DAQcDQgAEnIZyewkhRF8YsYG7ec02t9NEzuMmwPQaCnzpkexE"
+            + "o2fp1t1PbVA64+zMEOUtyft79ooWaWvdWsuTHU752bqLTA==";
+
+    private static final String KEY_TYPE = "EC";
+    private static final String SIGNATURE = "SHA256withECDSA";
+    private static final String PROVIDER = "SunEC";
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private PublicKey publicKey;
+
+    private OslpBatchVerifier verifier;
+
+    @Before
+    public void setUp() throws GeneralSecurityException, IOException {
+        this.publicKey = CertificateHelper.createPublicKeyFromBase64(PUBLIC_KEY_BASE_64, KEY_TYPE, PROVIDER);
+    }
+
+    @After
+    public void tearDown() {
+        if (this.verifier != null) {
+            this.verifier.shutdown();
+        }
+    }
+
+    @Test
+    public void completesWithOutcomeOfVerification() throws Exception {
+        this.verifier = new OslpBatchVerifier(8, 5, 2);
+        final PublicKey deviatingPublicKey = CertificateHelper.createPublicKeyFromBase64(DEVIATING_PUBLIC_KEY_BASE_64,
+                KEY_TYPE, PROVIDER);
+
+        final CompletableFuture<Boolean> valid = this.verifier.verify(this.buildEnvelope(1), this.publicKey);
+        final CompletableFuture<Boolean> invalid = this.verifier.verify(this.buildEnvelope(2), deviatingPublicKey);
+
+        assertTrue(valid.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(invalid.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void verifiesAtMostMaxBatchSizeEnvelopesPerBatch() throws Exception {
+        // A long maximum wait, so only the batch size limit closes a batch.
+        this.verifier = new OslpBatchVerifier(3, 60000, 2);
+
+        final List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            results.add(this.verifier.verify(this.buildEnvelope(i), this.publicKey));
+        }
+        for (final CompletableFuture<Boolean> result : results) {
+            assertTrue(result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+
+        final OslpHistogram batchSizes = this.verifier.getBatchSizeHistogram();
+        assertEquals(9, batchSizes.getSum());
+        assertEquals(3, batchSizes.getMax());
+        assertEquals(9, this.verifier.getLatencyHistogram().getCount());
+    }
+
+    @Test
+    public void verifiesIncompleteBatchAfterMaxWait() throws Exception {
+        this.verifier = new OslpBatchVerifier(64, 5, 1);
+
+        final CompletableFuture<Boolean> result = this.verifier.verify(this.buildEnvelope(1), this.publicKey);
+
+        assertTrue(result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, this.verifier.getBatchSizeHistogram().getMax());
+    }
+
+    @Test
+    public void completesExceptionallyWhenVerificationFails() throws Exception {
+        this.verifier = new OslpBatchVerifier(8, 5, 1);
+        final OslpEnvelope envelope = this.buildEnvelope(1);
+        // Corrupt the length of the ASN.1 DSA signature.
+        final byte[] corruptedSecurityKey = envelope.getSecurityKey();
+        corruptedSecurityKey[1] = (byte) 129;
+        envelope.setSecurityKey(corruptedSecurityKey);
+
+        try {
+            this.verifier.verify(envelope, this.publicKey).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("Expected verification to fail");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void rejectsEnvelopesAfterShutdown() throws Exception {
+        this.verifier = new OslpBatchVerifier(8, 5, 1);
+        this.verifier.shutdown();
+
+        try {
+            this.verifier.verify(this.buildEnvelope(1), this.publicKey).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("Expected verification to be rejected");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        } finally {
+            this.verifier = null;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMaxBatchSizeBelowOne() {
+        new OslpBatchVerifier(0, 5, 1);
+    }
+
+    private OslpEnvelope buildEnvelope(final int sequenceNumber) throws GeneralSecurityException, IOException {
+        final byte[] deviceId = new byte[] { 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 };
+
+        final Message message = Message.newBuilder()
+                .setGetStatusRequest(Oslp.GetStatusRequest.newBuilder().build()).build();
+
+        return new OslpEnvelope.Builder().withSignature(SIGNATURE).withProvider(PROVIDER)
+                .withPrimaryKey(CertificateHelper.createPrivateKeyFromBase64(PRIVATE_KEY_BASE_64, KEY_TYPE, PROVIDER))
+                .withDeviceId(deviceId).withSequenceNumber(sequenceNumber).withPayloadMessage(message).build();
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.CodecEmbedderException;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.junit.Test;
+
+import org.opensmartgridplatform.oslp.Oslp.Message;
+import org.opensmartgridplatform.shared.security.CertificateHelper;
+
+/**
+ * Unittests for decoding OSLP frames.
+ */
+public class OslpDecoderTest {
+
+    private static final String PRIVATE_KEY_BASE_64 = "MIGHAgEAMBMGByqGSM49AgEGCCqGSM49AwEHBG0wawIBAQQg8ydsIOMoTlBPn6rJezELYFLUUuQe"
+            + "3GvrhI3TDJj1yNyhRANCAAQ0UmJgxWImQ5wgepQ65nlsK0lvYb/GW6nx4ngLgncDZmWH3Pck8eC1"
+            + "xsKg1goWpvl7P1um4cIjKyBwfqf8FxZa";
+
+    private static final String PUBLIC_KEY_BASE_64 = "MFkwEwYHKoZIzj0CAQYIKoZIzj0DAQcDQgAENFJiYMViJkOcIHqUOuZ5bCtJb2G/xlup8eJ4C4J3"
+            + "A2Zlh9z3JPHgtcbCoNYKFqb5ez9bpuHCIysgcH6n/BcWWg==";
+
+    private static final String KEY_TYPE = "EC";
+    private static final String SIGNATURE = "SHA256withECDSA";
+    private static final String PROVIDER = "SunEC";
+
+    /**
+     * A frame received in small fragments must be decoded once it is complete.
+     */
+    @Test
+    public void decodesFragmentedFrame() throws Exception {
+        final OslpEnvelope request = this.buildEnvelope(1);
+        final byte[] frame = this.encode(request);
+
+        final DecoderEmbedder<OslpEnvelope> decoder = new DecoderEmbedder<>(new OslpDecoder(SIGNATURE, PROVIDER));
+        for (int offset = 0; offset < frame.length; offset += 7) {
+            assertNull(decoder.poll());
+            decoder.offer(ChannelBuffers.wrappedBuffer(frame, offset, Math.min(7, frame.length - offset)));
+        }
+
+        this.assertDecoded(request, decoder.poll());
+        assertNull(decoder.poll());
+    }
+
+    /**
+     * Multiple frames received in one buffer must all be decoded.
+     */
+    @Test
+    public void decodesConsecutiveFrames() throws Exception {
+        final OslpEnvelope first = this.buildEnvelope(1);
+        final OslpEnvelope second = this.buildEnvelope(2);
+
+        final DecoderEmbedder<OslpEnvelope> decoder = new DecoderEmbedder<>(new OslpDecoder(SIGNATURE, PROVIDER));
+        decoder.offer(ChannelBuffers.wrappedBuffer(this.encode(first), this.encode(second)));
+
+        this.assertDecoded(first, decoder.poll());
+        this.assertDecoded(second, decoder.poll());
+        assertNull(decoder.poll());
+    }
+
+    /**
+     * A frame exceeding the maximum frame length must be rejected based on its
+     * header.
+     */
+    @Test
+    public void rejectsTooLongFrame() throws Exception {
+        final byte[] frame = this.encode(this.buildEnvelope(1));
+
+        final DecoderEmbedder<OslpEnvelope> decoder = new DecoderEmbedder<>(
+                new OslpDecoder(SIGNATURE, PROVIDER, OslpEnvelope.HEADER_LENGTH));
+        try {
+            decoder.offer(ChannelBuffers.wrappedBuffer(frame, 0, OslpEnvelope.HEADER_LENGTH));
+            fail("Expected frame to be rejected");
+        } catch (final CodecEmbedderException e) {
+            assertTrue(e.getCause() instanceof TooLongFrameException);
+        }
+    }
+
+    private void assertDecoded(final OslpEnvelope expected, final OslpEnvelope actual)
+            throws GeneralSecurityException, IOException {
+        assertArrayEquals(expected.getSecurityKey(), actual.getSecurityKey());
+        assertArrayEquals(expected.getSequenceNumber(), actual.getSequenceNumber());
+        assertArrayEquals(expected.getDeviceId(), actual.getDeviceId());
+        assertEquals(expected.getPayloadMessage(), actual.getPayloadMessage());
+        assertTrue(actual.validate(CertificateHelper.createPublicKeyFromBase64(PUBLIC_KEY_BASE_64, KEY_TYPE,
+                PROVIDER)));
+    }
+
+    private byte[] encode(final OslpEnvelope envelope) {
+        final EncoderEmbedder<ChannelBuffer> encoder = new EncoderEmbedder<>(new OslpEncoder());
+        encoder.offer(envelope);
+        final ChannelBuffer buffer = encoder.poll();
+
+        final byte[] frame = new byte[buffer.readableBytes()];
+        buffer.readBytes(frame);
+        return frame;
+    }
+
+    private OslpEnvelope buildEnvelope(final int sequenceNumber) throws GeneralSecurityException, IOException {
+        final byte[] deviceId = new byte[] { 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 };
+
+        final Message message = Message.newBuilder()
+                .setGetStatusRequest(Oslp.GetStatusRequest.newBuilder().build()).build();
+
+        return new OslpEnvelope.Builder().withSignature(SIGNATURE).withProvider(PROVIDER)
+                .withPrimaryKey(CertificateHelper.createPrivateKeyFromBase64(PRIVATE_KEY_BASE_64, KEY_TYPE, PROVIDER))
+                .withDeviceId(deviceId).withSequenceNumber(new byte[] { 0, (byte) sequenceNumber })
+                .withPayloadMessage(message).build();
+    }
+}
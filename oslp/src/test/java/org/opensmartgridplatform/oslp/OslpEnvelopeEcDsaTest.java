@@ -133,6 +133,33 @@ public class OslpEnvelopeEcDsaTest {
                 this.provider())));
     }
 
+    /**
+     * Valid must fail when a signed field is changed after the sign bytes have
+     * been created
+     *
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     * @throws InvalidKeySpecException
+     * @throws NoSuchProviderException
+     */
+    @Test
+    public void buildOslpMessageChangedAfterSigning() throws IOException, NoSuchAlgorithmException,
+            InvalidKeySpecException, NoSuchProviderException {
+        final OslpEnvelope request = this.buildMessage();
+
+        final OslpEnvelope response = new OslpEnvelope.Builder().withSignature(SIGNATURE).withProvider(this.provider())
+                .withSecurityKey(request.getSecurityKey()).withDeviceId(request.getDeviceId())
+                .withSequenceNumber(request.getSequenceNumber()).withPayloadMessage(request.getPayloadMessage())
+                .build();
+        assertTrue(response.validate(CertificateHelper.createPublicKeyFromBase64(PUBLIC_KEY_BASE_64, KEY_TYPE,
+                this.provider())));
+
+        response.setSequenceNumber(new byte[] { 0, 2 });
+
+        assertFalse(response.validate(CertificateHelper.createPublicKeyFromBase64(PUBLIC_KEY_BASE_64, KEY_TYPE,
+                this.provider())));
+    }
+
     /**
      * Valid must fail when message when signature length is corrupted
      * 
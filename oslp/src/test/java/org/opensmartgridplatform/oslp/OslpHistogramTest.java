@@ -0,0 +1,94 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Unittests for the fixed bucket histogram.
+ */
+public class OslpHistogramTest {
+
+    @Test
+    public void countsValuesInFirstBucketWithGreaterOrEqualBound() {
+        final OslpHistogram histogram = new OslpHistogram(10, 100, 1000);
+
+        histogram.record(0);
+        histogram.record(10);
+        histogram.record(11);
+        histogram.record(1000);
+
+        assertArrayEquals(new long[] { 2, 1, 1, 0 }, histogram.getBucketCounts());
+    }
+
+    @Test
+    public void countsValuesAboveHighestBoundInOverflowBucket() {
+        final OslpHistogram histogram = new OslpHistogram(10, 100);
+
+        histogram.record(101);
+        histogram.record(Long.MAX_VALUE / 2);
+
+        assertArrayEquals(new long[] { 0, 0, 2 }, histogram.getBucketCounts());
+    }
+
+    @Test
+    public void keepsCountSumMaxAndMean() {
+        final OslpHistogram histogram = new OslpHistogram(10, 100);
+        assertEquals(0, histogram.getMean(), 0);
+
+        histogram.record(4);
+        histogram.record(50);
+        histogram.record(6);
+
+        assertEquals(3, histogram.getCount());
+        assertEquals(60, histogram.getSum());
+        assertEquals(50, histogram.getMax());
+        assertEquals(20, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void countsConcurrentlyRecordedValues() throws InterruptedException {
+        final OslpHistogram histogram = new OslpHistogram(10);
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int value = i * 10;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    histogram.record(value);
+                }
+            });
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(4000, histogram.getCount());
+        assertArrayEquals(new long[] { 2000, 2000 }, histogram.getBucketCounts());
+        assertEquals(30, histogram.getMax());
+    }
+
+    @Test
+    public void returnsCopyOfBucketBounds() {
+        final long[] bounds = { 1, 2 };
+        final OslpHistogram histogram = new OslpHistogram(bounds);
+
+        bounds[0] = 5;
+        histogram.getBucketBounds()[1] = 5;
+
+        assertArrayEquals(new long[] { 1, 2 }, histogram.getBucketBounds());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBoundsNotInAscendingOrder() {
+        new OslpHistogram(10, 10);
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class OslpSignatureEngineTest {
+
+    private static final String SIGNATURE = "SHA256withECDSA";
+    private static final String PROVIDER = "SunEC";
+
+    private static final byte[] MESSAGE = "OSLP message".getBytes(StandardCharsets.US_ASCII);
+
+    private static KeyPair ecKeyPair;
+    private static KeyPair rsaKeyPair;
+
+    /**
+     * Engine counting the instances it looks up through the JCA providers.
+     */
+    private static class CountingSignatureEngine extends OslpSignatureEngine {
+        private final AtomicInteger signatureLookups = new AtomicInteger();
+        private final AtomicInteger cipherLookups = new AtomicInteger();
+        private final AtomicInteger digestLookups = new AtomicInteger();
+
+        @Override
+        protected Signature newSignature(final String algorithm, final String provider)
+                throws GeneralSecurityException {
+            this.signatureLookups.incrementAndGet();
+            return super.newSignature(algorithm, provider);
+        }
+
+        @Override
+        protected Cipher newCipher(final String transformation) throws GeneralSecurityException {
+            this.cipherLookups.incrementAndGet();
+            return super.newCipher(transformation);
+        }
+
+        @Override
+        protected MessageDigest newDigest(final String algorithm) throws GeneralSecurityException {
+            this.digestLookups.incrementAndGet();
+            return super.newDigest(algorithm);
+        }
+    }
+
+    private final CountingSignatureEngine engine = new CountingSignatureEngine();
+
+    @BeforeClass
+    public static void generateKeyPairs() throws Exception {
+        final KeyPairGenerator ecKeyPairGenerator = KeyPairGenerator.getInstance("EC", PROVIDER);
+        ecKeyPairGenerator.initialize(256);
+        ecKeyPair = ecKeyPairGenerator.generateKeyPair();
+
+        final KeyPairGenerator rsaKeyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        rsaKeyPairGenerator.initialize(1024);
+        rsaKeyPair = rsaKeyPairGenerator.generateKeyPair();
+    }
+
+    @Test
+    public void reusesSignatureWithinThread() throws Exception {
+        final byte[] first = this.engine.createSignature(MESSAGE, ecKeyPair.getPrivate(), SIGNATURE, PROVIDER);
+        assertTrue(this.engine.validateSignature(MESSAGE, first, ecKeyPair.getPublic(), SIGNATURE, PROVIDER));
+        final byte[] second = this.engine.createSignature(MESSAGE, ecKeyPair.getPrivate(), SIGNATURE, PROVIDER);
+        assertTrue(this.engine.validateSignature(MESSAGE, second, ecKeyPair.getPublic(), SIGNATURE, PROVIDER));
+
+        assertEquals(1, this.engine.signatureLookups.get());
+    }
+
+    @Test
+    public void looksUpSignatureForEachThread() throws Exception {
+        this.engine.createSignature(MESSAGE, ecKeyPair.getPrivate(), SIGNATURE, PROVIDER);
+
+        final byte[][] signed = new byte[1][];
+        final Thread thread = new Thread(() -> {
+            try {
+                signed[0] = this.engine.createSignature(MESSAGE, ecKeyPair.getPrivate(), SIGNATURE, PROVIDER);
+            } catch (final GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertEquals(2, this.engine.signatureLookups.get());
+        assertTrue(this.engine.validateSignature(MESSAGE, signed[0], ecKeyPair.getPublic(), SIGNATURE, PROVIDER));
+    }
+
+    @Test
+    public void reusesCipherAndDigestOfFallbackSignature() throws Exception {
+        final byte[] first = this.engine.createSignature(MESSAGE, rsaKeyPair.getPrivate(),
+                OslpUtils.FALLBACK_SIGNATURE, null);
+        final byte[] second = this.engine.createSignature(MESSAGE, rsaKeyPair.getPrivate(),
+                OslpUtils.FALLBACK_SIGNATURE, null);
+
+        assertTrue(this.engine.validateSignature(MESSAGE, first, rsaKeyPair.getPublic(),
+                OslpUtils.FALLBACK_SIGNATURE, null));
+        assertTrue(this.engine.validateSignature(MESSAGE, second, rsaKeyPair.getPublic(),
+                OslpUtils.FALLBACK_SIGNATURE, null));
+        assertEquals(1, this.engine.cipherLookups.get());
+        assertEquals(1, this.engine.digestLookups.get());
+        assertEquals(0, this.engine.signatureLookups.get());
+    }
+
+    @Test
+    public void validatesEcdsaSignatureTruncatedFromPaddedSecurityKey() throws Exception {
+        final byte[] signature = this.engine.createSignature(MESSAGE, ecKeyPair.getPrivate(), SIGNATURE, PROVIDER);
+
+        // The security key holds the ASN.1 signature followed by padding.
+        final byte[] securityKey = Arrays.copyOf(signature, OslpEnvelope.SECURITY_KEY_LENGTH);
+        Arrays.fill(securityKey, signature.length, securityKey.length, (byte) 0x5A);
+
+        assertTrue(this.engine.validateSignature(MESSAGE, securityKey, ecKeyPair.getPublic(), SIGNATURE, PROVIDER));
+        final byte[] otherMessage = "Other message".getBytes(StandardCharsets.US_ASCII);
+        assertFalse(this.engine.validateSignature(otherMessage, securityKey, ecKeyPair.getPublic(), SIGNATURE,
+                PROVIDER));
+    }
+
+    @Test
+    public void rejectsEcdsaSignatureLongerThanSecurityKey() throws Exception {
+        final byte[] signature = this.engine.createSignature(MESSAGE, ecKeyPair.getPrivate(), SIGNATURE, PROVIDER);
+        final byte[] securityKey = Arrays.copyOf(signature, 8);
+
+        try {
+            this.engine.validateSignature(MESSAGE, securityKey, ecKeyPair.getPublic(), SIGNATURE, PROVIDER);
+            fail("Expected a length indicator beyond the security key to be rejected");
+        } catch (final GeneralSecurityException e) {
+            assertTrue(e.getMessage().contains("Size indicator"));
+        }
+    }
+}
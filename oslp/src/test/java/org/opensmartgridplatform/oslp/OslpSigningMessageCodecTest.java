@@ -0,0 +1,239 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.oslp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.Serializable;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import org.junit.Test;
+
+import org.opensmartgridplatform.oslp.Oslp.Message;
+import org.opensmartgridplatform.shared.exceptionhandling.ComponentType;
+import org.opensmartgridplatform.shared.exceptionhandling.OsgpException;
+import org.opensmartgridplatform.shared.infra.jms.RequestMessage;
+import org.opensmartgridplatform.shared.infra.jms.ResponseMessage;
+import org.opensmartgridplatform.shared.infra.jms.ResponseMessageResultType;
+import org.opensmartgridplatform.shared.security.CertificateHelper;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Unittests for the binary format of the messages exchanged with the signing
+ * server.
+ */
+public class OslpSigningMessageCodecTest {
+
+    private static final String PRIVATE_KEY_BASE_64 = "MIGHAgEAMBMGByqGSM49AgEGCCqGSM49AwEHBG0wawIBAQQg8ydsIOMoTlBPn6rJezELYFLUUuQe"
+            + "3GvrhI3TDJj1yNyhRANCAAQ0UmJgxWImQ5wgepQ65nlsK0lvYb/GW6nx4ngLgncDZmWH3Pck8eC1"
+            + "xsKg1goWpvl7P1um4cIjKyBwfqf8FxZa";
+
+    private static final String PUBLIC_KEY_BASE_64 = "MFkwEwYHKoZIzj0CAQYIKoZIzj0DAQcDQgAENFJiYMViJkOcIHqUOuZ5bCtJb2G/xlup8eJ4C4J3"
+            + "A2Zlh9z3JPHgtcbCoNYKFqb5ez9bpuHCIysgcH6n/BcWWg==";
+
+    private static final String KEY_TYPE = "EC";
+    private static final String SIGNATURE = "SHA256withECDSA";
+    private static final String PROVIDER = "SunEC";
+
+    private static final byte[] DEVICE_ID = new byte[] { 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 };
+    private static final byte[] SEQUENCE_NUMBER = new byte[] { 0, 7 };
+
+    @Test
+    public void decodesEncodedRequestMessage() {
+        final UnsignedOslpEnvelopeDto dto = this.buildUnsignedOslpEnvelopeDto("correlation-1");
+        final RequestMessage requestMessage = new RequestMessage("correlation-1", "organisation", "device-1", dto);
+
+        final RequestMessage decoded = (RequestMessage) this.roundTrip(requestMessage);
+
+        assertEquals("correlation-1", decoded.getCorrelationUid());
+        assertEquals("organisation", decoded.getOrganisationIdentification());
+        assertEquals("device-1", decoded.getDeviceIdentification());
+        this.assertUnsignedOslpEnvelopeDto(dto, (UnsignedOslpEnvelopeDto) decoded.getRequest());
+    }
+
+    @Test
+    public void decodesEncodedFailedResponseMessage() {
+        final UnsignedOslpEnvelopeDto dto = this.buildUnsignedOslpEnvelopeDto("correlation-1");
+        final ResponseMessage responseMessage = ResponseMessage.newResponseMessageBuilder()
+                .withCorrelationUid("correlation-1").withOrganisationIdentification("organisation")
+                .withDeviceIdentification("device-1").withResult(ResponseMessageResultType.NOT_OK)
+                .withOsgpException(new OsgpException(ComponentType.UNKNOWN, "Failed to build signed OslpEnvelope",
+                        null))
+                .withDataObject(dto).withMessagePriority(6).build();
+
+        final ResponseMessage decoded = (ResponseMessage) this.roundTrip(responseMessage);
+
+        assertEquals("correlation-1", decoded.getCorrelationUid());
+        assertEquals(ResponseMessageResultType.NOT_OK, decoded.getResult());
+        assertEquals(6, decoded.getMessagePriority());
+        assertEquals("Failed to build signed OslpEnvelope", decoded.getOsgpException().getMessage());
+        assertEquals(ComponentType.UNKNOWN, decoded.getOsgpException().getComponentType());
+        this.assertUnsignedOslpEnvelopeDto(dto, (UnsignedOslpEnvelopeDto) decoded.getDataObject());
+    }
+
+    @Test
+    public void decodedSignedEnvelopeIsValid() throws GeneralSecurityException, IOException {
+        final ResponseMessage responseMessage = this.buildSignedResponseMessage("correlation-1");
+
+        final ResponseMessage decoded = (ResponseMessage) this.roundTrip(responseMessage);
+
+        assertEquals(ResponseMessageResultType.OK, decoded.getResult());
+        assertNull(decoded.getOsgpException());
+
+        final SignedOslpEnvelopeDto expected = (SignedOslpEnvelopeDto) responseMessage.getDataObject();
+        final SignedOslpEnvelopeDto actual = (SignedOslpEnvelopeDto) decoded.getDataObject();
+        final OslpEnvelope envelope = actual.getOslpEnvelope();
+        assertArrayEquals(expected.getOslpEnvelope().getSecurityKey(), envelope.getSecurityKey());
+        assertArrayEquals(SEQUENCE_NUMBER, envelope.getSequenceNumber());
+        assertArrayEquals(DEVICE_ID, envelope.getDeviceId());
+        assertEquals(expected.getOslpEnvelope().getPayloadMessage(), envelope.getPayloadMessage());
+        assertTrue(envelope.validate(CertificateHelper.createPublicKeyFromBase64(PUBLIC_KEY_BASE_64, KEY_TYPE,
+                PROVIDER)));
+        this.assertUnsignedOslpEnvelopeDto(expected.getUnsignedOslpEnvelopeDto(),
+                actual.getUnsignedOslpEnvelopeDto());
+    }
+
+    @Test
+    public void decodesEncodedBatches() throws GeneralSecurityException, IOException {
+        final SigningBatchRequest batchRequest = new SigningBatchRequest(Arrays.asList(
+                new RequestMessage("correlation-1", "organisation", "device-1",
+                        this.buildUnsignedOslpEnvelopeDto("correlation-1")),
+                new RequestMessage("correlation-2", "organisation", "device-2",
+                        this.buildUnsignedOslpEnvelopeDto("correlation-2"))));
+        final SigningBatchResponse batchResponse = new SigningBatchResponse(Arrays.asList(
+                this.buildSignedResponseMessage("correlation-1"), this.buildSignedResponseMessage("correlation-2")));
+
+        final SigningBatchRequest decodedRequest = (SigningBatchRequest) this.roundTrip(batchRequest);
+        final SigningBatchResponse decodedResponse = (SigningBatchResponse) this.roundTrip(batchResponse);
+
+        assertEquals(2, decodedRequest.size());
+        assertEquals("correlation-2", decodedRequest.getRequestMessages().get(1).getCorrelationUid());
+        assertEquals("device-2", decodedRequest.getRequestMessages().get(1).getDeviceIdentification());
+        assertEquals(2, decodedResponse.size());
+        assertEquals("correlation-2", decodedResponse.getResponseMessages().get(1).getCorrelationUid());
+    }
+
+    @Test
+    public void rejectsUnsupportedVersion() {
+        final byte[] bytes = OslpSigningMessageCodec.encode(new RequestMessage("correlation-1", "organisation",
+                "device-1", this.buildUnsignedOslpEnvelopeDto("correlation-1")));
+        bytes[0] = (byte) (OslpSigningMessageCodec.VERSION + 1);
+
+        try {
+            OslpSigningMessageCodec.decode(bytes);
+            fail("Expected unsupported version to be rejected");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("version"));
+        }
+    }
+
+    @Test
+    public void decodesExtraDataOfAllowedClasses() {
+        final ArrayList<Integer> extraData = new ArrayList<>(Arrays.asList(1, 2, 3));
+
+        final RequestMessage decoded = (RequestMessage) this.roundTrip(new RequestMessage("correlation-1",
+                "organisation", "device-1", this.buildUnsignedOslpEnvelopeDto("correlation-1", extraData)));
+
+        assertEquals(extraData, ((UnsignedOslpEnvelopeDto) decoded.getRequest()).getExtraData());
+    }
+
+    @Test
+    public void rejectsExtraDataOfClassWhichIsNotAllowed() {
+        this.assertExtraDataRejected(URI.create("http://localhost"));
+        this.assertExtraDataRejected(new PriorityQueue<>(Arrays.asList(1, 2)));
+    }
+
+    private void assertExtraDataRejected(final Serializable extraData) {
+        final byte[] bytes = OslpSigningMessageCodec.encode(new RequestMessage("correlation-1", "organisation",
+                "device-1", this.buildUnsignedOslpEnvelopeDto("correlation-1", extraData)));
+
+        try {
+            OslpSigningMessageCodec.decode(bytes);
+            fail("Expected extra data of " + extraData.getClass() + " to be rejected");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getCause() instanceof InvalidClassException);
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedMessage() {
+        final byte[] bytes = OslpSigningMessageCodec.encode(new RequestMessage("correlation-1", "organisation",
+                "device-1", this.buildUnsignedOslpEnvelopeDto("correlation-1")));
+
+        try {
+            OslpSigningMessageCodec.decode(Arrays.copyOf(bytes, bytes.length / 2));
+            fail("Expected truncated message to be rejected");
+        } catch (final IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    private Object roundTrip(final Serializable message) {
+        return OslpSigningMessageCodec.decode(OslpSigningMessageCodec.encode(message));
+    }
+
+    private void assertUnsignedOslpEnvelopeDto(final UnsignedOslpEnvelopeDto expected,
+            final UnsignedOslpEnvelopeDto actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertArrayEquals(expected.getSequenceNumber(), actual.getSequenceNumber());
+        assertArrayEquals(expected.getDeviceId(), actual.getDeviceId());
+        assertEquals(expected.getPayloadMessage(), actual.getPayloadMessage());
+        assertEquals(expected.getIpAddress(), actual.getIpAddress());
+        assertEquals(expected.getDomain(), actual.getDomain());
+        assertEquals(expected.getDomainVersion(), actual.getDomainVersion());
+        assertEquals(expected.getMessageType(), actual.getMessageType());
+        assertEquals(expected.getMessagePriority(), actual.getMessagePriority());
+        assertEquals(expected.getRetryCount(), actual.getRetryCount());
+        assertEquals(expected.isScheduled(), actual.isScheduled());
+        assertEquals(expected.getOrganisationIdentification(), actual.getOrganisationIdentification());
+        assertEquals(expected.getCorrelationUid(), actual.getCorrelationUid());
+        assertEquals(expected.getExtraData(), actual.getExtraData());
+    }
+
+    private ResponseMessage buildSignedResponseMessage(final String correlationUid)
+            throws GeneralSecurityException, IOException {
+        final UnsignedOslpEnvelopeDto dto = this.buildUnsignedOslpEnvelopeDto(correlationUid);
+        final OslpEnvelope envelope = new OslpEnvelope.Builder().withSignature(SIGNATURE).withProvider(PROVIDER)
+                .withPrimaryKey(CertificateHelper.createPrivateKeyFromBase64(PRIVATE_KEY_BASE_64, KEY_TYPE, PROVIDER))
+                .withDeviceId(DEVICE_ID).withSequenceNumber(SEQUENCE_NUMBER)
+                .withPayloadMessage(dto.getPayloadMessage()).build();
+
+        return ResponseMessage.newResponseMessageBuilder().withCorrelationUid(correlationUid)
+                .withOrganisationIdentification("organisation").withDeviceIdentification("device-1")
+                .withResult(ResponseMessageResultType.OK).withDataObject(new SignedOslpEnvelopeDto(envelope, dto))
+                .withMessagePriority(4).build();
+    }
+
+    private UnsignedOslpEnvelopeDto buildUnsignedOslpEnvelopeDto(final String correlationUid) {
+        return this.buildUnsignedOslpEnvelopeDto(correlationUid, "extra data");
+    }
+
+    private UnsignedOslpEnvelopeDto buildUnsignedOslpEnvelopeDto(final String correlationUid,
+            final Serializable extraData) {
+        final Message message = Message.newBuilder()
+                .setSetLightRequest(Oslp.SetLightRequest.newBuilder()
+                        .addValues(Oslp.LightValue.newBuilder().setIndex(ByteString.copyFrom(new byte[] { 1 }))
+                                .setOn(true).build())
+                        .build())
+                .build();
+
+        return new UnsignedOslpEnvelopeDto(SEQUENCE_NUMBER, DEVICE_ID, message, "127.0.0.1", "PUBLIC_LIGHTING",
+                "1.0", "SET_LIGHT", 4, 1, false, "organisation", correlationUid, extraData);
+    }
+}
@@ -22,6 +22,9 @@ import org.springframework.context.annotation.PropertySources;
 import org.opensmartgridplatform.shared.application.config.AbstractConfig;
 import org.opensmartgridplatform.shared.exceptionhandling.EncrypterException;
 import org.opensmartgridplatform.shared.security.CertificateHelper;
+import org.opensmartgridplatform.signing.server.application.services.SigningMetricsLogger;
+import org.opensmartgridplatform.signing.server.application.services.SigningService;
+import org.opensmartgridplatform.signing.server.application.services.SigningWorkerPool;
 import org.opensmartgridplatform.signing.server.domain.exceptions.SigningServerException;
 
 /**
@@ -40,6 +43,9 @@ public class ApplicationContext extends AbstractConfig {
     private static final String PROPERTY_NAME_SIGNING_SERVER_SECURITY_KEYTYPE = "signing.server.security.keytype";
     private static final String PROPERTY_NAME_SIGNING_SERVER_SECURITY_SIGNATURE = "signing.server.security.signature";
     private static final String PROPERTY_NAME_SIGNING_SERVER_SECURITY_PROVIDER = "signing.server.security.provider";
+    private static final String PROPERTY_NAME_SIGNING_SERVER_WORKER_THREADS = "signing.server.worker.threads";
+    private static final String PROPERTY_NAME_SIGNING_SERVER_WORKER_QUEUE_CAPACITY = "signing.server.worker.queue.capacity";
+    private static final String PROPERTY_NAME_SIGNING_SERVER_METRICS_LOG_INTERVAL = "signing.server.metrics.log.interval";
 
     @Bean
     @Qualifier("signingServerPrivateKey")
@@ -73,4 +79,30 @@ public class ApplicationContext extends AbstractConfig {
     public String signature() {
         return this.environment.getRequiredProperty(PROPERTY_NAME_SIGNING_SERVER_SECURITY_SIGNATURE);
     }
+
+    /**
+     * Workers signing the messages, one per core when 0 threads are
+     * configured.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public SigningWorkerPool signingWorkerPool() {
+        int threads = Integer
+                .parseInt(this.environment.getRequiredProperty(PROPERTY_NAME_SIGNING_SERVER_WORKER_THREADS));
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        final int queueCapacity = Integer
+                .parseInt(this.environment.getRequiredProperty(PROPERTY_NAME_SIGNING_SERVER_WORKER_QUEUE_CAPACITY));
+
+        LOGGER.info("Signing messages on {} threads, queueing at most {} messages per priority", threads,
+                queueCapacity);
+
+        return new SigningWorkerPool(threads, queueCapacity);
+    }
+
+    @Bean(destroyMethod = "stop")
+    public SigningMetricsLogger signingMetricsLogger(final SigningService signingService) {
+        return new SigningMetricsLogger(signingService, this.signingWorkerPool(), Long.parseLong(
+                this.environment.getRequiredProperty(PROPERTY_NAME_SIGNING_SERVER_METRICS_LOG_INTERVAL)));
+    }
 }
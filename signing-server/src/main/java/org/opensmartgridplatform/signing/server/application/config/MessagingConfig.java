@@ -10,6 +10,7 @@ package org.opensmartgridplatform.signing.server.application.config;
 import javax.annotation.Resource;
 import javax.jms.MessageListener;
 
+import org.apache.activemq.ActiveMQSession;
 import org.apache.activemq.RedeliveryPolicy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -82,10 +83,19 @@ public class MessagingConfig extends AbstractMessagingConfig {
                 this.requestsMessageListener);
     }
 
+    /**
+     * The listener acknowledges each request itself once its response has
+     * been sent, from the thread of the signing worker. Individual
+     * acknowledgement leaves the other messages of the session unacknowledged.
+     */
     @Bean("signingServerRequestsMessageListenerContainer")
     public DefaultMessageListenerContainer incomingSigningServerRequestsMessageListenerContainer(
             final JmsConfiguration incomingSigningServerRequestsJmsConfiguration) {
-        return incomingSigningServerRequestsJmsConfiguration.getMessageListenerContainer();
+        final DefaultMessageListenerContainer messageListenerContainer = incomingSigningServerRequestsJmsConfiguration
+                .getMessageListenerContainer();
+        messageListenerContainer.setSessionTransacted(false);
+        messageListenerContainer.setSessionAcknowledgeMode(ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE);
+        return messageListenerContainer;
     }
 
     // === JMS SETTINGS: SIGNING SERVER RESPONSES ===
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.signing.server.application.services;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Logs the counters of the {@link SigningService} and the
+ * {@link SigningWorkerPool} at a fixed interval.
+ */
+public class SigningMetricsLogger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SigningMetricsLogger.class);
+
+    private final SigningService signingService;
+
+    private final SigningWorkerPool signingWorkerPool;
+
+    private final ScheduledExecutorService logExecutor;
+
+    /**
+     * @param interval
+     *            time in milliseconds between the log lines, 0 disables
+     *            logging.
+     */
+    public SigningMetricsLogger(final SigningService signingService, final SigningWorkerPool signingWorkerPool,
+            final long interval) {
+        this.signingService = signingService;
+        this.signingWorkerPool = signingWorkerPool;
+
+        if (interval <= 0) {
+            this.logExecutor = null;
+            return;
+        }
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("signing-metrics-");
+        threadFactory.setDaemon(true);
+        this.logExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.logExecutor.scheduleWithFixedDelay(this::log, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void log() {
+        LOGGER.info("Signing requests: {}, signed envelopes: {}, failed envelopes: {}, envelopes per request: {}",
+                this.signingService.getRequestMessageCount(), this.signingService.getSignedEnvelopeCount(),
+                this.signingService.getFailedEnvelopeCount(), this.signingService.getBatchSizeHistogram());
+
+        for (int priority = SigningWorkerPool.PRIORITIES - 1; priority >= 0; priority--) {
+            if (this.signingWorkerPool.getSubmittedCount(priority) == 0) {
+                continue;
+            }
+            LOGGER.info("Priority {}: submitted: {}, completed: {}, queued: {}, queue latency (us): {}", priority,
+                    this.signingWorkerPool.getSubmittedCount(priority),
+                    this.signingWorkerPool.getCompletedCount(priority), this.signingWorkerPool.getQueueSize(priority),
+                    this.signingWorkerPool.getQueueLatencyHistogram(priority));
+        }
+    }
+
+    public void stop() {
+        if (this.logExecutor != null) {
+            this.logExecutor.shutdownNow();
+        }
+    }
+}
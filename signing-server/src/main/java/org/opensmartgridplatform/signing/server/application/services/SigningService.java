@@ -8,6 +8,12 @@
 package org.opensmartgridplatform.signing.server.application.services;
 
 import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import javax.annotation.Resource;
 import javax.jms.Destination;
@@ -20,10 +26,14 @@ import org.springframework.stereotype.Service;
 
 import org.opensmartgridplatform.oslp.Oslp.Message;
 import org.opensmartgridplatform.oslp.OslpEnvelope;
+import org.opensmartgridplatform.oslp.OslpHistogram;
 import org.opensmartgridplatform.oslp.SignedOslpEnvelopeDto;
+import org.opensmartgridplatform.oslp.SigningBatchRequest;
+import org.opensmartgridplatform.oslp.SigningBatchResponse;
 import org.opensmartgridplatform.oslp.UnsignedOslpEnvelopeDto;
 import org.opensmartgridplatform.shared.exceptionhandling.ComponentType;
 import org.opensmartgridplatform.shared.exceptionhandling.OsgpException;
+import org.opensmartgridplatform.shared.infra.jms.RequestMessage;
 import org.opensmartgridplatform.shared.infra.jms.ResponseMessage;
 import org.opensmartgridplatform.shared.infra.jms.ResponseMessageResultType;
 import org.opensmartgridplatform.signing.server.infra.messaging.SigningServerResponseMessageSender;
@@ -49,28 +59,141 @@ public class SigningService {
     @Autowired
     private SigningServerResponseMessageSender signingServerResponseMessageSender;
 
-    public void sign(final UnsignedOslpEnvelopeDto unsignedOslpEnvelopeDto, final String correlationUid,
-            final String deviceIdentification, final Destination replyToQueue) {
+    @Autowired
+    private SigningWorkerPool signingWorkerPool;
+
+    private final AtomicLong requestMessageCount = new AtomicLong();
+    private final AtomicLong signedEnvelopeCount = new AtomicLong();
+    private final AtomicLong failedEnvelopeCount = new AtomicLong();
+
+    private final OslpHistogram batchSizeHistogram = new OslpHistogram(1, 2, 4, 8, 16, 32, 64, 128, 256, 512);
+
+    /**
+     * Queues the message for signing with the given JMS priority. The
+     * response is sent to the reply-to queue by a worker of the
+     * {@link SigningWorkerPool}, as a BytesMessage when bytesMessage is
+     * true, and as an ObjectMessage otherwise.
+     *
+     * @return a future completed when the response has been sent, or
+     *         completed exceptionally when the message could not be signed or
+     *         the response could not be sent.
+     */
+    public CompletableFuture<Void> sign(final UnsignedOslpEnvelopeDto unsignedOslpEnvelopeDto,
+            final String correlationUid, final String deviceIdentification, final Destination replyToQueue,
+            final int messagePriority, final boolean bytesMessage) {
 
         // Check the basics.
         if (unsignedOslpEnvelopeDto == null) {
             LOGGER.error("UnsignedOslpEnvelopeDto instance is null, unable to sign message");
-            return;
+            return CompletableFuture.completedFuture(null);
         }
         if (replyToQueue == null) {
             LOGGER.error("Destination replyToQueue is null, unable to send response to protocol-adapter");
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         LOGGER.info("Received message to sign for device: {} with correlationId: {}", deviceIdentification,
                 correlationUid);
 
         // Sign the message.
-        this.doSignMessage(unsignedOslpEnvelopeDto, correlationUid, deviceIdentification, replyToQueue);
+        return this.doSignMessage(unsignedOslpEnvelopeDto, correlationUid, deviceIdentification, replyToQueue,
+                messagePriority, bytesMessage);
+    }
+
+    /**
+     * Signs the envelopes of the batch in parallel on the
+     * {@link SigningWorkerPool}, with the JMS priority of the batch. Their
+     * responses are sent to the reply-to queue in a single message, when the
+     * last envelope has been signed. Each response has the correlation UID of
+     * its request. The responses are sent in the format of the request.
+     *
+     * A request which is not an {@link UnsignedOslpEnvelopeDto}, or which
+     * could not be signed, gets a NOT_OK response, so the batch response is
+     * always sent.
+     *
+     * @return a future completed when the batch response has been sent, or
+     *         completed exceptionally when it could not be sent.
+     */
+    public CompletableFuture<Void> signBatch(final SigningBatchRequest signingBatchRequest,
+            final int messagePriority, final Destination replyToQueue, final boolean bytesMessage) {
+
+        if (replyToQueue == null) {
+            LOGGER.error("Destination replyToQueue is null, unable to send response to protocol-adapter");
+            return CompletableFuture.completedFuture(null);
+        }
+
+        LOGGER.info("Received batch of {} messages to sign", signingBatchRequest.size());
+        this.requestMessageCount.incrementAndGet();
+        this.batchSizeHistogram.record(signingBatchRequest.size());
+
+        final List<CompletableFuture<ResponseMessage>> responseMessages = new ArrayList<>();
+        for (final RequestMessage requestMessage : signingBatchRequest.getRequestMessages()) {
+            responseMessages.add(this.submit(requestMessage, messagePriority)
+                    .handle((responseMessage, e) -> e == null ? responseMessage
+                            : this.notSigned(requestMessage, messagePriority, e)));
+        }
+
+        return CompletableFuture
+                .allOf(responseMessages.toArray(new CompletableFuture<?>[responseMessages.size()]))
+                .thenRun(() -> this.signingServerResponseMessageSender.sendBatch(
+                        new SigningBatchResponse(responseMessages.stream().map(CompletableFuture::join)
+                                .collect(Collectors.toList())),
+                        messagePriority, replyToQueue, bytesMessage));
+    }
+
+    /**
+     * @return a future completed with the response of the request of a
+     *         batch, or completed exceptionally when it can't be signed.
+     */
+    private CompletableFuture<ResponseMessage> submit(final RequestMessage requestMessage,
+            final int messagePriority) {
+        final CompletableFuture<ResponseMessage> responseMessage = new CompletableFuture<>();
+        if (!(requestMessage.getRequest() instanceof UnsignedOslpEnvelopeDto)) {
+            responseMessage.completeExceptionally(new IllegalArgumentException(
+                    "No UnsignedOslpEnvelopeDto for correlationId: " + requestMessage.getCorrelationUid()));
+            return responseMessage;
+        }
+
+        try {
+            return this.signingWorkerPool.submit(messagePriority,
+                    () -> this.signMessage((UnsignedOslpEnvelopeDto) requestMessage.getRequest(),
+                            requestMessage.getCorrelationUid(), requestMessage.getDeviceIdentification()));
+        } catch (final RejectedExecutionException e) {
+            responseMessage.completeExceptionally(e);
+            return responseMessage;
+        }
     }
 
-    private void doSignMessage(final UnsignedOslpEnvelopeDto unsignedOslpEnvelopeDto, final String correlationUid,
-            final String deviceIdentification, final Destination replyToQueue) {
+    private ResponseMessage notSigned(final RequestMessage requestMessage, final int messagePriority,
+            final Throwable cause) {
+        LOGGER.error("Message for device: {} with correlationId: {} NOT SIGNED, sending error to protocol-adapter",
+                requestMessage.getDeviceIdentification(), requestMessage.getCorrelationUid(), cause);
+        this.failedEnvelopeCount.incrementAndGet();
+
+        return ResponseMessage.newResponseMessageBuilder().withCorrelationUid(requestMessage.getCorrelationUid())
+                .withOrganisationIdentification(requestMessage.getOrganisationIdentification())
+                .withDeviceIdentification(requestMessage.getDeviceIdentification())
+                .withResult(ResponseMessageResultType.NOT_OK)
+                .withOsgpException(new OsgpException(ComponentType.UNKNOWN, "Failed to sign OslpEnvelope", null))
+                .withDataObject(requestMessage.getRequest()).withMessagePriority(messagePriority).build();
+    }
+
+    private CompletableFuture<Void> doSignMessage(final UnsignedOslpEnvelopeDto unsignedOslpEnvelopeDto,
+            final String correlationUid, final String deviceIdentification, final Destination replyToQueue,
+            final int messagePriority, final boolean bytesMessage) {
+
+        this.requestMessageCount.incrementAndGet();
+        this.batchSizeHistogram.record(1);
+
+        return this.signingWorkerPool
+                .submit(messagePriority,
+                        () -> this.signMessage(unsignedOslpEnvelopeDto, correlationUid, deviceIdentification))
+                .thenAccept(responseMessage -> this.signingServerResponseMessageSender.send(responseMessage,
+                        "SIGNING_RESPONSE", replyToQueue, bytesMessage));
+    }
+
+    private ResponseMessage signMessage(final UnsignedOslpEnvelopeDto unsignedOslpEnvelopeDto,
+            final String correlationUid, final String deviceIdentification) {
 
         final byte[] deviceId = unsignedOslpEnvelopeDto.getDeviceId();
         final byte[] sequenceNumber = unsignedOslpEnvelopeDto.getSequenceNumber();
@@ -78,36 +201,63 @@ public class SigningService {
         final String organisationIdentification = unsignedOslpEnvelopeDto.getOrganisationIdentification();
         final int messagePriority = unsignedOslpEnvelopeDto.getMessagePriority();
 
-        final OslpEnvelope oslpEnvelope = new OslpEnvelope.Builder().withDeviceId(deviceId)
-                .withSequenceNumber(sequenceNumber).withPrimaryKey(this.privateKey).withSignature(this.signature)
-                .withProvider(this.signatureProvider).withPayloadMessage(payloadMessage).build();
-
-        ResponseMessage responseMessage;
+        OslpEnvelope oslpEnvelope;
+        try {
+            oslpEnvelope = new OslpEnvelope.Builder().withDeviceId(deviceId).withSequenceNumber(sequenceNumber)
+                    .withPrimaryKey(this.privateKey).withSignature(this.signature)
+                    .withProvider(this.signatureProvider).withPayloadMessage(payloadMessage).build();
+        } catch (final IllegalArgumentException e) {
+            LOGGER.error("Unable to build signed OslpEnvelope for device: {} with correlationId: {}",
+                    deviceIdentification, correlationUid, e);
+            oslpEnvelope = null;
+        }
 
         if (oslpEnvelope == null) {
             LOGGER.error("Message for device: {} with correlationId: {} NOT SIGNED, sending error to protocol-adapter",
                     deviceIdentification, correlationUid);
+            this.failedEnvelopeCount.incrementAndGet();
 
-            responseMessage = ResponseMessage.newResponseMessageBuilder().withCorrelationUid(correlationUid)
+            return ResponseMessage.newResponseMessageBuilder().withCorrelationUid(correlationUid)
                     .withOrganisationIdentification(organisationIdentification)
                     .withDeviceIdentification(deviceIdentification).withResult(ResponseMessageResultType.NOT_OK)
                     .withOsgpException(
                             new OsgpException(ComponentType.UNKNOWN, "Failed to build signed OslpEnvelope", null))
                     .withDataObject(unsignedOslpEnvelopeDto).withMessagePriority(messagePriority).build();
+        }
 
-        } else {
-            LOGGER.info("Message for device: {} with correlationId: {} signed, sending response to protocol-adapter",
-                    deviceIdentification, correlationUid);
+        LOGGER.info("Message for device: {} with correlationId: {} signed, sending response to protocol-adapter",
+                deviceIdentification, correlationUid);
+        this.signedEnvelopeCount.incrementAndGet();
 
-            final SignedOslpEnvelopeDto signedOslpEnvelopeDto = new SignedOslpEnvelopeDto(oslpEnvelope,
-                    unsignedOslpEnvelopeDto);
+        final SignedOslpEnvelopeDto signedOslpEnvelopeDto = new SignedOslpEnvelopeDto(oslpEnvelope,
+                unsignedOslpEnvelopeDto);
 
-            responseMessage = ResponseMessage.newResponseMessageBuilder().withCorrelationUid(correlationUid)
-                    .withOrganisationIdentification(organisationIdentification)
-                    .withDeviceIdentification(deviceIdentification).withResult(ResponseMessageResultType.OK)
-                    .withDataObject(signedOslpEnvelopeDto).withMessagePriority(messagePriority).build();
-        }
+        return ResponseMessage.newResponseMessageBuilder().withCorrelationUid(correlationUid)
+                .withOrganisationIdentification(organisationIdentification)
+                .withDeviceIdentification(deviceIdentification).withResult(ResponseMessageResultType.OK)
+                .withDataObject(signedOslpEnvelopeDto).withMessagePriority(messagePriority).build();
+    }
+
+    /**
+     * @return the number of request messages received, a batch counting as
+     *         one message.
+     */
+    public long getRequestMessageCount() {
+        return this.requestMessageCount.get();
+    }
+
+    public long getSignedEnvelopeCount() {
+        return this.signedEnvelopeCount.get();
+    }
+
+    public long getFailedEnvelopeCount() {
+        return this.failedEnvelopeCount.get();
+    }
 
-        this.signingServerResponseMessageSender.send(responseMessage, "SIGNING_RESPONSE", replyToQueue);
+    /**
+     * @return histogram of the number of envelopes per request message.
+     */
+    public OslpHistogram getBatchSizeHistogram() {
+        return this.batchSizeHistogram;
     }
 }
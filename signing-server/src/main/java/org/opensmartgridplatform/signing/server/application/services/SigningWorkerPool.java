@@ -0,0 +1,237 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.signing.server.application.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import org.opensmartgridplatform.oslp.OslpHistogram;
+
+/**
+ * Signs messages on a fixed number of worker threads, so the number of
+ * signatures computed at the same time does not depend on the number of JMS
+ * consumers, and the envelopes of a batch are signed in parallel.
+ *
+ * There is a bounded queue for each JMS priority. Workers always take the
+ * oldest task of the highest priority, so high priority requests overtake
+ * bulk requests. Submitting to a full queue blocks the submitting JMS consumer,
+ * which pauses consumption until the workers have caught up.
+ *
+ * The number of completed tasks and the time in microseconds tasks waited in
+ * their queue are recorded per priority.
+ */
+public class SigningWorkerPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SigningWorkerPool.class);
+
+    /**
+     * Number of JMS priorities, 0 being the lowest and 9 the highest.
+     */
+    public static final int PRIORITIES = 10;
+
+    private static final long[] QUEUE_LATENCY_BUCKETS_MICROS = { 100, 250, 500, 1000, 2500, 5000, 10000, 25000,
+            50000, 100000, 250000, 1000000 };
+
+    private final List<Queue<Task<?>>> queues = new ArrayList<>(PRIORITIES);
+
+    /**
+     * Free places in the queue of each priority.
+     */
+    private final List<Semaphore> capacities = new ArrayList<>(PRIORITIES);
+
+    /**
+     * Number of tasks in all queues.
+     */
+    private final Semaphore queuedTasks = new Semaphore(0);
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    private final AtomicLong[] submittedCounts = new AtomicLong[PRIORITIES];
+    private final AtomicLong[] completedCounts = new AtomicLong[PRIORITIES];
+    private final OslpHistogram[] queueLatencyHistograms = new OslpHistogram[PRIORITIES];
+
+    private volatile boolean running = true;
+
+    /**
+     * @param threads
+     *            number of worker threads
+     * @param queueCapacity
+     *            maximum number of waiting tasks of each priority
+     */
+    public SigningWorkerPool(final int threads, final int queueCapacity) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1");
+        }
+
+        for (int priority = 0; priority < PRIORITIES; priority++) {
+            this.queues.add(new ConcurrentLinkedQueue<>());
+            this.capacities.add(new Semaphore(queueCapacity));
+            this.submittedCounts[priority] = new AtomicLong();
+            this.completedCounts[priority] = new AtomicLong();
+            this.queueLatencyHistograms[priority] = new OslpHistogram(QUEUE_LATENCY_BUCKETS_MICROS);
+        }
+
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("signing-worker-");
+        threadFactory.setDaemon(true);
+        for (int i = 0; i < threads; i++) {
+            final Thread worker = threadFactory.newThread(this::work);
+            this.workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues the task with the given JMS priority, waiting for a free place
+     * in the queue of the priority.
+     *
+     * @return a future completed with the result of the task.
+     * @throws RejectedExecutionException
+     *             when the pool has been shut down, or the waiting thread is
+     *             interrupted.
+     */
+    public <T> CompletableFuture<T> submit(final int messagePriority, final Supplier<T> task) {
+        final int priority = Math.max(0, Math.min(PRIORITIES - 1, messagePriority));
+        if (!this.running) {
+            throw new RejectedExecutionException("Signing worker pool has been shut down");
+        }
+
+        try {
+            this.capacities.get(priority).acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted waiting for a free place in the queue", e);
+        }
+
+        final Task<T> queuedTask = new Task<>(priority, task);
+        this.queues.get(priority).add(queuedTask);
+        this.submittedCounts[priority].incrementAndGet();
+        this.queuedTasks.release();
+
+        if (!this.running && this.queues.get(priority).remove(queuedTask)) {
+            this.capacities.get(priority).release();
+            queuedTask.result
+                    .completeExceptionally(new RejectedExecutionException("Signing worker pool has been shut down"));
+        }
+        return queuedTask.result;
+    }
+
+    /**
+     * Stops the workers after the queued tasks have been run.
+     */
+    public void shutdown() {
+        this.running = false;
+        // Wake each worker, so it can see the pool is shut down once the
+        // queues are empty.
+        this.queuedTasks.release(this.workers.size());
+        for (final Thread worker : this.workers) {
+            try {
+                worker.join(TimeUnit.MINUTES.toMillis(1));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void work() {
+        while (true) {
+            try {
+                this.queuedTasks.acquire();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            final Task<?> task = this.poll();
+            if (task == null) {
+                if (!this.running) {
+                    return;
+                }
+                continue;
+            }
+            this.run(task);
+        }
+    }
+
+    private Task<?> poll() {
+        for (int priority = PRIORITIES - 1; priority >= 0; priority--) {
+            final Task<?> task = this.queues.get(priority).poll();
+            if (task != null) {
+                this.capacities.get(priority).release();
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private <T> void run(final Task<T> task) {
+        this.queueLatencyHistograms[task.priority]
+                .record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - task.submittedNanos));
+        try {
+            task.result.complete(task.supplier.get());
+        } catch (final RuntimeException e) {
+            LOGGER.error("Signing task with priority {} failed", task.priority, e);
+            task.result.completeExceptionally(e);
+        }
+        this.completedCounts[task.priority].incrementAndGet();
+    }
+
+    public int getThreads() {
+        return this.workers.size();
+    }
+
+    /**
+     * @return the number of tasks waiting in the queue of the priority.
+     */
+    public int getQueueSize(final int priority) {
+        return this.queues.get(priority).size();
+    }
+
+    public long getSubmittedCount(final int priority) {
+        return this.submittedCounts[priority].get();
+    }
+
+    public long getCompletedCount(final int priority) {
+        return this.completedCounts[priority].get();
+    }
+
+    /**
+     * @return histogram of the microseconds tasks of the priority waited in
+     *         their queue.
+     */
+    public OslpHistogram getQueueLatencyHistogram(final int priority) {
+        return this.queueLatencyHistograms[priority];
+    }
+
+    private static class Task<T> {
+        private final int priority;
+        private final Supplier<T> supplier;
+        private final long submittedNanos = System.nanoTime();
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Task(final int priority, final Supplier<T> supplier) {
+            this.priority = priority;
+            this.supplier = supplier;
+        }
+    }
+}
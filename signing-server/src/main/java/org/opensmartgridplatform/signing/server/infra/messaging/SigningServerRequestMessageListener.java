@@ -7,6 +7,10 @@
  */
 package org.opensmartgridplatform.signing.server.infra.messaging;
 
+import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+
+import javax.jms.BytesMessage;
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Message;
@@ -19,11 +23,21 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import org.opensmartgridplatform.oslp.OslpSigningMessageCodec;
+import org.opensmartgridplatform.oslp.SigningBatchRequest;
 import org.opensmartgridplatform.oslp.UnsignedOslpEnvelopeDto;
 import org.opensmartgridplatform.shared.infra.jms.Constants;
 import org.opensmartgridplatform.shared.infra.jms.RequestMessage;
 import org.opensmartgridplatform.signing.server.application.services.SigningService;
 
+/**
+ * Receives the signing requests of the protocol adapter. The listener does not
+ * wait for the {@link SigningService}, so a few consumers keep the signing
+ * workers busy. The message is acknowledged individually when its response
+ * has been sent. A message of which the response could not be sent is not
+ * acknowledged, and is redelivered when the session of the consumer is
+ * closed.
+ */
 @Component(value = "signingServerRequestsMessageListener")
 public class SigningServerRequestMessageListener implements MessageListener {
 
@@ -35,18 +49,43 @@ public class SigningServerRequestMessageListener implements MessageListener {
 
     @Override
     public void onMessage(final Message message) {
+        this.handle(message).whenComplete((result, e) -> {
+            if (e == null) {
+                acknowledge(message);
+            } else {
+                LOGGER.error("Unable to send response, not acknowledging the message", e);
+            }
+        });
+    }
+
+    /**
+     * @return a future completed when the response to the message has been
+     *         sent, or when the message has been rejected.
+     */
+    private CompletableFuture<Void> handle(final Message message) {
         try {
-            final ObjectMessage objectMessage = (ObjectMessage) message;
-            final Destination replyToQueue = objectMessage.getJMSReplyTo();
-            final int messagePriority = objectMessage.getJMSPriority();
-            final RequestMessage requestMessage = (RequestMessage) objectMessage.getObject();
+            final Destination replyToQueue = message.getJMSReplyTo();
+            final int messagePriority = message.getJMSPriority();
+            // Responses are sent in the format of the request.
+            final boolean bytesMessage = message instanceof BytesMessage;
+            final Serializable object = getObject(message);
+
+            if (SigningBatchRequest.MESSAGE_TYPE.equals(message.getJMSType())) {
+                final SigningBatchRequest signingBatchRequest = (SigningBatchRequest) object;
+                LOGGER.info("Received batch of {} messages with replyToQueue: {}", signingBatchRequest.size(),
+                        replyToQueue);
+                return this.signingService.signBatch(signingBatchRequest, messagePriority, replyToQueue,
+                        bytesMessage);
+            }
+
+            final RequestMessage requestMessage = (RequestMessage) object;
             final UnsignedOslpEnvelopeDto unsignedOslpEnvelopeDto = (UnsignedOslpEnvelopeDto) requestMessage
                     .getRequest();
-            final String correlationUid = objectMessage.getJMSCorrelationID();
-            final String deviceIdentification = objectMessage.getStringProperty(Constants.DEVICE_IDENTIFICATION);
+            final String correlationUid = message.getJMSCorrelationID();
+            final String deviceIdentification = message.getStringProperty(Constants.DEVICE_IDENTIFICATION);
 
             LOGGER.info("Received message of type: {}, for device: {} with correlationId: {} and replyToQueue: {}",
-                    objectMessage.getJMSType(), deviceIdentification, correlationUid, replyToQueue.toString());
+                    message.getJMSType(), deviceIdentification, correlationUid, replyToQueue.toString());
 
             LOGGER.debug("-----------------------------------------------------------------------------");
             LOGGER.debug("messagePriority: {}", messagePriority);
@@ -69,10 +108,36 @@ public class SigningServerRequestMessageListener implements MessageListener {
             LOGGER.debug("unsignedOslpEnvelopeDto.isScheduled() : {}", unsignedOslpEnvelopeDto.isScheduled());
             LOGGER.debug("-----------------------------------------------------------------------------");
 
-            this.signingService.sign(unsignedOslpEnvelopeDto, correlationUid, deviceIdentification, replyToQueue);
+            return this.signingService.sign(unsignedOslpEnvelopeDto, correlationUid, deviceIdentification,
+                    replyToQueue, messagePriority, bytesMessage);
 
         } catch (final JMSException ex) {
             LOGGER.error("Exception: {} ", ex.getMessage(), ex);
+        } catch (final IllegalArgumentException ex) {
+            LOGGER.error("Unable to decode message: {} ", ex.getMessage(), ex);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private static void acknowledge(final Message message) {
+        try {
+            message.acknowledge();
+        } catch (final JMSException ex) {
+            LOGGER.error("Unable to acknowledge message: {} ", ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * @return the object of an ObjectMessage, or the message decoded from the
+     *         body of a BytesMessage.
+     */
+    private static Serializable getObject(final Message message) throws JMSException {
+        if (message instanceof BytesMessage) {
+            final BytesMessage bytesMessage = (BytesMessage) message;
+            final byte[] bytes = new byte[(int) bytesMessage.getBodyLength()];
+            bytesMessage.readBytes(bytes);
+            return OslpSigningMessageCodec.decode(bytes);
         }
+        return ((ObjectMessage) message).getObject();
     }
 }
@@ -7,10 +7,14 @@
  */
 package org.opensmartgridplatform.signing.server.infra.messaging;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.BytesMessage;
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Message;
-import javax.jms.ObjectMessage;
 import javax.jms.Session;
 
 import org.apache.commons.lang3.StringUtils;
@@ -20,6 +24,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jms.core.JmsTemplate;
 import org.springframework.jms.core.MessageCreator;
 
+import org.opensmartgridplatform.oslp.OslpSigningMessageCodec;
+import org.opensmartgridplatform.oslp.SigningBatchResponse;
 import org.opensmartgridplatform.shared.infra.jms.Constants;
 import org.opensmartgridplatform.shared.infra.jms.ResponseMessage;
 
@@ -30,14 +36,58 @@ public class SigningServerResponseMessageSender {
     @Autowired
     private JmsTemplate responsesJmsTemplate;
 
-    public void send(final ResponseMessage responseMessage, final String messageType, final Destination replyToQueue) {
+    /**
+     * @param bytesMessage
+     *            true to send a BytesMessage in the format of the
+     *            {@link OslpSigningMessageCodec}, false to send an
+     *            ObjectMessage.
+     */
+    public void send(final ResponseMessage responseMessage, final String messageType, final Destination replyToQueue,
+            final boolean bytesMessage) {
 
         if (!this.checkMessage(responseMessage)) {
             LOGGER.error("Response message failed check, not sending response.");
             return;
         }
 
-        this.sendMessage(responseMessage, messageType, replyToQueue);
+        this.sendMessage(responseMessage, messageType, replyToQueue, bytesMessage);
+    }
+
+    /**
+     * Sends the responses of a batch in a single message. Responses failing
+     * the check are left out.
+     *
+     * @param bytesMessage
+     *            true to send a BytesMessage in the format of the
+     *            {@link OslpSigningMessageCodec}, false to send an
+     *            ObjectMessage.
+     */
+    public void sendBatch(final SigningBatchResponse signingBatchResponse, final int messagePriority,
+            final Destination replyToQueue, final boolean bytesMessage) {
+
+        final List<ResponseMessage> responseMessages = new ArrayList<>(signingBatchResponse.size());
+        for (final ResponseMessage responseMessage : signingBatchResponse.getResponseMessages()) {
+            if (this.checkMessage(responseMessage)) {
+                responseMessages.add(responseMessage);
+            } else {
+                LOGGER.error("Response message with correlationId: {} failed check, not sending response.",
+                        responseMessage.getCorrelationUid());
+            }
+        }
+        if (responseMessages.isEmpty()) {
+            return;
+        }
+
+        final SigningBatchResponse checkedBatchResponse = new SigningBatchResponse(responseMessages);
+        this.responsesJmsTemplate.send(replyToQueue, new MessageCreator() {
+            @Override
+            public Message createMessage(final Session session) throws JMSException {
+                final Message jmsMessage = createMessage(session, checkedBatchResponse, bytesMessage);
+                jmsMessage.setJMSType(SigningBatchResponse.MESSAGE_TYPE);
+                jmsMessage.setJMSPriority(messagePriority);
+                return jmsMessage;
+            }
+        });
     }
 
     private boolean checkMessage(final ResponseMessage msg) {
@@ -62,25 +112,35 @@ public class SigningServerResponseMessageSender {
     }
 
     private void sendMessage(final ResponseMessage responseMessage, final String messageType,
-            final Destination replyToQueue) {
+            final Destination replyToQueue, final boolean bytesMessage) {
 
         this.responsesJmsTemplate.send(replyToQueue, new MessageCreator() {
             @Override
             public Message createMessage(final Session session) throws JMSException {
-                final ObjectMessage objectMessage = session.createObjectMessage(responseMessage);
-                objectMessage.setJMSCorrelationID(responseMessage.getCorrelationUid());
-                objectMessage.setJMSType(messageType);
-                objectMessage.setJMSPriority(responseMessage.getMessagePriority());
-                objectMessage.setStringProperty(Constants.ORGANISATION_IDENTIFICATION,
+                final Message jmsMessage = createMessage(session, responseMessage, bytesMessage);
+                jmsMessage.setJMSCorrelationID(responseMessage.getCorrelationUid());
+                jmsMessage.setJMSType(messageType);
+                jmsMessage.setJMSPriority(responseMessage.getMessagePriority());
+                jmsMessage.setStringProperty(Constants.ORGANISATION_IDENTIFICATION,
                         responseMessage.getOrganisationIdentification());
-                objectMessage.setStringProperty(Constants.DEVICE_IDENTIFICATION,
+                jmsMessage.setStringProperty(Constants.DEVICE_IDENTIFICATION,
                         responseMessage.getDeviceIdentification());
                 if (responseMessage.getOsgpException() != null) {
-                    objectMessage.setStringProperty(Constants.DESCRIPTION,
+                    jmsMessage.setStringProperty(Constants.DESCRIPTION,
                             responseMessage.getOsgpException().getMessage());
                 }
-                return objectMessage;
+                return jmsMessage;
             }
         });
     }
+
+    private static Message createMessage(final Session session, final Serializable message,
+            final boolean bytesMessage) throws JMSException {
+        if (!bytesMessage) {
+            return session.createObjectMessage(message);
+        }
+        final BytesMessage jmsMessage = session.createBytesMessage();
+        jmsMessage.writeBytes(OslpSigningMessageCodec.encode(message));
+        return jmsMessage;
+    }
 }
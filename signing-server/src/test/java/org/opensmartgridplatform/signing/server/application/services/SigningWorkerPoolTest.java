@@ -0,0 +1,140 @@
+/**
+ * Copyright 2015 Smart Society Services B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.opensmartgridplatform.signing.server.application.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SigningWorkerPoolTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private SigningWorkerPool pool;
+
+    private final CountDownLatch blockerStarted = new CountDownLatch(1);
+
+    private final CountDownLatch releaseBlocker = new CountDownLatch(1);
+
+    @After
+    public void shutdownPool() {
+        this.releaseBlocker.countDown();
+        if (this.pool != null) {
+            this.pool.shutdown();
+        }
+    }
+
+    /**
+     * Occupies the worker of a single threaded pool until the blocker is
+     * released, so the tasks submitted next stay queued.
+     */
+    private CompletableFuture<String> blockWorker() throws InterruptedException {
+        final CompletableFuture<String> blocker = this.pool.submit(0, () -> {
+            this.blockerStarted.countDown();
+            try {
+                this.releaseBlocker.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "blocker";
+        });
+        assertTrue(this.blockerStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return blocker;
+    }
+
+    @Test
+    public void runsHighestPriorityFirst() throws Exception {
+        this.pool = new SigningWorkerPool(1, 10);
+        this.blockWorker();
+
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        final List<CompletableFuture<Boolean>> tasks = new ArrayList<>();
+        tasks.add(this.pool.submit(2, () -> order.add("low")));
+        tasks.add(this.pool.submit(9, () -> order.add("high")));
+        tasks.add(this.pool.submit(5, () -> order.add("medium-1")));
+        tasks.add(this.pool.submit(5, () -> order.add("medium-2")));
+        assertEquals(2, this.pool.getQueueSize(5));
+
+        this.releaseBlocker.countDown();
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[tasks.size()])).get(TIMEOUT_SECONDS,
+                TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList("high", "medium-1", "medium-2", "low"), order);
+        assertEquals(2, this.pool.getCompletedCount(5));
+        assertEquals(2, this.pool.getQueueLatencyHistogram(5).getCount());
+    }
+
+    @Test
+    public void blocksSubmitterWhenQueueIsFull() throws Exception {
+        this.pool = new SigningWorkerPool(1, 1);
+        this.blockWorker();
+        this.pool.submit(4, () -> "queued");
+
+        final CompletableFuture<CompletableFuture<String>> overflow = CompletableFuture
+                .supplyAsync(() -> this.pool.submit(4, () -> "overflow"));
+
+        Thread.sleep(100);
+        assertFalse(overflow.isDone());
+        assertEquals(1, this.pool.getSubmittedCount(4));
+
+        this.releaseBlocker.countDown();
+
+        assertEquals("overflow", overflow.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).get(TIMEOUT_SECONDS,
+                TimeUnit.SECONDS));
+        assertEquals(2, this.pool.getSubmittedCount(4));
+    }
+
+    @Test
+    public void runsQueuedTasksAndRejectsNewTasksAfterShutdown() throws Exception {
+        this.pool = new SigningWorkerPool(1, 10);
+        final CompletableFuture<String> blocker = this.blockWorker();
+        final CompletableFuture<String> queued = this.pool.submit(4, () -> "queued");
+
+        this.releaseBlocker.countDown();
+        this.pool.shutdown();
+
+        assertEquals("blocker", blocker.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("queued", queued.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        try {
+            this.pool.submit(4, () -> "rejected");
+            fail("Expected the task to be rejected");
+        } catch (final RejectedExecutionException e) {
+            assertEquals(1, this.pool.getSubmittedCount(4));
+        }
+    }
+
+    @Test
+    public void completesFutureExceptionallyWhenTaskFails() throws Exception {
+        this.pool = new SigningWorkerPool(1, 10);
+
+        final CompletableFuture<String> failing = this.pool.submit(4, () -> {
+            throw new IllegalStateException("Unable to sign");
+        });
+
+        try {
+            failing.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("Expected the task to fail");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}